@@ -0,0 +1,442 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.crypto.enums.Compression;
+import com.github.hussainderry.crypto.enums.Iterations;
+import com.github.hussainderry.crypto.enums.KeySize;
+import com.github.hussainderry.crypto.enums.SaltSize;
+import com.github.hussainderry.utils.BoundedExecutor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static com.github.hussainderry.crypto.Constants.IV_SIZE;
+
+/**
+ * Encrypts whole directory trees using {@link FileEncryptorAES}.
+ * The PBKDF2 key is derived once per job and shared by all the files, each file still gets its own IV,
+ * taken from a counter {@link NonceSource} by default.
+ * Files are encrypted concurrently, largest files first, and the output keeps the format of {@link FileEncryptorAES}
+ * so every file can be decrypted on its own using {@link FileDecryptorAES}.
+ * @author Hussain Al-Derry
+ */
+public class BatchFileEncryptorAES {
+
+    /** The extension appended to the names of the encrypted files */
+    public static final String ENCRYPTED_FILE_EXTENSION = ".aes";
+
+    private final String password;
+    private final KeySize keySize;
+    private final Iterations iterations;
+    private final SaltSize saltSize;
+    private final Compression compression;
+    private final boolean keyWrapping;
+    private final int parallelism;
+    private final ExecutorService mExecutorService;
+    private final BatchProgressMonitor mProgressMonitor;
+    private final NonceSource mNonceSource;
+
+    private BatchFileEncryptorAES(Builder builder){
+        this.password = builder.password;
+        this.keySize = builder.keySize;
+        this.iterations = builder.iterations;
+        this.saltSize = builder.saltSize;
+        this.compression = builder.compression;
+        this.keyWrapping = builder.keyWrapping;
+        this.parallelism = builder.parallelism;
+        this.mExecutorService = builder.mExecutorService;
+        this.mProgressMonitor = builder.mProgressMonitor;
+        this.mNonceSource = builder.mNonceSource;
+    }
+
+    /**
+     * Encrypts every regular file under the source directory into the target directory, keeping the same tree
+     * structure and appending {@link #ENCRYPTED_FILE_EXTENSION} to the file names.
+     * A file that fails is reported in the result and its partial target is deleted.
+     * @param sourceDirectory The root of the tree to encrypt
+     * @param targetDirectory The directory to write the encrypted tree to
+     * @return {@link BatchResult} describing the job
+     * @throws IllegalArgumentException if any of the arguments is null or the source is not a directory
+     * @throws IllegalStateException if the source tree cannot be read, or if interrupted once the files in flight have finished
+     */
+    public BatchResult encryptDirectory(Path sourceDirectory, Path targetDirectory){
+        if(sourceDirectory == null || targetDirectory == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }else if(!Files.isDirectory(sourceDirectory)){
+            throw new IllegalArgumentException("Source must be a directory");
+        }
+
+        List<SourceFile> files = collectFiles(sourceDirectory);
+        long totalBytes = 0;
+        for(SourceFile file : files){
+            totalBytes += file.size;
+        }
+
+        // Deriving the key once for the whole job
+        FileEncryptorAES mPrototype = FileEncryptorAES.createEncryptorWithCustomSecurityParams(password, keySize, iterations, saltSize);
+        mPrototype.setCompression(compression);
+        mPrototype.setKeyWrapping(keyWrapping);
+        // The key is new for every job, so a fresh counter gives unique IVs without contention
+        mPrototype.setNonceSource(mNonceSource != null ? mNonceSource : NonceSources.counter(IV_SIZE));
+        Queue<FileEncryptorAES> mEncryptors = new ConcurrentLinkedQueue<>();
+        mEncryptors.add(mPrototype);
+
+        ExecutorService mExecutor = mExecutorService != null ? mExecutorService : createDefaultExecutor(parallelism);
+        BoundedExecutor mTasks = new BoundedExecutor(mExecutor, parallelism);
+        Map<Path, Exception> mFailures = new ConcurrentHashMap<>();
+        AtomicInteger filesCompleted = new AtomicInteger();
+        AtomicLong bytesCompleted = new AtomicLong();
+        final long total = totalBytes;
+        final long startTime = System.nanoTime();
+
+        try{
+            for(SourceFile file : files){
+                Path target = targetDirectory.resolve(sourceDirectory.relativize(file.path).toString() + ENCRYPTED_FILE_EXTENSION);
+                mTasks.submit(() -> {
+                    FileEncryptorAES mEncryptor = mEncryptors.poll();
+                    try{
+                        if(mEncryptor == null){
+                            mEncryptor = new FileEncryptorAES(mPrototype);
+                        }
+                        encryptFile(mEncryptor, file.path, target);
+                        bytesCompleted.addAndGet(file.size);
+                    }catch(RuntimeException | IOException e){
+                        mFailures.put(file.path, e);
+                    }finally{
+                        if(mEncryptor != null){
+                            mEncryptors.add(mEncryptor);
+                        }
+                        int done = filesCompleted.incrementAndGet();
+                        long bytes = bytesCompleted.get();
+                        publishProgress(done, files.size(), bytes, total, throughput(bytes, startTime));
+                    }
+                });
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while encrypting", e);
+        }finally{
+            // Waiting for the in-flight files to finish, even when interrupted
+            mTasks.awaitCompletion();
+            if(mExecutorService == null){
+                mExecutor.shutdown();
+            }
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+        return new BatchResult(files.size(), filesCompleted.get() - mFailures.size(), totalBytes, bytesCompleted.get(),
+                elapsed, mFailures);
+    }
+
+    private void encryptFile(FileEncryptorAES mEncryptor, Path source, Path target) throws IOException{
+        Path parent = target.getParent();
+        if(parent != null){
+            Files.createDirectories(parent);
+        }
+        try(BufferedInputStream mInputStream = new BufferedInputStream(Files.newInputStream(source))){
+            OutputStream mTarget = Files.newOutputStream(target);
+            try(BufferedOutputStream mOutputStream = new BufferedOutputStream(mTarget)){
+                mEncryptor.encrypt(mInputStream, mOutputStream);
+            }catch(RuntimeException | IOException e){
+                // Not leaving a partial file behind
+                try{
+                    Files.deleteIfExists(target);
+                }catch(IOException suppressed){
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Lists the regular files under the given directory ordered by size, largest first,
+     * so the big files don't end up running alone at the end of the job
+     */
+    private List<SourceFile> collectFiles(Path sourceDirectory){
+        List<SourceFile> files = new ArrayList<>();
+        try(Stream<Path> mPaths = Files.walk(sourceDirectory)){
+            for(Path path : (Iterable<Path>) mPaths::iterator){
+                if(Files.isRegularFile(path)){
+                    files.add(new SourceFile(path, Files.size(path)));
+                }
+            }
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to read source directory", e);
+        }
+        files.sort((a, b) -> Long.compare(b.size, a.size));
+        return files;
+    }
+
+    private void publishProgress(int filesCompleted, int totalFiles, long bytesCompleted, long totalBytes, double bytesPerSecond){
+        if(mProgressMonitor != null){
+            mProgressMonitor.progressUpdated(filesCompleted, totalFiles, bytesCompleted, totalBytes, bytesPerSecond);
+        }
+    }
+
+    private static double throughput(long bytes, long startTime){
+        long elapsed = System.nanoTime() - startTime;
+        return elapsed > 0 ? (bytes * 1_000_000_000d) / elapsed : 0;
+    }
+
+    /**
+     * Uses a virtual thread per file when the runtime supports it, otherwise a fixed pool of daemon threads.
+     * The number of files in flight is bounded by the job either way.
+     */
+    private static ExecutorService createDefaultExecutor(int parallelism){
+        try{
+            Method mFactory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) mFactory.invoke(null);
+        }catch(ReflectiveOperationException e){
+            return Executors.newFixedThreadPool(parallelism, runnable -> {
+                Thread mThread = new Thread(runnable, "batch-encryptor");
+                mThread.setDaemon(true);
+                return mThread;
+            });
+        }
+    }
+
+    private static final class SourceFile{
+
+        private final Path path;
+        private final long size;
+
+        private SourceFile(Path path, long size){
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The outcome of a batch encryption job
+     */
+    public static final class BatchResult{
+
+        private final int totalFiles;
+        private final int encryptedFiles;
+        private final long totalBytes;
+        private final long encryptedBytes;
+        private final long elapsedNanos;
+        private final Map<Path, Exception> failures;
+
+        private BatchResult(int totalFiles, int encryptedFiles, long totalBytes, long encryptedBytes, long elapsedNanos,
+                            Map<Path, Exception> failures){
+            this.totalFiles = totalFiles;
+            this.encryptedFiles = encryptedFiles;
+            this.totalBytes = totalBytes;
+            this.encryptedBytes = encryptedBytes;
+            this.elapsedNanos = elapsedNanos;
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return The number of files found in the source tree
+         */
+        public int getTotalFiles() {
+            return totalFiles;
+        }
+
+        /**
+         * @return The number of files encrypted successfully
+         */
+        public int getEncryptedFiles() {
+            return encryptedFiles;
+        }
+
+        /**
+         * @return The total size of the source files in bytes
+         */
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        /**
+         * @return The total size of the source files encrypted successfully in bytes
+         */
+        public long getEncryptedBytes() {
+            return encryptedBytes;
+        }
+
+        /**
+         * @return The time the job took in milliseconds
+         */
+        public long getElapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+
+        /**
+         * @return The average throughput of the job in encrypted bytes per second
+         */
+        public double getBytesPerSecond() {
+            return elapsedNanos > 0 ? (encryptedBytes * 1_000_000_000d) / elapsedNanos : 0;
+        }
+
+        /**
+         * @return The files that couldn't be encrypted mapped to the cause
+         */
+        public Map<Path, Exception> getFailures() {
+            return failures;
+        }
+    }
+
+    /**
+     * Builder for BatchFileEncryptorAES
+     */
+    public static class Builder{
+
+        private final String password;
+        private KeySize keySize = KeySize.KEY_256;
+        private Iterations iterations = Iterations.HIGH;
+        private SaltSize saltSize = SaltSize.SALT_128;
+        private Compression compression = Compression.NONE;
+        private boolean keyWrapping;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private ExecutorService mExecutorService;
+        private BatchProgressMonitor mProgressMonitor;
+        private NonceSource mNonceSource;
+
+        /**
+         * Creates a new builder using the high security params of {@link FileEncryptorAES} by default
+         * @param password The base password to use
+         * @throws IllegalArgumentException if the password is null
+         */
+        public Builder(String password){
+            if(password == null){
+                throw new IllegalArgumentException("Password cannot be null");
+            }
+            this.password = password;
+        }
+
+        /**
+         * @param keySize The AES key size
+         * @return The modified builder instance
+         */
+        public Builder keySize(KeySize keySize){
+            this.keySize = keySize;
+            return this;
+        }
+
+        /**
+         * @param iterations The PBKDF2 iterations
+         * @return The modified builder instance
+         */
+        public Builder iterations(Iterations iterations){
+            this.iterations = iterations;
+            return this;
+        }
+
+        /**
+         * @param saltSize The PBKDF2 salt size
+         * @return The modified builder instance
+         */
+        public Builder saltSize(SaltSize saltSize){
+            this.saltSize = saltSize;
+            return this;
+        }
+
+        /**
+         * @param compression The compression applied to the files before encryption
+         * @return The modified builder instance
+         */
+        public Builder compression(Compression compression){
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * @param keyWrapping Whether to encrypt every file under its own key wrapped by the password,
+         *                    see {@link FileEncryptorAES#setKeyWrapping(boolean)}
+         * @return The modified builder instance
+         */
+        public Builder keyWrapping(boolean keyWrapping){
+            this.keyWrapping = keyWrapping;
+            return this;
+        }
+
+        /**
+         * @param parallelism The maximum number of files encrypted at the same time
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if parallelism is less than 1
+         */
+        public Builder parallelism(int parallelism){
+            if(parallelism < 1){
+                throw new IllegalArgumentException("Parallelism must be >= 1");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets the executor to run the jobs on, the executor is not shut down by the encryptor
+         * @param mExecutorService The executor to use
+         * @return The modified builder instance
+         */
+        public Builder executor(ExecutorService mExecutorService){
+            this.mExecutorService = mExecutorService;
+            return this;
+        }
+
+        /**
+         * @param mProgressMonitor The {@link BatchProgressMonitor} to get updated about the status of the jobs
+         * @return The modified builder instance
+         */
+        public Builder progressMonitor(BatchProgressMonitor mProgressMonitor){
+            this.mProgressMonitor = mProgressMonitor;
+            return this;
+        }
+
+        /**
+         * Sets the source of the per file IVs, defaults to a new {@link NonceSources#counter(int)} for every job
+         * @param mNonceSource The nonce source to use
+         * @return The modified builder instance
+         */
+        public Builder nonceSource(NonceSource mNonceSource){
+            this.mNonceSource = mNonceSource;
+            return this;
+        }
+
+        /**
+         * Creates a {@link BatchFileEncryptorAES} using the current builder configurations
+         * @return The configured BatchFileEncryptorAES instance
+         * @throws IllegalArgumentException if any of the security params is null
+         */
+        public BatchFileEncryptorAES build(){
+            if(keySize == null || iterations == null || saltSize == null || compression == null){
+                throw new IllegalArgumentException("Arguments cannot be null");
+            }
+            return new BatchFileEncryptorAES(this);
+        }
+    }
+}
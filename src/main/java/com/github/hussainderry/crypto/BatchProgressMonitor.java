@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+/**
+ * Receives aggregate progress updates from {@link BatchFileEncryptorAES}
+ * @author Hussain Al-Derry
+ */
+public interface BatchProgressMonitor {
+
+    /**
+     * Called every time a file has been processed
+     * @param filesCompleted The number of files processed so far
+     * @param totalFiles The total number of files in the job
+     * @param bytesCompleted The number of source bytes encrypted successfully so far, failed files are not counted
+     * @param totalBytes The total number of source bytes in the job
+     * @param bytesPerSecond The average throughput since the job started
+     */
+    void progressUpdated(int filesCompleted, int totalFiles, long bytesCompleted, long totalBytes, double bytesPerSecond);
+
+}
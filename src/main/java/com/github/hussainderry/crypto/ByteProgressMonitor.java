@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+/**
+ * Receives throttled byte based progress updates, unlike {@link ProgressMonitor} it works on streams of unknown size
+ * @author Hussain Al-Derry
+ */
+public interface ByteProgressMonitor {
+
+    /**
+     * Used to get the process progress
+     * @param progress {@link ProgressInfo} snapshot of the current progress
+     */
+    void progressUpdated(ProgressInfo progress);
+
+}
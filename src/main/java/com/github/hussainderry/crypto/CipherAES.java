@@ -16,32 +16,30 @@
 
 package com.github.hussainderry.crypto;
 
+import com.github.hussainderry.crypto.enums.CryptoFailure;
+import com.github.hussainderry.crypto.enums.CryptoOperation;
+
 import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import static com.github.hussainderry.crypto.Constants.ALGORITHM;
-import static com.github.hussainderry.crypto.Constants.CIPHER_PARAMS;
 import static com.github.hussainderry.crypto.Constants.INT_SIZE;
 import static com.github.hussainderry.crypto.Constants.IV_SIZE;
-import static com.github.hussainderry.crypto.Constants.KEY_DERIVATION_ALGORITHM;
 import static com.github.hussainderry.crypto.Constants.TAG_LENGTH;
 
 /**
+ * The cipher is loaded on first use, or by {@link #warmUp()}, so constructing an instance is cheap.
  * @author Hussain Al-Derry
  * @version 1.0
  * */
@@ -51,27 +49,53 @@ public final class CipherAES{
     private static final int SALT_SIZE = 64; // bits
     private static final int PBKDF2_ITR = 65_536;
 
-    private final SecureRandom mRandom;
-    private final Cipher mCipher;
+    private final NonceSource mNonceSource;
+    private volatile Cipher mCipher;
 
     public CipherAES(){
-        try{
-            mCipher = Cipher.getInstance(CIPHER_PARAMS);
-        }catch(NoSuchAlgorithmException | NoSuchPaddingException e){
-            throw new IllegalStateException("Unable To Initialize Cipher: " + e.getMessage());
+        this(NonceSources.perThreadRandom());
+    }
+
+    /**
+     * @param mNonceSource The source of the IVs, the salts always come from {@link NonceSources#perThreadRandom()}
+     * @throws IllegalArgumentException if the nonce source is null
+     */
+    public CipherAES(NonceSource mNonceSource){
+        if(mNonceSource == null){
+            throw new IllegalArgumentException("Nonce source cannot be null");
         }
-        this.mRandom = new SecureRandom(String.valueOf(System.currentTimeMillis()).getBytes());
+        this.mNonceSource = mNonceSource;
     }
 
-    private SecretKey generateSecretKey(char[] password, byte [] iv){
-        try{
-            KeySpec spec = new PBEKeySpec(password, iv, PBKDF2_ITR, KEY_SIZE); // AES-256
-            SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM);
-            byte[] key = secretKeyFactory.generateSecret(spec).getEncoded();
-            return new SecretKeySpec(key, ALGORITHM);
-        }catch(NoSuchAlgorithmException | InvalidKeySpecException e){
-            throw new IllegalStateException("Unable To Create Secret Key: " + e.getMessage());
+    /**
+     * Loads the cipher now instead of on the first operation
+     * @throws IllegalStateException if there is an error initializing the cipher
+     */
+    public void warmUp(){
+        cipher();
+    }
+
+    private Cipher cipher(){
+        Cipher mLoaded = mCipher;
+        if(mLoaded == null){
+            synchronized(this){
+                mLoaded = mCipher;
+                if(mLoaded == null){
+                    try{
+                        mLoaded = CryptoProviders.newCipher();
+                    }catch(NoSuchAlgorithmException | NoSuchPaddingException e){
+                        throw new IllegalStateException("Unable To Initialize Cipher: " + e.getMessage());
+                    }
+                    mCipher = mLoaded;
+                }
+            }
         }
+        return mLoaded;
+    }
+
+    private SecretKey generateSecretKey(char[] password, byte [] iv){
+        byte[] key = KeyDerivation.pbkdf2(password, iv, PBKDF2_ITR, KEY_SIZE); // AES-256
+        return new SecretKeySpec(key, ALGORITHM);
     }
 
     /**
@@ -92,18 +116,21 @@ public final class CipherAES{
 
         try{
             byte[] salt = new byte[SALT_SIZE];
-            mRandom.nextBytes(salt);
+            NonceSources.perThreadRandom().nextBytes(salt);
             SecretKey mKey = generateSecretKey(password, salt);
 
             byte[] iv = new byte[IV_SIZE];
-            mRandom.nextBytes(iv);
+            mNonceSource.nextBytes(iv);
             GCMParameterSpec mSpec = new GCMParameterSpec(TAG_LENGTH, iv);
 
+            OperationTimer mTimer = OperationTimer.start(CryptoOperation.ENCRYPT);
             byte[] res = null;
-            synchronized(mCipher){
-                mCipher.init(Cipher.ENCRYPT_MODE, mKey, mSpec);
-                res = mCipher.doFinal(data);
+            Cipher mAesCipher = cipher();
+            synchronized(mAesCipher){
+                mAesCipher.init(Cipher.ENCRYPT_MODE, mKey, mSpec);
+                res = mAesCipher.doFinal(data);
             }
+            mTimer.completed(data.length);
 
             ByteBuffer mBuffer = ByteBuffer.allocate(INT_SIZE + SALT_SIZE + INT_SIZE + IV_SIZE + res.length);
             mBuffer.putInt(SALT_SIZE);
@@ -162,13 +189,19 @@ public final class CipherAES{
             byte[] msg = new byte[mBuffer.remaining()];
             mBuffer.get(msg);
 
+            OperationTimer mTimer = OperationTimer.start(CryptoOperation.DECRYPT);
             byte[] res = null;
-            synchronized(mCipher){
-                mCipher.init(Cipher.DECRYPT_MODE, mKey, mSpec);
-                res = mCipher.doFinal(msg);
+            Cipher mAesCipher = cipher();
+            synchronized(mAesCipher){
+                mAesCipher.init(Cipher.DECRYPT_MODE, mKey, mSpec);
+                res = mAesCipher.doFinal(msg);
             }
+            mTimer.completed(res.length);
 
             return res;
+        }catch(AEADBadTagException e){
+            OperationTimer.failed(CryptoOperation.DECRYPT, CryptoFailure.TAG_MISMATCH);
+            throw new IllegalStateException("Unable To Decrypt: " + e.getMessage());
         }catch(InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e){
             throw new IllegalStateException("Unable To Decrypt: " + e.getMessage());
         }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+
+import static com.github.hussainderry.crypto.Constants.BUFFER_SIZE;
+
+/**
+ * Replacement for {@link javax.crypto.CipherInputStream} when decrypting AES-GCM. CipherInputStream sizes its
+ * output buffer using {@link Cipher#getOutputSize(int)}, which for GCM decryption grows with all the cipher text
+ * buffered so far, making the allocations quadratic in the file size. This stream only allocates what the cipher
+ * actually returns, and reports a failed tag check as an {@link IOException}.
+ * @author Hussain Al-Derry
+ */
+final class CipherDecryptingInputStream extends InputStream {
+
+    private final InputStream mSource;
+    private final Cipher mCipher;
+    private final byte[] input = new byte[BUFFER_SIZE];
+    private byte[] output;
+    private int outputPosition;
+    private boolean finished;
+
+    CipherDecryptingInputStream(InputStream mSource, Cipher mCipher) {
+        this.mSource = mSource;
+        this.mCipher = mCipher;
+    }
+
+    @Override
+    public int read() throws IOException{
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException{
+        if(length == 0){
+            return 0;
+        }
+        while(output == null || outputPosition == output.length){
+            if(finished){
+                return -1;
+            }
+            fill();
+        }
+        int count = Math.min(length, output.length - outputPosition);
+        System.arraycopy(output, outputPosition, bytes, offset, count);
+        outputPosition += count;
+        return count;
+    }
+
+    @Override
+    public int available(){
+        return output == null ? 0 : output.length - outputPosition;
+    }
+
+    @Override
+    public void close() throws IOException{
+        mSource.close();
+    }
+
+    private void fill() throws IOException{
+        int read = mSource.read(input);
+        try{
+            if(read == -1){
+                finished = true;
+                output = mCipher.doFinal();
+            }else{
+                output = mCipher.update(input, 0, read);
+            }
+        }catch(GeneralSecurityException e){
+            throw new IOException("Unable to decrypt, the data may have been modified", e);
+        }
+        outputPosition = 0;
+    }
+}
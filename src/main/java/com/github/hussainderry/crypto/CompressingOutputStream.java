@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the data written to it in independent chunks, each chunk is framed as:
+ * [byte type][int raw length][int stored length][stored bytes], and the stream ends with an END frame.
+ * Chunks that don't shrink enough are stored as is. In adaptive mode every incompressible chunk doubles the number
+ * of following chunks that are stored without even trying, so already compressed data costs close to nothing.
+ * @author Hussain Al-Derry
+ */
+final class CompressingOutputStream extends FilterOutputStream {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final byte TYPE_END = 0;
+    static final byte TYPE_STORED = 1;
+    static final byte TYPE_DEFLATED = 2;
+
+    private static final int MAX_SKIPPED_CHUNKS = 32;
+
+    private final DataOutputStream mDataOutputStream;
+    private final Deflater mDeflater;
+    private final boolean adaptive;
+    private final byte[] chunk;
+    private final byte[] compressed;
+    private int chunkLength;
+    private int skipLength;
+    private int chunksToSkip;
+    private boolean closed;
+
+    /**
+     * @param mOutputStream The stream to write the frames to
+     * @param adaptive Whether to back off from compressing after incompressible chunks
+     */
+    CompressingOutputStream(OutputStream mOutputStream, boolean adaptive) {
+        super(mOutputStream);
+        this.mDataOutputStream = new DataOutputStream(mOutputStream);
+        // Favouring throughput, text still shrinks several times at this level
+        this.mDeflater = new Deflater(Deflater.BEST_SPEED);
+        this.adaptive = adaptive;
+        this.chunk = new byte[CHUNK_SIZE];
+        this.compressed = new byte[CHUNK_SIZE];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        chunk[chunkLength++] = (byte) b;
+        if(chunkLength == CHUNK_SIZE){
+            writeChunk();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while(len > 0){
+            int count = Math.min(len, CHUNK_SIZE - chunkLength);
+            System.arraycopy(b, off, chunk, chunkLength, count);
+            chunkLength += count;
+            off += count;
+            len -= count;
+            if(chunkLength == CHUNK_SIZE){
+                writeChunk();
+            }
+        }
+    }
+
+    /**
+     * Flushes the underlying stream, the current chunk is kept until it's full to avoid tiny frames
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed){
+            return;
+        }
+        closed = true;
+        try{
+            if(chunkLength > 0){
+                writeChunk();
+            }
+            mDataOutputStream.writeByte(TYPE_END);
+        }finally{
+            mDeflater.end();
+            super.close();
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        int compressedLength = -1;
+        if(chunksToSkip > 0){
+            chunksToSkip--;
+        }else{
+            compressedLength = deflateChunk();
+            if(adaptive){
+                if(compressedLength < 0){
+                    skipLength = Math.min(MAX_SKIPPED_CHUNKS, Math.max(1, skipLength * 2));
+                    chunksToSkip = skipLength;
+                }else{
+                    skipLength = 0;
+                }
+            }
+        }
+
+        if(compressedLength < 0){
+            writeFrame(TYPE_STORED, chunk, chunkLength);
+        }else{
+            writeFrame(TYPE_DEFLATED, compressed, compressedLength);
+        }
+        chunkLength = 0;
+    }
+
+    /**
+     * @return The compressed length, or -1 if the chunk doesn't save at least 1/16 of its size
+     */
+    private int deflateChunk(){
+        int limit = chunkLength - (chunkLength >> 4);
+        mDeflater.reset();
+        mDeflater.setInput(chunk, 0, chunkLength);
+        mDeflater.finish();
+        int length = 0;
+        while(!mDeflater.finished() && length < limit){
+            length += mDeflater.deflate(compressed, length, limit - length);
+        }
+        return mDeflater.finished() && length < limit ? length : -1;
+    }
+
+    private void writeFrame(byte type, byte[] data, int length) throws IOException {
+        mDataOutputStream.writeByte(type);
+        mDataOutputStream.writeInt(chunkLength);
+        mDataOutputStream.writeInt(length);
+        mDataOutputStream.write(data, 0, length);
+    }
+}
@@ -18,7 +18,7 @@ package com.github.hussainderry.crypto;
 public class Constants {
 
     /* IO Config */
-    public static final int BUFFER_SIZE = 16;
+    public static final int BUFFER_SIZE = 8192;
 
     /* Encryption Config */
     public static final int IV_SIZE = 12;
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.crypto.enums.CryptoFailure;
+import com.github.hussainderry.crypto.enums.CryptoOperation;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link CryptoMetrics} keeping running totals per operation, safe to update from many threads
+ * @author Hussain Al-Derry
+ */
+public final class CountingCryptoMetrics implements CryptoMetrics {
+
+    private static final int OPERATIONS = CryptoOperation.values().length;
+    private static final int FAILURES = CryptoFailure.values().length;
+
+    private final LongAdder keyDerivations = new LongAdder();
+    private final LongAdder keyDerivationNanos = new LongAdder();
+    private final LongAdder[] counts = newAdders(OPERATIONS);
+    private final LongAdder[] bytes = newAdders(OPERATIONS);
+    private final LongAdder[] cipherNanos = newAdders(OPERATIONS);
+    private final LongAdder[] ioNanos = newAdders(OPERATIONS);
+    private final LongAdder[] failures = newAdders(OPERATIONS * FAILURES);
+
+    @Override
+    public void keyDerived(long nanos) {
+        keyDerivations.increment();
+        keyDerivationNanos.add(nanos);
+    }
+
+    @Override
+    public void operationCompleted(CryptoOperation mOperation, long bytes, long cipherNanos, long ioNanos) {
+        int index = mOperation.ordinal();
+        this.counts[index].increment();
+        this.bytes[index].add(bytes);
+        this.cipherNanos[index].add(cipherNanos);
+        this.ioNanos[index].add(ioNanos);
+    }
+
+    @Override
+    public void operationFailed(CryptoOperation mOperation, CryptoFailure mFailure) {
+        failures[mOperation.ordinal() * FAILURES + mFailure.ordinal()].increment();
+    }
+
+    /**
+     * @return The number of keys derived
+     */
+    public long getKeyDerivations(){
+        return keyDerivations.sum();
+    }
+
+    /**
+     * @return The total time spent deriving keys in nanoseconds
+     */
+    public long getKeyDerivationNanos(){
+        return keyDerivationNanos.sum();
+    }
+
+    /**
+     * @param mOperation The operation
+     * @return The number of successful operations
+     */
+    public long getCount(CryptoOperation mOperation){
+        return counts[mOperation.ordinal()].sum();
+    }
+
+    /**
+     * @param mOperation The operation
+     * @return The number of plain bytes processed by successful operations
+     */
+    public long getBytes(CryptoOperation mOperation){
+        return bytes[mOperation.ordinal()].sum();
+    }
+
+    /**
+     * @param mOperation The operation
+     * @return The total time spent in the cipher in nanoseconds
+     */
+    public long getCipherNanos(CryptoOperation mOperation){
+        return cipherNanos[mOperation.ordinal()].sum();
+    }
+
+    /**
+     * @param mOperation The operation
+     * @return The total time spent reading and writing streams in nanoseconds
+     */
+    public long getIoNanos(CryptoOperation mOperation){
+        return ioNanos[mOperation.ordinal()].sum();
+    }
+
+    /**
+     * @param mOperation The operation
+     * @param mFailure The failure
+     * @return The number of times the operation failed with the given failure
+     */
+    public long getFailures(CryptoOperation mOperation, CryptoFailure mFailure){
+        return failures[mOperation.ordinal() * FAILURES + mFailure.ordinal()].sum();
+    }
+
+    /**
+     * Resets all the totals to zero, updates running concurrently may be partially kept
+     */
+    public void reset(){
+        keyDerivations.reset();
+        keyDerivationNanos.reset();
+        resetAll(counts);
+        resetAll(bytes);
+        resetAll(cipherNanos);
+        resetAll(ioNanos);
+        resetAll(failures);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder mBuilder = new StringBuilder("CountingCryptoMetrics{keyDerivations=")
+                .append(getKeyDerivations()).append(", keyDerivationNanos=").append(getKeyDerivationNanos());
+        for(CryptoOperation mOperation : CryptoOperation.values()){
+            mBuilder.append(", ").append(mOperation).append("={count=").append(getCount(mOperation))
+                    .append(", bytes=").append(getBytes(mOperation))
+                    .append(", cipherNanos=").append(getCipherNanos(mOperation))
+                    .append(", ioNanos=").append(getIoNanos(mOperation));
+            for(CryptoFailure mFailure : CryptoFailure.values()){
+                mBuilder.append(", ").append(mFailure).append('=').append(getFailures(mOperation, mFailure));
+            }
+            mBuilder.append('}');
+        }
+        return mBuilder.append('}').toString();
+    }
+
+    private static LongAdder[] newAdders(int count){
+        LongAdder[] mAdders = new LongAdder[count];
+        for(int i = 0; i < count; i++){
+            mAdders[i] = new LongAdder();
+        }
+        return mAdders;
+    }
+
+    private static void resetAll(LongAdder[] mAdders){
+        for(LongAdder mAdder : mAdders){
+            mAdder.reset();
+        }
+    }
+}
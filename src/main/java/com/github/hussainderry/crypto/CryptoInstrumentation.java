@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+/**
+ * Holds the {@link CryptoMetrics} the crypto classes report to.
+ * Instrumentation is disabled by default, in which case the hot paths only pay for a volatile read.
+ * @author Hussain Al-Derry
+ */
+public final class CryptoInstrumentation {
+
+    private static volatile CryptoMetrics metrics;
+
+    private CryptoInstrumentation(){}
+
+    /**
+     * Sets the {@link CryptoMetrics} to report to, replacing the current one
+     * @param mMetrics The metrics implementation
+     * @throws IllegalArgumentException if any of the arguments is null
+     */
+    public static void setMetrics(CryptoMetrics mMetrics){
+        if(mMetrics == null){
+            throw new IllegalArgumentException("Metrics cannot be null");
+        }
+        metrics = mMetrics;
+    }
+
+    /**
+     * Stops reporting measurements
+     */
+    public static void disable(){
+        metrics = null;
+    }
+
+    /**
+     * @return true if a {@link CryptoMetrics} is set
+     */
+    public static boolean isEnabled(){
+        return metrics != null;
+    }
+
+    /**
+     * @return The current {@link CryptoMetrics}, or null if instrumentation is disabled
+     */
+    static CryptoMetrics active(){
+        return metrics;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.crypto.enums.CryptoFailure;
+import com.github.hussainderry.crypto.enums.CryptoOperation;
+
+/**
+ * Receives measurements from the crypto classes once registered with {@link CryptoInstrumentation#setMetrics(CryptoMetrics)}.
+ * Implementations are called on the threads doing the work and must be thread safe and cheap.
+ * @author Hussain Al-Derry
+ */
+public interface CryptoMetrics {
+
+    /**
+     * Called after a PBKDF2 key derivation
+     * @param nanos The time spent deriving the key in nanoseconds
+     */
+    void keyDerived(long nanos);
+
+    /**
+     * Called after an operation completed successfully, the time spent deriving the key is reported separately
+     * @param mOperation The completed operation
+     * @param bytes The number of plain bytes encrypted or decrypted
+     * @param cipherNanos The time spent in the cipher, and the compression if enabled, in nanoseconds
+     * @param ioNanos The time spent reading the source and writing the target in nanoseconds, 0 for in-memory operations
+     */
+    void operationCompleted(CryptoOperation mOperation, long bytes, long cipherNanos, long ioNanos);
+
+    /**
+     * Called when an operation fails
+     * @param mOperation The failed operation
+     * @param mFailure The cause of the failure
+     */
+    void operationFailed(CryptoOperation mOperation, CryptoFailure mFailure);
+
+}
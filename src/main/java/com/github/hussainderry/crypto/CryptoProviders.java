@@ -0,0 +1,240 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.crypto.enums.CryptoProvider;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static com.github.hussainderry.crypto.Constants.ALGORITHM;
+import static com.github.hussainderry.crypto.Constants.CIPHER_PARAMS;
+import static com.github.hussainderry.crypto.Constants.IV_SIZE;
+import static com.github.hussainderry.crypto.Constants.TAG_LENGTH;
+
+/**
+ * Selects the providers used for AES-GCM and PBKDF2 by {@link CipherAES}, {@link FileEncryptorAES},
+ * {@link FileDecryptorAES}, {@link PBKDF2Helper} and the other crypto classes.
+ * The providers can be set explicitly, using the setters or the system properties
+ * {@value #CIPHER_PROVIDER_PROPERTY} and {@value #KEY_DERIVATION_PROVIDER_PROPERTY}, or picked by
+ * {@link #autoSelect()}, which benchmarks the candidates on the running JVM. Setting {@value #AUTO_SELECT_PROPERTY}
+ * to true runs it when the class is loaded. The choice applies to ciphers created afterwards.
+ * @author Hussain Al-Derry
+ */
+public final class CryptoProviders {
+
+    public static final String CIPHER_PROVIDER_PROPERTY = "com.github.hussainderry.crypto.cipherProvider";
+    public static final String KEY_DERIVATION_PROVIDER_PROPERTY = "com.github.hussainderry.crypto.keyDerivationProvider";
+    public static final String AUTO_SELECT_PROPERTY = "com.github.hussainderry.crypto.autoSelect";
+
+    private static final Logger LOGGER = Logger.getLogger(CryptoProviders.class.getName());
+
+    private static final int BENCHMARK_DATA_SIZE = 64 * 1024;
+    private static final int BENCHMARK_ITERATIONS = 1000;
+    private static final int BENCHMARK_KEY_SIZE = 256;
+    private static final int BENCHMARK_ROUNDS = 5;
+
+    private static final CryptoProvider[] CIPHER_CANDIDATES = {CryptoProvider.JCE, CryptoProvider.BOUNCY_CASTLE};
+    private static final CryptoProvider[] KEY_DERIVATION_CANDIDATES =
+            {CryptoProvider.JCE, CryptoProvider.BOUNCY_CASTLE, CryptoProvider.PBKDF2_ENGINE};
+
+    private static volatile CryptoProvider cipherProvider = CryptoProvider.AUTO;
+    private static volatile CryptoProvider keyDerivationProvider = CryptoProvider.AUTO;
+
+    static {
+        try{
+            String cipher = System.getProperty(CIPHER_PROVIDER_PROPERTY);
+            if(cipher != null){
+                setCipherProvider(CryptoProvider.valueOf(cipher.trim()));
+            }
+            String keyDerivation = System.getProperty(KEY_DERIVATION_PROVIDER_PROPERTY);
+            if(keyDerivation != null){
+                setKeyDerivationProvider(CryptoProvider.valueOf(keyDerivation.trim()));
+            }
+        }catch(IllegalArgumentException e){
+            LOGGER.log(Level.WARNING, "Ignoring invalid crypto provider property", e);
+        }
+        if(Boolean.getBoolean(AUTO_SELECT_PROPERTY)){
+            autoSelect();
+        }
+    }
+
+    private CryptoProviders() {
+    }
+
+    /**
+     * @param mProvider The provider for AES-GCM, {@link CryptoProvider#AUTO} uses the JCE
+     * @throws IllegalArgumentException if the provider is null or {@link CryptoProvider#PBKDF2_ENGINE}
+     */
+    public static void setCipherProvider(CryptoProvider mProvider){
+        if(mProvider == null || mProvider == CryptoProvider.PBKDF2_ENGINE){
+            throw new IllegalArgumentException("Invalid cipher provider: " + mProvider);
+        }
+        cipherProvider = mProvider;
+    }
+
+    /**
+     * @return The provider for AES-GCM
+     */
+    public static CryptoProvider getCipherProvider(){
+        return cipherProvider;
+    }
+
+    /**
+     * @param mProvider The provider for PBKDF2
+     * @throws IllegalArgumentException if the provider is null
+     */
+    public static void setKeyDerivationProvider(CryptoProvider mProvider){
+        if(mProvider == null){
+            throw new IllegalArgumentException("Invalid key derivation provider: " + mProvider);
+        }
+        keyDerivationProvider = mProvider;
+    }
+
+    /**
+     * @return The provider for PBKDF2
+     */
+    public static CryptoProvider getKeyDerivationProvider(){
+        return keyDerivationProvider;
+    }
+
+    /**
+     * Benchmarks every candidate provider for AES-GCM and PBKDF2 on the running JVM and selects the fastest one
+     * that produces the same output as the others, logging the measurements and the choice.
+     * Takes a few hundred milliseconds, so it's best run once at startup.
+     */
+    public static void autoSelect(){
+        CryptoProvider mCipher = fastest("AES-GCM", CIPHER_CANDIDATES, CryptoProviders::benchmarkCipher);
+        if(mCipher != null){
+            setCipherProvider(mCipher);
+        }
+        CryptoProvider mKeyDerivation = fastest("PBKDF2", KEY_DERIVATION_CANDIDATES, CryptoProviders::benchmarkKeyDerivation);
+        if(mKeyDerivation != null){
+            setKeyDerivationProvider(mKeyDerivation);
+        }
+    }
+
+    /**
+     * @return A new AES-GCM cipher from the selected provider
+     */
+    static Cipher newCipher() throws NoSuchAlgorithmException, NoSuchPaddingException{
+        return newCipher(cipherProvider);
+    }
+
+    static Provider bouncyCastle(){
+        return BouncyCastleHolder.PROVIDER;
+    }
+
+    private static Cipher newCipher(CryptoProvider mProvider) throws NoSuchAlgorithmException, NoSuchPaddingException{
+        if(mProvider == CryptoProvider.BOUNCY_CASTLE){
+            return Cipher.getInstance(CIPHER_PARAMS, bouncyCastle());
+        }
+        return Cipher.getInstance(CIPHER_PARAMS);
+    }
+
+    /**
+     * Runs the benchmark of each candidate, skipping the ones that fail or disagree with the first successful one
+     * @return The fastest candidate, or null if none succeeded
+     */
+    private static CryptoProvider fastest(String primitive, CryptoProvider[] candidates, Benchmark mBenchmark){
+        Map<CryptoProvider, Long> mTimes = new EnumMap<>(CryptoProvider.class);
+        byte[] reference = null;
+        CryptoProvider mFastest = null;
+        for(CryptoProvider mCandidate : candidates){
+            try{
+                byte[] output = mBenchmark.run(mCandidate);
+                long best = Long.MAX_VALUE;
+                for(int i = 0; i < BENCHMARK_ROUNDS; i++){
+                    long start = System.nanoTime();
+                    mBenchmark.run(mCandidate);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                if(reference == null){
+                    reference = output;
+                }else if(!Arrays.equals(reference, output)){
+                    LOGGER.warning(primitive + " output of " + mCandidate + " doesn't match, skipping it");
+                    continue;
+                }
+                mTimes.put(mCandidate, best);
+                if(mFastest == null || best < mTimes.get(mFastest)){
+                    mFastest = mCandidate;
+                }
+            }catch(GeneralSecurityException | RuntimeException e){
+                LOGGER.log(Level.WARNING, primitive + " provider " + mCandidate + " failed, skipping it", e);
+            }
+        }
+        if(mFastest != null){
+            LOGGER.info(String.format("Selected %s for %s, best times in microseconds: %s",
+                    mFastest, primitive, toMicros(mTimes)));
+        }
+        return mFastest;
+    }
+
+    private static byte[] benchmarkCipher(CryptoProvider mProvider) throws GeneralSecurityException{
+        byte[] key = new byte[BENCHMARK_KEY_SIZE / 8];
+        byte[] iv = new byte[IV_SIZE];
+        byte[] data = new byte[BENCHMARK_DATA_SIZE];
+        Arrays.fill(data, (byte) 0x5A);
+        SecretKeySpec mKey = new SecretKeySpec(key, ALGORITHM);
+        GCMParameterSpec mSpec = new GCMParameterSpec(TAG_LENGTH, iv);
+
+        Cipher mCipher = newCipher(mProvider);
+        mCipher.init(Cipher.ENCRYPT_MODE, mKey, mSpec);
+        byte[] encrypted = mCipher.doFinal(data);
+
+        Cipher mDecipher = newCipher(mProvider);
+        mDecipher.init(Cipher.DECRYPT_MODE, mKey, mSpec);
+        if(!Arrays.equals(data, mDecipher.doFinal(encrypted))){
+            throw new IllegalStateException("Decryption doesn't match");
+        }
+        return encrypted;
+    }
+
+    private static byte[] benchmarkKeyDerivation(CryptoProvider mProvider){
+        byte[] salt = new byte[16];
+        return KeyDerivation.pbkdf2(mProvider, "benchmark".toCharArray(), salt, BENCHMARK_ITERATIONS, BENCHMARK_KEY_SIZE);
+    }
+
+    private static Map<CryptoProvider, Long> toMicros(Map<CryptoProvider, Long> mTimes){
+        Map<CryptoProvider, Long> mMicros = new EnumMap<>(CryptoProvider.class);
+        mTimes.forEach((mProvider, nanos) -> mMicros.put(mProvider, nanos / 1000));
+        return mMicros;
+    }
+
+    private interface Benchmark {
+        byte[] run(CryptoProvider mProvider) throws GeneralSecurityException;
+    }
+
+    /**
+     * Loads BouncyCastle only when it gets used
+     */
+    private static final class BouncyCastleHolder {
+        private static final Provider PROVIDER = new BouncyCastleProvider();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static com.github.hussainderry.crypto.CompressingOutputStream.CHUNK_SIZE;
+import static com.github.hussainderry.crypto.CompressingOutputStream.TYPE_DEFLATED;
+import static com.github.hussainderry.crypto.CompressingOutputStream.TYPE_END;
+import static com.github.hussainderry.crypto.CompressingOutputStream.TYPE_STORED;
+
+/**
+ * Reads the frames written by {@link CompressingOutputStream} and returns the original data
+ * @author Hussain Al-Derry
+ */
+final class DecompressingInputStream extends InputStream {
+
+    private final DataInputStream mDataInputStream;
+    private final Inflater mInflater;
+    private final byte[] chunk;
+    private final byte[] compressed;
+    private int chunkLength;
+    private int position;
+    private boolean finished;
+
+    DecompressingInputStream(InputStream mInputStream) {
+        this.mDataInputStream = new DataInputStream(mInputStream);
+        this.mInflater = new Inflater();
+        this.chunk = new byte[CHUNK_SIZE];
+        this.compressed = new byte[CHUNK_SIZE];
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!fillChunk()){
+            return -1;
+        }
+        return chunk[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0){
+            return 0;
+        }else if(!fillChunk()){
+            return -1;
+        }
+        int count = Math.min(len, chunkLength - position);
+        System.arraycopy(chunk, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return chunkLength - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInflater.end();
+        mDataInputStream.close();
+    }
+
+    /**
+     * @return false if the end frame has been reached
+     */
+    private boolean fillChunk() throws IOException {
+        while(position == chunkLength){
+            if(finished){
+                return false;
+            }
+            readFrame();
+        }
+        return true;
+    }
+
+    private void readFrame() throws IOException {
+        byte type;
+        try{
+            type = mDataInputStream.readByte();
+        }catch(EOFException e){
+            throw new IOException("Truncated compressed stream", e);
+        }
+
+        position = 0;
+        chunkLength = 0;
+        if(type == TYPE_END){
+            finished = true;
+            return;
+        }
+
+        int rawLength = mDataInputStream.readInt();
+        int storedLength = mDataInputStream.readInt();
+        if(rawLength < 0 || rawLength > CHUNK_SIZE || storedLength < 0 || storedLength > CHUNK_SIZE){
+            throw new IOException("Malformed compressed frame");
+        }
+
+        if(type == TYPE_STORED){
+            if(storedLength != rawLength){
+                throw new IOException("Malformed compressed frame");
+            }
+            mDataInputStream.readFully(chunk, 0, rawLength);
+        }else if(type == TYPE_DEFLATED){
+            mDataInputStream.readFully(compressed, 0, storedLength);
+            inflate(storedLength, rawLength);
+        }else{
+            throw new IOException("Unknown compressed frame type: " + type);
+        }
+        chunkLength = rawLength;
+    }
+
+    private void inflate(int storedLength, int rawLength) throws IOException {
+        mInflater.reset();
+        mInflater.setInput(compressed, 0, storedLength);
+        try{
+            int length = 0;
+            while(length < rawLength && !mInflater.finished()){
+                int count = mInflater.inflate(chunk, length, rawLength - length);
+                if(count == 0 && (mInflater.needsInput() || mInflater.needsDictionary())){
+                    break;
+                }
+                length += count;
+            }
+            if(length != rawLength){
+                throw new IOException("Malformed compressed frame");
+            }
+        }catch(DataFormatException e){
+            throw new IOException("Malformed compressed frame", e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+/**
+ * A single key derivation for {@link ParallelKeyDerivation}, pairing a password with the PBKDF2 parameters to use
+ * @author Hussain Al-Derry
+ */
+public final class DerivationRequest {
+
+    private final PBKDF2Helper mHelper;
+    private final String password;
+
+    /**
+     * @param mHelper The PBKDF2 parameters, including the salt
+     * @param password The password to derive the key from
+     * @throws IllegalArgumentException if any of the arguments is null
+     */
+    public DerivationRequest(PBKDF2Helper mHelper, String password) {
+        if(mHelper == null || password == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        this.mHelper = mHelper;
+        this.password = password;
+    }
+
+    /**
+     * @return The PBKDF2 parameters
+     */
+    public PBKDF2Helper getHelper(){
+        return mHelper;
+    }
+
+    /**
+     * @return The password to derive the key from
+     */
+    public String getPassword(){
+        return password;
+    }
+
+    byte[] derive(){
+        return mHelper.createKeyFromPassword(password);
+    }
+}
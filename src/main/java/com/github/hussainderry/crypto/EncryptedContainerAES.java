@@ -0,0 +1,680 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.crypto.enums.Iterations;
+import com.github.hussainderry.crypto.enums.KeySize;
+import com.github.hussainderry.crypto.enums.SaltSize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static com.github.hussainderry.crypto.Constants.ALGORITHM;
+import static com.github.hussainderry.crypto.Constants.BUFFER_SIZE;
+import static com.github.hussainderry.crypto.Constants.INT_SIZE;
+import static com.github.hussainderry.crypto.Constants.IV_SIZE;
+import static com.github.hussainderry.crypto.Constants.TAG_LENGTH;
+
+/**
+ * Stores many small encrypted entries in a single append-only file, with the key derived once per container.
+ *
+ * Every entry is a record encrypted using AES-GCM with its own IV, holding the entry name and data.
+ * Entries are found through an index kept in a memory-mapped file next to the container (same name + ".idx"),
+ * an open addressing hash table of HMAC tags of the names where each slot holds the encrypted record location,
+ * so reading an entry costs one index probe and one record decryption. Writing an entry that already exists
+ * appends a new record and points the index at it.
+ *
+ * The index covers the container up to a recorded length, records appended after that length (e.g. after a crash)
+ * are indexed when the container is opened, and a missing index is rebuilt from the records.
+ * @author Hussain Al-Derry
+ */
+public final class EncryptedContainerAES implements Closeable {
+
+    private static final int MAGIC = 0x46454143;
+    private static final int INDEX_MAGIC = 0x46454149;
+    private static final int VERSION = 1;
+    private static final String INDEX_EXTENSION = ".idx";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final String INDEX_CIPHER_PARAMS = "AES/ECB/NoPadding";
+    private static final byte[] VERIFIER_LABEL = "container-verifier".getBytes(StandardCharsets.UTF_8);
+
+    private static final int INDEX_HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 32;
+    private static final int TAG_SIZE = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int TAG_BYTES = TAG_LENGTH / 8;
+    private static final int MIN_RECORD_LENGTH = IV_SIZE + TAG_BYTES + INT_SIZE; // iv, tag, name length
+
+    private final Path mDataPath;
+    private final Path mIndexPath;
+    private final FileChannel mDataChannel;
+    private final SecretKeySpec mDataKey;
+    private final SecretKeySpec mIndexKey;
+    private final ThreadLocal<Primitives> mPrimitives;
+    private final Queue<Primitives> mCreatedPrimitives = new ConcurrentLinkedQueue<>();
+    private final ReadWriteLock mLock;
+    private final long dataStart;
+
+    private FileChannel mIndexChannel;
+    private MappedByteBuffer mIndex;
+    private int capacity;
+    private int count;
+    private long dataEnd;
+    private volatile boolean closed;
+
+    /**
+     * Opens the container at the given path using the high security params for new containers
+     * @param path The container file, created if it doesn't exist
+     * @param password The password of the container
+     * @return The opened container
+     * @throws IllegalArgumentException if any of the arguments is null
+     * @throws IllegalStateException if the password is wrong, or the container can't be read
+     */
+    public static EncryptedContainerAES open(Path path, String password){
+        return open(path, password, Iterations.HIGH, SaltSize.SALT_128);
+    }
+
+    /**
+     * Opens the container at the given path, the PBKDF2 params are only used when a new container is created
+     * @param path The container file, created if it doesn't exist
+     * @param password The password of the container
+     * @param iterations The PBKDF2 iterations for a new container
+     * @param saltSize The PBKDF2 salt size for a new container
+     * @return The opened container
+     * @throws IllegalArgumentException if any of the arguments is null
+     * @throws IllegalStateException if the password is wrong, or the container can't be read
+     */
+    public static EncryptedContainerAES open(Path path, String password, Iterations iterations, SaltSize saltSize){
+        if(path == null || password == null || iterations == null || saltSize == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        try{
+            return new EncryptedContainerAES(path, password, iterations, saltSize);
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to open container", e);
+        }
+    }
+
+    private EncryptedContainerAES(Path path, String password, Iterations iterations, SaltSize saltSize) throws IOException{
+        this.mDataPath = path;
+        this.mIndexPath = Paths.get(path.toString() + INDEX_EXTENSION);
+        this.mLock = new ReentrantReadWriteLock();
+        this.mDataChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try{
+            PBKDF2Helper mHelper;
+            byte[] verifier = null;
+            long headerLength = 0;
+            if(mDataChannel.size() == 0){
+                mHelper = new PBKDF2Helper.Builder(KeySize.KEY_256).iterations(iterations).saltSize(saltSize).build();
+            }else{
+                ByteBuffer mHeader = readFully(0, INT_SIZE * 3);
+                if(mHeader.getInt() != MAGIC || mHeader.getInt() != VERSION){
+                    throw new IllegalStateException("Not a container file");
+                }
+                byte[] config = readFully(INT_SIZE * 3, mHeader.getInt()).array();
+                mHelper = new PBKDF2Helper.Builder(new String(config, StandardCharsets.UTF_8)).build();
+                long verifierPosition = (INT_SIZE * 3) + config.length;
+                verifier = readFully(verifierPosition + INT_SIZE, readFully(verifierPosition, INT_SIZE).getInt()).array();
+                headerLength = verifierPosition + INT_SIZE + verifier.length;
+            }
+
+            byte[] masterKey = mHelper.createKeyFromPassword(password);
+            this.mDataKey = new SecretKeySpec(deriveSubKey(masterKey, "data"), ALGORITHM);
+            this.mIndexKey = new SecretKeySpec(deriveSubKey(masterKey, "index"), ALGORITHM);
+            Arrays.fill(masterKey, (byte) 0);
+            this.mPrimitives = ThreadLocal.withInitial(this::createPrimitives);
+
+            byte[] expected = mac(VERIFIER_LABEL);
+            if(verifier == null){
+                this.dataStart = writeHeader(mHelper.getPbkdf2Configurations().getBytes(StandardCharsets.UTF_8), expected);
+            }else if(!MessageDigest.isEqual(expected, verifier)){
+                throw new IllegalStateException("Invalid password");
+            }else{
+                this.dataStart = headerLength;
+            }
+            this.dataEnd = mDataChannel.size();
+            openIndex();
+        }catch(IOException | RuntimeException e){
+            closeQuietly();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the entry to the container, replacing any previous entry with the same name
+     * @param name The entry name
+     * @param data The entry data
+     * @throws IllegalArgumentException if any of the arguments is null
+     * @throws IllegalStateException if an IO or encryption error occurs
+     */
+    public void put(String name, byte[] data){
+        if(name == null || data == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] tag = createTag(nameBytes);
+
+        mLock.writeLock().lock();
+        try{
+            byte[] iv = new byte[IV_SIZE];
+            NonceSources.perThreadRandom().nextBytes(iv);
+            ByteBuffer mPlain = ByteBuffer.allocate(INT_SIZE + nameBytes.length + data.length);
+            mPlain.putInt(nameBytes.length).put(nameBytes).put(data);
+            byte[] encrypted = gcm(Cipher.ENCRYPT_MODE, iv, mPlain.array());
+
+            long offset = dataEnd;
+            ByteBuffer mRecord = ByteBuffer.allocate(INT_SIZE + IV_SIZE + encrypted.length);
+            mRecord.putInt(IV_SIZE + encrypted.length).put(iv).put(encrypted);
+            mRecord.flip();
+            writeFully(mRecord, offset);
+            dataEnd = offset + mRecord.capacity();
+
+            index(tag, offset, mRecord.capacity());
+            mIndex.putLong(INT_SIZE * 4, dataEnd);
+        }catch(IOException | AEADBadTagException e){
+            throw new IllegalStateException("Unable to write entry", e);
+        }finally{
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads an entry from the container
+     * @param name The entry name
+     * @return The entry data if it exists, else empty
+     * @throws IllegalArgumentException if the name is null
+     * @throws IllegalStateException if an IO error occurs, or the entry has been tampered with
+     */
+    public Optional<byte[]> get(String name){
+        if(name == null){
+            throw new IllegalArgumentException("Name cannot be null");
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] tag = createTag(nameBytes);
+
+        mLock.readLock().lock();
+        try{
+            int slot = findSlot(tag);
+            if(isEmptySlot(slot)){
+                return Optional.empty();
+            }
+            long[] location = readLocation(slot, tag);
+            ByteBuffer mRecord = readFully(location[0], (int) location[1]);
+            byte[] plain = decryptRecord(mRecord);
+
+            ByteBuffer mPlain = ByteBuffer.wrap(plain);
+            byte[] storedName = new byte[mPlain.getInt()];
+            mPlain.get(storedName);
+            if(!Arrays.equals(nameBytes, storedName)){
+                throw new IllegalStateException("Index doesn't match the entry");
+            }
+            return Optional.of(Arrays.copyOfRange(plain, mPlain.position(), plain.length));
+        }catch(IOException | AEADBadTagException e){
+            throw new IllegalStateException("Unable to read entry", e);
+        }finally{
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param name The entry name
+     * @return true if the container has an entry with the given name
+     */
+    public boolean contains(String name){
+        if(name == null){
+            throw new IllegalArgumentException("Name cannot be null");
+        }
+        byte[] tag = createTag(name.getBytes(StandardCharsets.UTF_8));
+        mLock.readLock().lock();
+        try{
+            return !isEmptySlot(findSlot(tag));
+        }finally{
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of entries in the container
+     */
+    public int size(){
+        mLock.readLock().lock();
+        try{
+            return count;
+        }finally{
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forces the written entries and the index to the storage device
+     * @throws IllegalStateException if an IO error occurs
+     */
+    public void flush(){
+        mLock.writeLock().lock();
+        try{
+            mDataChannel.force(false);
+            mIndex.force();
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to flush container", e);
+        }finally{
+            mLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close(){
+        mLock.writeLock().lock();
+        try{
+            if(mIndex != null){
+                flush();
+            }
+        }finally{
+            closeQuietly();
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /* Index */
+
+    /**
+     * Maps the index file, creating or rebuilding it if needed, then indexes any records appended after it
+     */
+    private void openIndex() throws IOException{
+        long indexedEnd = dataStart;
+        if(Files.exists(mIndexPath)){
+            mapIndex();
+            if(isValidIndex()){
+                capacity = mIndex.getInt(INT_SIZE);
+                count = mIndex.getInt(INT_SIZE * 2);
+                indexedEnd = mIndex.getLong(INT_SIZE * 4);
+            }else{
+                mIndexChannel.close();
+                createIndex(INITIAL_CAPACITY);
+            }
+        }else{
+            createIndex(INITIAL_CAPACITY);
+        }
+        indexRecords(indexedEnd);
+    }
+
+    private boolean isValidIndex(){
+        if(mIndex.capacity() < INDEX_HEADER_SIZE || mIndex.getInt(0) != INDEX_MAGIC){
+            return false;
+        }
+        int storedCapacity = mIndex.getInt(INT_SIZE);
+        int storedCount = mIndex.getInt(INT_SIZE * 2);
+        long indexedEnd = mIndex.getLong(INT_SIZE * 4);
+        return Integer.bitCount(storedCapacity) == 1 && storedCount >= 0 && storedCount < storedCapacity
+                && mIndex.capacity() == INDEX_HEADER_SIZE + ((long) storedCapacity * SLOT_SIZE)
+                && indexedEnd >= dataStart && indexedEnd <= dataEnd;
+    }
+
+    private void mapIndex() throws IOException{
+        mIndexChannel = FileChannel.open(mIndexPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mIndex = mIndexChannel.map(FileChannel.MapMode.READ_WRITE, 0, mIndexChannel.size());
+    }
+
+    /**
+     * Writes an empty index with the given capacity to a temporary file, then moves it in place
+     */
+    private void createIndex(int newCapacity) throws IOException{
+        Path mTemp = Paths.get(mIndexPath.toString() + ".tmp");
+        try(RandomAccessFile mFile = new RandomAccessFile(mTemp.toFile(), "rw")){
+            mFile.setLength(INDEX_HEADER_SIZE + ((long) newCapacity * SLOT_SIZE));
+            mFile.writeInt(INDEX_MAGIC);
+            mFile.writeInt(newCapacity);
+            mFile.writeInt(0);
+            mFile.writeInt(0);
+            mFile.writeLong(dataStart);
+        }
+        Files.move(mTemp, mIndexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        mapIndex();
+        capacity = newCapacity;
+        count = 0;
+    }
+
+    /**
+     * Scans and indexes the records from the given position, truncating a torn record at the end of the file.
+     * A record is torn if it's the last record and fails authentication, or if its length is invalid or runs past
+     * the end of the file while fewer bytes than a record or only zeros follow the length.
+     * A corrupted record in the middle of the file is skipped and the records after it are kept,
+     * any other invalid length fails the scan since the next record can't be found.
+     * @throws IllegalStateException if a record length in the middle of the file is corrupted
+     */
+    private void indexRecords(long position) throws IOException{
+        while(position + INT_SIZE <= dataEnd){
+            int length = readFully(position, INT_SIZE).getInt();
+            if(length < MIN_RECORD_LENGTH || position + INT_SIZE + (long) length > dataEnd){
+                // Only a torn append may be truncated, its data is missing or was never written
+                if(dataEnd - position < INT_SIZE + MIN_RECORD_LENGTH || isZeroFilled(position + INT_SIZE)){
+                    break;
+                }
+                throw new IllegalStateException("Corrupted record at offset " + position);
+            }
+            int recordLength = INT_SIZE + length;
+            byte[] plain;
+            try{
+                plain = decryptRecord(readFully(position, recordLength));
+            }catch(AEADBadTagException e){
+                if(position + recordLength == dataEnd){
+                    break;
+                }
+                // Keeping the records after the corrupted one, its entry reads as its previous value if there is one
+                position += recordLength;
+                continue;
+            }
+            ByteBuffer mPlain = ByteBuffer.wrap(plain);
+            byte[] name = new byte[mPlain.getInt()];
+            mPlain.get(name);
+            index(createTag(name), position, recordLength);
+            position += recordLength;
+        }
+        if(position < dataEnd){
+            mDataChannel.truncate(position);
+            dataEnd = position;
+        }
+        mIndex.putLong(INT_SIZE * 4, dataEnd);
+    }
+
+    /**
+     * @return true if only zeros follow the position, as left by an append interrupted before its data was written
+     */
+    private boolean isZeroFilled(long position) throws IOException{
+        while(position < dataEnd){
+            ByteBuffer mChunk = readFully(position, (int) Math.min(BUFFER_SIZE, dataEnd - position));
+            while(mChunk.hasRemaining()){
+                if(mChunk.get() != 0){
+                    return false;
+                }
+            }
+            position += mChunk.capacity();
+        }
+        return true;
+    }
+
+    private void index(byte[] tag, long offset, int length) throws IOException{
+        int slot = findSlot(tag);
+        if(isEmptySlot(slot)){
+            if((count + 1) * 10L > capacity * 7L){
+                grow();
+                slot = findSlot(tag);
+            }
+            count++;
+            mIndex.putInt(INT_SIZE * 2, count);
+        }
+        writeSlot(slot, tag, encryptLocation(tag, offset, length));
+    }
+
+    /**
+     * Doubles the index capacity, the encrypted locations don't depend on the slot so they are copied as is
+     */
+    private void grow() throws IOException{
+        byte[][] occupied = new byte[count][];
+        int found = 0;
+        for(int slot = 0; slot < capacity; slot++){
+            if(!isEmptySlot(slot)){
+                byte[] entry = new byte[SLOT_SIZE];
+                ByteBuffer mSlot = mIndex.duplicate();
+                mSlot.position(slotPosition(slot));
+                mSlot.get(entry);
+                occupied[found++] = entry;
+            }
+        }
+
+        long indexedEnd = mIndex.getLong(INT_SIZE * 4);
+        mIndexChannel.close();
+        createIndex(capacity * 2);
+        for(int i = 0; i < found; i++){
+            byte[] tag = Arrays.copyOf(occupied[i], TAG_SIZE);
+            writeSlot(findSlot(tag), tag, Arrays.copyOfRange(occupied[i], TAG_SIZE, SLOT_SIZE));
+        }
+        count = found;
+        mIndex.putInt(INT_SIZE * 2, count);
+        mIndex.putLong(INT_SIZE * 4, indexedEnd);
+    }
+
+    /**
+     * @return The slot holding the given tag, or the empty slot where it should be inserted
+     */
+    private int findSlot(byte[] tag){
+        long high = ByteBuffer.wrap(tag).getLong(0);
+        long low = ByteBuffer.wrap(tag).getLong(8);
+        int slot = (int) high & (capacity - 1);
+        while(true){
+            int position = slotPosition(slot);
+            long slotHigh = mIndex.getLong(position);
+            long slotLow = mIndex.getLong(position + 8);
+            if((slotHigh == high && slotLow == low) || (slotHigh == 0 && slotLow == 0)){
+                return slot;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+    }
+
+    private boolean isEmptySlot(int slot){
+        int position = slotPosition(slot);
+        return mIndex.getLong(position) == 0 && mIndex.getLong(position + 8) == 0;
+    }
+
+    private void writeSlot(int slot, byte[] tag, byte[] location){
+        ByteBuffer mSlot = mIndex.duplicate();
+        mSlot.position(slotPosition(slot));
+        mSlot.put(tag);
+        mSlot.put(location);
+    }
+
+    private long[] readLocation(int slot, byte[] tag){
+        byte[] encrypted = new byte[TAG_SIZE];
+        ByteBuffer mSlot = mIndex.duplicate();
+        mSlot.position(slotPosition(slot) + TAG_SIZE);
+        mSlot.get(encrypted);
+        try{
+            ByteBuffer mLocation = ByteBuffer.wrap(primitives().mIndexDecrypt.doFinal(encrypted));
+            long offset = mLocation.getLong();
+            int length = mLocation.getInt();
+            if(mLocation.getInt() != ByteBuffer.wrap(tag).getInt() || offset < dataStart || offset + length > dataEnd){
+                throw new IllegalStateException("Corrupted index");
+            }
+            return new long[]{offset, length};
+        }catch(GeneralSecurityException e){
+            throw new IllegalStateException("Corrupted index", e);
+        }
+    }
+
+    private byte[] encryptLocation(byte[] tag, long offset, int length){
+        ByteBuffer mLocation = ByteBuffer.allocate(TAG_SIZE);
+        mLocation.putLong(offset).putInt(length).putInt(ByteBuffer.wrap(tag).getInt());
+        try{
+            return primitives().mIndexEncrypt.doFinal(mLocation.array());
+        }catch(GeneralSecurityException e){
+            throw new IllegalStateException("Unable to encrypt index", e);
+        }
+    }
+
+    private static int slotPosition(int slot){
+        return INDEX_HEADER_SIZE + (slot * SLOT_SIZE);
+    }
+
+    /* Crypto */
+
+    /**
+     * @return The primitives of the current thread
+     * @throws IllegalStateException if the container is closed
+     */
+    private Primitives primitives(){
+        if(closed){
+            throw new IllegalStateException("Container is closed");
+        }
+        return mPrimitives.get();
+    }
+
+    private Primitives createPrimitives(){
+        try{
+            Primitives mPrimitives = new Primitives();
+            mPrimitives.mMac = Mac.getInstance(MAC_ALGORITHM);
+            mPrimitives.mMac.init(mIndexKey);
+            mPrimitives.mCipher = CryptoProviders.newCipher();
+            mPrimitives.mIndexEncrypt = Cipher.getInstance(INDEX_CIPHER_PARAMS);
+            mPrimitives.mIndexEncrypt.init(Cipher.ENCRYPT_MODE, mIndexKey);
+            mPrimitives.mIndexDecrypt = Cipher.getInstance(INDEX_CIPHER_PARAMS);
+            mPrimitives.mIndexDecrypt.init(Cipher.DECRYPT_MODE, mIndexKey);
+            mCreatedPrimitives.add(mPrimitives);
+            return mPrimitives;
+        }catch(GeneralSecurityException e){
+            throw new IllegalStateException("Unable to initialize cipher", e);
+        }
+    }
+
+    private byte[] createTag(byte[] name){
+        byte[] tag = Arrays.copyOf(mac(name), TAG_SIZE);
+        if(ByteBuffer.wrap(tag).getLong(0) == 0 && ByteBuffer.wrap(tag).getLong(8) == 0){
+            // Reserved for empty slots
+            tag[0] = 1;
+        }
+        return tag;
+    }
+
+    private byte[] mac(byte[] data){
+        return primitives().mMac.doFinal(data);
+    }
+
+    private byte[] gcm(int mode, byte[] iv, byte[] data) throws AEADBadTagException{
+        try{
+            Cipher mCipher = primitives().mCipher;
+            mCipher.init(mode, mDataKey, new GCMParameterSpec(TAG_LENGTH, iv));
+            return mCipher.doFinal(data);
+        }catch(AEADBadTagException e){
+            throw e;
+        }catch(GeneralSecurityException e){
+            throw new IllegalStateException("Unable to process entry", e);
+        }
+    }
+
+    private byte[] decryptRecord(ByteBuffer mRecord) throws AEADBadTagException{
+        int length = mRecord.getInt();
+        byte[] iv = new byte[IV_SIZE];
+        mRecord.get(iv);
+        byte[] encrypted = new byte[length - IV_SIZE];
+        mRecord.get(encrypted);
+        return gcm(Cipher.DECRYPT_MODE, iv, encrypted);
+    }
+
+    private static byte[] deriveSubKey(byte[] masterKey, String label){
+        try{
+            Mac mMac = Mac.getInstance(MAC_ALGORITHM);
+            mMac.init(new SecretKeySpec(masterKey, MAC_ALGORITHM));
+            return mMac.doFinal(label.getBytes(StandardCharsets.UTF_8));
+        }catch(GeneralSecurityException e){
+            throw new IllegalStateException("Unable to derive keys", e);
+        }
+    }
+
+    /* IO */
+
+    private long writeHeader(byte[] config, byte[] verifier) throws IOException{
+        ByteBuffer mHeader = ByteBuffer.allocate((INT_SIZE * 4) + config.length + verifier.length);
+        mHeader.putInt(MAGIC).putInt(VERSION).putInt(config.length).put(config).putInt(verifier.length).put(verifier);
+        mHeader.flip();
+        writeFully(mHeader, 0);
+        mDataChannel.force(true);
+        return mHeader.capacity();
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException{
+        if(length < 0 || position + length > mDataChannel.size()){
+            throw new IOException("Truncated container");
+        }
+        ByteBuffer mBuffer = ByteBuffer.allocate(length);
+        while(mBuffer.hasRemaining()){
+            if(mDataChannel.read(mBuffer, position + mBuffer.position()) < 0){
+                throw new IOException("Truncated container");
+            }
+        }
+        mBuffer.flip();
+        return mBuffer;
+    }
+
+    private void writeFully(ByteBuffer mBuffer, long position) throws IOException{
+        while(mBuffer.hasRemaining()){
+            mDataChannel.write(mBuffer, position + mBuffer.position());
+        }
+    }
+
+    /**
+     * Closes the channels and drops the keyed primitives of every thread, pool threads outlive the container
+     */
+    private void closeQuietly(){
+        closed = true;
+        if(mPrimitives != null){
+            mPrimitives.remove();
+        }
+        Primitives mCreated;
+        while((mCreated = mCreatedPrimitives.poll()) != null){
+            mCreated.clear();
+        }
+        try{
+            mDataChannel.close();
+            if(mIndexChannel != null){
+                mIndexChannel.close();
+            }
+        }catch(IOException e){
+            // Nothing left to do with the channels
+        }
+    }
+
+    /**
+     * The per thread primitives, none of them is thread safe
+     */
+    private static final class Primitives{
+        private Mac mMac;
+        private Cipher mCipher;
+        private Cipher mIndexEncrypt;
+        private Cipher mIndexDecrypt;
+
+        private void clear(){
+            mMac = null;
+            mCipher = null;
+            mIndexEncrypt = null;
+            mIndexDecrypt = null;
+        }
+    }
+}
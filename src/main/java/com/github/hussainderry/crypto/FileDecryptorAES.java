@@ -15,31 +15,37 @@
  */
 package com.github.hussainderry.crypto;
 
+import com.github.hussainderry.crypto.enums.Compression;
+import com.github.hussainderry.crypto.enums.CryptoFailure;
+import com.github.hussainderry.crypto.enums.CryptoOperation;
+
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import static com.github.hussainderry.crypto.Constants.ALGORITHM;
 import static com.github.hussainderry.crypto.Constants.BUFFER_SIZE;
-import static com.github.hussainderry.crypto.Constants.CIPHER_PARAMS;
 import static com.github.hussainderry.crypto.Constants.DIGEST_ALGORITHM;
 import static com.github.hussainderry.crypto.Constants.TAG_LENGTH;
 
 /**
- * Used to decrypt files encrypted with {@link FileEncryptorAES}
+ * Used to decrypt files encrypted with {@link FileEncryptorAES}, including files with a wrapped file key
  * @author Hussain Al-Derry
  */
 public class FileDecryptorAES {
@@ -48,9 +54,14 @@ public class FileDecryptorAES {
     private final MessageDigest mDigest;
     private final String password;
     private ProgressMonitor mProgressMonitor;
+    private ByteProgressMonitor mByteProgressMonitor;
+    private long progressIntervalMillis = ProgressTracker.DEFAULT_INTERVAL_MILLIS;
+    private long progressIntervalBytes = ProgressTracker.DEFAULT_INTERVAL_BYTES;
     private PBKDF2Helper mHelper;
+    private Compression compression;
     private byte[] iv;
     private byte[] key;
+    private byte[] aad;
 
     /**
      * Create a new {@link FileDecryptorAES} using a password
@@ -60,7 +71,7 @@ public class FileDecryptorAES {
     public FileDecryptorAES(String password){
         this.password = password;
         try {
-            this.mAesCipher = Cipher.getInstance(CIPHER_PARAMS);
+            this.mAesCipher = CryptoProviders.newCipher();
             this.mDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
         } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
             throw new IllegalStateException("Unable to initialize cipher", e);
@@ -80,7 +91,36 @@ public class FileDecryptorAES {
     }
 
     /**
-     * Decrypts the source InputStream and writes it to the OutputStream
+     * Set the {@link ByteProgressMonitor} to get throttled updates about the bytes processed, throughput and ETA
+     * @param mProgressMonitor The {@link ByteProgressMonitor} instance to use
+     * @throws IllegalArgumentException if any of the arguments is null
+     */
+    public void setByteProgressMonitor(ByteProgressMonitor mProgressMonitor) {
+        setByteProgressMonitor(mProgressMonitor, ProgressTracker.DEFAULT_INTERVAL_MILLIS, ProgressTracker.DEFAULT_INTERVAL_BYTES);
+    }
+
+    /**
+     * Set the {@link ByteProgressMonitor} to get throttled updates about the bytes processed, throughput and ETA.
+     * An update is published once both the time and the byte intervals have passed since the previous one.
+     * @param mProgressMonitor The {@link ByteProgressMonitor} instance to use
+     * @param intervalMillis The minimum time between two updates in milliseconds
+     * @param intervalBytes The minimum number of bytes processed between two updates
+     * @throws IllegalArgumentException if the monitor is null or an interval is negative
+     */
+    public void setByteProgressMonitor(ByteProgressMonitor mProgressMonitor, long intervalMillis, long intervalBytes) {
+        if(mProgressMonitor == null){
+            throw new IllegalArgumentException("ProgressMonitor cannot be null");
+        }else if(intervalMillis < 0 || intervalBytes < 0){
+            throw new IllegalArgumentException("Progress intervals cannot be negative");
+        }
+        this.mByteProgressMonitor = mProgressMonitor;
+        this.progressIntervalMillis = intervalMillis;
+        this.progressIntervalBytes = intervalBytes;
+    }
+
+    /**
+     * Decrypts the source InputStream and writes it to the OutputStream,
+     * the progress percentage is estimated using {@link BufferedInputStream#available()}
      * @param mInputStream {@link BufferedInputStream} The source to decrypt
      * @param mOutputStream {@link BufferedOutputStream} The target to write the decrypted data to
      * @return long The number of bytes decrypted
@@ -88,97 +128,153 @@ public class FileDecryptorAES {
      * @throws IllegalStateException if there is an IO exception
      */
     public long decrypt(BufferedInputStream mInputStream, BufferedOutputStream mOutputStream){
+        return decrypt(mInputStream, mOutputStream, ProgressInfo.UNKNOWN, true);
+    }
+
+    /**
+     * Decrypts the source InputStream and writes it to the OutputStream
+     * @param mInputStream {@link BufferedInputStream} The source to decrypt
+     * @param mOutputStream {@link BufferedOutputStream} The target to write the decrypted data to
+     * @param totalBytes The size of the decrypted data in bytes used for progress reporting,
+     *                   or {@link ProgressInfo#UNKNOWN} (any value below 1) if unknown
+     * @return long The number of bytes decrypted
+     * @throws IllegalArgumentException if any of the arguments is null
+     * @throws IllegalStateException if there is an IO exception
+     */
+    public long decrypt(BufferedInputStream mInputStream, BufferedOutputStream mOutputStream, long totalBytes){
+        return decrypt(mInputStream, mOutputStream, totalBytes, false);
+    }
+
+    private long decrypt(BufferedInputStream mInputStream, BufferedOutputStream mOutputStream, long totalBytes, boolean estimate){
         if(mInputStream == null || mOutputStream == null){
             throw new IllegalArgumentException("Arguments cannot be null");
         }
         synchronized(mAesCipher){
-            loadEncryptionParams(mInputStream);
-            initParams(password);
+            FileHeader mHeader = loadEncryptionParams(mInputStream);
+            this.key = mHeader.isKeyWrapped() ? unwrapFileKey(mHeader, password) : mHelper.createKeyFromPassword(password);
             setModeDecrypt();
 
-            try(CipherInputStream mAesInputStream = new CipherInputStream(mInputStream, mAesCipher)){
+            OperationTimer mTimer = OperationTimer.start(CryptoOperation.FILE_DECRYPT);
+            InputStream mSource = mTimer.wrap(mInputStream);
+            OutputStream mTarget = mTimer.wrap(mOutputStream);
+
+            try(InputStream mAesInputStream = createBodyStream(mSource)){
 
-                int itr = mInputStream.available() / BUFFER_SIZE;
-                int counter = 0;
+                long total = estimate ? estimateLength(mInputStream) : totalBytes;
+                ProgressTracker mTracker = new ProgressTracker(mProgressMonitor, mByteProgressMonitor, total,
+                        progressIntervalMillis, progressIntervalBytes);
 
+                int read;
                 byte[] buffer = new byte[BUFFER_SIZE];
-                while(mAesInputStream.read(buffer) != -1){
-                    mOutputStream.write(buffer);
-                    publishProgress((counter++ * 100) / itr);
+                while((read = mAesInputStream.read(buffer)) != -1){
+                    mTarget.write(buffer, 0, read);
+                    mTracker.advance(read);
                 }
 
-                mOutputStream.flush();
-                return counter * BUFFER_SIZE;
+                mTarget.flush();
+                mTracker.complete();
+                mTimer.completed(mTracker.getBytesProcessed());
+                return mTracker.getBytesProcessed();
             }catch(IOException e){
+                mTimer.failed(e.getCause() instanceof AEADBadTagException ? CryptoFailure.TAG_MISMATCH : CryptoFailure.IO_ERROR);
                 throw new IllegalStateException(e);
             }
         }
     }
 
     /**
-     * Initialize the encryption parameters
+     * Unwraps the file key of a version 3 file, from the slot with the highest generation the password opens
+     * @param mHeader The header of the file
      * @param password The base password
+     * @return The file key
+     * @throws IllegalStateException if the password opens none of the slots
      */
-    private void initParams(String password){
-        this.key = mHelper.createKeyFromPassword(password);
+    static byte[] unwrapFileKey(FileHeader mHeader, String password){
+        for(FileHeader.KeySlot mSlot : byGeneration(mHeader.getSlots())){
+            byte[] passwordKey = new PBKDF2Helper.Builder(new String(mSlot.getConfig(), StandardCharsets.UTF_8)).build()
+                    .createKeyFromPassword(password);
+            try{
+                byte[] fileKey = mSlot.unwrap(passwordKey, mHeader.getAad());
+                if(fileKey != null){
+                    return fileKey;
+                }
+            }finally{
+                Arrays.fill(passwordKey, (byte) 0);
+            }
+        }
+        OperationTimer.failed(CryptoOperation.FILE_DECRYPT, CryptoFailure.BAD_PASSWORD);
+        throw new IllegalStateException("Invalid password");
+    }
+
+    /**
+     * @param slots The slots of a header, null for empty ones
+     * @return The non empty slots, highest generation first
+     */
+    static List<FileHeader.KeySlot> byGeneration(FileHeader.KeySlot[] slots){
+        List<FileHeader.KeySlot> mSlots = new ArrayList<>(slots.length);
+        for(FileHeader.KeySlot mSlot : slots){
+            if(mSlot != null){
+                mSlots.add(mSlot);
+            }
+        }
+        mSlots.sort((a, b) -> Integer.compare(b.getGeneration(), a.getGeneration()));
+        return mSlots;
     }
 
     /**
      * Loads the encryption params from the encrypted file
      * @param mInputStream The input stream of the encrypted file
+     * @return The header of the file
      * @throws IllegalStateException if an IO exception occurs
      */
-    private void loadEncryptionParams(InputStream mInputStream){
+    private FileHeader loadEncryptionParams(InputStream mInputStream){
         try{
-            // Loading checksum
-            byte[] intBuffer = new byte[4];
-            for(int i = 0; i < 4; i++){
-                intBuffer[i] = (byte) mInputStream.read();
+            FileHeader mHeader = FileHeader.read(mInputStream);
+            this.iv = mHeader.getIv();
+            this.compression = mHeader.getCompression();
+            this.aad = mHeader.getAad();
+            if(mHeader.isKeyWrapped()){
+                return mHeader;
             }
-            int checksumLength = byteArrayToInt(intBuffer);
-            byte[] checksum = new byte[checksumLength];
-            int res = mInputStream.read(checksum);
-            if(res != checksumLength){
-                throw new IllegalStateException("Invalid checksum length");
-            }else if(!validatePasswordChecksum(checksum)){
+            if(!validatePasswordChecksum(mHeader.getChecksum())){
+                OperationTimer.failed(CryptoOperation.FILE_DECRYPT, CryptoFailure.BAD_PASSWORD);
                 throw new IllegalStateException("Invalid password");
             }
-
-            // Loading IV
-            for(int i = 0; i < 4; i++){
-                intBuffer[i] = (byte) mInputStream.read();
-            }
-            int ivLength = byteArrayToInt(intBuffer);
-            iv = new byte[ivLength];
-            res = mInputStream.read(iv);
-            if(res != ivLength){
-                throw new IllegalStateException("Malformed IV");
-            }
-
-            // Loading PBKDF2 configurations
-            for(int i = 0; i < 4; i++){
-                intBuffer[i] = (byte) mInputStream.read();
-            }
-            int configLength = byteArrayToInt(intBuffer);
-            byte[] config = new byte[configLength];
-            res = mInputStream.read(config);
-            if(res != configLength){
-                throw new IllegalStateException("Invalid Config");
-            }
-            this.mHelper = new PBKDF2Helper.Builder(new String(config, StandardCharsets.UTF_8)).build();
-
+            this.mHelper = new PBKDF2Helper.Builder(new String(mHeader.getConfig(), StandardCharsets.UTF_8)).build();
+            return mHeader;
         }catch(IOException e) {
+            OperationTimer.failed(CryptoOperation.FILE_DECRYPT, CryptoFailure.IO_ERROR);
             throw new IllegalStateException("Error reading params", e);
         }
     }
 
     /**
-     * If there is a {@link ProgressMonitor} available, publish progress
-     * @param progress The current progress
+     * Creates the stream the plain data is read from, decompressing it if the file was compressed
+     * @param mInputStream The source stream positioned at the cipher text
+     * @return The stream to read the plain data from
      */
-    private void publishProgress(int progress){
-        if(mProgressMonitor != null){
-            mProgressMonitor.progressUpdated(progress);
+    private InputStream createBodyStream(InputStream mInputStream){
+        InputStream mAesInputStream = new CipherDecryptingInputStream(mInputStream, mAesCipher);
+        if(compression == Compression.NONE){
+            return mAesInputStream;
+        }
+        return new DecompressingInputStream(mAesInputStream);
+    }
+
+    /**
+     * Estimates the length of the decrypted data from the remaining cipher text, only reliable for uncompressed file streams
+     * @param mInputStream The stream to check, positioned after the encryption params
+     * @return The estimated length, or -1 if unknown
+     */
+    private long estimateLength(InputStream mInputStream){
+        try{
+            if(compression != Compression.NONE){
+                return ProgressInfo.UNKNOWN;
+            }
+            long available = mInputStream.available() - (TAG_LENGTH / 8);
+            return available > 0 ? available : ProgressInfo.UNKNOWN;
+        }catch(IOException e){
+            return ProgressInfo.UNKNOWN;
         }
     }
 
@@ -188,6 +284,9 @@ public class FileDecryptorAES {
     private void setModeDecrypt()  {
         try {
             mAesCipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, ALGORITHM), new GCMParameterSpec(TAG_LENGTH, iv));
+            if(aad != null){
+                mAesCipher.updateAAD(aad);
+            }
         } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
             throw new IllegalStateException("Unable to init encryption mode", e);
         }
@@ -202,13 +301,4 @@ public class FileDecryptorAES {
         byte[] passwordChecksum = mDigest.digest(password.getBytes(StandardCharsets.UTF_8));
         return Arrays.equals(passwordChecksum, fileChecksum);
     }
-
-    private int byteArrayToInt(byte[] b){
-        int value = 0;
-        for (int i = 0; i < 4; i++) {
-            int shift = (4 - 1 - i) * 8;
-            value += (b[i] & 0x000000FF) << shift;
-        }
-        return value;
-    }
 }
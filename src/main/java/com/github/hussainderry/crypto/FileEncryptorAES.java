@@ -15,6 +15,9 @@
  */
 package com.github.hussainderry.crypto;
 
+import com.github.hussainderry.crypto.enums.Compression;
+import com.github.hussainderry.crypto.enums.CryptoFailure;
+import com.github.hussainderry.crypto.enums.CryptoOperation;
 import com.github.hussainderry.crypto.enums.Iterations;
 import com.github.hussainderry.crypto.enums.KeySize;
 import com.github.hussainderry.crypto.enums.SaltSize;
@@ -22,13 +25,14 @@ import com.github.hussainderry.crypto.enums.SaltSize;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.util.Arrays;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherOutputStream;
@@ -38,24 +42,29 @@ import javax.crypto.spec.SecretKeySpec;
 
 import static com.github.hussainderry.crypto.Constants.ALGORITHM;
 import static com.github.hussainderry.crypto.Constants.BUFFER_SIZE;
-import static com.github.hussainderry.crypto.Constants.CIPHER_PARAMS;
 import static com.github.hussainderry.crypto.Constants.DIGEST_ALGORITHM;
-import static com.github.hussainderry.crypto.Constants.INT_SIZE;
 import static com.github.hussainderry.crypto.Constants.IV_SIZE;
 import static com.github.hussainderry.crypto.Constants.TAG_LENGTH;
 
 
 /**
- * Used to encrypt files using AES with PBKDF2
+ * Used to encrypt files using AES with PBKDF2.
+ * The key is derived and the cipher loaded by the first encryption, or by {@link #warmUp()}, so creating an encryptor is cheap.
  * @author Hussain Al-Derry
  */
 public class FileEncryptorAES {
 
-    private final Cipher mAesCipher;
-    private final SecureRandom mRandom;
-    private final MessageDigest mDigest;
+    private final Object mLock = new Object();
+    private Cipher mAesCipher;
+    private NonceSource mNonceSource = NonceSources.perThreadRandom();
     private PBKDF2Helper mHelper;
+    private String password;
     private ProgressMonitor mProgressMonitor;
+    private ByteProgressMonitor mByteProgressMonitor;
+    private long progressIntervalMillis = ProgressTracker.DEFAULT_INTERVAL_MILLIS;
+    private long progressIntervalBytes = ProgressTracker.DEFAULT_INTERVAL_BYTES;
+    private Compression compression = Compression.NONE;
+    private boolean keyWrapping;
     private byte[] key;
     private byte[] iv;
     private byte[] checksum;
@@ -65,7 +74,6 @@ public class FileEncryptorAES {
      * AES Key Size: 128, PBKDF2 Salt Size: 32, PBKDF2 Iterations: 1000
      * @param password The base password to use
      * @return configured FileEncryptorAES instance
-     * @throws IllegalStateException if there is an error initializing the cipher
      * @throws IllegalArgumentException if any of the arguments is null
      */
     public static FileEncryptorAES createEncryptorWithMinimumSecurityParams(String password){
@@ -77,7 +85,6 @@ public class FileEncryptorAES {
      * AES Key Size: 192, PBKDF2 Salt Size: 64, PBKDF2 Iterations: 10,000
      * @param password The base password to use
      * @return configured FileEncryptorAES instance
-     * @throws IllegalStateException if there is an error initializing the cipher
      * @throws IllegalArgumentException if any of the arguments is null
      */
     public static FileEncryptorAES createEncryptorWithMediumSecurityParams(String password){
@@ -89,7 +96,6 @@ public class FileEncryptorAES {
      * AES Key Size: 256, PBKDF2 Salt Size: 128, PBKDF2 Iterations: 20,000
      * @param password The base password to use
      * @return configured FileEncryptorAES instance
-     * @throws IllegalStateException if there is an error initializing the cipher
      * @throws IllegalArgumentException if any of the arguments is null
      */
     public static FileEncryptorAES createEncryptorWithHighSecurityParams(String password){
@@ -103,7 +109,6 @@ public class FileEncryptorAES {
      * @param pbkdf2SaltSize The size of salt used by PBKDF2
      * @param pbkdf2Iterations The PBKDF2 iterations
      * @return configured FileEncryptorAES instance
-     * @throws IllegalStateException if there is an error initializing the cipher
      * @throws IllegalArgumentException if any of the arguments is null
      */
     public static FileEncryptorAES createEncryptorWithCustomSecurityParams(String password, KeySize keySize, Iterations pbkdf2Iterations, SaltSize pbkdf2SaltSize){
@@ -119,14 +124,26 @@ public class FileEncryptorAES {
                 .saltSize(pbkdf2SaltSize)
                 .iterations(pbkdf2Iterations)
                 .build();
-        this.mRandom = new SecureRandom();
-        try {
-            this.mAesCipher = Cipher.getInstance(CIPHER_PARAMS);
-            this.mDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-            throw new IllegalStateException("Unable to initialize cipher", e);
+        this.password = password;
+    }
+
+    /**
+     * Creates a new instance sharing the derived key and PBKDF2 configurations of the given encryptor,
+     * but with its own cipher so both instances can encrypt concurrently. Derives the key of the source if needed.
+     * @param source The encryptor to copy the key material from
+     * @throws IllegalStateException if there is an error initializing the cipher
+     */
+    FileEncryptorAES(FileEncryptorAES source){
+        source.warmUp();
+        synchronized(source.mLock){
+            this.mHelper = source.mHelper;
+            this.key = source.key;
+            this.checksum = source.checksum;
+            this.compression = source.compression;
+            this.keyWrapping = source.keyWrapping;
+            this.mNonceSource = source.mNonceSource;
         }
-        initParams(password);
+        this.iv = new byte[IV_SIZE];
     }
 
     /**
@@ -142,81 +159,225 @@ public class FileEncryptorAES {
     }
 
     /**
-     * Initialize the encryption parameters
-     * @param password The base password
+     * Set the {@link ByteProgressMonitor} to get throttled updates about the bytes processed, throughput and ETA
+     * @param mProgressMonitor The {@link ByteProgressMonitor} instance to use
+     * @throws IllegalArgumentException if any of the arguments is null
      */
-    private void initParams(String password){
-        this.key = mHelper.createKeyFromPassword(password);
-        this.checksum = mDigest.digest(password.getBytes(StandardCharsets.UTF_8));
-        this.iv = new byte[IV_SIZE];
+    public void setByteProgressMonitor(ByteProgressMonitor mProgressMonitor) {
+        setByteProgressMonitor(mProgressMonitor, ProgressTracker.DEFAULT_INTERVAL_MILLIS, ProgressTracker.DEFAULT_INTERVAL_BYTES);
     }
 
     /**
-     * Encrypts the source InputStream and writes it to the OutputStream
+     * Set the {@link ByteProgressMonitor} to get throttled updates about the bytes processed, throughput and ETA.
+     * An update is published once both the time and the byte intervals have passed since the previous one.
+     * @param mProgressMonitor The {@link ByteProgressMonitor} instance to use
+     * @param intervalMillis The minimum time between two updates in milliseconds
+     * @param intervalBytes The minimum number of bytes processed between two updates
+     * @throws IllegalArgumentException if the monitor is null or an interval is negative
+     */
+    public void setByteProgressMonitor(ByteProgressMonitor mProgressMonitor, long intervalMillis, long intervalBytes) {
+        if(mProgressMonitor == null){
+            throw new IllegalArgumentException("ProgressMonitor cannot be null");
+        }else if(intervalMillis < 0 || intervalBytes < 0){
+            throw new IllegalArgumentException("Progress intervals cannot be negative");
+        }
+        this.mByteProgressMonitor = mProgressMonitor;
+        this.progressIntervalMillis = intervalMillis;
+        this.progressIntervalBytes = intervalBytes;
+    }
+
+    /**
+     * Set the {@link Compression} applied to the data before encryption, it's recorded in the file header
+     * so {@link FileDecryptorAES} decompresses the data transparently. Defaults to {@link Compression#NONE}
+     * which keeps the output readable by older versions.
+     * @param compression The compression to use
+     * @throws IllegalArgumentException if any of the arguments is null
+     */
+    public void setCompression(Compression compression) {
+        if(compression == null){
+            throw new IllegalArgumentException("Compression cannot be null");
+        }
+        this.compression = compression;
+    }
+
+    /**
+     * Encrypt every file with its own random key, wrapped in the header by the key derived from the password.
+     * The password of such files can be changed without re-encrypting them using {@link FileKeyRotation}.
+     * Disabled by default, since files written this way can't be read by older versions.
+     * @param keyWrapping true to wrap a random file key in the header
+     */
+    public void setKeyWrapping(boolean keyWrapping) {
+        this.keyWrapping = keyWrapping;
+    }
+
+    /**
+     * Set the {@link NonceSource} the per file IVs are drawn from, defaults to {@link NonceSources#perThreadRandom()}.
+     * All files share the encryptor's key, so a {@link NonceSources#counter(int)} source guarantees unique IVs
+     * without drawing randomness per file.
+     * @param mNonceSource The nonce source to use
+     * @throws IllegalArgumentException if any of the arguments is null
+     */
+    public void setNonceSource(NonceSource mNonceSource) {
+        if(mNonceSource == null){
+            throw new IllegalArgumentException("Nonce source cannot be null");
+        }
+        this.mNonceSource = mNonceSource;
+    }
+
+    /**
+     * Derives the key and loads the cipher now instead of on the first encryption
+     * @throws IllegalStateException if there is an error initializing the cipher
+     */
+    public void warmUp(){
+        synchronized(mLock){
+            initialize();
+        }
+    }
+
+    /**
+     * Derives the key from the password and loads the cipher if not done yet, called holding the lock
+     * @throws IllegalStateException if there is an error initializing the cipher
+     */
+    private void initialize(){
+        try{
+            if(key == null){
+                MessageDigest mDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+                this.key = mHelper.createKeyFromPassword(password);
+                this.checksum = mDigest.digest(password.getBytes(StandardCharsets.UTF_8));
+                this.iv = new byte[IV_SIZE];
+                this.password = null;
+            }
+            if(mAesCipher == null){
+                this.mAesCipher = CryptoProviders.newCipher();
+            }
+        }catch(NoSuchAlgorithmException | NoSuchPaddingException e){
+            throw new IllegalStateException("Unable to initialize cipher", e);
+        }
+    }
+
+    /**
+     * Encrypts the source InputStream and writes it to the OutputStream,
+     * the progress percentage is estimated using {@link BufferedInputStream#available()}
      * @param mInputStream {@link BufferedInputStream} The source to encrypt
      * @param mOutputStream {@link BufferedOutputStream} The target to write the encrypted data to
      * @return long The number of bytes encrypted
      * @throws IllegalArgumentException if any of the arguments is null
-     * @throws IllegalStateException if there is an IO exception
+     * @throws IllegalStateException if there is an IO exception or an error initializing the cipher
      */
     public long encrypt(BufferedInputStream mInputStream, BufferedOutputStream mOutputStream){
         if(mInputStream == null || mOutputStream == null){
             throw new IllegalArgumentException("Arguments cannot be null");
         }
-        synchronized(mAesCipher){
-            mRandom.nextBytes(iv);
-            setModeEncrypt();
+        return encrypt(mInputStream, mOutputStream, estimateLength(mInputStream));
+    }
 
-            try(CipherOutputStream mAesOutputStream = new CipherOutputStream(mOutputStream, mAesCipher)){
+    /**
+     * Encrypts the source InputStream and writes it to the OutputStream
+     * @param mInputStream {@link BufferedInputStream} The source to encrypt
+     * @param mOutputStream {@link BufferedOutputStream} The target to write the encrypted data to
+     * @param totalBytes The size of the source in bytes used for progress reporting,
+     *                   or {@link ProgressInfo#UNKNOWN} (any value below 1) if unknown
+     * @return long The number of bytes encrypted
+     * @throws IllegalArgumentException if any of the arguments is null
+     * @throws IllegalStateException if there is an IO exception or an error initializing the cipher
+     */
+    public long encrypt(BufferedInputStream mInputStream, BufferedOutputStream mOutputStream, long totalBytes){
+        if(mInputStream == null || mOutputStream == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        synchronized(mLock){
+            initialize();
+            mNonceSource.nextBytes(iv);
+            byte[] config = mHelper.getPbkdf2Configurations().getBytes(StandardCharsets.UTF_8);
+            FileHeader mHeader;
+            if(keyWrapping){
+                byte[] fileKey = new byte[key.length];
+                NonceSources.perThreadRandom().nextBytes(fileKey);
+                try{
+                    byte[] aad = FileHeader.prefix(compression);
+                    FileHeader.KeySlot mSlot = FileHeader.KeySlot.wrap(1, config, key, fileKey, aad);
+                    mHeader = new FileHeader(compression, iv, new FileHeader.KeySlot[]{mSlot, null});
+                    setModeEncrypt(fileKey);
+                    mAesCipher.updateAAD(aad);
+                }finally{
+                    Arrays.fill(fileKey, (byte) 0);
+                }
+            }else{
+                mHeader = new FileHeader(compression, checksum, iv, config);
+                setModeEncrypt(key);
+                byte[] aad = mHeader.getAad();
+                if(aad != null){
+                    mAesCipher.updateAAD(aad);
+                }
+            }
+
+            OperationTimer mTimer = OperationTimer.start(CryptoOperation.FILE_ENCRYPT);
+            InputStream mSource = mTimer.wrap(mInputStream);
+            OutputStream mTarget = mTimer.wrap(mOutputStream);
 
-                byte[] config = mHelper.getPbkdf2Configurations().getBytes(StandardCharsets.UTF_8);
-                ByteBuffer mBuffer = ByteBuffer.allocate((INT_SIZE * 3) + checksum.length + iv.length + config.length);
-                mBuffer.putInt(checksum.length);
-                mBuffer.put(checksum);
-                mBuffer.putInt(iv.length);
-                mBuffer.put(iv);
-                mBuffer.putInt(config.length);
-                mBuffer.put(config);
+            try(OutputStream mAesOutputStream = createBodyStream(mTarget)){
 
-                mOutputStream.write(mBuffer.array());
-                mOutputStream.flush();
+                mHeader.write(mTarget);
+                mTarget.flush();
 
-                int itr = mInputStream.available() / BUFFER_SIZE;
-                int counter = 0;
+                ProgressTracker mTracker = new ProgressTracker(mProgressMonitor, mByteProgressMonitor, totalBytes,
+                        progressIntervalMillis, progressIntervalBytes);
 
+                int read;
                 byte[] buffer = new byte[BUFFER_SIZE];
-                while(mInputStream.read(buffer) != -1){
-                    mAesOutputStream.write(buffer);
-                    publishProgress((counter++ * 100) / itr);
+                while((read = mSource.read(buffer)) != -1){
+                    mAesOutputStream.write(buffer, 0, read);
+                    mTracker.advance(read);
                 }
 
                 mAesOutputStream.flush();
                 mAesOutputStream.close();
-                mOutputStream.flush();
+                mTarget.flush();
 
-                return counter * BUFFER_SIZE;
+                mTracker.complete();
+                mTimer.completed(mTracker.getBytesProcessed());
+                return mTracker.getBytesProcessed();
             }catch(IOException e){
+                mTimer.failed(CryptoFailure.IO_ERROR);
                 throw new IllegalStateException(e);
             }
         }
     }
 
     /**
-     * If there is a {@link ProgressMonitor} available, publish progress
-     * @param progress The current progress
+     * Creates the stream the plain data is written to, compressing it first if needed
+     * @param mOutputStream The target stream
+     * @return The stream to write the plain data to
      */
-    private void publishProgress(int progress){
-        if(mProgressMonitor != null){
-            mProgressMonitor.progressUpdated(progress);
+    private OutputStream createBodyStream(OutputStream mOutputStream){
+        CipherOutputStream mAesOutputStream = new CipherOutputStream(mOutputStream, mAesCipher);
+        if(compression == Compression.NONE){
+            return mAesOutputStream;
+        }
+        return new CompressingOutputStream(mAesOutputStream, compression == Compression.ADAPTIVE);
+    }
+
+    /**
+     * Estimates the remaining length of the stream, only reliable for file streams
+     * @param mInputStream The stream to check
+     * @return The estimated length, or -1 if unknown
+     */
+    private long estimateLength(BufferedInputStream mInputStream){
+        try{
+            int available = mInputStream.available();
+            return available > 0 ? available : ProgressInfo.UNKNOWN;
+        }catch(IOException e){
+            return ProgressInfo.UNKNOWN;
         }
     }
 
     /**
-     * Initializes the Cipher with the current encryption parameters
+     * Initializes the Cipher with the current IV
+     * @param bodyKey The key the body is encrypted with
      */
-    private void setModeEncrypt()  {
+    private void setModeEncrypt(byte[] bodyKey)  {
         try{
-            mAesCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, ALGORITHM), new GCMParameterSpec(TAG_LENGTH, iv));
+            mAesCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(bodyKey, ALGORITHM), new GCMParameterSpec(TAG_LENGTH, iv));
         }catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
             throw new IllegalStateException("Unable to init encryption mode", e);
         }
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.crypto.enums.Compression;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static com.github.hussainderry.crypto.Constants.ALGORITHM;
+import static com.github.hussainderry.crypto.Constants.INT_SIZE;
+import static com.github.hussainderry.crypto.Constants.IV_SIZE;
+import static com.github.hussainderry.crypto.Constants.TAG_LENGTH;
+
+/**
+ * The header written by {@link FileEncryptorAES} in front of the cipher text.
+ * Version 1 only holds the password checksum, the IV and the PBKDF2 configurations.
+ * Version 2 starts with a magic number followed by the version and the compression, authenticated with the body,
+ * it's only written when a feature that version 1 can't describe is used, so old readers keep working otherwise.
+ * Version 3 encrypts the body with a random file key, wrapped by the password key in one of two fixed size {@link KeySlot}s,
+ * so the password can be changed by rewriting a slot in place. It has no password checksum, the wrapping authenticates it.
+ * @author Hussain Al-Derry
+ */
+final class FileHeader {
+
+    /** Can never be a valid checksum length, which is what version 1 files start with */
+    static final int MAGIC = 0x46454132;
+    static final int VERSION_1 = 1;
+    static final int VERSION_2 = 2;
+    static final int VERSION_3 = 3;
+    /** The size of the magic number, version, compression and slot size, authenticated with the body of version 3 */
+    static final int PREFIX_SIZE = INT_SIZE * 4;
+    static final int SLOT_SIZE = 512;
+    static final int SLOT_COUNT = 2;
+
+    private static final int MAX_FIELD_LENGTH = 64 * 1024;
+
+    private final int version;
+    private final Compression compression;
+    private final byte[] checksum;
+    private final byte[] iv;
+    private final byte[] config;
+    private final KeySlot[] slots;
+
+    FileHeader(Compression compression, byte[] checksum, byte[] iv, byte[] config) {
+        this.version = compression == Compression.NONE ? VERSION_1 : VERSION_2;
+        this.compression = compression;
+        this.checksum = checksum;
+        this.iv = iv;
+        this.config = config;
+        this.slots = null;
+    }
+
+    /**
+     * Creates a version 3 header
+     * @param compression The compression of the body
+     * @param iv The IV of the body
+     * @param slots The key slots, null for empty ones
+     */
+    FileHeader(Compression compression, byte[] iv, KeySlot[] slots) {
+        this.version = VERSION_3;
+        this.compression = compression;
+        this.checksum = null;
+        this.iv = iv;
+        this.config = null;
+        this.slots = slots;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    Compression getCompression() {
+        return compression;
+    }
+
+    byte[] getChecksum() {
+        return checksum;
+    }
+
+    byte[] getIv() {
+        return iv;
+    }
+
+    byte[] getConfig() {
+        return config;
+    }
+
+    /**
+     * @return The key slots of a version 3 header, null for empty ones
+     */
+    KeySlot[] getSlots() {
+        return slots;
+    }
+
+    /**
+     * @return true if the body is encrypted with a wrapped file key
+     */
+    boolean isKeyWrapped() {
+        return version == VERSION_3;
+    }
+
+    /**
+     * @return The additional authenticated data of the body, and the key slots of a version 3 header,
+     * or null for version 1 which authenticates nothing but the body
+     */
+    byte[] getAad() {
+        if(version == VERSION_1){
+            return null;
+        }else if(version == VERSION_2){
+            return ByteBuffer.allocate(INT_SIZE * 3).putInt(MAGIC).putInt(VERSION_2).putInt(compression.getValue()).array();
+        }
+        return prefix(compression);
+    }
+
+    /**
+     * @param index The index of the slot
+     * @return The position of the slot in a version 3 file
+     */
+    static long slotOffset(int index){
+        return PREFIX_SIZE + ((long) index * SLOT_SIZE);
+    }
+
+    static byte[] prefix(Compression compression){
+        return ByteBuffer.allocate(PREFIX_SIZE)
+                .putInt(MAGIC).putInt(VERSION_3).putInt(compression.getValue()).putInt(SLOT_SIZE)
+                .array();
+    }
+
+    /**
+     * Writes the header to the given stream
+     * @param mOutputStream The stream to write to
+     * @throws IOException if an IO error occurs
+     */
+    void write(OutputStream mOutputStream) throws IOException{
+        if(version == VERSION_3){
+            ByteBuffer mBuffer = ByteBuffer.allocate(PREFIX_SIZE + (SLOT_SIZE * SLOT_COUNT) + INT_SIZE + iv.length);
+            mBuffer.put(prefix(compression));
+            for(int i = 0; i < SLOT_COUNT; i++){
+                mBuffer.put(KeySlot.encode(slots[i]));
+            }
+            mBuffer.putInt(iv.length);
+            mBuffer.put(iv);
+            mOutputStream.write(mBuffer.array());
+            return;
+        }
+        byte[] prefix = version == VERSION_1 ? new byte[0] : getAad();
+        ByteBuffer mBuffer = ByteBuffer.allocate(prefix.length + (INT_SIZE * 3) + checksum.length + iv.length + config.length);
+        mBuffer.put(prefix);
+        mBuffer.putInt(checksum.length);
+        mBuffer.put(checksum);
+        mBuffer.putInt(iv.length);
+        mBuffer.put(iv);
+        mBuffer.putInt(config.length);
+        mBuffer.put(config);
+        mOutputStream.write(mBuffer.array());
+    }
+
+    /**
+     * Reads a header of any version from the given stream, leaving the stream positioned at the cipher text
+     * @param mInputStream The stream to read from
+     * @return The loaded header
+     * @throws IllegalStateException if the header is malformed or of an unsupported version
+     * @throws IOException if an IO error occurs
+     */
+    static FileHeader read(InputStream mInputStream) throws IOException{
+        DataInputStream mDataInputStream = new DataInputStream(mInputStream);
+        Compression mCompression = Compression.NONE;
+
+        int checksumLength = mDataInputStream.readInt();
+        if(checksumLength == MAGIC){
+            int version = mDataInputStream.readInt();
+            if(version != VERSION_2 && version != VERSION_3){
+                throw new IllegalStateException("Unsupported file version: " + version);
+            }
+            try{
+                mCompression = Compression.fromValue(mDataInputStream.readInt());
+            }catch(IllegalArgumentException e){
+                throw new IllegalStateException("Malformed header", e);
+            }
+            if(version == VERSION_3){
+                if(mDataInputStream.readInt() != SLOT_SIZE){
+                    throw new IllegalStateException("Malformed header");
+                }
+                KeySlot[] slots = new KeySlot[SLOT_COUNT];
+                byte[] slot = new byte[SLOT_SIZE];
+                for(int i = 0; i < SLOT_COUNT; i++){
+                    mDataInputStream.readFully(slot);
+                    slots[i] = KeySlot.decode(slot);
+                }
+                byte[] iv = readField(mDataInputStream, mDataInputStream.readInt(), "Malformed IV");
+                return new FileHeader(mCompression, iv, slots);
+            }
+            checksumLength = mDataInputStream.readInt();
+        }
+
+        byte[] checksum = readField(mDataInputStream, checksumLength, "Invalid checksum length");
+        byte[] iv = readField(mDataInputStream, mDataInputStream.readInt(), "Malformed IV");
+        byte[] config = readField(mDataInputStream, mDataInputStream.readInt(), "Invalid Config");
+        return new FileHeader(mCompression, checksum, iv, config);
+    }
+
+    private static byte[] readField(DataInputStream mDataInputStream, int length, String error) throws IOException{
+        if(length < 0 || length > MAX_FIELD_LENGTH){
+            throw new IllegalStateException(error);
+        }
+        byte[] field = new byte[length];
+        mDataInputStream.readFully(field);
+        return field;
+    }
+
+    /**
+     * A file key wrapped with AES-GCM by a key derived from the password, along with the PBKDF2 configurations
+     * of the derivation. Slots are written padded to {@link #SLOT_SIZE}, a slot of zeros is empty.
+     * The slot with the highest generation is the current one, the other one is cleared once a rotation is durable.
+     */
+    static final class KeySlot {
+
+        private final int generation;
+        private final byte[] config;
+        private final byte[] wrappedKey;
+
+        private KeySlot(int generation, byte[] config, byte[] wrappedKey) {
+            this.generation = generation;
+            this.config = config;
+            this.wrappedKey = wrappedKey;
+        }
+
+        int getGeneration() {
+            return generation;
+        }
+
+        byte[] getConfig() {
+            return config;
+        }
+
+        /**
+         * Wraps a file key
+         * @param generation The generation of the slot, greater than the one of the slot it replaces
+         * @param config The PBKDF2 configurations of the password key
+         * @param passwordKey The key derived from the password
+         * @param fileKey The key to wrap
+         * @param aad The additional authenticated data of the header
+         * @return The new slot
+         * @throws IllegalStateException if the slot doesn't fit in {@link #SLOT_SIZE} or the cipher fails
+         */
+        static KeySlot wrap(int generation, byte[] config, byte[] passwordKey, byte[] fileKey, byte[] aad){
+            byte[] iv = new byte[IV_SIZE];
+            NonceSources.perThreadRandom().nextBytes(iv);
+            try{
+                Cipher mCipher = CryptoProviders.newCipher();
+                mCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(passwordKey, ALGORITHM), new GCMParameterSpec(TAG_LENGTH, iv));
+                mCipher.updateAAD(slotAad(aad, generation));
+                byte[] sealed = mCipher.doFinal(fileKey);
+                byte[] wrappedKey = Arrays.copyOf(iv, IV_SIZE + sealed.length);
+                System.arraycopy(sealed, 0, wrappedKey, IV_SIZE, sealed.length);
+                KeySlot mSlot = new KeySlot(generation, config, wrappedKey);
+                encode(mSlot);
+                return mSlot;
+            }catch(GeneralSecurityException e){
+                throw new IllegalStateException("Unable to wrap the file key", e);
+            }
+        }
+
+        /**
+         * @param passwordKey The key derived from the password using the configurations of the slot
+         * @param aad The additional authenticated data of the header
+         * @return The file key, or null if the password key doesn't match
+         * @throws IllegalStateException if the cipher fails
+         */
+        byte[] unwrap(byte[] passwordKey, byte[] aad){
+            if(wrappedKey.length <= IV_SIZE){
+                return null;
+            }
+            try{
+                Cipher mCipher = CryptoProviders.newCipher();
+                mCipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(passwordKey, ALGORITHM),
+                        new GCMParameterSpec(TAG_LENGTH, wrappedKey, 0, IV_SIZE));
+                mCipher.updateAAD(slotAad(aad, generation));
+                return mCipher.doFinal(wrappedKey, IV_SIZE, wrappedKey.length - IV_SIZE);
+            }catch(AEADBadTagException e){
+                return null;
+            }catch(GeneralSecurityException e){
+                throw new IllegalStateException("Unable to unwrap the file key", e);
+            }
+        }
+
+        /**
+         * @param mSlot The slot to encode, null for an empty slot
+         * @return The slot padded to {@link #SLOT_SIZE}
+         * @throws IllegalStateException if the slot doesn't fit
+         */
+        static byte[] encode(KeySlot mSlot){
+            ByteBuffer mBuffer = ByteBuffer.allocate(SLOT_SIZE);
+            if(mSlot != null){
+                if((INT_SIZE * 3) + mSlot.config.length + mSlot.wrappedKey.length > SLOT_SIZE){
+                    throw new IllegalStateException("Key slot too large");
+                }
+                mBuffer.putInt(mSlot.generation);
+                mBuffer.putInt(mSlot.config.length);
+                mBuffer.put(mSlot.config);
+                mBuffer.putInt(mSlot.wrappedKey.length);
+                mBuffer.put(mSlot.wrappedKey);
+            }
+            return mBuffer.array();
+        }
+
+        /**
+         * @param slot A slot of {@link #SLOT_SIZE} bytes
+         * @return The decoded slot, or null if it's empty or malformed, as a torn write leaves it
+         */
+        static KeySlot decode(byte[] slot){
+            ByteBuffer mBuffer = ByteBuffer.wrap(slot);
+            int generation = mBuffer.getInt();
+            if(generation <= 0){
+                return null;
+            }
+            int configLength = mBuffer.getInt();
+            if(configLength <= 0 || configLength > mBuffer.remaining() - INT_SIZE){
+                return null;
+            }
+            byte[] config = new byte[configLength];
+            mBuffer.get(config);
+            int keyLength = mBuffer.getInt();
+            if(keyLength <= 0 || keyLength > mBuffer.remaining()){
+                return null;
+            }
+            byte[] wrappedKey = new byte[keyLength];
+            mBuffer.get(wrappedKey);
+            return new KeySlot(generation, config, wrappedKey);
+        }
+
+        private static byte[] slotAad(byte[] aad, int generation){
+            return ByteBuffer.allocate(aad.length + INT_SIZE).put(aad).putInt(generation).array();
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.utils.BoundedExecutor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Changes the password of files encrypted by {@link FileEncryptorAES} with key wrapping enabled,
+ * see {@link FileEncryptorAES#setKeyWrapping(boolean)}. Only the key slots of the header are rewritten, in place,
+ * the encrypted body is left untouched.
+ * The file key is wrapped into the free slot first and forced to disk before the previous slot is cleared,
+ * so an interrupted rotation leaves a file that both passwords open, and running the rotation again completes it.
+ * Keys are derived once per PBKDF2 configuration, files encrypted by the same encryptor share one,
+ * so rotating a directory costs two key derivations plus a few small writes per file.
+ * @author Hussain Al-Derry
+ */
+public class FileKeyRotation {
+
+    private final String oldPassword;
+    private final String newPassword;
+    private final int parallelism;
+    private final ExecutorService mExecutorService;
+
+    private FileKeyRotation(Builder builder){
+        this.oldPassword = builder.oldPassword;
+        this.newPassword = builder.newPassword;
+        this.parallelism = builder.parallelism;
+        this.mExecutorService = builder.mExecutorService;
+    }
+
+    /**
+     * Changes the password of one file
+     * @param file The encrypted file
+     * @throws IllegalArgumentException if the file is null
+     * @throws IllegalStateException if the file key isn't wrapped, neither password opens it or an IO error occurs
+     */
+    public void rotate(Path file){
+        if(file == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        KeyCache mKeys = new KeyCache(oldPassword, newPassword);
+        try{
+            rotate(file, mKeys);
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to rotate " + file, e);
+        }finally{
+            mKeys.clear();
+        }
+    }
+
+    /**
+     * Changes the password of every regular file under the directory, several files at a time
+     * @param directory The root of the tree
+     * @return {@link RotationResult} describing the job
+     * @throws IllegalArgumentException if the directory is null or not a directory
+     * @throws IllegalStateException if the tree cannot be read, or if interrupted once the files in flight have finished
+     */
+    public RotationResult rotateDirectory(Path directory){
+        if(directory == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }else if(!Files.isDirectory(directory)){
+            throw new IllegalArgumentException("Source must be a directory");
+        }
+
+        List<Path> files = new ArrayList<>();
+        try(Stream<Path> mPaths = Files.walk(directory)){
+            for(Path path : (Iterable<Path>) mPaths::iterator){
+                if(Files.isRegularFile(path)){
+                    files.add(path);
+                }
+            }
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to read source directory", e);
+        }
+
+        KeyCache mKeys = new KeyCache(oldPassword, newPassword);
+        ExecutorService mExecutor = mExecutorService != null ? mExecutorService : createDefaultExecutor(parallelism);
+        BoundedExecutor mTasks = new BoundedExecutor(mExecutor, parallelism);
+        Map<Path, Exception> mFailures = new ConcurrentHashMap<>();
+        AtomicInteger filesCompleted = new AtomicInteger();
+        long startTime = System.nanoTime();
+
+        try{
+            for(Path file : files){
+                mTasks.submit(() -> {
+                    try{
+                        rotate(file, mKeys);
+                    }catch(RuntimeException | IOException e){
+                        mFailures.put(file, e);
+                    }finally{
+                        filesCompleted.incrementAndGet();
+                    }
+                });
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while rotating", e);
+        }finally{
+            // Waiting for the in-flight files to finish, even when interrupted
+            mTasks.awaitCompletion();
+            if(mExecutorService == null){
+                mExecutor.shutdown();
+            }
+            mKeys.clear();
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+        return new RotationResult(files.size(), filesCompleted.get() - mFailures.size(), elapsed, mFailures);
+    }
+
+    private void rotate(Path file, KeyCache mKeys) throws IOException{
+        try(FileChannel mChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            // The stream isn't closed, closing it would close the channel
+            FileHeader mHeader = FileHeader.read(Channels.newInputStream(mChannel));
+            if(!mHeader.isKeyWrapped()){
+                throw new IllegalStateException("File key is not wrapped");
+            }
+            FileHeader.KeySlot[] slots = mHeader.getSlots();
+            byte[] aad = mHeader.getAad();
+            List<FileHeader.KeySlot> mCandidates = FileDecryptorAES.byGeneration(slots);
+
+            for(FileHeader.KeySlot mSlot : mCandidates){
+                String config = new String(mSlot.getConfig(), StandardCharsets.UTF_8);
+                byte[] fileKey = mSlot.unwrap(mKeys.oldKey(config), aad);
+                if(fileKey == null){
+                    continue;
+                }
+                try{
+                    int current = Arrays.asList(slots).indexOf(mSlot);
+                    int target = (current + 1) % FileHeader.SLOT_COUNT;
+                    DerivedKey mNewKey = mKeys.newKey(config);
+                    FileHeader.KeySlot mRotated = FileHeader.KeySlot.wrap(mSlot.getGeneration() + 1, mNewKey.config, mNewKey.key, fileKey, aad);
+                    write(mChannel, FileHeader.slotOffset(target), FileHeader.KeySlot.encode(mRotated));
+                    mChannel.force(false);
+                    write(mChannel, FileHeader.slotOffset(current), FileHeader.KeySlot.encode(null));
+                    mChannel.force(false);
+                    return;
+                }finally{
+                    Arrays.fill(fileKey, (byte) 0);
+                }
+            }
+
+            // Completing an interrupted rotation, the new password already opens the current slot
+            for(FileHeader.KeySlot mSlot : mCandidates){
+                String config = new String(mSlot.getConfig(), StandardCharsets.UTF_8);
+                byte[] fileKey = mSlot.unwrap(mKeys.currentNewKey(config), aad);
+                if(fileKey == null){
+                    continue;
+                }
+                Arrays.fill(fileKey, (byte) 0);
+                int current = Arrays.asList(slots).indexOf(mSlot);
+                for(int i = 0; i < FileHeader.SLOT_COUNT; i++){
+                    if(i != current && slots[i] != null){
+                        write(mChannel, FileHeader.slotOffset(i), FileHeader.KeySlot.encode(null));
+                        mChannel.force(false);
+                    }
+                }
+                return;
+            }
+            throw new IllegalStateException("Invalid password");
+        }
+    }
+
+    private static void write(FileChannel mChannel, long position, byte[] data) throws IOException{
+        ByteBuffer mBuffer = ByteBuffer.wrap(data);
+        while(mBuffer.hasRemaining()){
+            position += mChannel.write(mBuffer, position);
+        }
+    }
+
+    private static ExecutorService createDefaultExecutor(int parallelism){
+        return Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread mThread = new Thread(runnable, "key-rotation");
+            mThread.setDaemon(true);
+            return mThread;
+        });
+    }
+
+    private static final class DerivedKey{
+
+        private final byte[] config;
+        private final byte[] key;
+
+        private DerivedKey(byte[] config, byte[] key){
+            this.config = config;
+            this.key = key;
+        }
+    }
+
+    /**
+     * The keys derived during a job, one map per password keyed by the PBKDF2 configurations
+     */
+    private static final class KeyCache{
+
+        private final String oldPassword;
+        private final String newPassword;
+        private final Map<String, byte[]> mOldKeys = new ConcurrentHashMap<>();
+        private final Map<String, byte[]> mCurrentNewKeys = new ConcurrentHashMap<>();
+        private final Map<String, DerivedKey> mNewKeys = new ConcurrentHashMap<>();
+
+        private KeyCache(String oldPassword, String newPassword){
+            this.oldPassword = oldPassword;
+            this.newPassword = newPassword;
+        }
+
+        /**
+         * @return The key derived from the old password using the configurations
+         */
+        byte[] oldKey(String config){
+            return mOldKeys.computeIfAbsent(config,
+                    mKey -> new PBKDF2Helper.Builder(config).build().createKeyFromPassword(oldPassword));
+        }
+
+        /**
+         * @return The key derived from the new password using the configurations of an already rotated slot
+         */
+        byte[] currentNewKey(String config){
+            return mCurrentNewKeys.computeIfAbsent(config,
+                    mKey -> new PBKDF2Helper.Builder(config).build().createKeyFromPassword(newPassword));
+        }
+
+        /**
+         * @return A key derived from the new password with a fresh salt, using the same parameters as the configurations
+         */
+        DerivedKey newKey(String config){
+            PBKDF2Helper mCurrent = new PBKDF2Helper.Builder(config).build();
+            String parameters = mCurrent.getKeySize() + ":" + mCurrent.getSaltSize() + ":" + mCurrent.getIterations();
+            return mNewKeys.computeIfAbsent(parameters, mKey -> {
+                PBKDF2Helper mHelper = new PBKDF2Helper(mCurrent.getKeySize(), mCurrent.getSaltSize(), mCurrent.getIterations());
+                byte[] newConfig = mHelper.getPbkdf2Configurations().getBytes(StandardCharsets.UTF_8);
+                return new DerivedKey(newConfig, mHelper.createKeyFromPassword(newPassword));
+            });
+        }
+
+        void clear(){
+            for(byte[] key : mOldKeys.values()){
+                Arrays.fill(key, (byte) 0);
+            }
+            for(byte[] key : mCurrentNewKeys.values()){
+                Arrays.fill(key, (byte) 0);
+            }
+            for(DerivedKey mKey : mNewKeys.values()){
+                Arrays.fill(mKey.key, (byte) 0);
+            }
+            mOldKeys.clear();
+            mCurrentNewKeys.clear();
+            mNewKeys.clear();
+        }
+    }
+
+    /**
+     * The outcome of a directory rotation
+     */
+    public static final class RotationResult{
+
+        private final int totalFiles;
+        private final int rotatedFiles;
+        private final long elapsedNanos;
+        private final Map<Path, Exception> failures;
+
+        private RotationResult(int totalFiles, int rotatedFiles, long elapsedNanos, Map<Path, Exception> failures){
+            this.totalFiles = totalFiles;
+            this.rotatedFiles = rotatedFiles;
+            this.elapsedNanos = elapsedNanos;
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return The number of files found in the tree
+         */
+        public int getTotalFiles() {
+            return totalFiles;
+        }
+
+        /**
+         * @return The number of files now opened by the new password
+         */
+        public int getRotatedFiles() {
+            return rotatedFiles;
+        }
+
+        /**
+         * @return The time the job took in milliseconds
+         */
+        public long getElapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+
+        /**
+         * @return The files that couldn't be rotated mapped to the cause
+         */
+        public Map<Path, Exception> getFailures() {
+            return failures;
+        }
+    }
+
+    /**
+     * Builder for FileKeyRotation
+     */
+    public static class Builder{
+
+        private final String oldPassword;
+        private final String newPassword;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private ExecutorService mExecutorService;
+
+        /**
+         * @param oldPassword The current password of the files
+         * @param newPassword The password to change to
+         * @throws IllegalArgumentException if any of the arguments is null
+         */
+        public Builder(String oldPassword, String newPassword){
+            if(oldPassword == null || newPassword == null){
+                throw new IllegalArgumentException("Arguments cannot be null");
+            }
+            this.oldPassword = oldPassword;
+            this.newPassword = newPassword;
+        }
+
+        /**
+         * @param parallelism The maximum number of files rotated at the same time
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if parallelism is less than 1
+         */
+        public Builder parallelism(int parallelism){
+            if(parallelism < 1){
+                throw new IllegalArgumentException("Parallelism must be >= 1");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets the executor to run the jobs on, the executor is not shut down by the rotation
+         * @param mExecutorService The executor to use
+         * @return The modified builder instance
+         */
+        public Builder executor(ExecutorService mExecutorService){
+            this.mExecutorService = mExecutorService;
+            return this;
+        }
+
+        /**
+         * @return The configured FileKeyRotation instance
+         */
+        public FileKeyRotation build(){
+            return new FileKeyRotation(this);
+        }
+    }
+}
@@ -16,27 +16,43 @@
 
 package com.github.hussainderry.crypto;
 
+import com.github.hussainderry.crypto.enums.DigestType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+import static com.github.hussainderry.crypto.Constants.BUFFER_SIZE;
+
 /**
+ * Hashing helpers keyed by {@link DigestType}. The one-shot methods reuse a digest instance and read buffer
+ * per thread, so repeated calls don't allocate beyond the returned hash. Use {@link #newHasher(DigestType)}
+ * to hash data that arrives in parts.
  * @author Hussain Al-Derry
- * @version 0.1
+ * @version 0.2
  * */
 public class HashSHA {
 
+    /** Size of the regions mapped at a time when hashing files */
+    static final long MAP_REGION_SIZE = 64L * 1024 * 1024;
+
+    private static final ThreadLocal<MessageDigest[]> DIGESTS =
+            ThreadLocal.withInitial(() -> new MessageDigest[DigestType.values().length]);
+
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
     /**
      * Hashes the given data using SHA-256
      * @param data the byte data to be hashed
      * @return hashed byte array containing the hash
      * */
     public static byte[] hashUsingSHA256(byte[] data){
-        try{
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            return digest.digest(data);
-        }catch(NoSuchAlgorithmException e){
-            throw new IllegalStateException("Unable to hash!");
-        }
+        return hash(DigestType.SHA256, data);
     }
 
     /**
@@ -45,11 +61,167 @@ public class HashSHA {
      * @return hashed byte array containing the hash
      * */
     public static byte[] hashUsingSHA512(byte[] data){
+        return hash(DigestType.SHA512, data);
+    }
+
+    /**
+     * Hashes the given data
+     * @param mDigestType The digest to use
+     * @param data The data to hash
+     * @return The hash
+     * @throws IllegalArgumentException if any of the arguments is null
+     */
+    public static byte[] hash(DigestType mDigestType, byte[] data){
+        if(data == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        return hash(mDigestType, data, 0, data.length);
+    }
+
+    /**
+     * Hashes a range of the given data
+     * @param mDigestType The digest to use
+     * @param data The data to hash
+     * @param offset The offset of the range
+     * @param length The length of the range
+     * @return The hash
+     * @throws IllegalArgumentException if any of the arguments is null
+     */
+    public static byte[] hash(DigestType mDigestType, byte[] data, int offset, int length){
+        if(data == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        MessageDigest mDigest = threadDigest(mDigestType);
+        mDigest.update(data, offset, length);
+        return mDigest.digest();
+    }
+
+    /**
+     * Hashes the remaining bytes of the given buffer, leaving its position at its limit
+     * @param mDigestType The digest to use
+     * @param mBuffer The data to hash, heap or direct
+     * @return The hash
+     * @throws IllegalArgumentException if any of the arguments is null
+     */
+    public static byte[] hash(DigestType mDigestType, ByteBuffer mBuffer){
+        if(mBuffer == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        MessageDigest mDigest = threadDigest(mDigestType);
         try{
-            MessageDigest digest = MessageDigest.getInstance("SHA-512");
-            return digest.digest(data);
+            mDigest.update(mBuffer);
+            return mDigest.digest();
+        }finally{
+            mDigest.reset();
+        }
+    }
+
+    /**
+     * Hashes the stream until its end, the stream is not closed
+     * @param mDigestType The digest to use
+     * @param mInputStream The stream to hash
+     * @return The hash
+     * @throws IllegalArgumentException if any of the arguments is null
+     * @throws IllegalStateException if the stream can't be read
+     */
+    public static byte[] hash(DigestType mDigestType, InputStream mInputStream){
+        if(mInputStream == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        MessageDigest mDigest = threadDigest(mDigestType);
+        byte[] buffer = BUFFERS.get();
+        try{
+            int read;
+            while((read = mInputStream.read(buffer)) != -1){
+                mDigest.update(buffer, 0, read);
+            }
+            return mDigest.digest();
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to read stream", e);
+        }finally{
+            // Not leaving a partial digest to the next hash on this thread, whatever was thrown
+            mDigest.reset();
+        }
+    }
+
+    /**
+     * Hashes the whole content of the channel by memory-mapping it region by region,
+     * the channel position is not changed
+     * @param mDigestType The digest to use
+     * @param mChannel The channel to hash
+     * @return The hash
+     * @throws IllegalArgumentException if any of the arguments is null
+     * @throws IllegalStateException if the channel can't be read
+     */
+    public static byte[] hash(DigestType mDigestType, FileChannel mChannel){
+        if(mChannel == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        MessageDigest mDigest = threadDigest(mDigestType);
+        try{
+            long size = mChannel.size();
+            for(long position = 0; position < size; position += MAP_REGION_SIZE){
+                mDigest.update(mChannel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_REGION_SIZE, size - position)));
+            }
+            return mDigest.digest();
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to read channel", e);
+        }finally{
+            mDigest.reset();
+        }
+    }
+
+    /**
+     * Hashes the file at the given path using memory-mapped reads
+     * @param mDigestType The digest to use
+     * @param path The file to hash
+     * @return The hash
+     * @throws IllegalArgumentException if any of the arguments is null
+     * @throws IllegalStateException if the file can't be read
+     */
+    public static byte[] hash(DigestType mDigestType, Path path){
+        if(path == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        try(FileChannel mChannel = FileChannel.open(path, StandardOpenOption.READ)){
+            return hash(mDigestType, mChannel);
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to read file", e);
+        }
+    }
+
+    /**
+     * Creates a hasher for data that arrives in parts, the hasher is not thread-safe
+     * @param mDigestType The digest to use
+     * @return A new hasher
+     * @throws IllegalArgumentException if the digest type is null
+     */
+    public static Hasher newHasher(DigestType mDigestType){
+        return new Hasher(mDigestType, newDigest(mDigestType));
+    }
+
+    static MessageDigest newDigest(DigestType mDigestType){
+        if(mDigestType == null){
+            throw new IllegalArgumentException("Digest type cannot be null");
+        }
+        try{
+            return MessageDigest.getInstance(mDigestType.getAlgorithm());
         }catch(NoSuchAlgorithmException e){
-            throw new IllegalStateException("Unable to hash!");
+            throw new IllegalStateException("Unable to hash!", e);
+        }
+    }
+
+    private static MessageDigest threadDigest(DigestType mDigestType){
+        if(mDigestType == null){
+            throw new IllegalArgumentException("Digest type cannot be null");
+        }
+        MessageDigest[] digests = DIGESTS.get();
+        MessageDigest mDigest = digests[mDigestType.ordinal()];
+        if(mDigest == null){
+            mDigest = newDigest(mDigestType);
+            digests[mDigestType.ordinal()] = mDigest;
         }
+        return mDigest;
     }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.crypto.enums.DigestType;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * Incremental hashing, created by {@link HashSHA#newHasher(DigestType)}.
+ * A hasher is reset after each {@link #digest()} and can be reused, but it is not thread-safe.
+ * @author Hussain Al-Derry
+ */
+public final class Hasher {
+
+    private final DigestType mDigestType;
+    private final MessageDigest mDigest;
+
+    Hasher(DigestType mDigestType, MessageDigest mDigest) {
+        this.mDigestType = mDigestType;
+        this.mDigest = mDigest;
+    }
+
+    /**
+     * @param data The data to add
+     * @return This hasher
+     * @throws IllegalArgumentException if the data is null
+     */
+    public Hasher update(byte[] data){
+        if(data == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        mDigest.update(data);
+        return this;
+    }
+
+    /**
+     * @param data The data to add
+     * @param offset The offset of the range to add
+     * @param length The length of the range to add
+     * @return This hasher
+     * @throws IllegalArgumentException if the data is null
+     */
+    public Hasher update(byte[] data, int offset, int length){
+        if(data == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        mDigest.update(data, offset, length);
+        return this;
+    }
+
+    /**
+     * Adds the remaining bytes of the buffer, leaving its position at its limit
+     * @param mBuffer The data to add, heap or direct
+     * @return This hasher
+     * @throws IllegalArgumentException if the buffer is null
+     */
+    public Hasher update(ByteBuffer mBuffer){
+        if(mBuffer == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        mDigest.update(mBuffer);
+        return this;
+    }
+
+    /**
+     * Completes the hash and resets the hasher
+     * @return The hash
+     */
+    public byte[] digest(){
+        return mDigest.digest();
+    }
+
+    /**
+     * Discards the data added so far
+     */
+    public void reset(){
+        mDigest.reset();
+    }
+
+    /**
+     * @return The digest used by this hasher
+     */
+    public DigestType getDigestType(){
+        return mDigestType;
+    }
+}
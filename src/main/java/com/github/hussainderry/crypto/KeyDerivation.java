@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.crypto.enums.CryptoProvider;
+import com.github.hussainderry.crypto.enums.DigestType;
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import static com.github.hussainderry.crypto.Constants.KEY_DERIVATION_ALGORITHM;
+
+/**
+ * Runs PBKDF2-HMAC-SHA256 using the provider selected in {@link CryptoProviders}.
+ * With {@link CryptoProvider#AUTO}, {@link PBKDF2Engine} is used unless the JVM compiles SHA-256 to CPU instructions,
+ * in which case the JCE implementation is faster despite its per iteration overhead.
+ * @author Hussain Al-Derry
+ */
+final class KeyDerivation {
+
+    private static final boolean SHA_INTRINSICS = hasVmOption("UseSHA256Intrinsics");
+
+    private static final ThreadLocal<SecretKeyFactory> JCE_FACTORY =
+            ThreadLocal.withInitial(() -> createFactory(CryptoProvider.JCE));
+
+    private static final ThreadLocal<SecretKeyFactory> BC_FACTORY =
+            ThreadLocal.withInitial(() -> createFactory(CryptoProvider.BOUNCY_CASTLE));
+
+    private KeyDerivation() {
+    }
+
+    /**
+     * Derives a key using PBKDF2-HMAC-SHA256 and the selected provider
+     * @param password The password
+     * @param salt The salt
+     * @param iterations The number of iterations
+     * @param keySize The size of the key to derive in bits
+     * @return The derived key
+     * @throws IllegalStateException if the key can't be derived
+     */
+    static byte[] pbkdf2(char[] password, byte[] salt, int iterations, int keySize){
+        return pbkdf2(CryptoProviders.getKeyDerivationProvider(), password, salt, iterations, keySize);
+    }
+
+    /**
+     * Same as {@link #pbkdf2(char[], byte[], int, int)}, using the given provider
+     */
+    static byte[] pbkdf2(CryptoProvider mProvider, char[] password, byte[] salt, int iterations, int keySize){
+        CryptoMetrics mMetrics = CryptoInstrumentation.active();
+        if(mMetrics == null){
+            return derive(mProvider, password, salt, iterations, keySize);
+        }
+        long start = System.nanoTime();
+        byte[] key = derive(mProvider, password, salt, iterations, keySize);
+        mMetrics.keyDerived(System.nanoTime() - start);
+        return key;
+    }
+
+    private static byte[] derive(CryptoProvider mProvider, char[] password, byte[] salt, int iterations, int keySize){
+        if(mProvider == CryptoProvider.AUTO){
+            mProvider = SHA_INTRINSICS ? CryptoProvider.JCE : CryptoProvider.PBKDF2_ENGINE;
+        }
+        if(mProvider == CryptoProvider.PBKDF2_ENGINE){
+            return PBKDF2Engine.getInstance(DigestType.SHA256).deriveKey(password, salt, iterations, keySize);
+        }
+
+        SecretKeyFactory mFactory = mProvider == CryptoProvider.BOUNCY_CASTLE ? BC_FACTORY.get() : JCE_FACTORY.get();
+        PBEKeySpec mSpec = new PBEKeySpec(password, salt, iterations, keySize);
+        try{
+            return mFactory.generateSecret(mSpec).getEncoded();
+        }catch(InvalidKeySpecException e){
+            throw new IllegalStateException("Unable to create encryption key", e);
+        }finally{
+            mSpec.clearPassword();
+        }
+    }
+
+    private static SecretKeyFactory createFactory(CryptoProvider mProvider){
+        try{
+            if(mProvider == CryptoProvider.BOUNCY_CASTLE){
+                return SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM, CryptoProviders.bouncyCastle());
+            }
+            return SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM);
+        }catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException("Unable to create encryption key", e);
+        }
+    }
+
+    private static boolean hasVmOption(String option){
+        try{
+            HotSpotDiagnosticMXBean mBean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return mBean != null && Boolean.parseBoolean(mBean.getVMOption(option).getValue());
+        }catch(RuntimeException | LinkageError e){
+            // Not a HotSpot VM, or the option doesn't exist
+            return false;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.crypto.enums.CryptoFailure;
+import com.github.hussainderry.crypto.enums.CryptoOperation;
+
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static com.github.hussainderry.crypto.Constants.ALGORITHM;
+import static com.github.hussainderry.crypto.Constants.IV_SIZE;
+import static com.github.hussainderry.crypto.Constants.TAG_LENGTH;
+
+/**
+ * AES-GCM using an already derived key, for callers that derive the key once and encrypt many small messages.
+ * Each message is encrypted with a fresh nonce and can be bound to a context through the additional authenticated data.
+ * The output is the nonce followed by the cipher text and the tag. Instances are thread safe.
+ * @author Hussain Al-Derry
+ */
+public final class KeyedCipherAES {
+
+    /** The number of bytes added to each message */
+    public static final int OVERHEAD = IV_SIZE + TAG_LENGTH / 8;
+
+    private final SecretKeySpec mKey;
+    private final NonceSource mNonceSource;
+    private final ThreadLocal<Cipher> mCiphers = ThreadLocal.withInitial(KeyedCipherAES::createCipher);
+
+    /**
+     * Create a new {@link KeyedCipherAES} using random nonces
+     * @param key The AES key, 16, 24 or 32 bytes
+     * @throws IllegalArgumentException if the key is null or has an invalid size
+     */
+    public KeyedCipherAES(byte[] key){
+        this(key, NonceSources.perThreadRandom());
+    }
+
+    /**
+     * Create a new {@link KeyedCipherAES}
+     * @param key The AES key, 16, 24 or 32 bytes
+     * @param mNonceSource The source of the nonces
+     * @throws IllegalArgumentException if any of the arguments is null or the key has an invalid size
+     */
+    public KeyedCipherAES(byte[] key, NonceSource mNonceSource){
+        if(key == null || mNonceSource == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }else if(key.length != 16 && key.length != 24 && key.length != 32){
+            throw new IllegalArgumentException("Invalid Key Size: " + key.length);
+        }
+        this.mKey = new SecretKeySpec(key, ALGORITHM);
+        this.mNonceSource = mNonceSource;
+    }
+
+    /**
+     * Encrypts the given data
+     * @param data The data to encrypt
+     * @param aad The additional authenticated data, the same has to be given for decryption, or null
+     * @return The nonce followed by the cipher text
+     * @throws IllegalArgumentException if the data is null
+     * @throws IllegalStateException if there is an error during the encryption process
+     */
+    public byte[] encrypt(byte[] data, byte[] aad){
+        if(data == null){
+            throw new IllegalArgumentException("Invalid Data");
+        }
+        byte[] iv = new byte[IV_SIZE];
+        mNonceSource.nextBytes(iv);
+
+        OperationTimer mTimer = OperationTimer.start(CryptoOperation.ENCRYPT);
+        Cipher mCipher = mCiphers.get();
+        try{
+            mCipher.init(Cipher.ENCRYPT_MODE, mKey, new GCMParameterSpec(TAG_LENGTH, iv));
+            if(aad != null){
+                mCipher.updateAAD(aad);
+            }
+            byte[] res = new byte[IV_SIZE + mCipher.getOutputSize(data.length)];
+            System.arraycopy(iv, 0, res, 0, IV_SIZE);
+            mCipher.doFinal(data, 0, data.length, res, IV_SIZE);
+            mTimer.completed(data.length);
+            return res;
+        }catch(GeneralSecurityException e){
+            throw new IllegalStateException("Unable To Encrypt: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decrypts a message created by {@link #encrypt(byte[], byte[])}
+     * @param message The nonce followed by the cipher text
+     * @param aad The additional authenticated data given for encryption, or null
+     * @return The plain data
+     * @throws IllegalArgumentException if the message is null or too short
+     * @throws IllegalStateException if the message was modified, the key or aad is wrong, or there is an error during decryption
+     */
+    public byte[] decrypt(byte[] message, byte[] aad){
+        if(message == null){
+            throw new IllegalArgumentException("Invalid Cipher Data");
+        }
+        return decrypt(message, 0, message.length, aad);
+    }
+
+    /**
+     * Same as {@link #decrypt(byte[], byte[])}, reading the message from a region of the given array
+     * @param message The array holding the message
+     * @param offset The offset of the message in the array
+     * @param length The length of the message
+     * @param aad The additional authenticated data given for encryption, or null
+     * @return The plain data
+     */
+    public byte[] decrypt(byte[] message, int offset, int length, byte[] aad){
+        if(message == null || offset < 0 || length < OVERHEAD || offset + length > message.length){
+            throw new IllegalArgumentException("Invalid Cipher Data");
+        }
+
+        OperationTimer mTimer = OperationTimer.start(CryptoOperation.DECRYPT);
+        Cipher mCipher = mCiphers.get();
+        try{
+            mCipher.init(Cipher.DECRYPT_MODE, mKey, new GCMParameterSpec(TAG_LENGTH, message, offset, IV_SIZE));
+            if(aad != null){
+                mCipher.updateAAD(aad);
+            }
+            byte[] res = mCipher.doFinal(message, offset + IV_SIZE, length - IV_SIZE);
+            mTimer.completed(res.length);
+            return res;
+        }catch(AEADBadTagException e){
+            mTimer.failed(CryptoFailure.TAG_MISMATCH);
+            throw new IllegalStateException("Unable To Decrypt: " + e.getMessage());
+        }catch(GeneralSecurityException e){
+            throw new IllegalStateException("Unable To Decrypt: " + e.getMessage());
+        }
+    }
+
+    private static Cipher createCipher(){
+        try{
+            return CryptoProviders.newCipher();
+        }catch(NoSuchAlgorithmException | NoSuchPaddingException e){
+            throw new IllegalStateException("Unable To Initialize Cipher: " + e.getMessage());
+        }
+    }
+}
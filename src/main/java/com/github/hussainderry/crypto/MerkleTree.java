@@ -0,0 +1,316 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.crypto.enums.DigestType;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hash tree of a file split into fixed-size leaves, created by {@link MerkleTreeHasher}.
+ * Leaves are hashed as H(0x00 || data) and nodes as H(0x01 || left || right); an unpaired node at the end of a level
+ * is promoted to the next level unchanged. Instances are immutable.
+ * @author Hussain Al-Derry
+ */
+public final class MerkleTree {
+
+    private static final int MAGIC = 0x464D4B54;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    private final DigestType mDigestType;
+    private final int leafSize;
+    private final long fileSize;
+    private final byte[][][] levels;
+
+    MerkleTree(DigestType mDigestType, int leafSize, long fileSize, byte[][] leaves) {
+        this.mDigestType = mDigestType;
+        this.leafSize = leafSize;
+        this.fileSize = fileSize;
+        this.levels = buildLevels(HashSHA.newDigest(mDigestType), leaves);
+    }
+
+    /**
+     * @return The digest used for the leaves and nodes
+     */
+    public DigestType getDigestType(){
+        return mDigestType;
+    }
+
+    /**
+     * @return The size of each leaf in bytes, the last leaf may be shorter
+     */
+    public int getLeafSize(){
+        return leafSize;
+    }
+
+    /**
+     * @return The size of the hashed file
+     */
+    public long getFileSize(){
+        return fileSize;
+    }
+
+    /**
+     * @return The number of leaves, an empty file has a single empty leaf
+     */
+    public int getLeafCount(){
+        return levels[0].length;
+    }
+
+    /**
+     * @return The root hash
+     */
+    public byte[] getRoot(){
+        return levels[levels.length - 1][0].clone();
+    }
+
+    /**
+     * @param index The leaf index
+     * @return The hash of the leaf
+     * @throws IllegalArgumentException if the index is out of range
+     */
+    public byte[] getLeafHash(int index){
+        checkIndex(index);
+        return levels[0][index].clone();
+    }
+
+    /**
+     * @param index The leaf index
+     * @return The offset of the leaf in the file
+     * @throws IllegalArgumentException if the index is out of range
+     */
+    public long getLeafOffset(int index){
+        checkIndex(index);
+        return (long) index * leafSize;
+    }
+
+    /**
+     * @param index The leaf index
+     * @return The length of the leaf in bytes
+     * @throws IllegalArgumentException if the index is out of range
+     */
+    public int getLeafLength(int index){
+        return (int) Math.min(leafSize, fileSize - getLeafOffset(index));
+    }
+
+    /**
+     * Returns the sibling hashes from the leaf up to the root, which can be checked with
+     * {@link #verifyProof(DigestType, byte[], int, int, byte[], List)} without the rest of the tree
+     * @param index The leaf index
+     * @return The proof for the leaf
+     * @throws IllegalArgumentException if the index is out of range
+     */
+    public List<byte[]> getProof(int index){
+        checkIndex(index);
+        List<byte[]> mProof = new ArrayList<>();
+        int position = index;
+        for(int level = 0; level < levels.length - 1; level++){
+            int sibling = position ^ 1;
+            if(sibling < levels[level].length){
+                mProof.add(levels[level][sibling].clone());
+            }
+            position >>>= 1;
+        }
+        return mProof;
+    }
+
+    /**
+     * Checks the given leaf data against the stored leaf hash
+     * @param index The leaf index
+     * @param data The leaf data, its remaining bytes are hashed without changing its position
+     * @return true if the data matches, else false
+     * @throws IllegalArgumentException if the data is null or the index is out of range
+     */
+    public boolean verifyLeaf(int index, ByteBuffer data){
+        if(data == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        checkIndex(index);
+        MessageDigest mDigest = HashSHA.newDigest(mDigestType);
+        return MessageDigest.isEqual(hashLeaf(mDigest, data.duplicate()), levels[0][index]);
+    }
+
+    /**
+     * Checks leaf data against a trusted root using a proof from {@link #getProof(int)}
+     * @param mDigestType The digest of the tree
+     * @param root The trusted root hash
+     * @param leafCount The number of leaves in the tree
+     * @param index The leaf index
+     * @param data The leaf data
+     * @param mProof The sibling hashes from the leaf up to the root
+     * @return true if the data matches the root, else false
+     * @throws IllegalArgumentException if any of the arguments is null
+     */
+    public static boolean verifyProof(DigestType mDigestType, byte[] root, int leafCount, int index,
+                                      byte[] data, List<byte[]> mProof){
+        if(mDigestType == null || root == null || data == null || mProof == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        if(index < 0 || index >= leafCount){
+            return false;
+        }
+        MessageDigest mDigest = HashSHA.newDigest(mDigestType);
+        byte[] computed = rootFromProof(mDigest, hashLeaf(mDigest, ByteBuffer.wrap(data)), index, leafCount, mProof);
+        return computed != null && MessageDigest.isEqual(computed, root);
+    }
+
+    /**
+     * Serializes the tree parameters and leaf hashes, the inner nodes are recomputed by {@link #fromByteArray(byte[])}
+     * @return The serialized tree
+     */
+    public byte[] toByteArray(){
+        int hashLength = mDigestType.getLength();
+        ByteBuffer mBuffer = ByteBuffer.allocate(HEADER_SIZE + getLeafCount() * hashLength);
+        mBuffer.putInt(MAGIC).putInt(VERSION).putInt(mDigestType.ordinal()).putInt(leafSize).putLong(fileSize);
+        for(byte[] leaf : levels[0]){
+            mBuffer.put(leaf);
+        }
+        return mBuffer.array();
+    }
+
+    /**
+     * Restores a tree serialized with {@link #toByteArray()}
+     * @param data The serialized tree
+     * @return The restored tree
+     * @throws IllegalArgumentException if the data is null or malformed
+     */
+    public static MerkleTree fromByteArray(byte[] data){
+        if(data == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        if(data.length < HEADER_SIZE){
+            throw new IllegalArgumentException("Malformed tree");
+        }
+        ByteBuffer mBuffer = ByteBuffer.wrap(data);
+        int magic = mBuffer.getInt();
+        int version = mBuffer.getInt();
+        int digest = mBuffer.getInt();
+        int leafSize = mBuffer.getInt();
+        long fileSize = mBuffer.getLong();
+        if(magic != MAGIC || version != VERSION || digest < 0 || digest >= DigestType.values().length
+                || leafSize < 1 || fileSize < 0){
+            throw new IllegalArgumentException("Malformed tree");
+        }
+
+        DigestType mDigestType = DigestType.values()[digest];
+        int hashLength = mDigestType.getLength();
+        if(mBuffer.remaining() != leafCount(fileSize, leafSize) * (long) hashLength){
+            throw new IllegalArgumentException("Malformed tree");
+        }
+        byte[][] leaves = new byte[mBuffer.remaining() / hashLength][hashLength];
+        for(byte[] leaf : leaves){
+            mBuffer.get(leaf);
+        }
+        return new MerkleTree(mDigestType, leafSize, fileSize, leaves);
+    }
+
+    /**
+     * @return The leaf hashes, shared with this tree
+     */
+    byte[][] leaves(){
+        return levels[0];
+    }
+
+    static int leafCount(long fileSize, int leafSize){
+        long count = Math.max(1, (fileSize + leafSize - 1) / leafSize);
+        if(count > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Leaf size is too small for the file");
+        }
+        return (int) count;
+    }
+
+    static byte[] hashLeaf(MessageDigest mDigest, ByteBuffer data){
+        mDigest.update(LEAF_PREFIX);
+        mDigest.update(data);
+        return mDigest.digest();
+    }
+
+    private static byte[] hashNode(MessageDigest mDigest, byte[] left, byte[] right){
+        mDigest.update(NODE_PREFIX);
+        mDigest.update(left);
+        mDigest.update(right);
+        return mDigest.digest();
+    }
+
+    private static byte[][][] buildLevels(MessageDigest mDigest, byte[][] leaves){
+        List<byte[][]> mLevels = new ArrayList<>();
+        byte[][] level = leaves;
+        mLevels.add(level);
+        while(level.length > 1){
+            byte[][] parent = new byte[(level.length + 1) / 2][];
+            for(int i = 0; i < parent.length; i++){
+                int left = i * 2;
+                parent[i] = left + 1 < level.length ? hashNode(mDigest, level[left], level[left + 1]) : level[left];
+            }
+            mLevels.add(parent);
+            level = parent;
+        }
+        return mLevels.toArray(new byte[0][][]);
+    }
+
+    private static byte[] rootFromProof(MessageDigest mDigest, byte[] leaf, int index, int leafCount, List<byte[]> mProof){
+        byte[] hash = leaf;
+        int position = index;
+        int width = leafCount;
+        int used = 0;
+        while(width > 1){
+            int sibling = position ^ 1;
+            if(sibling < width){
+                if(used == mProof.size()){
+                    return null;
+                }
+                byte[] other = mProof.get(used++);
+                hash = (position & 1) == 0 ? hashNode(mDigest, hash, other) : hashNode(mDigest, other, hash);
+            }
+            position >>>= 1;
+            width = (width + 1) / 2;
+        }
+        return used == mProof.size() ? hash : null;
+    }
+
+    private void checkIndex(int index){
+        if(index < 0 || index >= getLeafCount()){
+            throw new IllegalArgumentException("Invalid leaf index: " + index);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if(this == o){
+            return true;
+        }
+        if(!(o instanceof MerkleTree)){
+            return false;
+        }
+        MerkleTree mOther = (MerkleTree) o;
+        return mDigestType == mOther.mDigestType && leafSize == mOther.leafSize && fileSize == mOther.fileSize
+                && Arrays.deepEquals(levels[0], mOther.levels[0]);
+    }
+
+    @Override
+    public int hashCode(){
+        return Arrays.hashCode(levels[levels.length - 1][0]);
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.crypto.enums.DigestType;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.github.hussainderry.crypto.HashSHA.MAP_REGION_SIZE;
+
+/**
+ * Builds {@link MerkleTree}s of large files. The leaves are split into contiguous ranges which are hashed in parallel
+ * from memory-mapped regions, so the file is never loaded into memory and the work scales with the available cores.
+ * Instances are immutable and thread-safe.
+ * @author Hussain Al-Derry
+ */
+public final class MerkleTreeHasher {
+
+    /** The default leaf size, 1 MiB */
+    public static final int DEFAULT_LEAF_SIZE = 1024 * 1024;
+
+    private final DigestType mDigestType;
+    private final int leafSize;
+    private final Executor mExecutor;
+    private final int maxParallelism;
+
+    private MerkleTreeHasher(Builder builder) {
+        this.mDigestType = builder.mDigestType;
+        this.leafSize = builder.leafSize;
+        this.mExecutor = builder.mExecutor;
+        this.maxParallelism = builder.maxParallelism;
+    }
+
+    /**
+     * Hashes the whole file
+     * @param path The file to hash
+     * @return The tree of the file
+     * @throws IllegalArgumentException if the path is null
+     * @throws IllegalStateException if the file can't be read
+     */
+    public MerkleTree hash(Path path){
+        if(path == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        try(FileChannel mChannel = FileChannel.open(path, StandardOpenOption.READ)){
+            long size = mChannel.size();
+            byte[][] leaves = new byte[MerkleTree.leafCount(size, leafSize)][];
+            hashLeaves(mChannel, size, leaves, 0, leaves.length);
+            return new MerkleTree(mDigestType, leafSize, size, leaves);
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to read file", e);
+        }
+    }
+
+    /**
+     * Rebuilds the tree of a modified file, hashing only the given leaves. If the file size changed,
+     * the leaves from the old last leaf onwards are hashed as well.
+     * @param path The modified file
+     * @param mPrevious The tree of the file before the changes
+     * @param changedLeaves The indices of the changed leaves
+     * @return The updated tree
+     * @throws IllegalArgumentException if any of the arguments is null, or the tree wasn't built with the same parameters
+     * @throws IllegalStateException if the file can't be read
+     */
+    public MerkleTree rehash(Path path, MerkleTree mPrevious, int... changedLeaves){
+        if(path == null || mPrevious == null || changedLeaves == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        if(mPrevious.getDigestType() != mDigestType || mPrevious.getLeafSize() != leafSize){
+            throw new IllegalArgumentException("Tree parameters don't match the hasher");
+        }
+
+        try(FileChannel mChannel = FileChannel.open(path, StandardOpenOption.READ)){
+            long size = mChannel.size();
+            byte[][] previous = mPrevious.leaves();
+            byte[][] leaves = new byte[MerkleTree.leafCount(size, leafSize)][];
+
+            int unchanged = leaves.length;
+            if(size != mPrevious.getFileSize()){
+                unchanged = Math.min(leaves.length, previous.length - 1);
+            }
+            System.arraycopy(previous, 0, leaves, 0, unchanged);
+            for(int index : changedLeaves){
+                if(index >= 0 && index < unchanged){
+                    hashLeaves(mChannel, size, leaves, index, index + 1);
+                }
+            }
+            hashLeaves(mChannel, size, leaves, unchanged, leaves.length);
+            return new MerkleTree(mDigestType, leafSize, size, leaves);
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to read file", e);
+        }
+    }
+
+    /**
+     * Checks a single leaf of the file against a stored tree, reading only that leaf
+     * @param path The file to check
+     * @param mTree The stored tree of the file
+     * @param index The leaf index
+     * @return true if the leaf matches, else false
+     * @throws IllegalArgumentException if any of the arguments is null or the index is out of range
+     * @throws IllegalStateException if the file can't be read
+     */
+    public boolean verifyLeaf(Path path, MerkleTree mTree, int index){
+        if(path == null || mTree == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        long offset = mTree.getLeafOffset(index);
+        int length = mTree.getLeafLength(index);
+        try(FileChannel mChannel = FileChannel.open(path, StandardOpenOption.READ)){
+            if(mChannel.size() < offset + length){
+                return false;
+            }
+            return mTree.verifyLeaf(index, mChannel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to read file", e);
+        }
+    }
+
+    /**
+     * Hashes the leaves in [from, to), split into contiguous ranges across the executor
+     */
+    private void hashLeaves(FileChannel mChannel, long size, byte[][] leaves, int from, int to){
+        int count = to - from;
+        if(count <= 0){
+            return;
+        }
+        int tasks = Math.min(count, maxParallelism);
+        List<CompletableFuture<Void>> mFutures = new ArrayList<>(tasks);
+        for(int i = 0; i < tasks; i++){
+            int start = from + (int) ((long) count * i / tasks);
+            int end = from + (int) ((long) count * (i + 1) / tasks);
+            mFutures.add(CompletableFuture.runAsync(() -> hashRange(mChannel, size, leaves, start, end), mExecutor));
+        }
+        try{
+            CompletableFuture.allOf(mFutures.toArray(new CompletableFuture<?>[0])).join();
+        }catch(CompletionException e){
+            if(e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to hash file", e.getCause());
+        }
+    }
+
+    private void hashRange(FileChannel mChannel, long size, byte[][] leaves, int start, int end){
+        MessageDigest mDigest = HashSHA.newDigest(mDigestType);
+        int leavesPerRegion = (int) Math.max(1, MAP_REGION_SIZE / leafSize);
+        try{
+            for(int regionStart = start; regionStart < end; regionStart += leavesPerRegion){
+                int regionEnd = Math.min(end, regionStart + leavesPerRegion);
+                long offset = (long) regionStart * leafSize;
+                long length = Math.min((long) (regionEnd - regionStart) * leafSize, size - offset);
+                MappedByteBuffer mRegion = mChannel.map(FileChannel.MapMode.READ_ONLY, offset, Math.max(0, length));
+                for(int leaf = regionStart; leaf < regionEnd; leaf++){
+                    int leafOffset = (leaf - regionStart) * leafSize;
+                    mRegion.limit(Math.min(mRegion.capacity(), leafOffset + leafSize));
+                    mRegion.position(Math.min(mRegion.capacity(), leafOffset));
+                    leaves[leaf] = MerkleTree.hashLeaf(mDigest, mRegion);
+                    mRegion.limit(mRegion.capacity());
+                }
+            }
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to read file", e);
+        }
+    }
+
+    /**
+     * Builder for MerkleTreeHasher
+     */
+    public static class Builder {
+
+        private final DigestType mDigestType;
+        private int leafSize = DEFAULT_LEAF_SIZE;
+        private Executor mExecutor = ForkJoinPool.commonPool();
+        private int maxParallelism = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * @param mDigestType The digest used for the leaves and nodes
+         * @throws IllegalArgumentException if the digest type is null
+         */
+        public Builder(DigestType mDigestType){
+            if(mDigestType == null){
+                throw new IllegalArgumentException("Digest type cannot be null");
+            }
+            this.mDigestType = mDigestType;
+        }
+
+        /**
+         * @param leafSize The size of each leaf in bytes, defaults to {@link #DEFAULT_LEAF_SIZE}
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if the size is less than 1 or larger than a mapped region
+         */
+        public Builder leafSize(int leafSize){
+            if(leafSize < 1 || leafSize > MAP_REGION_SIZE){
+                throw new IllegalArgumentException("Invalid leaf size");
+            }
+            this.leafSize = leafSize;
+            return this;
+        }
+
+        /**
+         * @param mExecutor The executor to hash leaves on, defaults to {@link ForkJoinPool#commonPool()}
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if the executor is null
+         */
+        public Builder executor(Executor mExecutor){
+            if(mExecutor == null){
+                throw new IllegalArgumentException("Executor cannot be null");
+            }
+            this.mExecutor = mExecutor;
+            return this;
+        }
+
+        /**
+         * @param maxParallelism The maximum number of ranges hashed at the same time, defaults to the available processors
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if the value is less than 1
+         */
+        public Builder maxParallelism(int maxParallelism){
+            if(maxParallelism < 1){
+                throw new IllegalArgumentException("Parallelism must be >= 1");
+            }
+            this.maxParallelism = maxParallelism;
+            return this;
+        }
+
+        /**
+         * @return The configured MerkleTreeHasher instance
+         */
+        public MerkleTreeHasher build(){
+            return new MerkleTreeHasher(this);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+/**
+ * Source of the IVs and salts used by the crypto classes, see {@link NonceSources} for the built-in implementations.
+ * Implementations must be thread-safe.
+ * @author Hussain Al-Derry
+ */
+public interface NonceSource {
+
+    /**
+     * Fills the given array with the next nonce
+     * @param bytes The array to fill
+     * @throws IllegalArgumentException if the array is null, or its length isn't supported by the source
+     * @throws IllegalStateException if the source is exhausted
+     */
+    void nextBytes(byte[] bytes);
+
+}
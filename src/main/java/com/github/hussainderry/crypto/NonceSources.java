@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Built-in {@link NonceSource} implementations
+ * @author Hussain Al-Derry
+ */
+public final class NonceSources {
+
+    private static final int COUNTER_SIZE = 8;
+    private static final int SEED_SIZE = 32;
+
+    private static final NonceSource PER_THREAD_RANDOM = new PerThreadRandom();
+
+    private NonceSources() {
+    }
+
+    /**
+     * Returns a source backed by one {@link SecureRandom} per thread, so concurrent callers never share a lock.
+     * Each thread uses a DRBG where available (Java 9+), else SHA1PRNG explicitly seeded from the non-blocking
+     * system source, so creating a thread's generator doesn't wait for entropy.
+     * @return The shared per-thread random source
+     */
+    public static NonceSource perThreadRandom(){
+        return PER_THREAD_RANDOM;
+    }
+
+    /**
+     * Creates a deterministic source for nonces used under a single key: a random prefix followed by
+     * a big-endian 8 byte counter. The nonces are unique as long as the key isn't used with another source.
+     * @param nonceLength The length of the nonces, at least 12 bytes
+     * @return A new counter source
+     * @throws IllegalArgumentException if the length is less than 12
+     */
+    public static NonceSource counter(int nonceLength){
+        return counter(nonceLength, Long.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #counter(int)}, but fails once the given number of nonces has been generated
+     * @param nonceLength The length of the nonces, at least 12 bytes
+     * @param limit The maximum number of nonces to generate
+     * @return A new counter source
+     * @throws IllegalArgumentException if the length is less than 12 or the limit is less than 1
+     */
+    public static NonceSource counter(int nonceLength, long limit){
+        if(nonceLength < COUNTER_SIZE + 4){
+            throw new IllegalArgumentException("Nonce length must be >= 12");
+        }else if(limit < 1){
+            throw new IllegalArgumentException("Limit must be >= 1");
+        }
+        byte[] prefix = new byte[nonceLength - COUNTER_SIZE];
+        PER_THREAD_RANDOM.nextBytes(prefix);
+        return new Counter(prefix, limit);
+    }
+
+    private static final class PerThreadRandom implements NonceSource {
+
+        private static final SecureRandom SEED_SOURCE = new SecureRandom();
+
+        private final ThreadLocal<SecureRandom> mRandom = ThreadLocal.withInitial(PerThreadRandom::create);
+
+        @Override
+        public void nextBytes(byte[] bytes){
+            if(bytes == null){
+                throw new IllegalArgumentException("Arguments cannot be null");
+            }
+            mRandom.get().nextBytes(bytes);
+        }
+
+        private static SecureRandom create(){
+            try{
+                return SecureRandom.getInstance("DRBG");
+            }catch(NoSuchAlgorithmException e){
+                // Java 8
+            }
+            try{
+                SecureRandom mRandom = SecureRandom.getInstance("SHA1PRNG");
+                byte[] seed = new byte[SEED_SIZE];
+                synchronized(SEED_SOURCE){
+                    SEED_SOURCE.nextBytes(seed);
+                }
+                // Seeding before the first use replaces the self-seeding, which may block
+                mRandom.setSeed(seed);
+                return mRandom;
+            }catch(NoSuchAlgorithmException e){
+                return new SecureRandom();
+            }
+        }
+    }
+
+    private static final class Counter implements NonceSource {
+
+        private final byte[] prefix;
+        private final long limit;
+        private final AtomicLong mCounter = new AtomicLong();
+
+        private Counter(byte[] prefix, long limit) {
+            this.prefix = prefix;
+            this.limit = limit;
+        }
+
+        @Override
+        public void nextBytes(byte[] bytes){
+            if(bytes == null || bytes.length != prefix.length + COUNTER_SIZE){
+                throw new IllegalArgumentException("Nonce length must be " + (prefix.length + COUNTER_SIZE));
+            }
+            long value = mCounter.getAndIncrement();
+            if(value < 0 || value >= limit){
+                // Keeping the counter past the limit, so it can't wrap around to values already used
+                mCounter.set(Long.MAX_VALUE);
+                throw new IllegalStateException("Nonce counter exhausted");
+            }
+            System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+            for(int i = bytes.length - 1; i >= prefix.length; i--){
+                bytes[i] = (byte) value;
+                value >>>= 8;
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.crypto.enums.CryptoFailure;
+import com.github.hussainderry.crypto.enums.CryptoOperation;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Measures a single operation for the active {@link CryptoMetrics}, splitting the elapsed time into cipher and IO time.
+ * When instrumentation is disabled a shared instance is returned that leaves the streams unwrapped and reports nothing.
+ * @author Hussain Al-Derry
+ */
+final class OperationTimer {
+
+    private static final OperationTimer DISABLED = new OperationTimer(null, null, 0L);
+
+    private final CryptoMetrics mMetrics;
+    private final CryptoOperation mOperation;
+    private final long start;
+    private TimedInputStream mInput;
+    private TimedOutputStream mOutput;
+
+    private OperationTimer(CryptoMetrics mMetrics, CryptoOperation mOperation, long start){
+        this.mMetrics = mMetrics;
+        this.mOperation = mOperation;
+        this.start = start;
+    }
+
+    /**
+     * Starts measuring an operation
+     * @param mOperation The operation to measure
+     * @return The timer for the operation
+     */
+    static OperationTimer start(CryptoOperation mOperation){
+        CryptoMetrics mMetrics = CryptoInstrumentation.active();
+        if(mMetrics == null){
+            return DISABLED;
+        }
+        return new OperationTimer(mMetrics, mOperation, System.nanoTime());
+    }
+
+    /**
+     * Reports a failure to the active {@link CryptoMetrics}, if any
+     * @param mOperation The failed operation
+     * @param mFailure The cause of the failure
+     */
+    static void failed(CryptoOperation mOperation, CryptoFailure mFailure){
+        CryptoMetrics mMetrics = CryptoInstrumentation.active();
+        if(mMetrics != null){
+            mMetrics.operationFailed(mOperation, mFailure);
+        }
+    }
+
+    /**
+     * @param mSource The stream the operation reads from
+     * @return The stream to read from, timing the reads when instrumentation is enabled
+     */
+    InputStream wrap(InputStream mSource){
+        if(mMetrics == null){
+            return mSource;
+        }
+        mInput = new TimedInputStream(mSource);
+        return mInput;
+    }
+
+    /**
+     * @param mTarget The stream the operation writes to
+     * @return The stream to write to, timing the writes when instrumentation is enabled
+     */
+    OutputStream wrap(OutputStream mTarget){
+        if(mMetrics == null){
+            return mTarget;
+        }
+        mOutput = new TimedOutputStream(mTarget);
+        return mOutput;
+    }
+
+    /**
+     * Reports the operation as completed
+     * @param bytes The number of plain bytes processed
+     */
+    void completed(long bytes){
+        if(mMetrics == null){
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        long io = (mInput == null ? 0L : mInput.getNanos()) + (mOutput == null ? 0L : mOutput.getNanos());
+        mMetrics.operationCompleted(mOperation, bytes, Math.max(0L, elapsed - io), io);
+    }
+
+    /**
+     * Reports the operation as failed
+     * @param mFailure The cause of the failure
+     */
+    void failed(CryptoFailure mFailure){
+        if(mMetrics != null){
+            mMetrics.operationFailed(mOperation, mFailure);
+        }
+    }
+}
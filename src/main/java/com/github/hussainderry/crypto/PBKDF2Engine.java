@@ -0,0 +1,458 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.crypto.enums.DigestType;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * PBKDF2-HMAC-SHA256/512 implementation tuned for high iteration counts.
+ *
+ * The HMAC inner and outer pad blocks are compressed once per password, and every iteration after the first one
+ * is exactly two compression function calls on fixed size, pre-padded blocks kept in word form,
+ * so the iteration loop doesn't allocate or convert between bytes and words.
+ * The output matches the JCE "PBKDF2WithHmacSHA256" and "PBKDF2WithHmacSHA512" algorithms, passwords are encoded
+ * using UTF-8. Instances are stateless and thread safe.
+ * @author Hussain Al-Derry
+ */
+public final class PBKDF2Engine {
+
+    private static final PBKDF2Engine SHA256 = new PBKDF2Engine(DigestType.SHA256);
+    private static final PBKDF2Engine SHA512 = new PBKDF2Engine(DigestType.SHA512);
+
+    private final DigestType mDigestType;
+
+    private PBKDF2Engine(DigestType mDigestType) {
+        this.mDigestType = mDigestType;
+    }
+
+    /**
+     * @param mDigestType The HMAC digest, either {@link DigestType#SHA256} or {@link DigestType#SHA512}
+     * @return The engine for the given digest
+     * @throws IllegalArgumentException if the digest is not supported
+     */
+    public static PBKDF2Engine getInstance(DigestType mDigestType){
+        if(mDigestType == DigestType.SHA256){
+            return SHA256;
+        }else if(mDigestType == DigestType.SHA512){
+            return SHA512;
+        }
+        throw new IllegalArgumentException("Unsupported digest: " + mDigestType);
+    }
+
+    /**
+     * Derives a key from the given password
+     * @param password The password, encoded using UTF-8
+     * @param salt The salt
+     * @param iterations The number of iterations
+     * @param keySize The size of the key to derive in bits
+     * @return The derived key
+     * @throws IllegalArgumentException if any of the arguments is null or invalid
+     */
+    public byte[] deriveKey(char[] password, byte[] salt, int iterations, int keySize){
+        if(password == null){
+            throw new IllegalArgumentException("Password cannot be null");
+        }
+        ByteBuffer mEncoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] passwordBytes = new byte[mEncoded.remaining()];
+        mEncoded.get(passwordBytes);
+        try{
+            return deriveKey(passwordBytes, salt, iterations, keySize);
+        }finally{
+            Arrays.fill(passwordBytes, (byte) 0);
+            if(mEncoded.hasArray()){
+                Arrays.fill(mEncoded.array(), (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Derives a key from the given password bytes
+     * @param password The password bytes
+     * @param salt The salt
+     * @param iterations The number of iterations
+     * @param keySize The size of the key to derive in bits
+     * @return The derived key
+     * @throws IllegalArgumentException if any of the arguments is null or invalid
+     */
+    public byte[] deriveKey(byte[] password, byte[] salt, int iterations, int keySize){
+        if(password == null || salt == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }else if(iterations < 1){
+            throw new IllegalArgumentException("Iterations must be >= 1");
+        }else if(keySize < 8 || keySize % 8 != 0){
+            throw new IllegalArgumentException("Key size must be a positive multiple of 8");
+        }
+
+        if(mDigestType == DigestType.SHA256){
+            return new Sha256Hmac(password).pbkdf2(salt, iterations, keySize / 8);
+        }else{
+            return new Sha512Hmac(password).pbkdf2(salt, iterations, keySize / 8);
+        }
+    }
+
+    private static byte[] prepareKey(byte[] password, String algorithm, int blockSize){
+        byte[] key = password;
+        if(password.length > blockSize){
+            try{
+                key = MessageDigest.getInstance(algorithm).digest(password);
+            }catch(NoSuchAlgorithmException e){
+                throw new IllegalStateException("Unable to hash password", e);
+            }
+        }
+        return Arrays.copyOf(key, blockSize);
+    }
+
+    private static byte[] blockMessage(byte[] salt, int block){
+        byte[] message = Arrays.copyOf(salt, salt.length + 4);
+        message[salt.length] = (byte) (block >>> 24);
+        message[salt.length + 1] = (byte) (block >>> 16);
+        message[salt.length + 2] = (byte) (block >>> 8);
+        message[salt.length + 3] = (byte) block;
+        return message;
+    }
+
+    /**
+     * HMAC-SHA256 with the pad states compressed once
+     */
+    private static final class Sha256Hmac {
+
+        private static final int[] IV = {
+                0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+        };
+
+        private static final int[] K = {
+                0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+                0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+                0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+                0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+                0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+                0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+                0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+                0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+        };
+
+        private static final int BLOCK_SIZE = 64;
+        private static final int HASH_WORDS = 8;
+
+        private final int[] innerState = new int[HASH_WORDS];
+        private final int[] outerState = new int[HASH_WORDS];
+        private final int[] w = new int[64];
+
+        private Sha256Hmac(byte[] password){
+            byte[] key = prepareKey(password, DigestType.SHA256.getAlgorithm(), BLOCK_SIZE);
+            byte[] pad = new byte[BLOCK_SIZE];
+            for(int i = 0; i < BLOCK_SIZE; i++){
+                pad[i] = (byte) (key[i] ^ 0x36);
+            }
+            System.arraycopy(IV, 0, innerState, 0, HASH_WORDS);
+            loadBlock(pad, 0);
+            compress(innerState);
+            for(int i = 0; i < BLOCK_SIZE; i++){
+                pad[i] = (byte) (key[i] ^ 0x5c);
+            }
+            System.arraycopy(IV, 0, outerState, 0, HASH_WORDS);
+            loadBlock(pad, 0);
+            compress(outerState);
+            Arrays.fill(key, (byte) 0);
+            Arrays.fill(pad, (byte) 0);
+        }
+
+        private byte[] pbkdf2(byte[] salt, int iterations, int length){
+            byte[] result = new byte[length];
+            int[] u = new int[HASH_WORDS];
+            int[] t = new int[HASH_WORDS];
+            int[] state = new int[HASH_WORDS];
+
+            for(int block = 1, offset = 0; offset < length; block++, offset += HASH_WORDS * 4){
+                // U1 = HMAC(password, salt || INT(block))
+                hashMessage(innerState, blockMessage(salt, block), state);
+                hashDigest(outerState, state, u);
+                System.arraycopy(u, 0, t, 0, HASH_WORDS);
+
+                for(int i = 1; i < iterations; i++){
+                    hashDigest(innerState, u, state);
+                    hashDigest(outerState, state, u);
+                    for(int j = 0; j < HASH_WORDS; j++){
+                        t[j] ^= u[j];
+                    }
+                }
+
+                for(int j = 0; j < HASH_WORDS && offset + (j * 4) < length; j++){
+                    for(int b = 0; b < 4 && offset + (j * 4) + b < length; b++){
+                        result[offset + (j * 4) + b] = (byte) (t[j] >>> (24 - (b * 8)));
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Hashes a previous digest continuing from a pad state, the message always fits a single padded block
+         */
+        private void hashDigest(int[] from, int[] digest, int[] out){
+            System.arraycopy(digest, 0, w, 0, HASH_WORDS);
+            w[8] = 0x80000000;
+            for(int i = 9; i < 15; i++){
+                w[i] = 0;
+            }
+            w[15] = (BLOCK_SIZE + (HASH_WORDS * 4)) * 8;
+            System.arraycopy(from, 0, out, 0, HASH_WORDS);
+            compress(out);
+        }
+
+        /**
+         * Hashes an arbitrary message continuing from a pad state
+         */
+        private void hashMessage(int[] from, byte[] message, int[] out){
+            long bitLength = (BLOCK_SIZE + (long) message.length) * 8;
+            int paddedLength = ((message.length + 8) / BLOCK_SIZE + 1) * BLOCK_SIZE;
+            byte[] padded = Arrays.copyOf(message, paddedLength);
+            padded[message.length] = (byte) 0x80;
+            for(int i = 0; i < 8; i++){
+                padded[paddedLength - 1 - i] = (byte) (bitLength >>> (i * 8));
+            }
+            System.arraycopy(from, 0, out, 0, HASH_WORDS);
+            for(int offset = 0; offset < paddedLength; offset += BLOCK_SIZE){
+                loadBlock(padded, offset);
+                compress(out);
+            }
+        }
+
+        private void loadBlock(byte[] data, int offset){
+            for(int i = 0; i < 16; i++){
+                int p = offset + (i * 4);
+                w[i] = ((data[p] & 0xFF) << 24) | ((data[p + 1] & 0xFF) << 16) | ((data[p + 2] & 0xFF) << 8) | (data[p + 3] & 0xFF);
+            }
+        }
+
+        /**
+         * The SHA-256 compression function, expects the message block in the first 16 words of w
+         */
+        private void compress(int[] state){
+            for(int i = 16; i < 64; i++){
+                int s0 = Integer.rotateRight(w[i - 15], 7) ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+                int s1 = Integer.rotateRight(w[i - 2], 17) ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+                w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+            }
+
+            int a = state[0], b = state[1], c = state[2], d = state[3];
+            int e = state[4], f = state[5], g = state[6], h = state[7];
+            for(int i = 0; i < 64; i++){
+                int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+                int ch = (e & f) ^ (~e & g);
+                int t1 = h + s1 + ch + K[i] + w[i];
+                int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+                int maj = (a & b) ^ (a & c) ^ (b & c);
+                int t2 = s0 + maj;
+                h = g;
+                g = f;
+                f = e;
+                e = d + t1;
+                d = c;
+                c = b;
+                b = a;
+                a = t1 + t2;
+            }
+
+            state[0] += a;
+            state[1] += b;
+            state[2] += c;
+            state[3] += d;
+            state[4] += e;
+            state[5] += f;
+            state[6] += g;
+            state[7] += h;
+        }
+    }
+
+    /**
+     * HMAC-SHA512 with the pad states compressed once
+     */
+    private static final class Sha512Hmac {
+
+        private static final long[] IV = {
+                0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+                0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+        };
+
+        private static final long[] K = {
+                0x428a2f98d728ae22L, 0x7137449123ef65cdL, 0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL,
+                0x3956c25bf348b538L, 0x59f111f1b605d019L, 0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L,
+                0xd807aa98a3030242L, 0x12835b0145706fbeL, 0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L,
+                0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L, 0x9bdc06a725c71235L, 0xc19bf174cf692694L,
+                0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L, 0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L,
+                0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L, 0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L,
+                0x983e5152ee66dfabL, 0xa831c66d2db43210L, 0xb00327c898fb213fL, 0xbf597fc7beef0ee4L,
+                0xc6e00bf33da88fc2L, 0xd5a79147930aa725L, 0x06ca6351e003826fL, 0x142929670a0e6e70L,
+                0x27b70a8546d22ffcL, 0x2e1b21385c26c926L, 0x4d2c6dfc5ac42aedL, 0x53380d139d95b3dfL,
+                0x650a73548baf63deL, 0x766a0abb3c77b2a8L, 0x81c2c92e47edaee6L, 0x92722c851482353bL,
+                0xa2bfe8a14cf10364L, 0xa81a664bbc423001L, 0xc24b8b70d0f89791L, 0xc76c51a30654be30L,
+                0xd192e819d6ef5218L, 0xd69906245565a910L, 0xf40e35855771202aL, 0x106aa07032bbd1b8L,
+                0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L, 0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L,
+                0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL, 0x5b9cca4f7763e373L, 0x682e6ff3d6b2b8a3L,
+                0x748f82ee5defb2fcL, 0x78a5636f43172f60L, 0x84c87814a1f0ab72L, 0x8cc702081a6439ecL,
+                0x90befffa23631e28L, 0xa4506cebde82bde9L, 0xbef9a3f7b2c67915L, 0xc67178f2e372532bL,
+                0xca273eceea26619cL, 0xd186b8c721c0c207L, 0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L,
+                0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L, 0x113f9804bef90daeL, 0x1b710b35131c471bL,
+                0x28db77f523047d84L, 0x32caab7b40c72493L, 0x3c9ebe0a15c9bebcL, 0x431d67c49c100d4cL,
+                0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL, 0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L
+        };
+
+        private static final int BLOCK_SIZE = 128;
+        private static final int HASH_WORDS = 8;
+
+        private final long[] innerState = new long[HASH_WORDS];
+        private final long[] outerState = new long[HASH_WORDS];
+        private final long[] w = new long[80];
+
+        private Sha512Hmac(byte[] password){
+            byte[] key = prepareKey(password, DigestType.SHA512.getAlgorithm(), BLOCK_SIZE);
+            byte[] pad = new byte[BLOCK_SIZE];
+            for(int i = 0; i < BLOCK_SIZE; i++){
+                pad[i] = (byte) (key[i] ^ 0x36);
+            }
+            System.arraycopy(IV, 0, innerState, 0, HASH_WORDS);
+            loadBlock(pad, 0);
+            compress(innerState);
+            for(int i = 0; i < BLOCK_SIZE; i++){
+                pad[i] = (byte) (key[i] ^ 0x5c);
+            }
+            System.arraycopy(IV, 0, outerState, 0, HASH_WORDS);
+            loadBlock(pad, 0);
+            compress(outerState);
+            Arrays.fill(key, (byte) 0);
+            Arrays.fill(pad, (byte) 0);
+        }
+
+        private byte[] pbkdf2(byte[] salt, int iterations, int length){
+            byte[] result = new byte[length];
+            long[] u = new long[HASH_WORDS];
+            long[] t = new long[HASH_WORDS];
+            long[] state = new long[HASH_WORDS];
+
+            for(int block = 1, offset = 0; offset < length; block++, offset += HASH_WORDS * 8){
+                // U1 = HMAC(password, salt || INT(block))
+                hashMessage(innerState, blockMessage(salt, block), state);
+                hashDigest(outerState, state, u);
+                System.arraycopy(u, 0, t, 0, HASH_WORDS);
+
+                for(int i = 1; i < iterations; i++){
+                    hashDigest(innerState, u, state);
+                    hashDigest(outerState, state, u);
+                    for(int j = 0; j < HASH_WORDS; j++){
+                        t[j] ^= u[j];
+                    }
+                }
+
+                for(int j = 0; j < HASH_WORDS && offset + (j * 8) < length; j++){
+                    for(int b = 0; b < 8 && offset + (j * 8) + b < length; b++){
+                        result[offset + (j * 8) + b] = (byte) (t[j] >>> (56 - (b * 8)));
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Hashes a previous digest continuing from a pad state, the message always fits a single padded block
+         */
+        private void hashDigest(long[] from, long[] digest, long[] out){
+            System.arraycopy(digest, 0, w, 0, HASH_WORDS);
+            w[8] = 0x8000000000000000L;
+            for(int i = 9; i < 15; i++){
+                w[i] = 0;
+            }
+            w[15] = (BLOCK_SIZE + (HASH_WORDS * 8)) * 8;
+            System.arraycopy(from, 0, out, 0, HASH_WORDS);
+            compress(out);
+        }
+
+        /**
+         * Hashes an arbitrary message continuing from a pad state
+         */
+        private void hashMessage(long[] from, byte[] message, long[] out){
+            long bitLength = (BLOCK_SIZE + (long) message.length) * 8;
+            int paddedLength = ((message.length + 16) / BLOCK_SIZE + 1) * BLOCK_SIZE;
+            byte[] padded = Arrays.copyOf(message, paddedLength);
+            padded[message.length] = (byte) 0x80;
+            for(int i = 0; i < 8; i++){
+                padded[paddedLength - 1 - i] = (byte) (bitLength >>> (i * 8));
+            }
+            System.arraycopy(from, 0, out, 0, HASH_WORDS);
+            for(int offset = 0; offset < paddedLength; offset += BLOCK_SIZE){
+                loadBlock(padded, offset);
+                compress(out);
+            }
+        }
+
+        private void loadBlock(byte[] data, int offset){
+            for(int i = 0; i < 16; i++){
+                long word = 0;
+                for(int b = 0; b < 8; b++){
+                    word = (word << 8) | (data[offset + (i * 8) + b] & 0xFF);
+                }
+                w[i] = word;
+            }
+        }
+
+        /**
+         * The SHA-512 compression function, expects the message block in the first 16 words of w
+         */
+        private void compress(long[] state){
+            for(int i = 16; i < 80; i++){
+                long s0 = Long.rotateRight(w[i - 15], 1) ^ Long.rotateRight(w[i - 15], 8) ^ (w[i - 15] >>> 7);
+                long s1 = Long.rotateRight(w[i - 2], 19) ^ Long.rotateRight(w[i - 2], 61) ^ (w[i - 2] >>> 6);
+                w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+            }
+
+            long a = state[0], b = state[1], c = state[2], d = state[3];
+            long e = state[4], f = state[5], g = state[6], h = state[7];
+            for(int i = 0; i < 80; i++){
+                long s1 = Long.rotateRight(e, 14) ^ Long.rotateRight(e, 18) ^ Long.rotateRight(e, 41);
+                long ch = (e & f) ^ (~e & g);
+                long t1 = h + s1 + ch + K[i] + w[i];
+                long s0 = Long.rotateRight(a, 28) ^ Long.rotateRight(a, 34) ^ Long.rotateRight(a, 39);
+                long maj = (a & b) ^ (a & c) ^ (b & c);
+                long t2 = s0 + maj;
+                h = g;
+                g = f;
+                f = e;
+                e = d + t1;
+                d = c;
+                c = b;
+                b = a;
+                a = t1 + t2;
+            }
+
+            state[0] += a;
+            state[1] += b;
+            state[2] += c;
+            state[3] += d;
+            state[4] += e;
+            state[5] += f;
+            state[6] += g;
+            state[7] += h;
+        }
+    }
+}
@@ -20,30 +20,24 @@ import com.github.hussainderry.crypto.enums.KeySize;
 import com.github.hussainderry.crypto.enums.SaltSize;
 import org.apache.commons.codec.binary.Base64;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
 import java.math.BigInteger;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
+import java.time.Duration;
 import java.util.Arrays;
 
-import static com.github.hussainderry.crypto.Constants.KEY_DERIVATION_ALGORITHM;
-
 /**
- * Wrapper class to help manipulate PBKDF2 parameters and generate keys
+ * Wrapper class to help manipulate PBKDF2 parameters and generate keys.
+ * Instances are immutable and can be shared between threads.
  * @author Hussain Al-Derry
  */
 public class PBKDF2Helper {
 
-    private final SecureRandom mRandom;
     private final int iterations;
     private final int saltSize;
     private final int keySize;
-    private byte[] salt;
+    private final byte[] salt;
 
     /**
-     * Creates a new instance with the given parameters
+     * Creates a new instance with the given parameters and a random salt
      * @param keySize The size of the key to be generated
      * @param saltSize The PBKDF2 salt size
      * @param iterations The PBKDF2 iterations
@@ -52,7 +46,8 @@ public class PBKDF2Helper {
         this.iterations = iterations;
         this.saltSize = saltSize;
         this.keySize = keySize;
-        this.mRandom = new SecureRandom();
+        this.salt = new byte[saltSize];
+        NonceSources.perThreadRandom().nextBytes(this.salt);
     }
 
     /**
@@ -66,7 +61,6 @@ public class PBKDF2Helper {
         this.saltSize = salt.length;
         this.keySize = keySize;
         this.salt = Arrays.copyOf(salt, salt.length);
-        this.mRandom = new SecureRandom();
     }
 
     /**
@@ -75,45 +69,59 @@ public class PBKDF2Helper {
      * @return key as byte array
      */
     public byte[] createKeyFromPassword(String password){
-        generateInitialSalt();
-        PBEKeySpec mSpec = new PBEKeySpec(password.toCharArray(), salt, iterations, keySize);
-        try {
-            SecretKeyFactory mKeyFactory = SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM);
-            return mKeyFactory.generateSecret(mSpec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
-            throw new IllegalStateException("Unable to create encryption key", e);
+        char[] chars = password.toCharArray();
+        try{
+            return KeyDerivation.pbkdf2(chars, salt, iterations, keySize);
+        }finally{
+            Arrays.fill(chars, '\0');
         }
     }
 
     /**
-     * @return true if the salt has been generated, else false
+     * @return The size of the generated keys in bits
+     */
+    public int getKeySize(){
+        return keySize;
+    }
+
+    /**
+     * @return The PBKDF2 salt size in bytes
+     */
+    public int getSaltSize(){
+        return saltSize;
+    }
+
+    /**
+     * @return The PBKDF2 iterations
+     */
+    public int getIterations(){
+        return iterations;
+    }
+
+    /**
+     * The salt is generated on construction, kept for compatibility.
+     * @return always true
      */
     public boolean saltGenerated(){
-        return salt != null;
+        return true;
     }
 
     /**
      * @return PBKDF2 salt as byte array
-     * @throws IllegalStateException if the salt hasn't been generated yet
      */
     public byte[] getSalt(){
-        if(salt == null){
-            throw new IllegalStateException("Salt hasn't been generated yet!");
-        }
         return Arrays.copyOf(salt, salt.length);
     }
 
     /**
      * @return PBKDF2 salt as HEX string
-     * @throws IllegalStateException if the salt hasn't been generated yet
      */
     public String getSaltAsHexString(){
-        return new BigInteger(getSalt()).toString(16);
+        return new BigInteger(salt).toString(16);
     }
 
     /**
      * @return PBKDF2 Base64 encoded salt
-     * @throws IllegalStateException if the salt hasn't been generated yet
      */
     public String getSaltAsBase64String(){
         return Base64.encodeBase64String(getSalt());
@@ -127,18 +135,15 @@ public class PBKDF2Helper {
         return String.format("%s:%s:%s:%s", this.keySize, this.saltSize, this.iterations, getSaltAsHexString());
     }
 
-    private void generateInitialSalt(){
-        if(!saltGenerated()){
-            salt = new byte[saltSize];
-            mRandom.nextBytes(salt);
-        }
-    }
-
     /**
      * Builder for PBKDF2Helper
      */
     public static class Builder{
 
+        private static final int CALIBRATION_PROBE_ITERATIONS = 1000;
+        private static final int CALIBRATION_MAX_PROBE_ITERATIONS = 1 << 24;
+        private static final long CALIBRATION_MIN_PROBE_NANOS = 20_000_000;
+
         private int keySize;
         private int saltSize = 32;
         private int iterations = 1000;
@@ -167,7 +172,7 @@ public class PBKDF2Helper {
                 this.keySize = Integer.parseInt(parts[0]);
                 this.saltSize = Integer.parseInt(parts[1]);
                 this.iterations = Integer.parseInt(parts[2]);
-                this.salt = new BigInteger(parts[3], 16).toByteArray();
+                this.salt = toSaltBytes(new BigInteger(parts[3], 16), this.saltSize);
             }catch (NumberFormatException e){
                 throw new IllegalArgumentException("Malformed Configurations");
             }
@@ -191,17 +196,70 @@ public class PBKDF2Helper {
             return this;
         }
 
+        /**
+         * Benchmarks PBKDF2 on the running machine using the current key and salt sizes, and sets the iterations
+         * to the count that takes about the target time to derive a key, never going below {@link Iterations#LOW}.
+         * The iterations end up in {@link PBKDF2Helper#getPbkdf2Configurations()}, so decryption doesn't need
+         * to calibrate again.
+         * @param target The time a key derivation should take
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if the target is null or not positive
+         */
+        public Builder calibrate(Duration target){
+            if(target == null || target.isZero() || target.isNegative()){
+                throw new IllegalArgumentException("Target must be a positive duration");
+            }
+
+            PBKDF2Helper mProbe = new PBKDF2Helper(keySize, saltSize, CALIBRATION_PROBE_ITERATIONS);
+            timeDerivation(mProbe);
+
+            // Doubling the probe until it's long enough to measure
+            int probeIterations = CALIBRATION_PROBE_ITERATIONS;
+            long elapsed = Math.min(timeDerivation(mProbe), timeDerivation(mProbe));
+            while(elapsed < CALIBRATION_MIN_PROBE_NANOS && elapsed < target.toNanos()
+                    && probeIterations < CALIBRATION_MAX_PROBE_ITERATIONS){
+                probeIterations *= 2;
+                mProbe = new PBKDF2Helper(keySize, saltSize, probeIterations);
+                elapsed = Math.min(timeDerivation(mProbe), timeDerivation(mProbe));
+            }
+
+            double perIteration = (double) Math.max(1, elapsed) / probeIterations;
+            long calibrated = (long) (target.toNanos() / perIteration);
+            this.iterations = (int) Math.max(Iterations.LOW.getValue(), Math.min(Integer.MAX_VALUE, calibrated));
+            return this;
+        }
+
         /**
          * Creates a {@link PBKDF2Helper} using the current builder configurations
          * @return The configured PBKDF2Helper instance
          */
         public PBKDF2Helper build(){
             if(this.salt == null){
-                return new PBKDF2Helper(this.keySize, this.iterations, this.saltSize);
+                return new PBKDF2Helper(this.keySize, this.saltSize, this.iterations);
             }else{
                 return new PBKDF2Helper(this.keySize, this.iterations, this.salt);
             }
         }
 
+        private static long timeDerivation(PBKDF2Helper mHelper){
+            long start = System.nanoTime();
+            mHelper.createKeyFromPassword("calibration");
+            return System.nanoTime() - start;
+        }
+
+        /**
+         * Restores the salt bytes from the hex string, which drops leading sign bytes
+         */
+        private static byte[] toSaltBytes(BigInteger value, int saltSize){
+            byte[] bytes = value.toByteArray();
+            if(bytes.length >= saltSize){
+                return Arrays.copyOfRange(bytes, bytes.length - saltSize, bytes.length);
+            }
+            byte[] salt = new byte[saltSize];
+            Arrays.fill(salt, 0, saltSize - bytes.length, value.signum() < 0 ? (byte) 0xFF : 0);
+            System.arraycopy(bytes, 0, salt, saltSize - bytes.length, bytes.length);
+            return salt;
+        }
+
     }
 }
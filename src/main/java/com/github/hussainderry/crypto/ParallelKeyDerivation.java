@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Derives many independent PBKDF2 keys concurrently, e.g. when re-keying or verifying stored credentials in bulk.
+ * The requests are split into contiguous chunks, one task per chunk, and the keys are returned in request order.
+ * Instances are immutable and thread-safe.
+ * @author Hussain Al-Derry
+ */
+public final class ParallelKeyDerivation {
+
+    private final Executor mExecutor;
+    private final int maxParallelism;
+
+    private ParallelKeyDerivation(Executor mExecutor, int maxParallelism) {
+        this.mExecutor = mExecutor;
+        this.maxParallelism = maxParallelism;
+    }
+
+    /**
+     * Derives the key for a single request on the calling thread
+     * @param mRequest The derivation request
+     * @return The derived key
+     * @throws IllegalArgumentException if the request is null
+     */
+    public byte[] derive(DerivationRequest mRequest){
+        if(mRequest == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        return mRequest.derive();
+    }
+
+    /**
+     * Derives the keys for all the given requests, blocking until they are done
+     * @param requests The derivation requests
+     * @return The derived keys, in the same order as the requests
+     * @throws IllegalArgumentException if the list or any of its requests is null
+     * @throws IllegalStateException if a derivation fails
+     */
+    public List<byte[]> deriveAll(List<DerivationRequest> requests){
+        if(requests == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        // Not using contains(null), immutable lists throw on null queries
+        for(DerivationRequest mRequest : requests){
+            if(mRequest == null){
+                throw new IllegalArgumentException("Arguments cannot be null");
+            }
+        }
+        int count = requests.size();
+        if(count == 0){
+            return Collections.emptyList();
+        }
+
+        int chunks = Math.min(count, maxParallelism);
+        List<CompletableFuture<byte[][]>> mFutures = new ArrayList<>(chunks);
+        for(int i = 0; i < chunks; i++){
+            int from = (int) ((long) count * i / chunks);
+            int to = (int) ((long) count * (i + 1) / chunks);
+            List<DerivationRequest> mChunk = requests.subList(from, to);
+            mFutures.add(CompletableFuture.supplyAsync(() -> deriveChunk(mChunk), mExecutor));
+        }
+
+        List<byte[]> mKeys = new ArrayList<>(count);
+        try{
+            for(CompletableFuture<byte[][]> mFuture : mFutures){
+                Collections.addAll(mKeys, mFuture.join());
+            }
+        }catch(CompletionException e){
+            if(e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Key derivation failed", e.getCause());
+        }
+        return mKeys;
+    }
+
+    /**
+     * @return The maximum number of concurrent derivations
+     */
+    public int getMaxParallelism(){
+        return maxParallelism;
+    }
+
+    private static byte[][] deriveChunk(List<DerivationRequest> mChunk){
+        byte[][] keys = new byte[mChunk.size()][];
+        for(int i = 0; i < keys.length; i++){
+            keys[i] = mChunk.get(i).derive();
+        }
+        return keys;
+    }
+
+    /**
+     * Builder for ParallelKeyDerivation
+     */
+    public static class Builder {
+
+        private Executor mExecutor = ForkJoinPool.commonPool();
+        private int maxParallelism = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * @param mExecutor The executor to run derivations on, defaults to {@link ForkJoinPool#commonPool()}
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if the executor is null
+         */
+        public Builder executor(Executor mExecutor){
+            if(mExecutor == null){
+                throw new IllegalArgumentException("Executor cannot be null");
+            }
+            this.mExecutor = mExecutor;
+            return this;
+        }
+
+        /**
+         * @param maxParallelism The maximum number of concurrent derivations, defaults to the available processors
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if the value is less than 1
+         */
+        public Builder maxParallelism(int maxParallelism){
+            if(maxParallelism < 1){
+                throw new IllegalArgumentException("Parallelism must be >= 1");
+            }
+            this.maxParallelism = maxParallelism;
+            return this;
+        }
+
+        /**
+         * @return The configured ParallelKeyDerivation instance
+         */
+        public ParallelKeyDerivation build(){
+            return new ParallelKeyDerivation(mExecutor, maxParallelism);
+        }
+    }
+}
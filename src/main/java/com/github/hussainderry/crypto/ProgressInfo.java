@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+/**
+ * Immutable snapshot of the progress of an encryption or decryption process
+ * @author Hussain Al-Derry
+ */
+public final class ProgressInfo {
+
+    /** Returned by the getters when the value is unknown */
+    public static final long UNKNOWN = -1;
+
+    private final long bytesProcessed;
+    private final long totalBytes;
+    private final long elapsedNanos;
+
+    ProgressInfo(long bytesProcessed, long totalBytes, long elapsedNanos) {
+        this.bytesProcessed = bytesProcessed;
+        this.totalBytes = totalBytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return The number of bytes processed so far
+     */
+    public long getBytesProcessed() {
+        return bytesProcessed;
+    }
+
+    /**
+     * @return The total number of bytes to process, or {@link #UNKNOWN}
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return The time elapsed since the process started in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    /**
+     * @return The progress percentage (0 - 100), or {@link #UNKNOWN} if the total is unknown
+     */
+    public int getPercentage() {
+        if(totalBytes <= 0){
+            return (int) UNKNOWN;
+        }
+        return (int) Math.min(100, (bytesProcessed * 100) / totalBytes);
+    }
+
+    /**
+     * @return The average throughput since the process started in bytes per second
+     */
+    public double getBytesPerSecond() {
+        return elapsedNanos > 0 ? (bytesProcessed * 1_000_000_000d) / elapsedNanos : 0;
+    }
+
+    /**
+     * @return The estimated remaining time in milliseconds, or {@link #UNKNOWN} if the total is unknown
+     */
+    public long getEtaMillis() {
+        double rate = getBytesPerSecond();
+        if(totalBytes <= 0 || rate <= 0){
+            return UNKNOWN;
+        }
+        long remaining = Math.max(0, totalBytes - bytesProcessed);
+        return (long) ((remaining * 1000d) / rate);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d bytes (%d%%), %.0f B/s, ETA %d ms",
+                bytesProcessed, totalBytes, getPercentage(), getBytesPerSecond(), getEtaMillis());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+/**
+ * Tracks the bytes processed by a single process and publishes throttled updates to the monitors.
+ * {@link #advance(int)} is called on the hot loop, it only compares counters until the byte interval has passed
+ * and only reads the clock after that.
+ * @author Hussain Al-Derry
+ */
+final class ProgressTracker {
+
+    /** Default minimum time between two updates */
+    static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    /** Default minimum number of bytes between two updates */
+    static final long DEFAULT_INTERVAL_BYTES = 64 * 1024;
+
+    private final ProgressMonitor mPercentageMonitor;
+    private final ByteProgressMonitor mByteMonitor;
+    private final long totalBytes;
+    private final long intervalNanos;
+    private final long intervalBytes;
+    private final long startTime;
+
+    private long bytesProcessed;
+    private long lastReportedBytes;
+    private long lastReportedTime;
+    private int lastPercentage = -1;
+
+    ProgressTracker(ProgressMonitor mPercentageMonitor, ByteProgressMonitor mByteMonitor, long totalBytes,
+                    long intervalMillis, long intervalBytes) {
+        this.mPercentageMonitor = mPercentageMonitor;
+        this.mByteMonitor = mByteMonitor;
+        this.totalBytes = totalBytes > 0 ? totalBytes : ProgressInfo.UNKNOWN;
+        this.intervalNanos = intervalMillis * 1_000_000;
+        this.intervalBytes = intervalBytes;
+        this.startTime = System.nanoTime();
+        this.lastReportedTime = startTime;
+    }
+
+    /**
+     * @return The number of bytes processed so far
+     */
+    long getBytesProcessed(){
+        return bytesProcessed;
+    }
+
+    /**
+     * Records processed bytes and publishes an update if both the byte and time intervals have passed
+     * @param bytes The number of bytes processed since the last call
+     */
+    void advance(int bytes){
+        bytesProcessed += bytes;
+        if(bytesProcessed - lastReportedBytes < intervalBytes){
+            return;
+        }
+        long now = System.nanoTime();
+        if(now - lastReportedTime >= intervalNanos){
+            publish(now, false);
+        }
+    }
+
+    /**
+     * Publishes the final update regardless of the intervals
+     */
+    void complete(){
+        publish(System.nanoTime(), true);
+    }
+
+    private void publish(long now, boolean completed){
+        lastReportedBytes = bytesProcessed;
+        lastReportedTime = now;
+        ProgressInfo mInfo = new ProgressInfo(bytesProcessed, totalBytes, now - startTime);
+        if(mByteMonitor != null){
+            mByteMonitor.progressUpdated(mInfo);
+        }
+        if(mPercentageMonitor != null && (totalBytes > 0 || completed)){
+            int percentage = completed ? 100 : mInfo.getPercentage();
+            if(percentage != lastPercentage){
+                lastPercentage = percentage;
+                mPercentageMonitor.progressUpdated(percentage);
+            }
+        }
+    }
+}
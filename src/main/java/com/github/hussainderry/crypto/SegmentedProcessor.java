@@ -0,0 +1,228 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base for the streaming cipher processors. Upstream chunks are requested one at a time and only while the
+ * downstream subscriber has outstanding demand and every output of the previous chunk has been delivered,
+ * so at most one input chunk worth of output is buffered. All downstream signals go through a single drain loop.
+ * Supports a single subscriber.
+ * @author Hussain Al-Derry
+ */
+abstract class SegmentedProcessor implements Processor<ByteBuffer, ByteBuffer>, Subscription {
+
+    private final Queue<ByteBuffer> mOutput = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicLong demand = new AtomicLong();
+
+    private volatile Subscriber<? super ByteBuffer> mSubscriber;
+    private volatile Subscription mUpstream;
+    private volatile boolean upstreamRequested;
+    private volatile boolean upstreamDone;
+    private volatile boolean cancelled;
+    private volatile Throwable mError;
+    private boolean terminated;
+
+    /**
+     * Transforms an input chunk, adding the results to the output queue
+     * @throws IllegalStateException if the input can't be processed
+     */
+    abstract void process(ByteBuffer mInput, Queue<ByteBuffer> mOutput);
+
+    /**
+     * Called once the input is complete, adding any remaining results to the output queue
+     * @throws IllegalStateException if the input is incomplete or can't be processed
+     */
+    abstract void finish(Queue<ByteBuffer> mOutput);
+
+    /**
+     * Wipes key material, called once the processor terminates or gets cancelled
+     */
+    abstract void release();
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> mSubscriber){
+        if(mSubscriber == null){
+            throw new NullPointerException("Subscriber cannot be null");
+        }
+        synchronized(this){
+            if(this.mSubscriber != null){
+                mSubscriber.onSubscribe(NoOpSubscription.INSTANCE);
+                mSubscriber.onError(new IllegalStateException("Only a single subscriber is supported"));
+                return;
+            }
+            this.mSubscriber = mSubscriber;
+        }
+        mSubscriber.onSubscribe(this);
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Subscription mSubscription){
+        if(mSubscription == null){
+            throw new NullPointerException("Subscription cannot be null");
+        }
+        if(mUpstream != null || cancelled){
+            mSubscription.cancel();
+            return;
+        }
+        mUpstream = mSubscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(ByteBuffer mInput){
+        if(mInput == null){
+            throw new NullPointerException("Chunk cannot be null");
+        }
+        if(upstreamDone || cancelled){
+            return;
+        }
+        try{
+            process(mInput, mOutput);
+        }catch(RuntimeException e){
+            mUpstream.cancel();
+            fail(e);
+            return;
+        }
+        upstreamRequested = false;
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable mThrowable){
+        if(mThrowable == null){
+            throw new NullPointerException("Error cannot be null");
+        }
+        if(!upstreamDone){
+            fail(mThrowable);
+        }
+    }
+
+    @Override
+    public void onComplete(){
+        if(upstreamDone || cancelled){
+            return;
+        }
+        try{
+            finish(mOutput);
+        }catch(RuntimeException e){
+            fail(e);
+            return;
+        }
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void request(long n){
+        if(n <= 0){
+            Subscription mSubscription = mUpstream;
+            if(mSubscription != null){
+                mSubscription.cancel();
+            }
+            fail(new IllegalArgumentException("Requested amount must be positive, was " + n));
+            return;
+        }
+        long current;
+        do{
+            current = demand.get();
+        }while(!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+        drain();
+    }
+
+    @Override
+    public void cancel(){
+        if(!cancelled){
+            cancelled = true;
+            Subscription mSubscription = mUpstream;
+            if(mSubscription != null){
+                mSubscription.cancel();
+            }
+            drain();
+        }
+    }
+
+    private void fail(Throwable mThrowable){
+        mError = mThrowable;
+        mOutput.clear();
+        upstreamDone = true;
+        drain();
+    }
+
+    private void drain(){
+        if(wip.getAndIncrement() != 0){
+            return;
+        }
+        int missed = 1;
+        while(true){
+            Subscriber<? super ByteBuffer> mDownstream = mSubscriber;
+            if(!terminated && cancelled){
+                terminated = true;
+                mOutput.clear();
+                release();
+            }else if(!terminated && mDownstream != null){
+                while(demand.get() > 0 && !mOutput.isEmpty() && !cancelled){
+                    mDownstream.onNext(mOutput.poll());
+                    demand.decrementAndGet();
+                }
+
+                if(mOutput.isEmpty() && !cancelled){
+                    if(upstreamDone){
+                        terminated = true;
+                        release();
+                        if(mError != null){
+                            mDownstream.onError(mError);
+                        }else{
+                            mDownstream.onComplete();
+                        }
+                    }else if(demand.get() > 0 && mUpstream != null && !upstreamRequested){
+                        upstreamRequested = true;
+                        mUpstream.request(1);
+                    }
+                }
+            }
+
+            missed = wip.addAndGet(-missed);
+            if(missed == 0){
+                break;
+            }
+        }
+    }
+
+    private enum NoOpSubscription implements Subscription {
+        INSTANCE;
+
+        @Override
+        public void request(long n){
+        }
+
+        @Override
+        public void cancel(){
+        }
+    }
+}
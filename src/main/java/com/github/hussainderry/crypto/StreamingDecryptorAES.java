@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import org.reactivestreams.Processor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Queue;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static com.github.hussainderry.crypto.Constants.ALGORITHM;
+import static com.github.hussainderry.crypto.Constants.INT_SIZE;
+import static com.github.hussainderry.crypto.Constants.IV_SIZE;
+import static com.github.hussainderry.crypto.Constants.TAG_LENGTH;
+import static com.github.hussainderry.crypto.StreamingFormat.*;
+
+/**
+ * Non-blocking decryption of streams created by {@link StreamingEncryptorAES}. Every segment is authenticated
+ * before it's emitted, and a stream that is truncated, reordered or modified fails with an
+ * {@link IllegalStateException}. The PBKDF2 key is derived on the thread delivering the header, then cached
+ * for later streams with the same configurations.
+ * @author Hussain Al-Derry
+ */
+public final class StreamingDecryptorAES {
+
+    private final String password;
+    private volatile CachedKey mCachedKey;
+
+    /**
+     * @param password The password the streams were encrypted with
+     * @throws IllegalArgumentException if the password is null
+     */
+    public StreamingDecryptorAES(String password){
+        if(password == null){
+            throw new IllegalArgumentException("Password cannot be null");
+        }
+        this.password = password;
+    }
+
+    /**
+     * Creates a processor decrypting a single stream. The input buffers are read, not retained,
+     * and every output buffer is new.
+     * @return A new decryption processor
+     * @throws IllegalStateException if there is an error initializing the cipher
+     */
+    public Processor<ByteBuffer, ByteBuffer> newDecryptProcessor(){
+        return new DecryptProcessor(this);
+    }
+
+    private byte[] keyFor(String config){
+        CachedKey mKey = mCachedKey;
+        if(mKey == null || !mKey.config.equals(config)){
+            PBKDF2Helper mHelper;
+            try{
+                mHelper = new PBKDF2Helper.Builder(config).build();
+            }catch(RuntimeException e){
+                throw new IllegalStateException("Invalid stream header", e);
+            }
+            mKey = new CachedKey(config, mHelper.createKeyFromPassword(password));
+            mCachedKey = mKey;
+        }
+        return mKey.key;
+    }
+
+    private static final class CachedKey {
+
+        private final String config;
+        private final byte[] key;
+
+        private CachedKey(String config, byte[] key){
+            this.config = config;
+            this.key = key;
+        }
+    }
+
+    private static final class DecryptProcessor extends SegmentedProcessor {
+
+        private static final int STATE_HEADER = 0;
+        private static final int STATE_CONFIG = 1;
+        private static final int STATE_LENGTH = 2;
+        private static final int STATE_SEGMENT = 3;
+        private static final int STATE_DONE = 4;
+
+        private final StreamingDecryptorAES mDecryptor;
+        private final Cipher mCipher;
+        private final byte[] nonce = new byte[IV_SIZE];
+        private ByteBuffer mPending = ByteBuffer.allocate(FIXED_HEADER_SIZE);
+        private ByteBuffer mSegment;
+        private SecretKeySpec mKey;
+        private int state = STATE_HEADER;
+        private int segmentSize;
+        private boolean lastSegment;
+        private long segment;
+
+        private DecryptProcessor(StreamingDecryptorAES mDecryptor){
+            this.mDecryptor = mDecryptor;
+            try{
+                this.mCipher = CryptoProviders.newCipher();
+            }catch(NoSuchAlgorithmException | NoSuchPaddingException e){
+                throw new IllegalStateException("Unable to initialize cipher", e);
+            }
+        }
+
+        @Override
+        void process(ByteBuffer mInput, Queue<ByteBuffer> mOutput){
+            while(mInput.hasRemaining()){
+                if(state == STATE_DONE){
+                    throw new IllegalStateException("Unexpected data after the final segment");
+                }
+                int length = Math.min(mPending.remaining(), mInput.remaining());
+                ByteBuffer mSlice = mInput.duplicate();
+                mSlice.limit(mSlice.position() + length);
+                mPending.put(mSlice);
+                mInput.position(mInput.position() + length);
+                if(!mPending.hasRemaining()){
+                    mPending.flip();
+                    advance(mOutput);
+                }
+            }
+        }
+
+        @Override
+        void finish(Queue<ByteBuffer> mOutput){
+            if(state != STATE_DONE){
+                throw new IllegalStateException("Stream is truncated");
+            }
+        }
+
+        @Override
+        void release(){
+            if(mSegment != null){
+                Arrays.fill(mSegment.array(), (byte) 0);
+            }
+        }
+
+        private void advance(Queue<ByteBuffer> mOutput){
+            switch(state){
+                case STATE_HEADER:
+                    int magic = mPending.getInt();
+                    int version = mPending.getInt();
+                    segmentSize = mPending.getInt();
+                    int configLength = mPending.getInt();
+                    if(magic != MAGIC || version != VERSION || segmentSize < MIN_SEGMENT_SIZE
+                            || segmentSize > MAX_SEGMENT_SIZE || configLength < 1 || configLength > MAX_CONFIG_LENGTH){
+                        throw new IllegalStateException("Invalid stream header");
+                    }
+                    mPending = ByteBuffer.allocate(configLength + STREAM_SALT_SIZE + NONCE_PREFIX_SIZE);
+                    state = STATE_CONFIG;
+                    break;
+                case STATE_CONFIG:
+                    byte[] config = new byte[mPending.remaining() - STREAM_SALT_SIZE - NONCE_PREFIX_SIZE];
+                    byte[] streamSalt = new byte[STREAM_SALT_SIZE];
+                    mPending.get(config).get(streamSalt).get(nonce, 0, NONCE_PREFIX_SIZE);
+                    byte[] streamKey = deriveStreamKey(mDecryptor.keyFor(new String(config, StandardCharsets.UTF_8)), streamSalt);
+                    mKey = new SecretKeySpec(streamKey, ALGORITHM);
+                    Arrays.fill(streamKey, (byte) 0);
+                    mSegment = ByteBuffer.allocate(segmentSize + TAG_SIZE);
+                    mPending = ByteBuffer.allocate(INT_SIZE);
+                    state = STATE_LENGTH;
+                    break;
+                case STATE_LENGTH:
+                    int value = mPending.getInt();
+                    lastSegment = (value & FINAL_FLAG) != 0;
+                    int length = value & ~FINAL_FLAG;
+                    if(length < TAG_SIZE || length > segmentSize + TAG_SIZE){
+                        throw new IllegalStateException("Invalid segment length");
+                    }
+                    mSegment.clear();
+                    mSegment.limit(length);
+                    mPending = mSegment;
+                    state = STATE_SEGMENT;
+                    break;
+                case STATE_SEGMENT:
+                    mOutput.add(open());
+                    if(lastSegment){
+                        state = STATE_DONE;
+                    }else{
+                        mPending = ByteBuffer.allocate(INT_SIZE);
+                        state = STATE_LENGTH;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected data after the final segment");
+            }
+        }
+
+        private ByteBuffer open(){
+            segmentNonce(nonce, segment++, lastSegment);
+            ByteBuffer mPlain = ByteBuffer.allocate(mSegment.remaining() - TAG_SIZE);
+            try{
+                mCipher.init(Cipher.DECRYPT_MODE, mKey, new GCMParameterSpec(TAG_LENGTH, nonce));
+                mCipher.doFinal(mSegment, mPlain);
+            }catch(AEADBadTagException e){
+                throw new IllegalStateException("Invalid password, or the stream was modified", e);
+            }catch(GeneralSecurityException e){
+                throw new IllegalStateException("Unable to decrypt", e);
+            }
+            mPlain.flip();
+            return mPlain;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.crypto.enums.Iterations;
+import com.github.hussainderry.crypto.enums.KeySize;
+import com.github.hussainderry.crypto.enums.SaltSize;
+import org.reactivestreams.Processor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Queue;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static com.github.hussainderry.crypto.Constants.ALGORITHM;
+import static com.github.hussainderry.crypto.Constants.INT_SIZE;
+import static com.github.hussainderry.crypto.Constants.IV_SIZE;
+import static com.github.hussainderry.crypto.Constants.TAG_LENGTH;
+import static com.github.hussainderry.crypto.StreamingFormat.*;
+
+/**
+ * Non-blocking encryption of {@link ByteBuffer} streams as Reactive Streams processors with backpressure.
+ * The input is split into fixed-size segments, each encrypted with AES-GCM as soon as it fills up, so bodies are
+ * never buffered whole and no thread blocks on IO. The PBKDF2 key is derived once when the encryptor is built.
+ * On Java 9+ the processors can be adapted to {@code java.util.concurrent.Flow} using
+ * {@code org.reactivestreams.FlowAdapters}. Use {@link StreamingDecryptorAES} to decrypt.
+ * @author Hussain Al-Derry
+ */
+public final class StreamingEncryptorAES {
+
+    private final byte[] key;
+    private final byte[] header;
+    private final int segmentSize;
+
+    private StreamingEncryptorAES(Builder builder){
+        PBKDF2Helper mHelper = new PBKDF2Helper.Builder(builder.keySize)
+                .iterations(builder.iterations)
+                .saltSize(builder.saltSize)
+                .build();
+        this.key = mHelper.createKeyFromPassword(builder.password);
+        this.segmentSize = builder.segmentSize;
+
+        byte[] config = mHelper.getPbkdf2Configurations().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer mHeader = ByteBuffer.allocate(FIXED_HEADER_SIZE + config.length);
+        mHeader.putInt(MAGIC).putInt(VERSION).putInt(segmentSize).putInt(config.length).put(config);
+        this.header = mHeader.array();
+    }
+
+    /**
+     * Creates a processor encrypting a single stream. Subscribe it to the plain chunks and subscribe the consumer
+     * of the encrypted chunks to it. The input buffers are read, not retained, and every output buffer is new.
+     * @return A new encryption processor
+     * @throws IllegalStateException if there is an error initializing the cipher
+     */
+    public Processor<ByteBuffer, ByteBuffer> newEncryptProcessor(){
+        return new EncryptProcessor(this);
+    }
+
+    /**
+     * @return The plain size of each segment
+     */
+    public int getSegmentSize(){
+        return segmentSize;
+    }
+
+    private static final class EncryptProcessor extends SegmentedProcessor {
+
+        private final Cipher mCipher;
+        private final SecretKeySpec mKey;
+        private final byte[] header;
+        private final byte[] nonce = new byte[IV_SIZE];
+        private final ByteBuffer mSegment;
+        private long segment;
+        private boolean headerSent;
+
+        private EncryptProcessor(StreamingEncryptorAES mEncryptor){
+            try{
+                this.mCipher = CryptoProviders.newCipher();
+            }catch(NoSuchAlgorithmException | NoSuchPaddingException e){
+                throw new IllegalStateException("Unable to initialize cipher", e);
+            }
+            byte[] streamSalt = new byte[STREAM_SALT_SIZE];
+            byte[] prefix = new byte[NONCE_PREFIX_SIZE];
+            NonceSources.perThreadRandom().nextBytes(streamSalt);
+            NonceSources.perThreadRandom().nextBytes(prefix);
+            System.arraycopy(prefix, 0, nonce, 0, NONCE_PREFIX_SIZE);
+
+            byte[] streamKey = deriveStreamKey(mEncryptor.key, streamSalt);
+            this.mKey = new SecretKeySpec(streamKey, ALGORITHM);
+            Arrays.fill(streamKey, (byte) 0);
+
+            this.header = ByteBuffer.allocate(mEncryptor.header.length + STREAM_SALT_SIZE + NONCE_PREFIX_SIZE)
+                    .put(mEncryptor.header).put(streamSalt).put(prefix).array();
+            this.mSegment = ByteBuffer.allocate(mEncryptor.segmentSize);
+        }
+
+        @Override
+        void process(ByteBuffer mInput, Queue<ByteBuffer> mOutput){
+            sendHeader(mOutput);
+            while(mInput.hasRemaining()){
+                // A full segment is only sealed once more data arrives, so the last one can be marked as final
+                if(!mSegment.hasRemaining()){
+                    seal(false, mOutput);
+                }
+                int length = Math.min(mSegment.remaining(), mInput.remaining());
+                ByteBuffer mSlice = mInput.duplicate();
+                mSlice.limit(mSlice.position() + length);
+                mSegment.put(mSlice);
+                mInput.position(mInput.position() + length);
+            }
+        }
+
+        @Override
+        void finish(Queue<ByteBuffer> mOutput){
+            sendHeader(mOutput);
+            seal(true, mOutput);
+        }
+
+        @Override
+        void release(){
+            Arrays.fill(mSegment.array(), (byte) 0);
+        }
+
+        private void sendHeader(Queue<ByteBuffer> mOutput){
+            if(!headerSent){
+                headerSent = true;
+                mOutput.add(ByteBuffer.wrap(header));
+            }
+        }
+
+        private void seal(boolean last, Queue<ByteBuffer> mOutput){
+            mSegment.flip();
+            int length = mSegment.remaining() + TAG_SIZE;
+            ByteBuffer mSealed = ByteBuffer.allocate(INT_SIZE + length);
+            mSealed.putInt(last ? length | FINAL_FLAG : length);
+            segmentNonce(nonce, segment++, last);
+            try{
+                mCipher.init(Cipher.ENCRYPT_MODE, mKey, new GCMParameterSpec(TAG_LENGTH, nonce));
+                mCipher.doFinal(mSegment, mSealed);
+            }catch(GeneralSecurityException e){
+                throw new IllegalStateException("Unable to encrypt", e);
+            }
+            mSegment.clear();
+            mSealed.flip();
+            mOutput.add(mSealed);
+        }
+    }
+
+    /**
+     * Builder for StreamingEncryptorAES
+     */
+    public static class Builder {
+
+        private final String password;
+        private KeySize keySize = KeySize.KEY_256;
+        private Iterations iterations = Iterations.HIGH;
+        private SaltSize saltSize = SaltSize.SALT_128;
+        private int segmentSize = DEFAULT_SEGMENT_SIZE;
+
+        /**
+         * Creates a new builder using the high security params of {@link FileEncryptorAES} by default
+         * @param password The base password to use
+         * @throws IllegalArgumentException if the password is null
+         */
+        public Builder(String password){
+            if(password == null){
+                throw new IllegalArgumentException("Password cannot be null");
+            }
+            this.password = password;
+        }
+
+        /**
+         * @param keySize The AES key size
+         * @return The modified builder instance
+         */
+        public Builder keySize(KeySize keySize){
+            this.keySize = keySize;
+            return this;
+        }
+
+        /**
+         * @param iterations The PBKDF2 iterations
+         * @return The modified builder instance
+         */
+        public Builder iterations(Iterations iterations){
+            this.iterations = iterations;
+            return this;
+        }
+
+        /**
+         * @param saltSize The PBKDF2 salt size
+         * @return The modified builder instance
+         */
+        public Builder saltSize(SaltSize saltSize){
+            this.saltSize = saltSize;
+            return this;
+        }
+
+        /**
+         * @param segmentSize The plain size of each encrypted segment, defaults to 64 KiB
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if the size is less than 256 bytes or more than 16 MiB
+         */
+        public Builder segmentSize(int segmentSize){
+            if(segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE){
+                throw new IllegalArgumentException("Invalid segment size");
+            }
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Creates a {@link StreamingEncryptorAES}, deriving the PBKDF2 key
+         * @return The configured StreamingEncryptorAES instance
+         * @throws IllegalArgumentException if any of the params is null
+         */
+        public StreamingEncryptorAES build(){
+            if(keySize == null || iterations == null || saltSize == null){
+                throw new IllegalArgumentException("Arguments cannot be null");
+            }
+            return new StreamingEncryptorAES(this);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Layout shared by {@link StreamingEncryptorAES} and {@link StreamingDecryptorAES}.
+ * <p>
+ * Header: [int magic][int version][int segment size][int config length][PBKDF2 config][16 byte stream salt]
+ * [7 byte nonce prefix], followed by segments of [int length | final flag][AES-GCM ciphertext and tag].
+ * Every stream is encrypted with its own key, HMAC-SHA256(PBKDF2 key, stream salt), and segment i uses the nonce
+ * [prefix][int i][final flag byte], so segments can't be reordered, dropped or truncated without failing the tag.
+ * @author Hussain Al-Derry
+ */
+final class StreamingFormat {
+
+    static final int MAGIC = 0x46455331;
+    static final int VERSION = 1;
+    static final int FIXED_HEADER_SIZE = 16;
+    static final int STREAM_SALT_SIZE = 16;
+    static final int NONCE_PREFIX_SIZE = 7;
+    static final int TAG_SIZE = 16;
+    static final int FINAL_FLAG = 0x80000000;
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    static final int MIN_SEGMENT_SIZE = 256;
+    static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    static final int MAX_CONFIG_LENGTH = 1024;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private StreamingFormat() {
+    }
+
+    /**
+     * @return The key of a single stream
+     * @throws IllegalStateException if HMAC-SHA256 isn't available
+     */
+    static byte[] deriveStreamKey(byte[] key, byte[] streamSalt){
+        try{
+            Mac mMac = Mac.getInstance(MAC_ALGORITHM);
+            mMac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+            byte[] streamKey = mMac.doFinal(streamSalt);
+            byte[] result = Arrays.copyOf(streamKey, key.length);
+            Arrays.fill(streamKey, (byte) 0);
+            return result;
+        }catch(NoSuchAlgorithmException | InvalidKeyException e){
+            throw new IllegalStateException("Unable to initialize cipher", e);
+        }
+    }
+
+    /**
+     * Writes the nonce of the given segment into the 12 byte nonce array, which already starts with the prefix
+     * @throws IllegalStateException if the stream has too many segments
+     */
+    static void segmentNonce(byte[] nonce, long segment, boolean last){
+        if(segment > 0xFFFFFFFFL){
+            throw new IllegalStateException("Stream has too many segments");
+        }
+        nonce[NONCE_PREFIX_SIZE] = (byte) (segment >>> 24);
+        nonce[NONCE_PREFIX_SIZE + 1] = (byte) (segment >>> 16);
+        nonce[NONCE_PREFIX_SIZE + 2] = (byte) (segment >>> 8);
+        nonce[NONCE_PREFIX_SIZE + 3] = (byte) segment;
+        nonce[NONCE_PREFIX_SIZE + 4] = (byte) (last ? 1 : 0);
+    }
+}
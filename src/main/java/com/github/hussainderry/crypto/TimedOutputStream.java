@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream accumulating the time spent writing to the wrapped stream, used when instrumentation is enabled
+ * @author Hussain Al-Derry
+ */
+final class TimedOutputStream extends FilterOutputStream {
+
+    private long nanos;
+
+    TimedOutputStream(OutputStream mTarget){
+        super(mTarget);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = System.nanoTime();
+        try{
+            out.write(b);
+        }finally{
+            nanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        try{
+            out.write(bytes, offset, length);
+        }finally{
+            nanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        try{
+            out.flush();
+        }finally{
+            nanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @return The time spent in the wrapped stream in nanoseconds
+     */
+    long getNanos(){
+        return nanos;
+    }
+}
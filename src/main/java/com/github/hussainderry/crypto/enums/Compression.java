@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto.enums;
+
+/**
+ * Compression applied to the data before it gets encrypted
+ * NONE: The data is encrypted as is
+ * DEFLATE: Every chunk is compressed using {@link java.util.zip.Deflater}, chunks that don't shrink are stored as is
+ * ADAPTIVE: Like DEFLATE, but backs off from compressing after incompressible chunks to save CPU on compressed data
+ * @author Hussain Al-Derry
+ */
+public enum Compression {
+
+    NONE(0), DEFLATE(1), ADAPTIVE(2);
+
+    private int value;
+
+    Compression(int value) {
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * @param value The stored compression value
+     * @return The matching compression
+     * @throws IllegalArgumentException if there is no matching compression
+     */
+    public static Compression fromValue(int value) {
+        for(Compression mCompression : values()){
+            if(mCompression.value == value){
+                return mCompression;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression: " + value);
+    }
+}
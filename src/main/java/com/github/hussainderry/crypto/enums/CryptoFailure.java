@@ -0,0 +1,30 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto.enums;
+
+/**
+ * The failures reported to a {@link com.github.hussainderry.crypto.CryptoMetrics} implementation
+ * BAD_PASSWORD: The password checksum stored in an encrypted file doesn't match the given password, or opens none of its key slots
+ * TAG_MISMATCH: The GCM authentication tag didn't verify, the data was modified or the password is wrong
+ * IO_ERROR: Reading the source or writing the target failed
+ * @author Hussain Al-Derry
+ */
+public enum CryptoFailure {
+
+    BAD_PASSWORD, TAG_MISMATCH, IO_ERROR
+
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto.enums;
+
+/**
+ * The operations reported to a {@link com.github.hussainderry.crypto.CryptoMetrics} implementation
+ * ENCRYPT: {@link com.github.hussainderry.crypto.CipherAES} and {@link com.github.hussainderry.crypto.KeyedCipherAES} encryption
+ * DECRYPT: {@link com.github.hussainderry.crypto.CipherAES} and {@link com.github.hussainderry.crypto.KeyedCipherAES} decryption
+ * FILE_ENCRYPT: {@link com.github.hussainderry.crypto.FileEncryptorAES}
+ * FILE_DECRYPT: {@link com.github.hussainderry.crypto.FileDecryptorAES}
+ * @author Hussain Al-Derry
+ */
+public enum CryptoOperation {
+
+    ENCRYPT, DECRYPT, FILE_ENCRYPT, FILE_DECRYPT
+
+}
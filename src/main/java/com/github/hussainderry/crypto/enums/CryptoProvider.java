@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto.enums;
+
+/**
+ * Implementations the crypto classes can use for AES-GCM and PBKDF2
+ * AUTO: The built-in choice, JCE for AES-GCM, and for PBKDF2 the JCE when the JVM has SHA-256 intrinsics, else PBKDF2_ENGINE
+ * JCE: The default JCE providers of the JVM
+ * BOUNCY_CASTLE: The BouncyCastle provider, without registering it globally
+ * PBKDF2_ENGINE: {@link com.github.hussainderry.crypto.PBKDF2Engine}, PBKDF2 only
+ * @author Hussain Al-Derry
+ */
+public enum CryptoProvider {
+
+    AUTO, JCE, BOUNCY_CASTLE, PBKDF2_ENGINE
+
+}
@@ -17,12 +17,33 @@
 package com.github.hussainderry.crypto.enums;
 
 /**
- * Types of digests that can be used with PBKDF2
+ * Types of digests that can be used with PBKDF2 and {@link com.github.hussainderry.crypto.HashSHA}
  * @author Hussain Al-Derry
- * @version 1.0
+ * @version 1.1
  * */
 public enum DigestType {
 
-    SHA1, SHA256, SHA512
+    SHA1("SHA-1", 20), SHA256("SHA-256", 32), SHA512("SHA-512", 64);
 
+    private String algorithm;
+    private int length;
+
+    DigestType(String algorithm, int length){
+        this.algorithm = algorithm;
+        this.length = length;
+    }
+
+    /**
+     * @return The JCA name of the digest algorithm
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return The digest length in bytes
+     */
+    public int getLength() {
+        return length;
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.storage;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Function;
+
+/**
+ * A bounded LRU cache of decrypted values with a time to live counted from when the value was cached.
+ * The cache owns the cached arrays and zeroes them when they are evicted, expired, invalidated or cleared,
+ * the plain data never leaves the cache other than through the decoder given to {@link #get(String, Function)}.
+ * @author Hussain Al-Derry
+ */
+final class DecryptedValueCache {
+
+    private final int maxEntries;
+    private final long timeToLiveNanos;
+    private final LinkedHashMap<String, Entry> mEntries;
+    private long invalidations;
+
+    /**
+     * @param maxEntries The maximum number of cached values
+     * @param timeToLiveNanos The time each value stays cached in nanoseconds
+     */
+    DecryptedValueCache(int maxEntries, long timeToLiveNanos){
+        this.maxEntries = maxEntries;
+        this.timeToLiveNanos = timeToLiveNanos;
+        this.mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Decodes the cached value of the given key
+     * @param key The preference key
+     * @param mDecoder Creates the returned value from the cached plain data, must not keep a reference to the array
+     * @return The decoded value, or null if the key isn't cached
+     */
+    synchronized <T> T get(String key, Function<byte[], T> mDecoder){
+        Entry mEntry = mEntries.get(key);
+        if(mEntry == null){
+            return null;
+        }else if(System.nanoTime() - mEntry.cachedAt > timeToLiveNanos){
+            mEntries.remove(key);
+            mEntry.wipe();
+            return null;
+        }
+        return mDecoder.apply(mEntry.data);
+    }
+
+    /**
+     * @return A stamp to pass to {@link #put(String, byte[], long)}, taken before reading the value from the store
+     */
+    synchronized long stamp(){
+        return invalidations;
+    }
+
+    /**
+     * Caches a value read from the store, the cache takes ownership of the array.
+     * The value is dropped if any key was invalidated since the stamp was taken, as it may be stale.
+     * @param key The preference key
+     * @param data The plain data
+     * @param stamp The stamp taken before reading the value
+     */
+    synchronized void put(String key, byte[] data, long stamp){
+        if(stamp != invalidations){
+            Arrays.fill(data, (byte) 0);
+            return;
+        }
+        Entry mPrevious = mEntries.put(key, new Entry(data, System.nanoTime()));
+        if(mPrevious != null){
+            mPrevious.wipe();
+        }
+        if(mEntries.size() > maxEntries){
+            Iterator<Entry> mIterator = mEntries.values().iterator();
+            Entry mEldest = mIterator.next();
+            mIterator.remove();
+            mEldest.wipe();
+        }
+    }
+
+    /**
+     * Removes the cached value of the given key, called after the key is written
+     * @param key The preference key
+     */
+    synchronized void invalidate(String key){
+        invalidations++;
+        Entry mEntry = mEntries.remove(key);
+        if(mEntry != null){
+            mEntry.wipe();
+        }
+    }
+
+    /**
+     * Removes the cached values of the given keys at once, called before and after a batch is written
+     * @param keys The preference keys
+     */
+    synchronized void invalidateAll(Collection<String> keys){
+        invalidations++;
+        for(String key : keys){
+            Entry mEntry = mEntries.remove(key);
+            if(mEntry != null){
+                mEntry.wipe();
+            }
+        }
+    }
+
+    /**
+     * Removes and zeroes all the cached values
+     */
+    synchronized void clear(){
+        invalidations++;
+        for(Entry mEntry : mEntries.values()){
+            mEntry.wipe();
+        }
+        mEntries.clear();
+    }
+
+    /**
+     * @return The number of cached values, including expired values not yet removed
+     */
+    synchronized int size(){
+        return mEntries.size();
+    }
+
+    private static final class Entry {
+
+        private final byte[] data;
+        private final long cachedAt;
+
+        private Entry(byte[] data, long cachedAt){
+            this.data = data;
+            this.cachedAt = cachedAt;
+        }
+
+        private void wipe(){
+            Arrays.fill(data, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,739 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link StorageBackend} keeping the values in an append-only log file, memory mapped and indexed in memory.
+ * Writes append a record to the mapping and reads copy the value straight from it,
+ * a batch of writes is appended as a single record so it is replayed either completely or not at all.
+ * Every record carries a CRC32, on opening the log is replayed up to a torn tail, an incomplete or corrupted record
+ * with no valid record after it, so a crash loses at most the writes that weren't flushed.
+ * A corrupted record followed by valid ones fails the open instead of dropping them. Once enough of the log is taken by replaced and removed
+ * values it is compacted on the executor, by writing the live records to a new file and renaming it over the log.
+ * A lock file next to the log prevents two instances from opening it. The log is limited to 2 GiB.
+ * @author Hussain Al-Derry
+ */
+public final class LogStructuredBackend implements StorageBackend {
+
+    static final int MAGIC = 0x53504C47; // SPLG
+    static final int VERSION = 1;
+    static final int FILE_HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 13; // crc, type, key length, value length
+    static final byte TYPE_PUT = 1;
+    static final byte TYPE_REMOVE = 2;
+    static final byte TYPE_BATCH = 3;
+    static final int BATCH_ENTRY_HEADER_SIZE = 9; // type, key length, value length
+
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE;
+
+    private final Path mPath;
+    private final Path mCompactionPath;
+    private final FileChannel mLockChannel;
+    private final FileLock mFileLock;
+    private final Executor mExecutor;
+    private final int initialCapacity;
+    private final double compactionRatio;
+    private final long compactionMinBytes;
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final Map<String, Location> mIndex = new HashMap<>();
+
+    private FileChannel mChannel;
+    private MappedByteBuffer mBuffer;
+    private int position;
+    private long liveBytes;
+    private boolean closed;
+
+    private LogStructuredBackend(Builder mBuilder){
+        this.mPath = mBuilder.mPath;
+        this.mCompactionPath = mPath.resolveSibling(mPath.getFileName() + ".compact");
+        this.mExecutor = mBuilder.mExecutor;
+        this.initialCapacity = mBuilder.initialCapacity;
+        this.compactionRatio = mBuilder.compactionRatio;
+        this.compactionMinBytes = mBuilder.compactionMinBytes;
+
+        FileChannel mLockChannel = null;
+        FileLock mFileLock = null;
+        try{
+            mLockChannel = FileChannel.open(mPath.resolveSibling(mPath.getFileName() + ".lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            mFileLock = mLockChannel.tryLock();
+            if(mFileLock == null){
+                throw new IllegalStateException("Storage is locked by another process: " + mPath);
+            }
+            Files.deleteIfExists(mCompactionPath);
+            open();
+        }catch(OverlappingFileLockException e){
+            closeQuietly(mLockChannel);
+            throw new IllegalStateException("Storage is already open: " + mPath, e);
+        }catch(IOException | RuntimeException e){
+            closeQuietly(mChannel);
+            closeQuietly(mLockChannel);
+            if(e instanceof IllegalStateException){
+                throw (IllegalStateException) e;
+            }
+            throw new IllegalStateException("Unable to open the storage: " + mPath, e);
+        }
+        this.mLockChannel = mLockChannel;
+        this.mFileLock = mFileLock;
+    }
+
+    @Override
+    public byte[] get(String key) {
+        mLock.readLock().lock();
+        try{
+            ensureOpen();
+            Location mLocation = mIndex.get(key);
+            if(mLocation == null){
+                return null;
+            }
+            byte[] value = new byte[mLocation.valueLength];
+            ByteBuffer mView = mBuffer.duplicate();
+            mView.position(mLocation.valueOffset);
+            mView.get(value);
+            return value;
+        }finally{
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        if(key == null || value == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        append(TYPE_PUT, key, value);
+    }
+
+    /**
+     * Compares and appends while holding the write lock
+     */
+    @Override
+    public boolean replace(String key, byte[] expected, byte[] value) {
+        if(key == null || expected == null || value == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        mLock.writeLock().lock();
+        try{
+            if(!Arrays.equals(expected, get(key))){
+                return false;
+            }
+            put(key, value);
+            return true;
+        }finally{
+            mLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        if(key == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        append(TYPE_REMOVE, key, null);
+    }
+
+    /**
+     * Appends the batch as a single record, readers see either none or all of its writes
+     */
+    @Override
+    public void write(Map<String, byte[]> mUpdates) {
+        if(mUpdates == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        List<String> keys = new ArrayList<>(mUpdates.size());
+        List<byte[]> keyBytes = new ArrayList<>(mUpdates.size());
+        List<byte[]> values = new ArrayList<>(mUpdates.size());
+        long payloadLength = 0;
+        for(Map.Entry<String, byte[]> mEntry : mUpdates.entrySet()){
+            byte[] encodedKey = encodeKey(mEntry.getKey());
+            byte[] value = mEntry.getValue();
+            keys.add(mEntry.getKey());
+            keyBytes.add(encodedKey);
+            values.add(value);
+            payloadLength += BATCH_ENTRY_HEADER_SIZE + encodedKey.length + (value != null ? value.length : 0);
+        }
+        if(keys.isEmpty()){
+            return;
+        }
+
+        mLock.writeLock().lock();
+        try{
+            ensureOpen();
+            long recordLength = RECORD_HEADER_SIZE + payloadLength;
+            ensureCapacity(position + recordLength);
+
+            int offset = position;
+            mBuffer.position(offset + 4);
+            mBuffer.put(TYPE_BATCH).putInt(keys.size()).putInt((int) payloadLength);
+            Location[] mLocations = new Location[keys.size()];
+            for(int i = 0; i < mLocations.length; i++){
+                byte[] value = values.get(i);
+                int entryOffset = mBuffer.position();
+                int valueLength = value != null ? value.length : 0;
+                mBuffer.put(value != null ? TYPE_PUT : TYPE_REMOVE).putInt(keyBytes.get(i).length).putInt(valueLength)
+                        .put(keyBytes.get(i));
+                if(value != null){
+                    mBuffer.put(value);
+                    mLocations[i] = new Location(entryOffset, mBuffer.position() - entryOffset, valueLength);
+                }
+            }
+            mBuffer.putInt(offset, checksum(mBuffer, offset + 4, (int) recordLength - 4));
+            position = offset + (int) recordLength;
+
+            for(int i = 0; i < mLocations.length; i++){
+                index(keys.get(i), mLocations[i]);
+            }
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to write to the storage: " + mPath, e);
+        }finally{
+            mLock.writeLock().unlock();
+        }
+        scheduleCompaction();
+    }
+
+    @Override
+    public Set<String> keys() {
+        mLock.readLock().lock();
+        try{
+            ensureOpen();
+            return new HashSet<>(mIndex.keySet());
+        }finally{
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        mLock.readLock().lock();
+        try{
+            ensureOpen();
+            mBuffer.force();
+        }finally{
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        mLock.writeLock().lock();
+        try{
+            if(closed){
+                return;
+            }
+            closed = true;
+            mBuffer.force();
+            closeQuietly(mChannel);
+            mIndex.clear();
+            mBuffer = null;
+        }finally{
+            mLock.writeLock().unlock();
+            try{
+                mFileLock.release();
+            }catch(IOException ignored){
+            }
+            closeQuietly(mLockChannel);
+        }
+    }
+
+    /**
+     * Rewrites the log with only the live values, blocking reads and writes until done
+     * @throws IllegalStateException if the storage is closed or an IO error occurs
+     */
+    public void compact(){
+        mLock.writeLock().lock();
+        try{
+            ensureOpen();
+            compactLocked();
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to compact the storage: " + mPath, e);
+        }finally{
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of bytes used by the log, including the values that were replaced or removed
+     */
+    public long getLogSize(){
+        mLock.readLock().lock();
+        try{
+            return position;
+        }finally{
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of bytes of the log taken by values that were replaced or removed
+     */
+    public long getGarbageSize(){
+        mLock.readLock().lock();
+        try{
+            return garbageBytes();
+        }finally{
+            mLock.readLock().unlock();
+        }
+    }
+
+    private void append(byte type, String key, byte[] value){
+        byte[] keyBytes = encodeKey(key);
+        int valueLength = value != null ? value.length : 0;
+
+        mLock.writeLock().lock();
+        try{
+            ensureOpen();
+            if(type == TYPE_REMOVE && !mIndex.containsKey(key)){
+                return;
+            }
+            long recordLength = (long) RECORD_HEADER_SIZE + keyBytes.length + valueLength;
+            ensureCapacity(position + recordLength);
+
+            int offset = position;
+            mBuffer.position(offset + 4);
+            mBuffer.put(type).putInt(keyBytes.length).putInt(valueLength).put(keyBytes);
+            if(value != null){
+                mBuffer.put(value);
+            }
+            mBuffer.putInt(offset, checksum(mBuffer, offset + 4, (int) recordLength - 4));
+            position = offset + (int) recordLength;
+            index(key, type == TYPE_PUT ? new Location(offset, (int) recordLength, valueLength) : null);
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to write to the storage: " + mPath, e);
+        }finally{
+            mLock.writeLock().unlock();
+        }
+        scheduleCompaction();
+    }
+
+    /**
+     * Maps the log, creating it if needed, and replays its records into the index
+     */
+    private void open() throws IOException{
+        mChannel = FileChannel.open(mPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = mChannel.size();
+        if(size > MAX_CAPACITY){
+            throw new IllegalStateException("Storage file is too large: " + mPath);
+        }else if(size == 0){
+            mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, initialCapacity);
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.putInt(4, VERSION);
+            mBuffer.force();
+            position = FILE_HEADER_SIZE;
+            return;
+        }
+
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if(size < FILE_HEADER_SIZE || mBuffer.getInt(0) != MAGIC){
+            throw new IllegalStateException("Not a storage file: " + mPath);
+        }else if(mBuffer.getInt(4) != VERSION){
+            throw new IllegalStateException("Unsupported storage version: " + mBuffer.getInt(4));
+        }
+        position = replay();
+        zeroTail();
+    }
+
+    /**
+     * Replays the records into the index. The scan stops at the first incomplete or corrupted record
+     * only if no valid record follows it, a torn tail left by a crash, otherwise the log is corrupted
+     * @return The end of the last valid record
+     * @throws IllegalStateException if a valid record follows a corrupted one
+     */
+    private int replay(){
+        int offset = FILE_HEADER_SIZE;
+        int recordLength;
+        while((recordLength = replayRecord(offset, true)) > 0){
+            offset += recordLength;
+        }
+        for(int next = offset + 1; next + RECORD_HEADER_SIZE <= mBuffer.capacity(); next++){
+            if(replayRecord(next, false) > 0){
+                throw new IllegalStateException("Corrupted record at offset " + offset + " in " + mPath);
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Validates the record at the offset and replays it into the index if requested
+     * @return The length of the record, or 0 if there is no valid record at the offset
+     */
+    private int replayRecord(int offset, boolean apply){
+        if(offset + RECORD_HEADER_SIZE > mBuffer.capacity()){
+            return 0;
+        }
+        byte type = mBuffer.get(offset + 4);
+        if(type != TYPE_PUT && type != TYPE_REMOVE && type != TYPE_BATCH){
+            return 0;
+        }
+        int crc = mBuffer.getInt(offset);
+        int keyLength = mBuffer.getInt(offset + 5);
+        int valueLength = mBuffer.getInt(offset + 9);
+        // For batches the key length is the number of entries and the value length the size of the entries
+        if(keyLength <= 0 || valueLength < 0
+                || (long) offset + RECORD_HEADER_SIZE + (type == TYPE_BATCH ? 0 : keyLength) + valueLength > mBuffer.capacity()){
+            return 0;
+        }
+        int recordLength = RECORD_HEADER_SIZE + (type == TYPE_BATCH ? 0 : keyLength) + valueLength;
+        if(checksum(mBuffer, offset + 4, recordLength - 4) != crc){
+            return 0;
+        }
+
+        if(type == TYPE_BATCH){
+            if(!replayBatch(offset + RECORD_HEADER_SIZE, keyLength, valueLength, apply)){
+                return 0;
+            }
+        }else if(apply){
+            String key = readKey(offset + RECORD_HEADER_SIZE, keyLength);
+            index(key, type == TYPE_PUT ? new Location(offset, recordLength, valueLength) : null);
+        }
+        return recordLength;
+    }
+
+    /**
+     * Replays the entries of a batch record, validating all of them before applying any
+     * @return false if the entries don't match the record
+     */
+    private boolean replayBatch(int offset, int count, int length, boolean apply){
+        int end = offset + length;
+        List<String> keys = new ArrayList<>(count);
+        List<Location> mLocations = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            if(offset + BATCH_ENTRY_HEADER_SIZE > end){
+                return false;
+            }
+            byte type = mBuffer.get(offset);
+            int keyLength = mBuffer.getInt(offset + 1);
+            int valueLength = mBuffer.getInt(offset + 5);
+            if((type != TYPE_PUT && type != TYPE_REMOVE) || keyLength <= 0 || valueLength < 0
+                    || (long) offset + BATCH_ENTRY_HEADER_SIZE + keyLength + valueLength > end){
+                return false;
+            }
+            int entryLength = BATCH_ENTRY_HEADER_SIZE + keyLength + valueLength;
+            keys.add(readKey(offset + BATCH_ENTRY_HEADER_SIZE, keyLength));
+            mLocations.add(type == TYPE_PUT ? new Location(offset, entryLength, valueLength) : null);
+            offset += entryLength;
+        }
+        if(offset != end){
+            return false;
+        }
+        for(int i = 0; apply && i < count; i++){
+            index(keys.get(i), mLocations.get(i));
+        }
+        return true;
+    }
+
+    /**
+     * Points the key at its new value, or removes it if the location is null, keeping track of the live bytes
+     */
+    private void index(String key, Location mLocation){
+        Location mPrevious = mLocation != null ? mIndex.put(key, mLocation) : mIndex.remove(key);
+        if(mPrevious != null){
+            liveBytes -= mPrevious.recordLength;
+        }
+        if(mLocation != null){
+            liveBytes += mLocation.recordLength;
+        }
+    }
+
+    private String readKey(int offset, int length){
+        byte[] keyBytes = new byte[length];
+        ByteBuffer mView = mBuffer.duplicate();
+        mView.position(offset);
+        mView.get(keyBytes);
+        return new String(keyBytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Zeroes the torn tail after the last valid record, so its leftovers can't be mistaken for records
+     * once new records are appended over it
+     */
+    private void zeroTail(){
+        int capacity = mBuffer.capacity();
+        boolean dirty = false;
+        int i = position;
+        for(; i + 8 <= capacity; i += 8){
+            if(mBuffer.getLong(i) != 0){
+                mBuffer.putLong(i, 0L);
+                dirty = true;
+            }
+        }
+        for(; i < capacity; i++){
+            if(mBuffer.get(i) != 0){
+                mBuffer.put(i, (byte) 0);
+                dirty = true;
+            }
+        }
+        if(dirty){
+            mBuffer.force();
+        }
+    }
+
+    private void ensureCapacity(long required) throws IOException{
+        if(required > MAX_CAPACITY){
+            throw new IllegalStateException("Storage is full: " + mPath);
+        }
+        int capacity = mBuffer.capacity();
+        if(required <= capacity){
+            return;
+        }
+        long grown = Math.max(required, Math.min((long) capacity * 2, MAX_CAPACITY));
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, grown);
+    }
+
+    private void scheduleCompaction(){
+        boolean needed;
+        mLock.readLock().lock();
+        try{
+            long garbage = garbageBytes();
+            needed = !closed && garbage >= compactionMinBytes && garbage >= compactionRatio * (position - FILE_HEADER_SIZE);
+        }finally{
+            mLock.readLock().unlock();
+        }
+        if(needed && compactionScheduled.compareAndSet(false, true)){
+            mExecutor.execute(() -> {
+                try{
+                    mLock.writeLock().lock();
+                    try{
+                        if(!closed){
+                            compactLocked();
+                        }
+                    }finally{
+                        mLock.writeLock().unlock();
+                    }
+                }catch(IOException ignored){
+                    // The log is left as it was, the next write schedules another attempt
+                }finally{
+                    compactionScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes every live value as a single record to a new file and renames it over the log,
+     * values written in batches are rewritten as single records so the size of the new log may differ slightly
+     */
+    private void compactLocked() throws IOException{
+        Map<String, byte[]> keyBytes = new HashMap<>(mIndex.size() * 2);
+        long required = FILE_HEADER_SIZE;
+        for(Map.Entry<String, Location> mEntry : mIndex.entrySet()){
+            byte[] encodedKey = encodeKey(mEntry.getKey());
+            keyBytes.put(mEntry.getKey(), encodedKey);
+            required += RECORD_HEADER_SIZE + encodedKey.length + mEntry.getValue().valueLength;
+        }
+        long capacity = initialCapacity;
+        while(capacity < required){
+            capacity = Math.min(capacity * 2, MAX_CAPACITY);
+        }
+
+        FileChannel mNewChannel = FileChannel.open(mCompactionPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try{
+            MappedByteBuffer mNewBuffer = mNewChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            mNewBuffer.putInt(MAGIC).putInt(VERSION);
+            Map<String, Location> mNewIndex = new HashMap<>(mIndex.size() * 2);
+            long newLiveBytes = 0;
+            for(Map.Entry<String, Location> mEntry : mIndex.entrySet()){
+                Location mLocation = mEntry.getValue();
+                byte[] encodedKey = keyBytes.get(mEntry.getKey());
+                ByteBuffer mValue = mBuffer.duplicate();
+                mValue.position(mLocation.valueOffset).limit(mLocation.valueOffset + mLocation.valueLength);
+
+                int offset = mNewBuffer.position();
+                int recordLength = RECORD_HEADER_SIZE + encodedKey.length + mLocation.valueLength;
+                mNewBuffer.position(offset + 4);
+                mNewBuffer.put(TYPE_PUT).putInt(encodedKey.length).putInt(mLocation.valueLength).put(encodedKey).put(mValue);
+                mNewBuffer.putInt(offset, checksum(mNewBuffer, offset + 4, recordLength - 4));
+                mNewIndex.put(mEntry.getKey(), new Location(offset, recordLength, mLocation.valueLength));
+                newLiveBytes += recordLength;
+            }
+            int newPosition = mNewBuffer.position();
+            mNewBuffer.force();
+            Files.move(mCompactionPath, mPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            closeQuietly(mChannel);
+            mChannel = mNewChannel;
+            mBuffer = mNewBuffer;
+            position = newPosition;
+            liveBytes = newLiveBytes;
+            mIndex.clear();
+            mIndex.putAll(mNewIndex);
+        }catch(IOException | RuntimeException e){
+            closeQuietly(mNewChannel);
+            Files.deleteIfExists(mCompactionPath);
+            throw e;
+        }
+    }
+
+    private static byte[] encodeKey(String key){
+        if(key == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if(keyBytes.length == 0){
+            throw new IllegalArgumentException("Key cannot be empty");
+        }
+        return keyBytes;
+    }
+
+    private long garbageBytes(){
+        return position - FILE_HEADER_SIZE - liveBytes;
+    }
+
+    private void ensureOpen(){
+        if(closed){
+            throw new IllegalStateException("Storage is closed");
+        }
+    }
+
+    private static int checksum(ByteBuffer mBuffer, int offset, int length){
+        ByteBuffer mView = mBuffer.duplicate();
+        mView.position(offset).limit(offset + length);
+        CRC32 mCrc = new CRC32();
+        mCrc.update(mView);
+        return (int) mCrc.getValue();
+    }
+
+    private static void closeQuietly(FileChannel mChannel){
+        if(mChannel != null){
+            try{
+                mChannel.close();
+            }catch(IOException ignored){
+            }
+        }
+    }
+
+    /**
+     * The position of a live value in the log, the record is either a single record or an entry of a batch
+     */
+    private static final class Location {
+
+        private final int recordOffset;
+        private final int recordLength;
+        private final int valueOffset;
+        private final int valueLength;
+
+        private Location(int recordOffset, int recordLength, int valueLength){
+            this.recordOffset = recordOffset;
+            this.recordLength = recordLength;
+            this.valueLength = valueLength;
+            this.valueOffset = recordOffset + recordLength - valueLength;
+        }
+    }
+
+    /**
+     * Builder for LogStructuredBackend
+     */
+    public static class Builder{
+
+        private static final int DEFAULT_INITIAL_CAPACITY = 1024 * 1024;
+        private static final double DEFAULT_COMPACTION_RATIO = 0.5;
+        private static final long DEFAULT_COMPACTION_MIN_BYTES = 1024 * 1024;
+
+        private final Path mPath;
+        private Executor mExecutor = ForkJoinPool.commonPool();
+        private int initialCapacity = DEFAULT_INITIAL_CAPACITY;
+        private double compactionRatio = DEFAULT_COMPACTION_RATIO;
+        private long compactionMinBytes = DEFAULT_COMPACTION_MIN_BYTES;
+
+        /**
+         * @param mPath The log file, created if it doesn't exist
+         * @throws IllegalArgumentException if any of the arguments is null
+         */
+        public Builder(Path mPath){
+            if(mPath == null){
+                throw new IllegalArgumentException("Arguments cannot be null");
+            }
+            this.mPath = mPath.toAbsolutePath();
+        }
+
+        /**
+         * @param initialCapacity The size the log file is created with, it doubles whenever it fills up
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if the capacity is smaller than 4 KiB
+         */
+        public Builder initialCapacity(int initialCapacity){
+            if(initialCapacity < 4096){
+                throw new IllegalArgumentException("Initial capacity must be >= 4096");
+            }
+            this.initialCapacity = initialCapacity;
+            return this;
+        }
+
+        /**
+         * Compaction starts once the replaced and removed values take both the given ratio of the log and the given size
+         * @param ratio The ratio of the log, between 0 and 1
+         * @param minBytes The minimum size in bytes
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if the ratio isn't between 0 and 1 or the size is negative
+         */
+        public Builder compactionThreshold(double ratio, long minBytes){
+            if(!(ratio > 0 && ratio <= 1) || minBytes < 0){
+                throw new IllegalArgumentException("Ratio must be in (0, 1] and size must be >= 0");
+            }
+            this.compactionRatio = ratio;
+            this.compactionMinBytes = minBytes;
+            return this;
+        }
+
+        /**
+         * @param mExecutor The executor running the background compactions, the common pool by default
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if any of the arguments is null
+         */
+        public Builder executor(Executor mExecutor){
+            if(mExecutor == null){
+                throw new IllegalArgumentException("Arguments cannot be null");
+            }
+            this.mExecutor = mExecutor;
+            return this;
+        }
+
+        /**
+         * Opens the log, replaying it and creating it if needed
+         * @return The configured LogStructuredBackend instance
+         * @throws IllegalStateException if the file is locked, isn't a storage file or can't be read
+         */
+        public LogStructuredBackend build(){
+            return new LogStructuredBackend(this);
+        }
+    }
+}
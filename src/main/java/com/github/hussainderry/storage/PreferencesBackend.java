@@ -0,0 +1,201 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.storage;
+
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * A {@link StorageBackend} keeping the values Base64 encoded in a {@link Preferences} node.
+ * Values longer than {@link Preferences#MAX_VALUE_LENGTH} once encoded are split into chunks stored under
+ * the key followed by '#', the generation of the value, '.' and the chunk index. The key itself then holds '*' followed by
+ * the number of chunks, '.' and the generation. Chunks of a new value are written under the next generation and the key
+ * is switched to them last, so readers and an interrupted write only ever see a complete value.
+ * {@link Preferences} has no atomic batches, the writes of a batch are applied one at a time
+ * and become durable together on {@link #flush()}, readers of this backend see the whole batch at once.
+ * @author Hussain Al-Derry
+ */
+public final class PreferencesBackend implements StorageBackend {
+
+    private static final char CHUNK_SEPARATOR = '#';
+    private static final char CHUNK_MARKER = '*';
+    private static final char GENERATION_SEPARATOR = '.';
+
+    private final Preferences mPreferences;
+
+    /**
+     * @param nodeName The name of the node under {@link Preferences#userRoot()}
+     * @throws IllegalArgumentException if any of the arguments is null
+     */
+    public PreferencesBackend(String nodeName){
+        if(nodeName == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        this.mPreferences = Preferences.userRoot().node(nodeName);
+    }
+
+    /**
+     * @param mPreferences The node to store the values in
+     * @throws IllegalArgumentException if any of the arguments is null
+     */
+    public PreferencesBackend(Preferences mPreferences){
+        if(mPreferences == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        this.mPreferences = mPreferences;
+    }
+
+    @Override
+    public synchronized byte[] get(String key) {
+        String val = mPreferences.get(key, null);
+        if(val == null){
+            return null;
+        }
+        Chunks mChunks = Chunks.of(val);
+        if(mChunks == null){
+            return Base64.getDecoder().decode(val);
+        }
+
+        StringBuilder mBuilder = new StringBuilder(mChunks.count * Preferences.MAX_VALUE_LENGTH);
+        for(int i = 0; i < mChunks.count; i++){
+            String chunk = mPreferences.get(chunkKey(key, mChunks.generation, i), null);
+            if(chunk == null){
+                throw new IllegalStateException("Missing chunk " + i + " of " + key);
+            }
+            mBuilder.append(chunk);
+        }
+        return Base64.getDecoder().decode(mBuilder.toString());
+    }
+
+    @Override
+    public synchronized void put(String key, byte[] value) {
+        String encoded = Base64.getEncoder().encodeToString(value);
+        Chunks mPrevious = Chunks.of(mPreferences.get(key, null));
+        if(encoded.length() <= Preferences.MAX_VALUE_LENGTH){
+            mPreferences.put(key, encoded);
+            removeChunks(key, mPrevious);
+            return;
+        }
+
+        int count = (encoded.length() + Preferences.MAX_VALUE_LENGTH - 1) / Preferences.MAX_VALUE_LENGTH;
+        int generation = mPrevious != null ? mPrevious.generation + 1 : 1;
+        if(chunkKey(key, generation, count - 1).length() > Preferences.MAX_KEY_LENGTH){
+            throw new IllegalArgumentException("Key too long for a chunked value: " + key);
+        }
+        for(int i = 0; i < count; i++){
+            int from = i * Preferences.MAX_VALUE_LENGTH;
+            mPreferences.put(chunkKey(key, generation, i), encoded.substring(from, Math.min(from + Preferences.MAX_VALUE_LENGTH, encoded.length())));
+        }
+        // Switching to the new chunks once they're all written
+        mPreferences.put(key, CHUNK_MARKER + Integer.toString(count) + GENERATION_SEPARATOR + generation);
+        removeChunks(key, mPrevious);
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        Chunks mChunks = Chunks.of(mPreferences.get(key, null));
+        mPreferences.remove(key);
+        removeChunks(key, mChunks);
+    }
+
+    /**
+     * Applies the writes one at a time, readers of this backend see either none or all of them
+     */
+    @Override
+    public synchronized void write(Map<String, byte[]> mUpdates) {
+        StorageBackend.super.write(mUpdates);
+    }
+
+    @Override
+    public synchronized Set<String> keys() {
+        try{
+            Set<String> keys = new HashSet<>();
+            for(String key : mPreferences.keys()){
+                if(key.indexOf(CHUNK_SEPARATOR) < 0){
+                    keys.add(key);
+                }
+            }
+            return keys;
+        }catch(BackingStoreException e){
+            throw new IllegalStateException("Unable to read the preferences", e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        try{
+            mPreferences.flush();
+        }catch(BackingStoreException e){
+            throw new IllegalStateException("Unable to flush the preferences", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    private void removeChunks(String key, Chunks mChunks){
+        if(mChunks == null){
+            return;
+        }
+        for(int i = 0; i < mChunks.count; i++){
+            mPreferences.remove(chunkKey(key, mChunks.generation, i));
+        }
+    }
+
+    private static String chunkKey(String key, int generation, int index){
+        return key + CHUNK_SEPARATOR + generation + GENERATION_SEPARATOR + index;
+    }
+
+    /**
+     * The chunks a value is split into
+     */
+    private static final class Chunks{
+
+        private final int count;
+        private final int generation;
+
+        private Chunks(int count, int generation){
+            this.count = count;
+            this.generation = generation;
+        }
+
+        /**
+         * @param val The value stored under a key, or null
+         * @return The chunks the value is split into, null if it isn't chunked
+         */
+        private static Chunks of(String val){
+            if(val == null || val.isEmpty() || val.charAt(0) != CHUNK_MARKER){
+                return null;
+            }
+            try{
+                int separator = val.indexOf(GENERATION_SEPARATOR);
+                if(separator < 0){
+                    throw new IllegalStateException("Malformed chunked value");
+                }
+                return new Chunks(Integer.parseInt(val.substring(1, separator)), Integer.parseInt(val.substring(separator + 1)));
+            }catch(NumberFormatException e){
+                throw new IllegalStateException("Malformed chunked value");
+            }
+        }
+    }
+}
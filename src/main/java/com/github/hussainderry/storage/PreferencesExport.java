@@ -0,0 +1,202 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.storage;
+
+import com.github.hussainderry.crypto.KeyedCipherAES;
+import com.github.hussainderry.crypto.PBKDF2Helper;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The file format of {@link SecurePreferencesImpl#exportTo(java.nio.file.Path, String)}.
+ * A header holding the key derivation parameters and a password verifier, followed by one length-prefixed
+ * encrypted record per entry, a zero length and an encrypted trailer holding the number of records.
+ * Records are encrypted with a key derived once from the export password, so they can be sealed and opened in parallel.
+ * The additional authenticated data of each record holds the header parameters and the index of the record,
+ * so records can't be reordered, duplicated or copied between exports.
+ * @author Hussain Al-Derry
+ */
+final class PreferencesExport {
+
+    static final int MAGIC = 0x53504558; // "SPEX"
+    static final byte VERSION = 1;
+
+    private static final int KEY_SIZE = 256; // bits
+    private static final int SALT_SIZE = 16; // bytes
+    private static final int ITERATIONS = 65_536;
+    private static final int MAX_FIELD_SIZE = 64 * 1024 * 1024;
+    private static final byte[] VERIFIER = "SecurePreferences.export".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] VERIFIER_AAD = "export.verifier".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RECORD_AAD = "export.record".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TRAILER_AAD = "export.trailer".getBytes(StandardCharsets.UTF_8);
+
+    private final KeyedCipherAES mCipher;
+    private final byte[] config;
+
+    private PreferencesExport(KeyedCipherAES mCipher, byte[] config){
+        this.mCipher = mCipher;
+        this.config = config;
+    }
+
+    /**
+     * Derives a new export key from the password and writes the header
+     * @param mOutput The stream to write the header to
+     * @param password The export password
+     * @return The export to seal the records with
+     */
+    static PreferencesExport writeHeader(DataOutputStream mOutput, String password) throws IOException{
+        PBKDF2Helper mHelper = new PBKDF2Helper(KEY_SIZE, SALT_SIZE, ITERATIONS);
+        KeyedCipherAES mCipher = createCipher(mHelper, password);
+        byte[] config = mHelper.getPbkdf2Configurations().getBytes(StandardCharsets.UTF_8);
+        mOutput.writeInt(MAGIC);
+        mOutput.writeByte(VERSION);
+        writeField(mOutput, config);
+        writeField(mOutput, mCipher.encrypt(VERIFIER, VERIFIER_AAD));
+        return new PreferencesExport(mCipher, config);
+    }
+
+    /**
+     * Reads the header and derives the export key from the password
+     * @param mInput The stream to read the header from
+     * @param password The export password
+     * @return The export to open the records with
+     * @throws IllegalStateException if the stream is not an export or the password doesn't match
+     */
+    static PreferencesExport readHeader(DataInputStream mInput, String password) throws IOException{
+        if(mInput.readInt() != MAGIC){
+            throw new IllegalStateException("Not a SecurePreferences export");
+        }else if(mInput.readByte() != VERSION){
+            throw new IllegalStateException("Unsupported export version");
+        }
+        byte[] config = readField(mInput);
+        PBKDF2Helper mHelper = new PBKDF2Helper.Builder(new String(config, StandardCharsets.UTF_8)).build();
+        KeyedCipherAES mCipher = createCipher(mHelper, password);
+        byte[] verifier = readField(mInput);
+        try{
+            if(!Arrays.equals(VERIFIER, mCipher.decrypt(verifier, VERIFIER_AAD))){
+                throw new IllegalStateException("Invalid password");
+            }
+        }catch(IllegalArgumentException | IllegalStateException e){
+            throw new IllegalStateException("Invalid password");
+        }
+        return new PreferencesExport(mCipher, config);
+    }
+
+    /**
+     * @param index The index of the record in the export
+     * @param named The named value of the entry, created by {@link TypedValues#named(String, byte[])}
+     * @return The encrypted record
+     */
+    byte[] seal(long index, byte[] named){
+        return mCipher.encrypt(named, recordAad(index));
+    }
+
+    /**
+     * @param index The index of the record in the export
+     * @param record The encrypted record
+     * @return The named value of the entry
+     * @throws IllegalStateException if the record was modified or moved
+     */
+    byte[] open(long index, byte[] record){
+        return mCipher.decrypt(record, recordAad(index));
+    }
+
+    static void writeRecord(DataOutputStream mOutput, byte[] record) throws IOException{
+        writeField(mOutput, record);
+    }
+
+    /**
+     * @param mInput The stream positioned at a record
+     * @return The encrypted record, or null once all the records were read
+     * @throws IllegalStateException if the export is truncated
+     */
+    static byte[] readRecord(DataInputStream mInput) throws IOException{
+        byte[] record = readField(mInput);
+        return record.length > 0 ? record : null;
+    }
+
+    /**
+     * Ends the records and writes the trailer
+     * @param mOutput The stream to write to
+     * @param count The number of written records
+     */
+    void writeTrailer(DataOutputStream mOutput, long count) throws IOException{
+        mOutput.writeInt(0);
+        writeField(mOutput, mCipher.encrypt(ByteBuffer.allocate(8).putLong(count).array(), headerAad(TRAILER_AAD, 0)));
+    }
+
+    /**
+     * Reads the trailer following the end of the records
+     * @param mInput The stream positioned after the last record
+     * @param count The number of read records
+     * @throws IllegalStateException if records were removed or the trailer was modified
+     */
+    void readTrailer(DataInputStream mInput, long count) throws IOException{
+        byte[] trailer = mCipher.decrypt(readField(mInput), headerAad(TRAILER_AAD, 0));
+        if(trailer.length != 8 || ByteBuffer.wrap(trailer).getLong() != count){
+            throw new IllegalStateException("Export is truncated");
+        }
+    }
+
+    private byte[] recordAad(long index){
+        return ByteBuffer.wrap(headerAad(RECORD_AAD, 8)).putLong(RECORD_AAD.length + config.length, index).array();
+    }
+
+    /**
+     * @return The label followed by the header parameters and room for extra bytes
+     */
+    private byte[] headerAad(byte[] label, int extra){
+        byte[] aad = new byte[label.length + config.length + extra];
+        System.arraycopy(label, 0, aad, 0, label.length);
+        System.arraycopy(config, 0, aad, label.length, config.length);
+        return aad;
+    }
+
+    private static KeyedCipherAES createCipher(PBKDF2Helper mHelper, String password){
+        byte[] key = mHelper.createKeyFromPassword(password);
+        try{
+            return new KeyedCipherAES(key);
+        }finally{
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    private static void writeField(DataOutputStream mOutput, byte[] field) throws IOException{
+        mOutput.writeInt(field.length);
+        mOutput.write(field);
+    }
+
+    private static byte[] readField(DataInputStream mInput) throws IOException{
+        try{
+            int length = mInput.readInt();
+            if(length < 0 || length > MAX_FIELD_SIZE){
+                throw new IllegalStateException("Malformed export");
+            }
+            byte[] field = new byte[length];
+            mInput.readFully(field);
+            return field;
+        }catch(EOFException e){
+            throw new IllegalStateException("Export is truncated", e);
+        }
+    }
+}
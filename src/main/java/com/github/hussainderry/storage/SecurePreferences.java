@@ -16,7 +16,11 @@
 
 package com.github.hussainderry.storage;
 
+import java.io.InputStream;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 /**
  * @author Hussain Al-Derry
@@ -29,11 +33,76 @@ public interface SecurePreferences {
     SecurePreferences putDouble(String key, double value);
     SecurePreferences putLong(String key, long value);
     SecurePreferences putBoolean(String key, boolean value);
+    SecurePreferences putBytes(String key, byte[] value);
+
+    /**
+     * Stores the remaining content of the stream as a binary value, readable with {@link #getBytes(String)}.
+     * The stream is read to the end but not closed.
+     * @param key The preference key
+     * @param mInputStream The stream to read the value from
+     * @return This instance
+     * @throws IllegalStateException if the stream can't be read
+     */
+    SecurePreferences putStream(String key, InputStream mInputStream);
 
     Optional<String> getString(String key);
     Optional<Integer> getInt(String key);
     Optional<Double> getDouble(String key);
     Optional<Long> getLong(String key);
     Optional<Boolean> getBoolean(String key);
+    Optional<byte[]> getBytes(String key);
+
+    /**
+     * @param key The preference key
+     * @return A stream over a binary value, written by {@link #putBytes(String, byte[])} or {@link #putStream(String, InputStream)}
+     */
+    Optional<InputStream> getStream(String key);
+
+    /**
+     * @return A new {@link Editor} to write several values together
+     */
+    Editor edit();
+
+    /**
+     * Entries written by previous versions are only listed once they were read or written again.
+     * @return A snapshot of the stored preference keys
+     */
+    Set<String> keys();
+
+    /**
+     * Passes each entry listed by {@link #keys()} to the action, with its value as the type it was stored with:
+     * String, Integer, Long, Double, Boolean or byte[]. Values written as text by previous versions are passed as String.
+     * @param mAction The action to run for each entry
+     */
+    void forEach(BiConsumer<String, Object> mAction);
+
+    /**
+     * A batch of writes, applied together by {@link #commit()} or {@link #apply()}.
+     * Later writes to the same key replace earlier ones, an editor can only be committed or applied once.
+     */
+    interface Editor {
+
+        Editor putString(String key, String value);
+        Editor putInt(String key, int value);
+        Editor putDouble(String key, double value);
+        Editor putLong(String key, long value);
+        Editor putBoolean(String key, boolean value);
+        Editor putBytes(String key, byte[] value);
+        Editor remove(String key);
+
+        /**
+         * Encrypts the batch, writes it to the storage in one go and flushes it, blocking until it is durable
+         * @throws IllegalStateException if the editor was already used or the storage fails
+         */
+        void commit();
+
+        /**
+         * Encrypts the batch and writes it to the storage in one go, the writes are visible when this method returns
+         * @return A future completed once the batch is flushed, or completed exceptionally if flushing fails
+         * @throws IllegalStateException if the editor was already used or the storage fails
+         */
+        CompletableFuture<Void> apply();
+
+    }
 
 }
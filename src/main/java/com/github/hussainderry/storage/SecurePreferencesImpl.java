@@ -13,136 +13,1152 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package com.github.hussainderry.storage;
 
 import com.github.hussainderry.crypto.CipherAES;
-import com.github.hussainderry.crypto.HashSHA;
+import com.github.hussainderry.crypto.KeyedCipherAES;
+import com.github.hussainderry.crypto.NonceSources;
+import com.github.hussainderry.crypto.PBKDF2Helper;
+
+import static com.github.hussainderry.crypto.Constants.BUFFER_SIZE;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 import java.util.prefs.Preferences;
 
 /**
+ * Encrypted preferences kept in a {@link StorageBackend}, a {@link Preferences} node unless another backend is given.
+ * A random master key, wrapped by a key derived from the password, is unwrapped once when the storage is unlocked,
+ * on construction unless it's lazy. Every entry is then encrypted with it using AES-GCM, a fresh nonce and the hashed key
+ * as additional authenticated data, so changing the password only rewraps the master key, see {@link #changePassword(String)}.
+ * Storages created by previous versions derive the master key from the password until their password is changed.
+ * Values are stored in a binary encoding tagged with their type, reading a value as another type fails.
+ * Entries also hold their preference key so the stored keys can be listed, exported and imported.
+ * Preference keys are stored hashed with HMAC-SHA256 using a random secret of the storage, see {@link Builder#keyedHashing(boolean)}.
+ * Entries written by previous versions, as text or encrypted with {@link CipherAES}, are migrated when they are read.
+ * Decrypted values can optionally be cached in memory, see {@link Builder#cache(int, long, TimeUnit)},
+ * and writes can be persisted in the background, see {@link Builder#writeBehind(long, TimeUnit, int)}.
  * @author Hussain Al-Derry
- * @version 1.0
+ * @version 2.0
  */
-public final class SecurePreferencesImpl implements SecurePreferences{
+public final class SecurePreferencesImpl implements SecurePreferences, Closeable{
 
-    private final Preferences mPreferences;
-    private final CipherAES mCipherAES;
-    private final char[] password;
+    private static final byte TEXT_ENTRY_VERSION = 0x02;
+    private static final byte ENTRY_VERSION = 0x03;
+    private static final byte NAMED_FLAG = 0x10; // set on entries holding their preference key
+    private static final String META_PREFIX = "$meta.";
+    private static final String META_KDF = META_PREFIX + "kdf";
+    private static final String META_VERIFIER = META_PREFIX + "verifier";
+    private static final String META_KEY_SECRET = META_PREFIX + "keysecret";
+    private static final String META_MASTER_KEY = META_PREFIX + "masterkey";
+    private static final byte[] VERIFIER = "SecurePreferences".getBytes(StandardCharsets.UTF_8);
+    private static final int MASTER_KEY_SIZE = 256; // bits
+    private static final int MASTER_SALT_SIZE = 16; // bytes
+    private static final int MASTER_ITERATIONS = 65_536;
+    private static final int PARALLEL_BATCH_CHUNK = 64; // entries encrypted per task
+    private static final int SCAN_WINDOW = 4096; // entries held in memory while iterating, exporting or importing
+    private static final int KEY_INDEX_SIZE = 1024; // memoized storage keys
 
+    private final StorageBackend mStorage;
+    private final boolean keyedHashing;
+    private volatile KeyedCipherAES mCipher; // null until the storage is unlocked
+    private StorageKeys mStorageKeys; // published by mCipher
+    private final CipherAES mLegacyCipher;
+    private volatile char[] password;
+    private final DecryptedValueCache mCache;
+    private final Executor mExecutor;
+    private final boolean ownsStorage;
+    private final WriteBehindBuffer mWriteBehind;
+    private volatile boolean closed;
+
+    /**
+     * Opens the given node, deriving its master key from the password
+     * @param nodeName The name of the node under {@link Preferences#userRoot()}
+     * @param password The password of the node
+     * @throws IllegalStateException if the password doesn't match the one the node was created with
+     */
     public SecurePreferencesImpl(String nodeName, String password) {
-        this.mPreferences = Preferences.userRoot().node(nodeName);
-        this.mCipherAES = new CipherAES();
-        this.password = password.toCharArray();
+        this(new Builder(nodeName, password));
+    }
+
+    private SecurePreferencesImpl(Builder mBuilder){
+        this.mStorage = mBuilder.mStorage != null ? mBuilder.mStorage : new PreferencesBackend(mBuilder.nodeName);
+        this.mLegacyCipher = new CipherAES();
+        this.password = mBuilder.password.toCharArray();
+        this.keyedHashing = mBuilder.keyedHashing;
+        this.mCache = mBuilder.cacheSize > 0 ? new DecryptedValueCache(mBuilder.cacheSize, mBuilder.cacheTimeToLiveNanos) : null;
+        this.mExecutor = mBuilder.mExecutor;
+        this.ownsStorage = mBuilder.mStorage == null;
+        this.mWriteBehind = mBuilder.writeBehindIntervalNanos > 0
+                ? new WriteBehindBuffer(this::writeAndFlush, mBuilder.writeBehindIntervalNanos, mBuilder.writeBehindMaxPending)
+                : null;
+        if(!mBuilder.lazy){
+            cipher();
+        }
     }
 
     @Override
     public SecurePreferences putString(String key, String value) {
-        mPreferences.put(generateKeyHash(key), encryptToBase64(value));
+        if(value == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        write(key, TypedValues.ofString(value));
         return this;
     }
 
     @Override
     public SecurePreferences putInt(String key, int value) {
-        mPreferences.put(generateKeyHash(key), encryptToBase64(Integer.toString(value)));
+        write(key, TypedValues.ofInt(value));
         return this;
     }
 
     @Override
     public SecurePreferences putDouble(String key, double value) {
-        mPreferences.put(generateKeyHash(key), encryptToBase64(Double.toString(value)));
+        write(key, TypedValues.ofDouble(value));
         return this;
     }
 
     @Override
     public SecurePreferences putLong(String key, long value) {
-        mPreferences.put(generateKeyHash(key), encryptToBase64(Long.toString(value)));
+        write(key, TypedValues.ofLong(value));
         return this;
     }
 
     @Override
     public SecurePreferences putBoolean(String key, boolean value) {
-        mPreferences.put(generateKeyHash(key), encryptToBase64(Boolean.toString(value)));
+        write(key, TypedValues.ofBoolean(value));
         return this;
     }
 
     @Override
-    public Optional<String> getString(String key) {
-        String val = mPreferences.get(generateKeyHash(key), null);
-        if(val != null){
-            return Optional.of(decryptFromBase64(val));
-        }else{
-            return Optional.empty();
+    public SecurePreferences putBytes(String key, byte[] value) {
+        if(value == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
         }
+        write(key, TypedValues.ofBytes(value, value.length));
+        return this;
     }
 
     @Override
-    public Optional<Integer> getInt(String key) {
-        String val = mPreferences.get(generateKeyHash(key), null);
-        if(val != null){
-            try{
-                return Optional.of(Integer.parseInt(decryptFromBase64(val)));
-            }catch(NumberFormatException e){
-                throw new RuntimeException("Requested data type doesn't match the one stored!");
+    public SecurePreferences putStream(String key, InputStream mInputStream) {
+        if(mInputStream == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length = 0;
+        try{
+            int read;
+            while((read = mInputStream.read(buffer, length, buffer.length - length)) != -1){
+                length += read;
+                if(length == buffer.length){
+                    byte[] grown = Arrays.copyOf(buffer, buffer.length * 2);
+                    Arrays.fill(buffer, (byte) 0);
+                    buffer = grown;
+                }
             }
-        }else{
-            return Optional.empty();
+            write(key, TypedValues.ofBytes(buffer, length));
+            return this;
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to read the stream", e);
+        }finally{
+            Arrays.fill(buffer, (byte) 0);
         }
     }
 
+    @Override
+    public Optional<String> getString(String key) {
+        return read(key, TypedValues::toString);
+    }
+
+    @Override
+    public Optional<Integer> getInt(String key) {
+        return read(key, TypedValues::toInt);
+    }
+
     @Override
     public Optional<Double> getDouble(String key) {
-        String val = mPreferences.get(generateKeyHash(key), null);
-        if(val != null){
-            try{
-                return Optional.of(Double.parseDouble(decryptFromBase64(val)));
-            }catch(NumberFormatException e){
-                throw new RuntimeException("Requested data type doesn't match the one stored!");
+        return read(key, TypedValues::toDouble);
+    }
+
+    @Override
+    public Optional<Long> getLong(String key) {
+        return read(key, TypedValues::toLong);
+    }
+
+    @Override
+    public Optional<Boolean> getBoolean(String key) {
+        return read(key, TypedValues::toBoolean);
+    }
+
+    @Override
+    public Optional<byte[]> getBytes(String key) {
+        return read(key, TypedValues::toBytes);
+    }
+
+    @Override
+    public Optional<InputStream> getStream(String key) {
+        return read(key, TypedValues::toBytes).map(ByteArrayInputStream::new);
+    }
+
+    @Override
+    public Editor edit() {
+        return new BatchEditor();
+    }
+
+    @Override
+    public Set<String> keys() {
+        flushPending();
+        Set<String> mKeys = new HashSet<>();
+        List<String> storageKeys = entryKeys();
+        for(int from = 0; from < storageKeys.size(); from += SCAN_WINDOW){
+            mKeys.addAll(decryptWindow(storageKeys, from, null, TypedValues::nameOf));
+        }
+        return mKeys;
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, Object> mAction) {
+        if(mAction == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        flushPending();
+        List<String> storageKeys = entryKeys();
+        for(int from = 0; from < storageKeys.size(); from += SCAN_WINDOW){
+            List<Map.Entry<String, Object>> mEntries = decryptWindow(storageKeys, from, null, named -> {
+                byte[] value = TypedValues.valueOf(named);
+                try{
+                    return new AbstractMap.SimpleImmutableEntry<>(TypedValues.nameOf(named), TypedValues.toObject(value));
+                }finally{
+                    Arrays.fill(value, (byte) 0);
+                }
+            });
+            for(Map.Entry<String, Object> mEntry : mEntries){
+                mAction.accept(mEntry.getKey(), mEntry.getValue());
             }
-        }else{
-            return Optional.empty();
         }
     }
 
+    /**
+     * Writes all the entries to a file encrypted with its own password.
+     * Entries are decrypted and re-encrypted in parallel on the executor, a window at a time,
+     * the export key is derived once so exporting and importing many entries stays fast.
+     * Entries that don't hold their preference key, written by previous versions or migrated by {@link #migrateLegacyEntries()},
+     * can't be exported, the export fails if there are any, see {@link #keys()}. Reading them by key stores the key with them.
+     * @param mTarget The file to write, replaced if it exists and removed if the export fails
+     * @param password The password to encrypt the export with
+     * @return The number of exported entries
+     * @throws IllegalArgumentException if any of the arguments is null
+     * @throws IllegalStateException if entries don't hold their key, the storage can't be read or the file can't be written
+     */
+    public int exportTo(Path mTarget, String password){
+        if(mTarget == null || password == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        flushPending();
+        boolean completed = false;
+        try(DataOutputStream mOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(mTarget)))){
+            PreferencesExport mExport = PreferencesExport.writeHeader(mOutput, password);
+            int count = 0;
+            AtomicInteger unnamed = new AtomicInteger();
+            List<String> storageKeys = entryKeys();
+            for(int from = 0; from < storageKeys.size(); from += SCAN_WINDOW){
+                List<byte[]> mNamed = decryptWindow(storageKeys, from, unnamed, named -> Arrays.copyOf(named, named.length));
+                byte[][] records = new byte[mNamed.size()][];
+                int first = count;
+                try{
+                    // Records are bound to their index, which is only known once the removed entries were skipped
+                    parallel(records.length, i -> records[i] = mExport.seal(first + i, mNamed.get(i)));
+                }finally{
+                    for(byte[] named : mNamed){
+                        Arrays.fill(named, (byte) 0);
+                    }
+                }
+                for(byte[] record : records){
+                    PreferencesExport.writeRecord(mOutput, record);
+                    count++;
+                }
+            }
+            if(unnamed.get() > 0){
+                throw new IllegalStateException(unnamed.get() + " entries don't hold their preference key and can't be exported");
+            }
+            mExport.writeTrailer(mOutput, count);
+            completed = true;
+            return count;
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to write the export", e);
+        }finally{
+            if(!completed){
+                try{
+                    Files.deleteIfExists(mTarget);
+                }catch(IOException ignored){
+                    // The export is incomplete either way, its trailer is missing
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the entries of a file created by {@link #exportTo(Path, String)}, replacing the values of existing keys.
+     * Entries are applied a window at a time, entries read before an error remain written.
+     * @param mSource The export file
+     * @param password The password the export was encrypted with
+     * @return The number of imported entries
+     * @throws IllegalArgumentException if any of the arguments is null
+     * @throws IllegalStateException if the password doesn't match, the file can't be read or was modified
+     */
+    public int importFrom(Path mSource, String password){
+        if(mSource == null || password == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        flushPending();
+        try(DataInputStream mInput = new DataInputStream(new BufferedInputStream(Files.newInputStream(mSource)))){
+            PreferencesExport mExport = PreferencesExport.readHeader(mInput, password);
+            int count = 0;
+            List<byte[]> records = new ArrayList<>();
+            byte[] record;
+            while((record = PreferencesExport.readRecord(mInput)) != null){
+                records.add(record);
+                count++;
+                if(records.size() == SCAN_WINDOW){
+                    importWindow(mExport, count - records.size(), records);
+                    records.clear();
+                }
+            }
+            importWindow(mExport, count - records.size(), records);
+            mExport.readTrailer(mInput, count);
+            mStorage.flush();
+            return count;
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to read the export", e);
+        }
+    }
+
+    /**
+     * Unlocks the storage now, deriving its master key, instead of on the first operation. Does nothing if it's unlocked.
+     * @throws IllegalStateException if the password doesn't match the one the storage was created with
+     */
+    public void warmUp(){
+        cipher();
+    }
+
+    /**
+     * Makes the previous writes durable, in write-behind mode writing the pending values first and blocking until they are written
+     * @throws IllegalStateException if the storage fails, pending values are kept to be written by the next flush
+     */
+    public void flush(){
+        if(mWriteBehind != null){
+            mWriteBehind.flush();
+        }
+        mStorage.flush();
+    }
+
+    /**
+     * Writes the pending values in write-behind mode and flushes the storage, closing it if it was opened by this instance.
+     * Values can't be written afterwards.
+     * @throws IllegalStateException if the pending values can't be written
+     */
     @Override
-    public Optional<Long> getLong(String key) {
-        String val = mPreferences.get(generateKeyHash(key), null);
-        if(val != null){
+    public void close(){
+        if(closed){
+            return;
+        }
+        closed = true;
+        try{
+            if(mWriteBehind != null){
+                mWriteBehind.close();
+            }
+            mStorage.flush();
+        }finally{
+            if(ownsStorage){
+                mStorage.close();
+            }
+        }
+    }
+
+    /**
+     * Removes and zeroes all the cached decrypted values, does nothing if caching is disabled
+     */
+    public void clearCache(){
+        if(mCache != null){
+            mCache.clear();
+        }
+    }
+
+    /**
+     * Changes the password of the storage. The master key is rewrapped by a key derived from the new password with a fresh salt,
+     * the entries aren't re-encrypted. Entries written by previous versions, encrypted with the password itself, are migrated first.
+     * The pending values are written in write-behind mode and the storage is flushed before the method returns.
+     * @param newPassword The new password of the storage
+     * @throws IllegalArgumentException if the new password is null
+     * @throws IllegalStateException if the current password doesn't match or the storage fails
+     */
+    public void changePassword(String newPassword){
+        if(newPassword == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        ensureOpen();
+        flushPending();
+        synchronized(mStorage){
+            cipher();
+            migrateLegacyEntries();
+            char[] oldPassword = password;
+            byte[] key = masterKey(new String(oldPassword));
             try{
-                return Optional.of(Long.parseLong(decryptFromBase64(val)));
-            }catch(NumberFormatException e){
-                throw new RuntimeException("Requested data type doesn't match the one stored!");
+                storeMasterKey(key, newPassword);
+            }finally{
+                Arrays.fill(key, (byte) 0);
             }
-        }else{
-            return Optional.empty();
+            mStorage.flush();
+            this.password = newPassword.toCharArray();
+            Arrays.fill(oldPassword, '\0');
         }
     }
 
-    @Override
-    public Optional<Boolean> getBoolean(String key) {
-        String val = mPreferences.get(generateKeyHash(key), null);
-        if(val != null){
-            return Optional.of(Boolean.parseBoolean(decryptFromBase64(val)));
-        }else{
+    /**
+     * Re-encrypts all the entries written by previous versions in the current format, entries are otherwise migrated on read
+     * @return The number of migrated entries
+     * @throws IllegalStateException if the storage can't be read
+     */
+    public int migrateLegacyEntries(){
+        int migrated = 0;
+        for(String storageKey : mStorage.keys()){
+            if(storageKey.startsWith(META_PREFIX)){
+                continue;
+            }
+            byte[] entry = mStorage.get(storageKey);
+            if(entry != null && !isCurrentVersion(entry)){
+                Arrays.fill(decrypt(null, storageKey, entry), (byte) 0);
+                migrated++;
+            }
+        }
+        return migrated;
+    }
+
+    /**
+     * Unwraps or derives the master key of the storage, creating a random one if the storage is new
+     * @param password The password of the storage
+     * @return The cipher using the master key
+     * @throws IllegalStateException if the password doesn't match
+     */
+    private KeyedCipherAES unlock(String password){
+        synchronized(mStorage){
+            byte[] key = masterKey(password);
+            if(key == null){
+                verifyLegacyPassword(password);
+                key = new byte[MASTER_KEY_SIZE / 8];
+                NonceSources.perThreadRandom().nextBytes(key);
+                storeMasterKey(key, password);
+            }
+            try{
+                return new KeyedCipherAES(key);
+            }finally{
+                Arrays.fill(key, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * @param password The password of the storage
+     * @return The master key, unwrapped or derived from the password for storages created by previous versions, null if the storage is new
+     * @throws IllegalStateException if the password doesn't match
+     */
+    private byte[] masterKey(String password){
+        byte[] wrapped = mStorage.get(META_MASTER_KEY);
+        if(wrapped != null){
+            ByteBuffer mBuffer = ByteBuffer.wrap(wrapped);
+            byte[] config = new byte[mBuffer.getInt()];
+            mBuffer.get(config);
+            PBKDF2Helper mHelper = new PBKDF2Helper.Builder(new String(config, StandardCharsets.UTF_8)).build();
+            KeyedCipherAES mWrapper = createCipher(mHelper, password);
+            try{
+                return mWrapper.decrypt(wrapped, mBuffer.position(), mBuffer.remaining(), metaAad(META_MASTER_KEY));
+            }catch(IllegalArgumentException | IllegalStateException e){
+                throw new IllegalStateException("Invalid password");
+            }
+        }
+
+        byte[] config = mStorage.get(META_KDF);
+        if(config == null){
+            return null;
+        }
+        PBKDF2Helper mHelper = new PBKDF2Helper.Builder(new String(config, StandardCharsets.UTF_8)).build();
+        byte[] key = mHelper.createKeyFromPassword(password);
+        byte[] verifier = mStorage.get(META_VERIFIER);
+        if(verifier == null || !verify(new KeyedCipherAES(key), verifier)){
+            Arrays.fill(key, (byte) 0);
+            throw new IllegalStateException("Invalid password");
+        }
+        return key;
+    }
+
+    /**
+     * Checks the password against an entry of a storage written by the first version, holding entries but no master key,
+     * so a wrong password fails instead of creating a master key the entries can't be read with
+     * @param password The password of the storage
+     * @throws IllegalStateException if the password doesn't decrypt the entry
+     */
+    private void verifyLegacyPassword(String password){
+        for(String storageKey : entryKeys()){
+            byte[] entry = mStorage.get(storageKey);
+            if(entry == null || isCurrentVersion(entry)){
+                continue;
+            }
+            try{
+                Arrays.fill(mLegacyCipher.decrypt(password.toCharArray(), entry), (byte) 0);
+                return;
+            }catch(IllegalArgumentException | IllegalStateException e){
+                throw new IllegalStateException("Invalid password");
+            }
+        }
+    }
+
+    /**
+     * Wraps the master key by a key derived from the password with a fresh salt.
+     * The derivation parameters read by previous versions are replaced by fresh ones too, so they fail the verifier
+     * instead of opening the storage with a key derived from an old password.
+     * @param key The master key
+     * @param password The password to wrap the master key with
+     */
+    private void storeMasterKey(byte[] key, String password){
+        PBKDF2Helper mHelper = new PBKDF2Helper(MASTER_KEY_SIZE, MASTER_SALT_SIZE, MASTER_ITERATIONS);
+        byte[] config = mHelper.getPbkdf2Configurations().getBytes(StandardCharsets.UTF_8);
+        byte[] sealed = createCipher(mHelper, password).encrypt(key, metaAad(META_MASTER_KEY));
+        mStorage.put(META_MASTER_KEY, ByteBuffer.allocate(4 + config.length + sealed.length)
+                .putInt(config.length).put(config).put(sealed).array());
+
+        PBKDF2Helper mDecoy = new PBKDF2Helper(MASTER_KEY_SIZE, MASTER_SALT_SIZE, MASTER_ITERATIONS);
+        mStorage.put(META_KDF, mDecoy.getPbkdf2Configurations().getBytes(StandardCharsets.UTF_8));
+        mStorage.put(META_VERIFIER, new KeyedCipherAES(key).encrypt(VERIFIER, metaAad(META_VERIFIER)));
+    }
+
+    /**
+     * @return The cipher using the master key, unlocking the storage on first use
+     * @throws IllegalStateException if the password doesn't match the verifier
+     */
+    private KeyedCipherAES cipher(){
+        KeyedCipherAES mUnlocked = mCipher;
+        if(mUnlocked == null){
+            synchronized(mStorage){
+                mUnlocked = mCipher;
+                if(mUnlocked == null){
+                    mUnlocked = unlock(new String(password));
+                    this.mStorageKeys = openStorageKeys(mUnlocked);
+                    this.mCipher = mUnlocked;
+                }
+            }
+        }
+        return mUnlocked;
+    }
+
+    private StorageKeys storageKeys(){
+        cipher();
+        return mStorageKeys;
+    }
+
+    /**
+     * Loads the key hashing secret of the storage, creating it if keyed hashing is enabled and the storage holds no entries.
+     * Storages holding entries without a secret keep using SHA-256, their entries can't be rehashed without their keys.
+     * @param mCipher The cipher using the master key
+     * @return The storage keys of the storage
+     */
+    private StorageKeys openStorageKeys(KeyedCipherAES mCipher){
+        synchronized(mStorage){
+            byte[] sealed = mStorage.get(META_KEY_SECRET);
+            byte[] secret = null;
+            if(sealed != null){
+                secret = mCipher.decrypt(sealed, metaAad(META_KEY_SECRET));
+            }else if(keyedHashing && entryKeys().isEmpty()){
+                secret = new byte[StorageKeys.SECRET_SIZE];
+                NonceSources.perThreadRandom().nextBytes(secret);
+                mStorage.put(META_KEY_SECRET, mCipher.encrypt(secret, metaAad(META_KEY_SECRET)));
+            }
+            try{
+                return new StorageKeys(secret, KEY_INDEX_SIZE);
+            }finally{
+                if(secret != null){
+                    Arrays.fill(secret, (byte) 0);
+                }
+            }
+        }
+    }
+
+    private static boolean verify(KeyedCipherAES mCipher, byte[] verifier){
+        try{
+            return Arrays.equals(VERIFIER, mCipher.decrypt(verifier, metaAad(META_VERIFIER)));
+        }catch(IllegalArgumentException | IllegalStateException e){
+            return false;
+        }
+    }
+
+    private KeyedCipherAES createCipher(PBKDF2Helper mHelper, String password){
+        byte[] key = mHelper.createKeyFromPassword(password);
+        try{
+            return new KeyedCipherAES(key);
+        }finally{
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    /**
+     * @param key The preference key
+     * @param value The tagged plain value, zeroed once written
+     */
+    private void write(String key, byte[] value){
+        if(key == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        ensureOpen();
+        if(mWriteBehind != null){
+            mWriteBehind.stage(key, value);
+            if(mCache != null){
+                mCache.invalidate(key);
+            }
+            return;
+        }
+        try{
+            String storageKey = storageKeys().resolve(key);
+            mStorage.put(storageKey, encrypt(key, storageKey, value));
+        }finally{
+            Arrays.fill(value, (byte) 0);
+        }
+        if(mCache != null){
+            mCache.invalidate(key);
+        }
+    }
+
+    /**
+     * Writes a batch of pending values and flushes the storage, called by the write-behind buffer
+     * @param mBatch The plain values by preference key, null to remove the key, zeroed once written
+     */
+    private void writeAndFlush(Map<String, byte[]> mBatch){
+        writeBatch(mBatch);
+        mStorage.flush();
+    }
+
+    /**
+     * Writes the values pending in write-behind mode, so the storage can be read directly
+     */
+    private void flushPending(){
+        if(mWriteBehind != null){
+            mWriteBehind.flush();
+        }
+    }
+
+    private void ensureOpen(){
+        if(closed){
+            throw new IllegalStateException("Preferences are closed");
+        }
+    }
+
+    /**
+     * Encrypts the batch, in parallel if it's large, and writes it to the storage in one go
+     * @param mBatch The plain values by preference key, null to remove the key, zeroed once written
+     */
+    private void writeBatch(Map<String, byte[]> mBatch){
+        List<String> keys = new ArrayList<>(mBatch.keySet());
+        List<byte[]> values = new ArrayList<>(mBatch.values());
+        String[] storageKeys = new String[keys.size()];
+        byte[][] entries = new byte[keys.size()][];
+        try{
+            parallel(keys.size(), i -> {
+                String key = keys.get(i);
+                byte[] value = values.get(i);
+                storageKeys[i] = storageKeys().resolve(key);
+                entries[i] = value != null ? encrypt(key, storageKeys[i], value) : null;
+            });
+        }finally{
+            for(byte[] value : values){
+                if(value != null){
+                    Arrays.fill(value, (byte) 0);
+                }
+            }
+        }
+
+        Map<String, byte[]> mUpdates = new LinkedHashMap<>(keys.size() * 2);
+        for(int i = 0; i < storageKeys.length; i++){
+            mUpdates.put(storageKeys[i], entries[i]);
+        }
+        if(mCache != null){
+            mCache.invalidateAll(keys);
+        }
+        mStorage.write(mUpdates);
+        if(mCache != null){
+            mCache.invalidateAll(keys);
+        }
+    }
+
+    /**
+     * Decrypts and imports a window of export records
+     * @param mExport The export
+     * @param first The index of the first record of the window
+     * @param records The encrypted records
+     */
+    private void importWindow(PreferencesExport mExport, int first, List<byte[]> records){
+        String[] keys = new String[records.size()];
+        byte[][] values = new byte[records.size()][];
+        parallel(records.size(), i -> {
+            byte[] named = mExport.open(first + i, records.get(i));
+            try{
+                keys[i] = TypedValues.nameOf(named);
+                values[i] = TypedValues.valueOf(named);
+            }finally{
+                Arrays.fill(named, (byte) 0);
+            }
+        });
+        Map<String, byte[]> mBatch = new LinkedHashMap<>(records.size() * 2);
+        for(int i = 0; i < keys.length; i++){
+            byte[] mPrevious = mBatch.put(keys[i], values[i]);
+            if(mPrevious != null){
+                Arrays.fill(mPrevious, (byte) 0);
+            }
+        }
+        writeBatch(mBatch);
+    }
+
+    /**
+     * @return The stored entry keys, without the meta entries
+     */
+    private List<String> entryKeys(){
+        List<String> storageKeys = new ArrayList<>();
+        for(String storageKey : mStorage.keys()){
+            if(!storageKey.startsWith(META_PREFIX)){
+                storageKeys.add(storageKey);
+            }
+        }
+        return storageKeys;
+    }
+
+    /**
+     * Decrypts a window of entries in parallel, skipping removed entries and entries that don't hold their key
+     * @param storageKeys The entry keys
+     * @param from The index of the first entry of the window
+     * @param unnamed Counts the skipped entries that don't hold their key, or null
+     * @param mTransform Creates a result from the named plain value of an entry, which is zeroed afterwards
+     * @return The results in the order of the keys
+     */
+    @SuppressWarnings("unchecked")
+    private <R> List<R> decryptWindow(List<String> storageKeys, int from, AtomicInteger unnamed, Function<byte[], R> mTransform){
+        int to = Math.min(from + SCAN_WINDOW, storageKeys.size());
+        Object[] results = new Object[to - from];
+        parallel(results.length, i -> {
+            String storageKey = storageKeys.get(from + i);
+            byte[] entry = mStorage.get(storageKey);
+            if(entry == null){
+                return;
+            }else if(!isCurrentVersion(entry) || (entry[0] & NAMED_FLAG) == 0){
+                if(unnamed != null){
+                    unnamed.incrementAndGet();
+                }
+                return;
+            }
+            byte[] named = cipher().decrypt(entry, 1, entry.length - 1, storageKey.getBytes(StandardCharsets.UTF_8));
+            try{
+                results[i] = mTransform.apply(named);
+            }finally{
+                Arrays.fill(named, (byte) 0);
+            }
+        });
+        List<R> mResults = new ArrayList<>(results.length);
+        for(Object result : results){
+            if(result != null){
+                mResults.add((R) result);
+            }
+        }
+        return mResults;
+    }
+
+    /**
+     * Runs a task for each index, in chunks on the executor if there is more than one chunk, in the calling thread otherwise
+     * @param count The number of indices
+     * @param mTask The task to run for each index
+     */
+    private void parallel(int count, IntConsumer mTask){
+        int chunks = (count + PARALLEL_BATCH_CHUNK - 1) / PARALLEL_BATCH_CHUNK;
+        if(chunks <= 1){
+            for(int i = 0; i < count; i++){
+                mTask.accept(i);
+            }
+            return;
+        }
+        List<CompletableFuture<Void>> mFutures = new ArrayList<>(chunks);
+        for(int chunk = 0; chunk < chunks; chunk++){
+            int from = chunk * PARALLEL_BATCH_CHUNK;
+            int to = Math.min(from + PARALLEL_BATCH_CHUNK, count);
+            mFutures.add(CompletableFuture.runAsync(() -> {
+                for(int i = from; i < to; i++){
+                    mTask.accept(i);
+                }
+            }, mExecutor));
+        }
+        try{
+            CompletableFuture.allOf(mFutures.toArray(new CompletableFuture<?>[0])).join();
+        }catch(CompletionException e){
+            if(e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to process the entries", e.getCause());
+        }
+    }
+
+    /**
+     * Reads and decodes a value, from the cache if it's enabled and holds the key
+     * @param key The preference key
+     * @param mDecoder Creates the returned value from the tagged plain value
+     * @return The decoded value, empty if the key isn't stored
+     */
+    private <T> Optional<T> read(String key, Function<byte[], T> mDecoder){
+        if(key == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        if(mWriteBehind != null){
+            byte[] pending = mWriteBehind.lookup(key);
+            if(pending == WriteBehindBuffer.REMOVED){
+                return Optional.empty();
+            }else if(pending != null){
+                try{
+                    return Optional.of(mDecoder.apply(pending));
+                }finally{
+                    Arrays.fill(pending, (byte) 0);
+                }
+            }
+        }
+        if(mCache != null){
+            T cached = mCache.get(key, mDecoder);
+            if(cached != null){
+                return Optional.of(cached);
+            }
+        }
+        long stamp = mCache != null ? mCache.stamp() : 0L;
+
+        String storageKey = storageKeys().resolve(key);
+        byte[] entry = mStorage.get(storageKey);
+        if(entry == null){
             return Optional.empty();
         }
+        byte[] value = decrypt(key, storageKey, entry);
+        try{
+            return Optional.of(mDecoder.apply(value));
+        }finally{
+            if(mCache != null){
+                mCache.put(key, value, stamp);
+            }else{
+                Arrays.fill(value, (byte) 0);
+            }
+        }
     }
 
-    private String generateKeyHash(String key){
-        byte[] hash = HashSHA.hashUsingSHA256(key.getBytes(StandardCharsets.UTF_8));
-        return Base64.getEncoder().encodeToString(hash);
+    /**
+     * @param key The preference key stored with the value, null if it's unknown
+     * @param storageKey The hashed key of the entry
+     * @param value The tagged plain value
+     * @return The entry
+     */
+    private byte[] encrypt(String key, String storageKey, byte[] value){
+        byte[] data = key != null ? TypedValues.named(key, value) : value;
+        byte[] sealed = cipher().encrypt(data, storageKey.getBytes(StandardCharsets.UTF_8));
+        if(data != value){
+            Arrays.fill(data, (byte) 0);
+        }
+        byte[] entry = new byte[sealed.length + 1];
+        entry[0] = key != null ? (byte) (ENTRY_VERSION | NAMED_FLAG) : ENTRY_VERSION;
+        System.arraycopy(sealed, 0, entry, 1, sealed.length);
+        return entry;
+    }
+
+    /**
+     * Decrypts a stored entry, re-encrypting it in the current format if it was written by a previous version
+     * or without its preference key while the key is known. The entry is only rewritten if it wasn't written meanwhile.
+     * @param key The preference key, null if it's unknown
+     * @param storageKey The hashed key of the entry
+     * @param entry The stored entry
+     * @return The tagged plain value
+     */
+    private byte[] decrypt(String key, String storageKey, byte[] entry){
+        byte[] aad = storageKey.getBytes(StandardCharsets.UTF_8);
+        if(isCurrentVersion(entry)){
+            byte[] data = cipher().decrypt(entry, 1, entry.length - 1, aad);
+            if((entry[0] & NAMED_FLAG) != 0){
+                byte[] value = TypedValues.valueOf(data);
+                Arrays.fill(data, (byte) 0);
+                return value;
+            }else if(key != null){
+                mStorage.replace(storageKey, entry, encrypt(key, storageKey, data));
+            }
+            return data;
+        }
+        byte[] text = entry.length > 0 && entry[0] == TEXT_ENTRY_VERSION
+                ? cipher().decrypt(entry, 1, entry.length - 1, aad)
+                : mLegacyCipher.decrypt(password, entry);
+        byte[] value = TypedValues.ofText(text);
+        Arrays.fill(text, (byte) 0);
+        mStorage.replace(storageKey, entry, encrypt(key, storageKey, value));
+        return value;
+    }
+
+    /**
+     * Entries written with the master key start with their version, the previous version holding the values as text.
+     * Entries of the current version holding their preference key also have {@link #NAMED_FLAG} set.
+     * Legacy {@link CipherAES} entries start with the salt size as a big-endian int, so their first byte is always 0.
+     */
+    private static boolean isCurrentVersion(byte[] entry){
+        return entry.length > 0 && (entry[0] & ~NAMED_FLAG) == ENTRY_VERSION;
     }
 
-    private String encryptToBase64(String data){
-        return Base64.getEncoder().encodeToString(mCipherAES.encrypt(password, data.getBytes(StandardCharsets.UTF_8)));
+    private static byte[] metaAad(String metaKey){
+        return metaKey.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Collects the writes of a batch, keeping the plain values until the batch is written
+     */
+    private final class BatchEditor implements Editor {
+
+        private final Map<String, byte[]> mBatch = new LinkedHashMap<>();
+        private boolean used;
+
+        @Override
+        public Editor putString(String key, String value) {
+            if(value == null){
+                throw new IllegalArgumentException("Arguments cannot be null");
+            }
+            return stage(key, TypedValues.ofString(value));
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            return stage(key, TypedValues.ofInt(value));
+        }
+
+        @Override
+        public Editor putDouble(String key, double value) {
+            return stage(key, TypedValues.ofDouble(value));
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            return stage(key, TypedValues.ofLong(value));
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            return stage(key, TypedValues.ofBoolean(value));
+        }
+
+        @Override
+        public Editor putBytes(String key, byte[] value) {
+            if(value == null){
+                throw new IllegalArgumentException("Arguments cannot be null");
+            }
+            return stage(key, TypedValues.ofBytes(value, value.length));
+        }
+
+        @Override
+        public Editor remove(String key) {
+            return stage(key, null);
+        }
+
+        @Override
+        public void commit() {
+            write();
+            flush();
+        }
+
+        @Override
+        public CompletableFuture<Void> apply() {
+            write();
+            return CompletableFuture.runAsync(SecurePreferencesImpl.this::flush, mExecutor);
+        }
+
+        private synchronized Editor stage(String key, byte[] value){
+            if(key == null){
+                throw new IllegalArgumentException("Arguments cannot be null");
+            }else if(used){
+                throw new IllegalStateException("Editor was already committed or applied");
+            }
+            byte[] mPrevious = mBatch.put(key, value);
+            if(mPrevious != null){
+                Arrays.fill(mPrevious, (byte) 0);
+            }
+            return this;
+        }
+
+        private synchronized void write(){
+            if(used){
+                throw new IllegalStateException("Editor was already committed or applied");
+            }
+            used = true;
+            ensureOpen();
+            if(mWriteBehind != null){
+                mWriteBehind.stageAll(mBatch);
+                if(mCache != null){
+                    mCache.invalidateAll(mBatch.keySet());
+                }
+            }else{
+                writeBatch(mBatch);
+            }
+        }
     }
 
-    private String decryptFromBase64(String data){
-        byte[] ret = mCipherAES.decrypt(password, Base64.getDecoder().decode(data));
-        return new String(ret, StandardCharsets.UTF_8);
+    /**
+     * Builder for SecurePreferencesImpl
+     */
+    public static class Builder{
+
+        private final String nodeName;
+        private final StorageBackend mStorage;
+        private final String password;
+        private int cacheSize = 0;
+        private long cacheTimeToLiveNanos = 0L;
+        private Executor mExecutor = ForkJoinPool.commonPool();
+        private boolean keyedHashing = true;
+        private boolean lazy = false;
+        private long writeBehindIntervalNanos = 0L;
+        private int writeBehindMaxPending = 0;
+
+        /**
+         * @param nodeName The name of the node under {@link Preferences#userRoot()}
+         * @param password The password of the node
+         * @throws IllegalArgumentException if any of the arguments is null
+         */
+        public Builder(String nodeName, String password){
+            if(nodeName == null || password == null){
+                throw new IllegalArgumentException("Arguments cannot be null");
+            }
+            this.nodeName = nodeName;
+            this.mStorage = null;
+            this.password = password;
+        }
+
+        /**
+         * @param mStorage The storage to keep the entries in, closing it is left to the caller
+         * @param password The password of the storage
+         * @throws IllegalArgumentException if any of the arguments is null
+         */
+        public Builder(StorageBackend mStorage, String password){
+            if(mStorage == null || password == null){
+                throw new IllegalArgumentException("Arguments cannot be null");
+            }
+            this.nodeName = null;
+            this.mStorage = mStorage;
+            this.password = password;
+        }
+
+        /**
+         * Caches decrypted values in memory so repeated reads skip the hashing, lookup and decryption.
+         * Values are cached when read, evicted least recently used first, and dropped when their key is written.
+         * @param maxEntries The maximum number of cached values
+         * @param timeToLive The time each value stays cached after it was read from the store
+         * @param mUnit The unit of the time to live
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if the size or time to live is not positive or the unit is null
+         */
+        public Builder cache(int maxEntries, long timeToLive, TimeUnit mUnit){
+            if(mUnit == null){
+                throw new IllegalArgumentException("Arguments cannot be null");
+            }else if(maxEntries < 1 || timeToLive <= 0){
+                throw new IllegalArgumentException("Cache size and time to live must be > 0");
+            }
+            this.cacheSize = maxEntries;
+            this.cacheTimeToLiveNanos = mUnit.toNanos(timeToLive);
+            return this;
+        }
+
+        /**
+         * @param mExecutor The executor encrypting large batches and scans in parallel and flushing applied batches,
+         *                  the common pool by default
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if any of the arguments is null
+         */
+        public Builder executor(Executor mExecutor){
+            if(mExecutor == null){
+                throw new IllegalArgumentException("Arguments cannot be null");
+            }
+            this.mExecutor = mExecutor;
+            return this;
+        }
+
+        /**
+         * Persists writes in the background: puts only update the pending values, which reads see right away,
+         * and a background thread encrypts and writes them as one batch at the given interval or once enough keys are pending.
+         * Repeated writes to a key are coalesced. Pending values are lost if the process ends before they are written,
+         * use {@link SecurePreferencesImpl#flush()} to write them and {@link SecurePreferencesImpl#close()} when done.
+         * @param interval The time between two background writes
+         * @param mUnit The unit of the interval
+         * @param maxPending The number of pending keys triggering a write before the interval ends
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if the interval or the number of keys is not positive or the unit is null
+         */
+        public Builder writeBehind(long interval, TimeUnit mUnit, int maxPending){
+            if(mUnit == null){
+                throw new IllegalArgumentException("Arguments cannot be null");
+            }else if(interval <= 0 || maxPending < 1){
+                throw new IllegalArgumentException("Write-behind interval and pending keys must be > 0");
+            }
+            this.writeBehindIntervalNanos = mUnit.toNanos(interval);
+            this.writeBehindMaxPending = maxPending;
+            return this;
+        }
+
+        /**
+         * Defers unlocking the storage, reading it and deriving the master key, to the first operation
+         * or to {@link SecurePreferencesImpl#warmUp()}, so building the instance is cheap.
+         * A wrong password then fails the operations instead of {@link #build()}.
+         * @param enabled true to unlock the storage on first use
+         * @return The modified builder instance
+         */
+        public Builder lazy(boolean enabled){
+            this.lazy = enabled;
+            return this;
+        }
+
+        /**
+         * Whether a new storage hashes the preference keys with HMAC-SHA256 using a random secret kept encrypted
+         * in the storage, so the keys can't be confirmed by hashing guessed names. Enabled by default.
+         * Storages keep the hashing they were created with, existing storages can be switched by exporting
+         * and importing them into a new storage, see {@link SecurePreferencesImpl#exportTo(Path, String)}.
+         * @param enabled false to hash the keys of a new storage with plain SHA-256
+         * @return The modified builder instance
+         */
+        public Builder keyedHashing(boolean enabled){
+            this.keyedHashing = enabled;
+            return this;
+        }
+
+        /**
+         * Opens the storage, deriving its master key from the password unless unlocking it is {@link #lazy(boolean)}
+         * @return The configured SecurePreferencesImpl instance
+         * @throws IllegalStateException if the password doesn't match the one the storage was created with
+         */
+        public SecurePreferencesImpl build(){
+            return new SecurePreferencesImpl(this);
+        }
     }
 }
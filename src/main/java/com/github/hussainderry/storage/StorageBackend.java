@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.storage;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The store {@link SecurePreferencesImpl} keeps its encrypted entries in.
+ * Implementations only see hashed keys and encrypted values, and must be thread safe.
+ * Errors of the underlying store are reported as {@link IllegalStateException}.
+ * @author Hussain Al-Derry
+ */
+public interface StorageBackend extends Closeable {
+
+    /**
+     * @param key The key of the value
+     * @return A copy of the stored value, or null if there is none
+     */
+    byte[] get(String key);
+
+    /**
+     * Stores a value, replacing any previous value of the key
+     * @param key The key of the value
+     * @param value The value to store
+     */
+    void put(String key, byte[] value);
+
+    /**
+     * Stores a value only if the key still holds the expected value, so rewriting a value that was read earlier
+     * doesn't overwrite a concurrent write. The default implementation compares and stores while holding the monitor
+     * of the backend, implementations whose writes don't synchronize on it must override it.
+     * @param key The key of the value
+     * @param expected The value the key must hold
+     * @param value The value to store
+     * @return true if the value was stored
+     */
+    default boolean replace(String key, byte[] expected, byte[] value){
+        synchronized(this){
+            if(!Arrays.equals(expected, get(key))){
+                return false;
+            }
+            put(key, value);
+            return true;
+        }
+    }
+
+    /**
+     * Removes the value of the key, if any
+     * @param key The key of the value
+     */
+    void remove(String key);
+
+    /**
+     * Applies a batch of writes, implementations should apply it atomically.
+     * The default implementation applies the writes one at a time.
+     * @param mUpdates The values to store by key, a null value removes the key
+     */
+    default void write(Map<String, byte[]> mUpdates){
+        for(Map.Entry<String, byte[]> mEntry : mUpdates.entrySet()){
+            if(mEntry.getValue() != null){
+                put(mEntry.getKey(), mEntry.getValue());
+            }else{
+                remove(mEntry.getKey());
+            }
+        }
+    }
+
+    /**
+     * @return A snapshot of the stored keys
+     */
+    Set<String> keys();
+
+    /**
+     * Makes the previous writes durable
+     */
+    void flush();
+
+    /**
+     * Flushes and releases the store, it can't be used afterwards
+     */
+    @Override
+    void close();
+
+}
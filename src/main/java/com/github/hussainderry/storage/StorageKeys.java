@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.storage;
+
+import com.github.hussainderry.crypto.HashSHA;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Maps preference keys to the keys their entries are stored under, memoizing the most recent mappings.
+ * Keys are hashed with HMAC-SHA256 using a secret of the storage, or with plain SHA-256 for storages created
+ * before keyed hashing, whose keys can be confirmed by hashing guessed names.
+ * @author Hussain Al-Derry
+ */
+final class StorageKeys {
+
+    static final int SECRET_SIZE = 32; // bytes
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final Map<String, String> mIndex;
+    private final int maxEntries;
+    private final ThreadLocal<Mac> mMac;
+
+    /**
+     * @param secret The HMAC secret, or null to use SHA-256, copied so the caller can zero it
+     * @param maxEntries The maximum number of memoized mappings, the mappings are dropped once it is reached
+     */
+    StorageKeys(byte[] secret, int maxEntries){
+        this.mIndex = new ConcurrentHashMap<>(Math.min(maxEntries, 256));
+        this.maxEntries = maxEntries;
+        if(secret == null){
+            this.mMac = null;
+        }else{
+            SecretKeySpec mKey = new SecretKeySpec(secret, MAC_ALGORITHM);
+            this.mMac = ThreadLocal.withInitial(() -> {
+                try{
+                    Mac mInstance = Mac.getInstance(MAC_ALGORITHM);
+                    mInstance.init(mKey);
+                    return mInstance;
+                }catch(NoSuchAlgorithmException | InvalidKeyException e){
+                    throw new IllegalStateException("Unable to initialize HMAC", e);
+                }
+            });
+            mMac.get();
+        }
+    }
+
+    /**
+     * @param key The preference key
+     * @return The storage key of the preference, memoized
+     */
+    String resolve(String key){
+        String storageKey = mIndex.get(key);
+        if(storageKey == null){
+            storageKey = hash(key);
+            if(mIndex.size() >= maxEntries){
+                mIndex.clear();
+            }
+            mIndex.put(key, storageKey);
+        }
+        return storageKey;
+    }
+
+    /**
+     * @return true if the keys are hashed with the storage secret
+     */
+    boolean isKeyed(){
+        return mMac != null;
+    }
+
+    private String hash(String key){
+        byte[] name = key.getBytes(StandardCharsets.UTF_8);
+        byte[] hash = mMac != null ? mMac.get().doFinal(name) : HashSHA.hashUsingSHA256(name);
+        return Base64.getEncoder().encodeToString(hash);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The binary encoding of the values of {@link SecurePreferencesImpl}, a type tag followed by the value.
+ * Numbers are big-endian, values written by previous versions are text and are parsed on read.
+ * Entries and exports hold the value prefixed with its preference key, see {@link #named(String, byte[])}.
+ * @author Hussain Al-Derry
+ */
+final class TypedValues {
+
+    static final byte TEXT = 0;
+    static final byte STRING = 1;
+    static final byte INT = 2;
+    static final byte LONG = 3;
+    static final byte DOUBLE = 4;
+    static final byte BOOLEAN = 5;
+    static final byte BYTES = 6;
+
+    private static final String TYPE_MISMATCH = "Requested data type doesn't match the one stored!";
+
+    private TypedValues(){}
+
+    static byte[] ofString(String value){
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        try{
+            return tagged(STRING, utf8, 0, utf8.length);
+        }finally{
+            Arrays.fill(utf8, (byte) 0);
+        }
+    }
+
+    static byte[] ofInt(int value){
+        return ByteBuffer.allocate(5).put(INT).putInt(value).array();
+    }
+
+    static byte[] ofLong(long value){
+        return ByteBuffer.allocate(9).put(LONG).putLong(value).array();
+    }
+
+    static byte[] ofDouble(double value){
+        return ByteBuffer.allocate(9).put(DOUBLE).putDouble(value).array();
+    }
+
+    static byte[] ofBoolean(boolean value){
+        return new byte[]{BOOLEAN, (byte) (value ? 1 : 0)};
+    }
+
+    static byte[] ofBytes(byte[] value, int length){
+        return tagged(BYTES, value, 0, length);
+    }
+
+    /**
+     * @param text The plain text of a value written by a previous version
+     * @return The tagged value
+     */
+    static byte[] ofText(byte[] text){
+        return tagged(TEXT, text, 0, text.length);
+    }
+
+    static String toString(byte[] value){
+        if(value[0] != STRING && value[0] != TEXT){
+            throw new RuntimeException(TYPE_MISMATCH);
+        }
+        return new String(value, 1, value.length - 1, StandardCharsets.UTF_8);
+    }
+
+    static Integer toInt(byte[] value){
+        if(value[0] == INT && value.length == 5){
+            return ByteBuffer.wrap(value, 1, 4).getInt();
+        }
+        try{
+            return Integer.parseInt(text(value));
+        }catch(NumberFormatException e){
+            throw new RuntimeException(TYPE_MISMATCH);
+        }
+    }
+
+    static Long toLong(byte[] value){
+        if(value[0] == LONG && value.length == 9){
+            return ByteBuffer.wrap(value, 1, 8).getLong();
+        }
+        try{
+            return Long.parseLong(text(value));
+        }catch(NumberFormatException e){
+            throw new RuntimeException(TYPE_MISMATCH);
+        }
+    }
+
+    static Double toDouble(byte[] value){
+        if(value[0] == DOUBLE && value.length == 9){
+            return ByteBuffer.wrap(value, 1, 8).getDouble();
+        }
+        try{
+            return Double.parseDouble(text(value));
+        }catch(NumberFormatException e){
+            throw new RuntimeException(TYPE_MISMATCH);
+        }
+    }
+
+    static Boolean toBoolean(byte[] value){
+        if(value[0] == BOOLEAN && value.length == 2){
+            return value[1] != 0;
+        }
+        return Boolean.parseBoolean(text(value));
+    }
+
+    static byte[] toBytes(byte[] value){
+        if(value[0] != BYTES){
+            throw new RuntimeException(TYPE_MISMATCH);
+        }
+        return Arrays.copyOfRange(value, 1, value.length);
+    }
+
+    /**
+     * @param value The tagged value
+     * @return The value as the type it was stored with, text values written by previous versions as a String
+     */
+    static Object toObject(byte[] value){
+        switch(value[0]){
+            case TEXT:
+            case STRING:
+                return toString(value);
+            case INT:
+                return toInt(value);
+            case LONG:
+                return toLong(value);
+            case DOUBLE:
+                return toDouble(value);
+            case BOOLEAN:
+                return toBoolean(value);
+            case BYTES:
+                return toBytes(value);
+            default:
+                throw new IllegalStateException("Unknown value type " + value[0]);
+        }
+    }
+
+    /**
+     * Prefixes a tagged value with the preference key it is stored under, its length as an int followed by its UTF-8 bytes
+     * @param key The preference key
+     * @param value The tagged value
+     * @return The named value
+     */
+    static byte[] named(String key, byte[] value){
+        byte[] name = key.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(4 + name.length + value.length).putInt(name.length).put(name).put(value).array();
+    }
+
+    /**
+     * @param named A value created by {@link #named(String, byte[])}
+     * @return The preference key of the value
+     * @throws IllegalStateException if the value is malformed
+     */
+    static String nameOf(byte[] named){
+        return new String(named, 4, nameLength(named), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param named A value created by {@link #named(String, byte[])}
+     * @return A copy of the tagged value
+     * @throws IllegalStateException if the value is malformed
+     */
+    static byte[] valueOf(byte[] named){
+        return Arrays.copyOfRange(named, 4 + nameLength(named), named.length);
+    }
+
+    private static int nameLength(byte[] named){
+        int length = named.length < 4 ? -1 : ByteBuffer.wrap(named).getInt();
+        if(length < 0 || length > named.length - 5){
+            throw new IllegalStateException("Malformed entry");
+        }
+        return length;
+    }
+
+    /**
+     * @return The text of a value written by a previous version
+     * @throws RuntimeException if the value is binary
+     */
+    private static String text(byte[] value){
+        if(value[0] != TEXT){
+            throw new RuntimeException(TYPE_MISMATCH);
+        }
+        return new String(value, 1, value.length - 1, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] tagged(byte type, byte[] data, int offset, int length){
+        byte[] value = new byte[length + 1];
+        value[0] = type;
+        System.arraycopy(data, offset, value, 1, length);
+        return value;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.storage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the plain values written to {@link SecurePreferencesImpl} in write-behind mode until a background thread
+ * writes them as one batch, at a fixed interval or once enough keys are pending. Writes to the same key are coalesced,
+ * only the latest value is written. Values stay readable from the buffer until their batch is written,
+ * a batch that fails is kept to be retried with the next one.
+ * @author Hussain Al-Derry
+ */
+final class WriteBehindBuffer {
+
+    /** Marks a pending removal */
+    static final byte[] REMOVED = new byte[0];
+
+    private static final Logger LOGGER = Logger.getLogger(WriteBehindBuffer.class.getName());
+
+    private final Consumer<Map<String, byte[]>> mWriter;
+    private final int maxPending;
+    private final ScheduledExecutorService mScheduler;
+    private final Object mLock = new Object();
+    private final Object mFlushLock = new Object();
+    private Map<String, byte[]> mPending = new LinkedHashMap<>();
+    private Map<String, byte[]> mFlushing = Collections.emptyMap();
+    private boolean flushRequested;
+    private boolean closed;
+
+    /**
+     * @param mWriter Writes and flushes a batch of plain values by key, a null value removes the key
+     * @param intervalNanos The time between two background flushes
+     * @param maxPending The number of pending keys triggering a flush before the interval ends
+     */
+    WriteBehindBuffer(Consumer<Map<String, byte[]>> mWriter, long intervalNanos, int maxPending){
+        this.mWriter = mWriter;
+        this.maxPending = maxPending;
+        this.mScheduler = Executors.newSingleThreadScheduledExecutor(mRunnable -> {
+            Thread mThread = new Thread(mRunnable, "SecurePreferences-write-behind");
+            mThread.setDaemon(true);
+            return mThread;
+        });
+        mScheduler.scheduleWithFixedDelay(this::flushQuietly, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param key The preference key
+     * @param value The tagged plain value, owned and zeroed by the buffer, or null to remove the key
+     * @throws IllegalStateException if the buffer was closed
+     */
+    void stage(String key, byte[] value){
+        stageAll(Collections.singletonMap(key, value));
+    }
+
+    /**
+     * @param mValues The tagged plain values by preference key, owned and zeroed by the buffer, null values remove their key
+     * @throws IllegalStateException if the buffer was closed
+     */
+    void stageAll(Map<String, byte[]> mValues){
+        boolean full;
+        synchronized(mLock){
+            if(closed){
+                throw new IllegalStateException("Preferences are closed");
+            }
+            for(Map.Entry<String, byte[]> mEntry : mValues.entrySet()){
+                byte[] mPrevious = mPending.put(mEntry.getKey(), mEntry.getValue() != null ? mEntry.getValue() : REMOVED);
+                if(mPrevious != null){
+                    Arrays.fill(mPrevious, (byte) 0);
+                }
+            }
+            full = mPending.size() >= maxPending && !flushRequested;
+            flushRequested |= full;
+        }
+        if(full){
+            try{
+                mScheduler.execute(this::flushQuietly);
+            }catch(RejectedExecutionException e){
+                // Closing, the pending values are written by close()
+            }
+        }
+    }
+
+    /**
+     * @param key The preference key
+     * @return A copy of the pending value of the key, {@link #REMOVED} if the key is pending removal, or null if it's not pending
+     */
+    byte[] lookup(String key){
+        synchronized(mLock){
+            byte[] value = mPending.get(key);
+            if(value == null){
+                value = mFlushing.get(key);
+            }
+            return value == null || value == REMOVED ? value : value.clone();
+        }
+    }
+
+    /**
+     * Writes the pending values as one batch, blocking until they are written
+     * @throws IllegalStateException if the batch can't be written, its values are kept pending
+     */
+    void flush(){
+        synchronized(mFlushLock){
+            Map<String, byte[]> mBatch = new LinkedHashMap<>();
+            synchronized(mLock){
+                flushRequested = false;
+                if(mPending.isEmpty()){
+                    return;
+                }
+                mFlushing = mPending;
+                mPending = new LinkedHashMap<>();
+                for(Map.Entry<String, byte[]> mEntry : mFlushing.entrySet()){
+                    byte[] value = mEntry.getValue();
+                    mBatch.put(mEntry.getKey(), value != REMOVED ? value.clone() : null);
+                }
+            }
+
+            try{
+                mWriter.accept(mBatch);
+            }catch(RuntimeException e){
+                synchronized(mLock){
+                    for(Map.Entry<String, byte[]> mEntry : mFlushing.entrySet()){
+                        if(mPending.putIfAbsent(mEntry.getKey(), mEntry.getValue()) != null){
+                            Arrays.fill(mEntry.getValue(), (byte) 0);
+                        }
+                    }
+                    mFlushing = Collections.emptyMap();
+                }
+                throw e;
+            }
+
+            synchronized(mLock){
+                for(byte[] value : mFlushing.values()){
+                    Arrays.fill(value, (byte) 0);
+                }
+                mFlushing = Collections.emptyMap();
+            }
+        }
+    }
+
+    /**
+     * Stops the background flushes and writes the pending values, values can't be staged afterwards
+     * @throws IllegalStateException if the pending values can't be written
+     */
+    void close(){
+        synchronized(mLock){
+            if(closed){
+                return;
+            }
+            closed = true;
+        }
+        mScheduler.shutdown();
+        flush();
+    }
+
+    private void flushQuietly(){
+        try{
+            flush();
+        }catch(RuntimeException e){
+            LOGGER.log(Level.WARNING, "Unable to write the pending preferences, retrying with the next flush", e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.utils;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs tasks on an {@link Executor} with a bounded number of them in flight.
+ * Submitting blocks while every permit is taken, so a job doesn't queue all its work up front,
+ * and {@link #awaitCompletion()} waits for the tasks that are still running.
+ * @author Hussain Al-Derry
+ */
+public final class BoundedExecutor {
+
+    private final Executor mExecutor;
+    private final Semaphore mPermits;
+    private final int permits;
+
+    /**
+     * @param mExecutor The executor to run the tasks on
+     * @param permits The maximum number of tasks in flight
+     * @throws IllegalArgumentException if the executor is null or permits is less than 1
+     */
+    public BoundedExecutor(Executor mExecutor, int permits){
+        if(mExecutor == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }else if(permits < 1){
+            throw new IllegalArgumentException("Permits must be at least 1");
+        }
+        this.mExecutor = mExecutor;
+        this.mPermits = new Semaphore(permits);
+        this.permits = permits;
+    }
+
+    /**
+     * Waits for a free permit and runs the task with it
+     * @param mTask The task to run
+     * @throws InterruptedException if interrupted while waiting for a permit
+     * @throws RejectedExecutionException if the executor rejects the task
+     */
+    public void submit(Runnable mTask) throws InterruptedException{
+        acquire();
+        execute(mTask);
+    }
+
+    /**
+     * Waits for a free permit, which must then be passed to {@link #execute(Runnable)} or given back using {@link #release()}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException{
+        mPermits.acquire();
+    }
+
+    /**
+     * Gives back a permit taken by {@link #acquire()} that won't be used
+     */
+    public void release(){
+        mPermits.release();
+    }
+
+    /**
+     * Runs the task with a permit taken by {@link #acquire()}, the permit is released when the task ends
+     * @param mTask The task to run
+     * @throws RejectedExecutionException if the executor rejects the task, the permit is released
+     */
+    public void execute(Runnable mTask){
+        try{
+            mExecutor.execute(() -> {
+                try{
+                    mTask.run();
+                }finally{
+                    mPermits.release();
+                }
+            });
+        }catch(RejectedExecutionException e){
+            mPermits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for every task in flight to end, even if the thread is interrupted; the interrupt status is kept
+     */
+    public void awaitCompletion(){
+        mPermits.acquireUninterruptibly(permits);
+        mPermits.release(permits);
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.utils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static com.github.hussainderry.utils.ImageCompressionUtils.compressImage;
+
+/**
+ * Compresses batches of images on a bounded worker pool using {@link ImageCompressionUtils}, delivering every result
+ * to a {@link Listener} as soon as it completes.
+ * Each image is charged against a memory budget for its decoded size, read from the image header, before it's submitted.
+ * Reading the sources blocks while the budget is spent, so a burst of large images is compressed a few at a time
+ * instead of being decoded all at once. An image larger than the whole budget is compressed alone.
+ * @author Hussain Al-Derry
+ */
+public class ImageCompressionPipeline {
+
+    private static final String ILLEGAL_COMPRESSED_IMAGE_QUALITY = "Illegal compressed image quality (quality must be >= 0 and <= 1)";
+    private static final int BYTES_PER_PIXEL = 4; // decoded images are at most 4 bytes per pixel
+    private static final int QUEUED_PER_WORKER = 2; // images read ahead per worker, so workers don't wait for the sources
+
+    private final float quality;
+    private final int parallelism;
+    private final long memoryBudget;
+    private final ExecutorService mExecutorService;
+
+    private ImageCompressionPipeline(Builder builder){
+        this.quality = builder.quality;
+        this.parallelism = builder.parallelism;
+        this.memoryBudget = builder.memoryBudget;
+        this.mExecutorService = builder.mExecutorService;
+    }
+
+    /**
+     * Compresses the image files, see {@link #compress(Stream, Loader, Listener)}
+     * @param mFiles The image files
+     * @param mListener Receives the compressed images and failures
+     * @return {@link PipelineResult} describing the job
+     */
+    public PipelineResult compressFiles(Stream<Path> mFiles, Listener<Path> mListener){
+        return compress(mFiles, Files::readAllBytes, mListener);
+    }
+
+    /**
+     * Compresses the images, loading every source only when the memory budget allows it.
+     * Blocks until every image is compressed, the listener is called from the worker threads as images complete,
+     * in no particular order. Failures to load or compress an image are passed to the listener and don't stop the job.
+     * @param mSources The image sources, consumed once
+     * @param mLoader Loads the bytes of a source
+     * @param mListener Receives the compressed images and failures
+     * @param <K> The source type
+     * @return {@link PipelineResult} describing the job
+     * @throws IllegalArgumentException if any of the arguments is null
+     * @throws IllegalStateException if interrupted while waiting for the budget, once the images in flight have finished
+     */
+    public <K> PipelineResult compress(Stream<K> mSources, Loader<K> mLoader, Listener<K> mListener){
+        if(mSources == null || mLoader == null || mListener == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+
+        int budgetKiB = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudget / 1024));
+        int maxQueued = parallelism * QUEUED_PER_WORKER;
+        Semaphore mMemory = new Semaphore(budgetKiB);
+        ExecutorService mExecutor = mExecutorService != null ? mExecutorService : createDefaultExecutor(parallelism);
+        BoundedExecutor mTasks = new BoundedExecutor(mExecutor, maxQueued);
+        AtomicInteger totalImages = new AtomicInteger();
+        AtomicInteger compressedImages = new AtomicInteger();
+        AtomicLong bytesIn = new AtomicLong();
+        AtomicLong bytesOut = new AtomicLong();
+        long startTime = System.nanoTime();
+
+        try{
+            Iterator<K> mIterator = mSources.iterator();
+            while(mIterator.hasNext()){
+                K source = mIterator.next();
+                totalImages.incrementAndGet();
+                mTasks.acquire();
+
+                byte[] image;
+                int cost;
+                try{
+                    image = mLoader.load(source);
+                    cost = (int) Math.min(budgetKiB, Math.max(1, estimateMemory(image) / 1024));
+                }catch(RuntimeException | IOException e){
+                    mTasks.release();
+                    mListener.onFailed(source, e);
+                    continue;
+                }
+
+                try{
+                    mMemory.acquire(cost);
+                }catch(InterruptedException e){
+                    mTasks.release();
+                    throw e;
+                }
+                mTasks.execute(() -> {
+                    try{
+                        byte[] compressed;
+                        try{
+                            compressed = compressImage(image, quality);
+                        }catch(RuntimeException e){
+                            mListener.onFailed(source, e);
+                            return;
+                        }
+                        bytesIn.addAndGet(image.length);
+                        bytesOut.addAndGet(compressed.length);
+                        compressedImages.incrementAndGet();
+                        mListener.onCompressed(source, compressed);
+                    }finally{
+                        mMemory.release(cost);
+                    }
+                });
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while compressing", e);
+        }finally{
+            // Waiting for the in-flight images to finish, even when interrupted
+            mTasks.awaitCompletion();
+            if(mExecutorService == null){
+                mExecutor.shutdown();
+            }
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+        return new PipelineResult(totalImages.get(), compressedImages.get(), bytesIn.get(), bytesOut.get(), elapsed);
+    }
+
+    /**
+     * Estimates the memory needed to compress the image from its dimensions, without decoding it
+     * @param image The image bytes
+     * @return The estimated size in bytes of the decoded image plus the source and result bytes
+     * @throws IllegalArgumentException if the image format isn't supported
+     */
+    static long estimateMemory(byte[] image) throws IOException{
+        try(ImageInputStream mInputStream = new MemoryCacheImageInputStream(new ByteArrayInputStream(image))){
+            Iterator<ImageReader> mReaders = ImageIO.getImageReaders(mInputStream);
+            if(!mReaders.hasNext()){
+                throw new IllegalArgumentException("Unsupported image format");
+            }
+            ImageReader mReader = mReaders.next();
+            try{
+                mReader.setInput(mInputStream, true, true);
+                long pixels = (long) mReader.getWidth(0) * mReader.getHeight(0);
+                return pixels * BYTES_PER_PIXEL + 2L * image.length;
+            }finally{
+                mReader.dispose();
+            }
+        }
+    }
+
+    private static ExecutorService createDefaultExecutor(int parallelism){
+        return Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread mThread = new Thread(runnable, "image-compressor");
+            mThread.setDaemon(true);
+            return mThread;
+        });
+    }
+
+    /**
+     * Loads the bytes of an image source
+     * @param <K> The source type
+     */
+    @FunctionalInterface
+    public interface Loader<K> {
+
+        /**
+         * @param source The image source
+         * @return The image bytes
+         * @throws IOException if the source can't be read
+         */
+        byte[] load(K source) throws IOException;
+    }
+
+    /**
+     * Receives the results of a pipeline, called concurrently from the worker threads.
+     * The memory of an image is released once the listener returns.
+     * @param <K> The source type
+     */
+    public interface Listener<K> {
+
+        /**
+         * Called once an image is compressed
+         * @param source The image source
+         * @param compressed The compressed image bytes
+         */
+        void onCompressed(K source, byte[] compressed);
+
+        /**
+         * Called if an image couldn't be loaded or compressed
+         * @param source The image source
+         * @param e The cause
+         */
+        void onFailed(K source, Exception e);
+    }
+
+    /**
+     * The outcome of a compression job
+     */
+    public static final class PipelineResult{
+
+        private final int totalImages;
+        private final int compressedImages;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long elapsedNanos;
+
+        private PipelineResult(int totalImages, int compressedImages, long bytesIn, long bytesOut, long elapsedNanos){
+            this.totalImages = totalImages;
+            this.compressedImages = compressedImages;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return The number of sources
+         */
+        public int getTotalImages() {
+            return totalImages;
+        }
+
+        /**
+         * @return The number of images compressed successfully
+         */
+        public int getCompressedImages() {
+            return compressedImages;
+        }
+
+        /**
+         * @return The size in bytes of the compressed sources
+         */
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        /**
+         * @return The size in bytes of the compressed images
+         */
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        /**
+         * @return The time the job took in milliseconds
+         */
+        public long getElapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+    }
+
+    /**
+     * Builder for ImageCompressionPipeline
+     */
+    public static class Builder{
+
+        private float quality = 0.50f;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+        private ExecutorService mExecutorService;
+
+        /**
+         * @param quality The compressed image quality, must be between 0 and 1 (inclusive), 0.5 by default
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if the quality value is not valid
+         */
+        public Builder quality(float quality){
+            if(quality < 0 || quality > 1){
+                throw new IllegalArgumentException(ILLEGAL_COMPRESSED_IMAGE_QUALITY);
+            }
+            this.quality = quality;
+            return this;
+        }
+
+        /**
+         * @param parallelism The number of images compressed at the same time, the number of processors by default
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if parallelism is less than 1
+         */
+        public Builder parallelism(int parallelism){
+            if(parallelism < 1){
+                throw new IllegalArgumentException("Parallelism must be >= 1");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param bytes The memory the images being compressed may use, a quarter of the maximum heap by default
+         * @return The modified builder instance
+         * @throws IllegalArgumentException if the budget is less than 1 KiB
+         */
+        public Builder memoryBudget(long bytes){
+            if(bytes < 1024){
+                throw new IllegalArgumentException("Memory budget must be >= 1024 bytes");
+            }
+            this.memoryBudget = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the executor to run the jobs on, the executor is not shut down by the pipeline.
+         * The parallelism still limits the images queued on it.
+         * @param mExecutorService The executor to use
+         * @return The modified builder instance
+         */
+        public Builder executor(ExecutorService mExecutorService){
+            this.mExecutorService = mExecutorService;
+            return this;
+        }
+
+        /**
+         * @return The configured ImageCompressionPipeline instance
+         */
+        public ImageCompressionPipeline build(){
+            return new ImageCompressionPipeline(this);
+        }
+    }
+}
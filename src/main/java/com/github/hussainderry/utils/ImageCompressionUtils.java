@@ -20,6 +20,7 @@ import javax.imageio.ImageIO;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -56,7 +57,8 @@ public class ImageCompressionUtils {
 
         try(InputStream mInputStream = new ByteArrayInputStream(imageBytes);
             ByteArrayOutputStream mOutputStream = new ByteArrayOutputStream();
-            ImageOutputStream mImageOutputStream = ImageIO.createImageOutputStream(mOutputStream)){
+            // Buffering in memory, ImageIO would otherwise cache the output in a temporary file
+            ImageOutputStream mImageOutputStream = new MemoryCacheImageOutputStream(mOutputStream)){
 
             BufferedImage mBufferedImage = ImageIO.read(mInputStream);
 
@@ -70,7 +72,12 @@ public class ImageCompressionUtils {
                 mParam.setCompressionQuality(compressedImageQuality);
             }
 
-            mImageWriter.write(null, new IIOImage(mBufferedImage, null, null), mParam);
+            try{
+                mImageWriter.write(null, new IIOImage(mBufferedImage, null, null), mParam);
+            }finally{
+                mImageWriter.dispose();
+            }
+            mImageOutputStream.flush();
             return mOutputStream.toByteArray();
 
         }catch(IOException e){
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 Hussain Al-Derry
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hussainderry.crypto;
+
+import com.github.hussainderry.crypto.enums.CryptoFailure;
+import com.github.hussainderry.crypto.enums.CryptoOperation;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A {@link CryptoMetrics} emitting JDK Flight Recorder events, so the crypto work can be correlated with GC and CPU
+ * in recordings. Events are only created when they are enabled in a running recording.
+ * Only available on JDK 11 and later, where it is built by the jfr profile.
+ * @author Hussain Al-Derry
+ */
+public final class JfrCryptoMetrics implements CryptoMetrics {
+
+    static final String KEY_DERIVATION_EVENT = "com.github.hussainderry.crypto.KeyDerivation";
+    static final String OPERATION_EVENT = "com.github.hussainderry.crypto.Operation";
+    static final String FAILURE_EVENT = "com.github.hussainderry.crypto.Failure";
+
+    private final CryptoMetrics mDelegate;
+
+    /**
+     * Create a new {@link JfrCryptoMetrics} only emitting events
+     */
+    public JfrCryptoMetrics(){
+        this.mDelegate = null;
+    }
+
+    /**
+     * Create a new {@link JfrCryptoMetrics} emitting events and forwarding the measurements to another implementation
+     * @param mDelegate The {@link CryptoMetrics} to forward to, e.g. a {@link CountingCryptoMetrics}
+     * @throws IllegalArgumentException if any of the arguments is null
+     */
+    public JfrCryptoMetrics(CryptoMetrics mDelegate){
+        if(mDelegate == null){
+            throw new IllegalArgumentException("Delegate cannot be null");
+        }
+        this.mDelegate = mDelegate;
+    }
+
+    @Override
+    public void keyDerived(long nanos) {
+        KeyDerivationEvent mEvent = new KeyDerivationEvent();
+        if(mEvent.isEnabled()){
+            mEvent.derivationTime = nanos;
+            mEvent.commit();
+        }
+        if(mDelegate != null){
+            mDelegate.keyDerived(nanos);
+        }
+    }
+
+    @Override
+    public void operationCompleted(CryptoOperation mOperation, long bytes, long cipherNanos, long ioNanos) {
+        OperationEvent mEvent = new OperationEvent();
+        if(mEvent.isEnabled()){
+            mEvent.operation = mOperation.name();
+            mEvent.bytes = bytes;
+            mEvent.cipherTime = cipherNanos;
+            mEvent.ioTime = ioNanos;
+            mEvent.commit();
+        }
+        if(mDelegate != null){
+            mDelegate.operationCompleted(mOperation, bytes, cipherNanos, ioNanos);
+        }
+    }
+
+    @Override
+    public void operationFailed(CryptoOperation mOperation, CryptoFailure mFailure) {
+        FailureEvent mEvent = new FailureEvent();
+        if(mEvent.isEnabled()){
+            mEvent.operation = mOperation.name();
+            mEvent.failure = mFailure.name();
+            mEvent.commit();
+        }
+        if(mDelegate != null){
+            mDelegate.operationFailed(mOperation, mFailure);
+        }
+    }
+
+    @Name(KEY_DERIVATION_EVENT)
+    @Label("Key Derivation")
+    @Category({"Java Utilities", "Crypto"})
+    @Description("A PBKDF2 key derivation")
+    static final class KeyDerivationEvent extends Event {
+
+        @Label("Derivation Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long derivationTime;
+    }
+
+    @Name(OPERATION_EVENT)
+    @Label("Crypto Operation")
+    @Category({"Java Utilities", "Crypto"})
+    @Description("A completed encryption or decryption, excluding the key derivation")
+    static final class OperationEvent extends Event {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Cipher Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long cipherTime;
+
+        @Label("IO Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long ioTime;
+    }
+
+    @Name(FAILURE_EVENT)
+    @Label("Crypto Failure")
+    @Category({"Java Utilities", "Crypto"})
+    @Description("A failed decryption or IO error")
+    static final class FailureEvent extends Event {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Failure")
+        String failure;
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.hussainderry.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares a JMH CSV result with the committed baseline and lists the scores that got worse by more than
+ * the threshold, including the allocation rates recorded by the GC profiler.
+ * Scores are matched by benchmark name and the parameters it was run with, so a run over a subset of the benchmarks
+ * can be compared too, the baseline scores it doesn't cover are listed as missing.
+ * Usage: BaselineComparator baseline.csv result.csv [threshold percent, default 10]
+ * Exits with status 1 if any score regressed.
+ */
+public class BaselineComparator {
+
+    public static void main(String[] args) throws IOException{
+        if(args.length < 2){
+            System.err.println("Usage: BaselineComparator <baseline.csv> <result.csv> [threshold percent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        Map<String, Score> mBaseline = read(args[0]);
+        Map<String, Score> mResult = read(args[1]);
+
+        int regressions = 0;
+        int compared = 0;
+        for(Map.Entry<String, Score> mEntry : mResult.entrySet()){
+            Score mBefore = mBaseline.get(mEntry.getKey());
+            Score mAfter = mEntry.getValue();
+            if(mBefore == null || mBefore.value == 0 || !mBefore.unit.equals(mAfter.unit)){
+                continue;
+            }
+            compared++;
+            double change = (mAfter.value - mBefore.value) / mBefore.value * 100;
+            // Throughput units are per time, everything else (time, bytes) is better when lower
+            double worse = mAfter.unit.endsWith("/s") || mAfter.unit.endsWith("/ms") ? -change : change;
+            if(worse > threshold){
+                regressions++;
+                System.out.printf("REGRESSION %s: %.3f -> %.3f %s (%+.1f%%)%n",
+                        mEntry.getKey(), mBefore.value, mAfter.value, mAfter.unit, change);
+            }
+        }
+        int missing = 0;
+        for(String key : mBaseline.keySet()){
+            if(!mResult.containsKey(key)){
+                missing++;
+                System.out.printf("MISSING %s%n", key);
+            }
+        }
+        System.out.printf("%d of %d compared scores regressed by more than %.1f%%, %d baseline scores missing from the result%n",
+                regressions, compared, threshold, missing);
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    private static Map<String, Score> read(String path) throws IOException{
+        List<String> lines = Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8);
+        List<String> header = split(lines.get(0));
+        int scoreColumn = header.indexOf("Score");
+        int unitColumn = header.indexOf("Unit");
+        Map<String, Score> mScores = new LinkedHashMap<>();
+        for(String line : lines.subList(1, lines.size())){
+            if(line.trim().isEmpty()){
+                continue;
+            }
+            List<String> fields = split(line);
+            StringBuilder mKey = new StringBuilder(fields.get(0));
+            for(int i = unitColumn + 1; i < fields.size(); i++){
+                // Param columns of the benchmarks that don't declare them are empty
+                if(fields.get(i).isEmpty()){
+                    continue;
+                }
+                mKey.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(fields.get(i));
+            }
+            mScores.put(mKey.toString(), new Score(Double.parseDouble(fields.get(scoreColumn)), fields.get(unitColumn)));
+        }
+        return mScores;
+    }
+
+    private static List<String> split(String line){
+        List<String> fields = new ArrayList<>();
+        StringBuilder mField = new StringBuilder();
+        boolean quoted = false;
+        for(char c : line.toCharArray()){
+            if(c == '"'){
+                quoted = !quoted;
+            }else if(c == ',' && !quoted){
+                fields.add(mField.toString());
+                mField.setLength(0);
+            }else{
+                mField.append(c);
+            }
+        }
+        fields.add(mField.toString());
+        return fields;
+    }
+
+    private static final class Score {
+
+        private final double value;
+        private final String unit;
+
+        private Score(double value, String unit){
+            this.value = value;
+            this.unit = unit;
+        }
+    }
+}
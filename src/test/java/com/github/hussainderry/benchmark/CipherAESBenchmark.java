@@ -0,0 +1,74 @@
+package com.github.hussainderry.benchmark;
+
+import com.github.hussainderry.crypto.CipherAES;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small message latency of {@link CipherAES}, and throughput of a shared instance under concurrency.
+ * Every call derives its key, so the PBKDF2 cost is part of the numbers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class CipherAESBenchmark {
+
+    private static final char[] PASSWORD = "benchmark-pa$$word".toCharArray();
+
+    @Param({"64", "4096"})
+    public int messageSize;
+
+    private CipherAES mCipher;
+    private byte[] message;
+    private byte[] encrypted;
+
+    @Setup
+    public void setup(){
+        mCipher = new CipherAES();
+        message = new byte[messageSize];
+        new Random(messageSize).nextBytes(message);
+        encrypted = mCipher.encrypt(PASSWORD, message);
+    }
+
+    @Benchmark
+    public byte[] encrypt(){
+        return mCipher.encrypt(PASSWORD, message);
+    }
+
+    @Benchmark
+    public byte[] decrypt(){
+        return mCipher.decrypt(PASSWORD, encrypted);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public byte[] encryptShared4Threads(){
+        return mCipher.encrypt(PASSWORD, message);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public byte[] decryptShared4Threads(){
+        return mCipher.decrypt(PASSWORD, encrypted);
+    }
+}
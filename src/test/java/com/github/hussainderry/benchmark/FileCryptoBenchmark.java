@@ -0,0 +1,103 @@
+package com.github.hussainderry.benchmark;
+
+import com.github.hussainderry.crypto.FileDecryptorAES;
+import com.github.hussainderry.crypto.FileEncryptorAES;
+import com.github.hussainderry.crypto.enums.Iterations;
+import com.github.hussainderry.crypto.enums.KeySize;
+import com.github.hussainderry.crypto.enums.SaltSize;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * File throughput of {@link FileEncryptorAES} and {@link FileDecryptorAES} by file size and stream buffer size.
+ * The key is derived once in the setup, the scores are the time per file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class FileCryptoBenchmark {
+
+    private static final String PASSWORD = "benchmark-pa$$word";
+
+    @Param({"65536", "1048576", "16777216"})
+    public int fileSize;
+
+    @Param({"8192", "65536"})
+    public int bufferSize;
+
+    private Path directory;
+    private Path plainFile;
+    private Path encryptedFile;
+    private Path outputFile;
+    private FileEncryptorAES mEncryptor;
+    private FileDecryptorAES mDecryptor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException{
+        directory = Files.createTempDirectory("file-crypto-benchmark");
+        plainFile = directory.resolve("plain");
+        encryptedFile = directory.resolve("encrypted");
+        outputFile = directory.resolve("output");
+
+        byte[] data = new byte[fileSize];
+        new Random(fileSize).nextBytes(data);
+        Files.write(plainFile, data);
+
+        mEncryptor = FileEncryptorAES.createEncryptorWithCustomSecurityParams(PASSWORD, KeySize.KEY_256, Iterations.LOW, SaltSize.SALT_128);
+        mDecryptor = new FileDecryptorAES(PASSWORD);
+        encrypt(encryptedFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException{
+        try(Stream<Path> mFiles = Files.list(directory)){
+            for(Path file : (Iterable<Path>) mFiles::iterator){
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public long encrypt() throws IOException{
+        return encrypt(outputFile);
+    }
+
+    @Benchmark
+    public long decrypt() throws IOException{
+        try(BufferedInputStream mInput = new BufferedInputStream(Files.newInputStream(encryptedFile), bufferSize);
+            BufferedOutputStream mOutput = new BufferedOutputStream(Files.newOutputStream(outputFile), bufferSize)){
+            return mDecryptor.decrypt(mInput, mOutput);
+        }
+    }
+
+    private long encrypt(Path target) throws IOException{
+        try(BufferedInputStream mInput = new BufferedInputStream(Files.newInputStream(plainFile), bufferSize);
+            BufferedOutputStream mOutput = new BufferedOutputStream(Files.newOutputStream(target), bufferSize)){
+            return mEncryptor.encrypt(mInput, mOutput);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.hussainderry.benchmark;
+
+import com.github.hussainderry.crypto.HashSHA;
+import com.github.hussainderry.crypto.enums.DigestType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hash throughput of {@link HashSHA} for each {@link DigestType}, from heap arrays and direct buffers
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    @Param({"SHA1", "SHA256", "SHA512"})
+    public DigestType digest;
+
+    @Param({"1024", "1048576"})
+    public int size;
+
+    private byte[] data;
+    private ByteBuffer mDirect;
+
+    @Setup
+    public void setup(){
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+        mDirect = ByteBuffer.allocateDirect(size);
+        mDirect.put(data);
+    }
+
+    @Benchmark
+    public byte[] byteArray(){
+        return HashSHA.hash(digest, data);
+    }
+
+    @Benchmark
+    public byte[] directBuffer(){
+        mDirect.clear();
+        return HashSHA.hash(digest, mDirect);
+    }
+}
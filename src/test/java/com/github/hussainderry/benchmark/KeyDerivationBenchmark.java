@@ -0,0 +1,45 @@
+package com.github.hussainderry.benchmark;
+
+import com.github.hussainderry.crypto.PBKDF2Helper;
+import com.github.hussainderry.crypto.enums.Iterations;
+import com.github.hussainderry.crypto.enums.KeySize;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key derivation cost of {@link PBKDF2Helper} for each {@link Iterations} level
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class KeyDerivationBenchmark {
+
+    @Param({"LOW", "MEDIUM", "HIGH"})
+    public Iterations iterations;
+
+    private PBKDF2Helper mHelper;
+
+    @Setup
+    public void setup(){
+        mHelper = new PBKDF2Helper.Builder(KeySize.KEY_256).iterations(iterations).build();
+    }
+
+    @Benchmark
+    public byte[] createKeyFromPassword(){
+        return mHelper.createKeyFromPassword("benchmark-pa$$word");
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.hussainderry.benchmark;
+
+import com.github.hussainderry.crypto.PBKDF2Engine;
+import com.github.hussainderry.crypto.enums.DigestType;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.PBEParametersGenerator;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.generators.PKCS5S2ParametersGenerator;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link PBKDF2Engine} with the JCE and BouncyCastle PBKDF2 implementations
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PBKDF2Benchmark {
+
+    private static final char[] PASSWORD = "benchmark-pa$$word".toCharArray();
+
+    @Param({"SHA256", "SHA512"})
+    public DigestType digest;
+
+    @Param({"10000"})
+    public int iterations;
+
+    private byte[] salt;
+    private SecretKeyFactory mJceFactory;
+
+    @Setup
+    public void setup() throws GeneralSecurityException{
+        salt = new byte[32];
+        mJceFactory = SecretKeyFactory.getInstance("PBKDF2WithHmac" + digest.name());
+    }
+
+    @Benchmark
+    public byte[] engine(){
+        return PBKDF2Engine.getInstance(digest).deriveKey(PASSWORD, salt, iterations, 256);
+    }
+
+    @Benchmark
+    public byte[] jce() throws GeneralSecurityException{
+        return mJceFactory.generateSecret(new PBEKeySpec(PASSWORD, salt, iterations, 256)).getEncoded();
+    }
+
+    @Benchmark
+    public byte[] bouncyCastle(){
+        Digest mDigest = digest == DigestType.SHA256 ? new SHA256Digest() : new SHA512Digest();
+        PKCS5S2ParametersGenerator mGenerator = new PKCS5S2ParametersGenerator(mDigest);
+        mGenerator.init(PBEParametersGenerator.PKCS5PasswordToUTF8Bytes(PASSWORD), salt, iterations);
+        return ((KeyParameter) mGenerator.generateDerivedParameters(256)).getKey();
+    }
+
+}
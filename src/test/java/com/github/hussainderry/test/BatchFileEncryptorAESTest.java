@@ -0,0 +1,102 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.BatchFileEncryptorAES;
+import com.github.hussainderry.crypto.enums.Iterations;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.github.hussainderry.test.FileCryptoTestHelper.decrypt;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchFileEncryptorAESTest {
+
+    private static final String PASSWORD = "batch-pa$$word";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testEncryptDirectory() throws IOException{
+        Path source = mFolder.newFolder("source").toPath();
+        Path target = mFolder.newFolder("target").toPath();
+        Random mRandom = new Random();
+
+        Files.createDirectories(source.resolve("nested/deeper"));
+        byte[] first = createRandomFile(source.resolve("first.log"), 16 * 1024 + 7, mRandom);
+        byte[] second = createRandomFile(source.resolve("nested/second.json"), 5, mRandom);
+        byte[] third = createRandomFile(source.resolve("nested/deeper/third.bin"), 16 * 4096, mRandom);
+
+        AtomicInteger updates = new AtomicInteger();
+        BatchFileEncryptorAES mEncryptor = new BatchFileEncryptorAES.Builder(PASSWORD)
+                .iterations(Iterations.LOW)
+                .parallelism(2)
+                .progressMonitor((done, total, bytes, totalBytes, throughput) -> updates.incrementAndGet())
+                .build();
+
+        BatchFileEncryptorAES.BatchResult mResult = mEncryptor.encryptDirectory(source, target);
+        assertEquals(3, mResult.getTotalFiles());
+        assertEquals(3, mResult.getEncryptedFiles());
+        assertTrue(mResult.getFailures().isEmpty());
+        assertEquals(3, updates.get());
+
+        assertArrayEquals(first, decrypt(target.resolve("first.log.aes"), PASSWORD));
+        assertArrayEquals(second, decrypt(target.resolve("nested/second.json.aes"), PASSWORD));
+        assertArrayEquals(third, decrypt(target.resolve("nested/deeper/third.bin.aes"), PASSWORD));
+    }
+
+    @Test
+    public void testFailedFile() throws IOException{
+        Path source = mFolder.newFolder("source").toPath();
+        Path target = mFolder.newFolder("target").toPath();
+        Random mRandom = new Random();
+
+        byte[] large = createRandomFile(source.resolve("large.bin"), 4096, mRandom);
+        createRandomFile(source.resolve("small.bin"), 16, mRandom);
+
+        // Files run largest first, the second IV request fails the small file after its target is opened
+        AtomicInteger nonces = new AtomicInteger();
+        AtomicLong lastBytes = new AtomicLong();
+        BatchFileEncryptorAES mEncryptor = new BatchFileEncryptorAES.Builder(PASSWORD)
+                .iterations(Iterations.LOW)
+                .parallelism(1)
+                .nonceSource(bytes -> {
+                    if(nonces.incrementAndGet() > 1){
+                        throw new IllegalStateException("Nonce source exhausted");
+                    }
+                    Arrays.fill(bytes, (byte) 1);
+                })
+                .progressMonitor((done, total, bytes, totalBytes, throughput) -> lastBytes.set(bytes))
+                .build();
+
+        BatchFileEncryptorAES.BatchResult mResult = mEncryptor.encryptDirectory(source, target);
+        assertEquals(2, mResult.getTotalFiles());
+        assertEquals(1, mResult.getEncryptedFiles());
+        assertEquals(4096 + 16, mResult.getTotalBytes());
+        assertEquals(4096, mResult.getEncryptedBytes());
+        assertEquals(4096, lastBytes.get());
+        assertTrue(mResult.getFailures().containsKey(source.resolve("small.bin")));
+
+        assertArrayEquals(large, decrypt(target.resolve("large.bin.aes"), PASSWORD));
+        assertFalse(Files.exists(target.resolve("small.bin.aes")));
+    }
+
+    private byte[] createRandomFile(Path path, int size, Random mRandom) throws IOException{
+        byte[] data = new byte[size];
+        mRandom.nextBytes(data);
+        Files.write(path, data);
+        return data;
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.utils.BoundedExecutor;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BoundedExecutorTest {
+
+    @Test
+    public void testBoundsTasksInFlight() throws InterruptedException{
+        ExecutorService mExecutor = Executors.newFixedThreadPool(4);
+        try{
+            BoundedExecutor mTasks = new BoundedExecutor(mExecutor, 2);
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            AtomicInteger completed = new AtomicInteger();
+            for(int i = 0; i < 20; i++){
+                mTasks.submit(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    sleep(5);
+                    running.decrementAndGet();
+                    completed.incrementAndGet();
+                });
+            }
+            mTasks.awaitCompletion();
+            assertEquals(20, completed.get());
+            assertTrue(maxRunning.get() <= 2);
+        }finally{
+            mExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAwaitCompletionWhenInterrupted() throws InterruptedException{
+        ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+        try{
+            BoundedExecutor mTasks = new BoundedExecutor(mExecutor, 1);
+            CountDownLatch started = new CountDownLatch(1);
+            AtomicInteger completed = new AtomicInteger();
+            mTasks.submit(() -> {
+                started.countDown();
+                sleep(100);
+                completed.incrementAndGet();
+            });
+            started.await();
+
+            Thread.currentThread().interrupt();
+            try{
+                mTasks.submit(completed::incrementAndGet);
+                fail("Expected an interrupt");
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            mTasks.awaitCompletion();
+            assertTrue(Thread.interrupted());
+            assertEquals(1, completed.get());
+        }finally{
+            mExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectedTaskReleasesPermit() throws InterruptedException{
+        ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+        mExecutor.shutdown();
+        BoundedExecutor mTasks = new BoundedExecutor(mExecutor, 1);
+        try{
+            mTasks.submit(() -> {});
+            fail("Expected a rejection");
+        }catch(RejectedExecutionException e){
+            // The permit is back, so waiting returns right away
+            mTasks.awaitCompletion();
+        }
+    }
+
+    private static void sleep(long millis){
+        try{
+            Thread.sleep(millis);
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.CipherAES;
+import com.github.hussainderry.crypto.CountingCryptoMetrics;
+import com.github.hussainderry.crypto.CryptoInstrumentation;
+import com.github.hussainderry.crypto.FileEncryptorAES;
+import com.github.hussainderry.crypto.enums.CryptoFailure;
+import com.github.hussainderry.crypto.enums.CryptoOperation;
+import com.github.hussainderry.crypto.enums.Iterations;
+import com.github.hussainderry.crypto.enums.KeySize;
+import com.github.hussainderry.crypto.enums.SaltSize;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static com.github.hussainderry.test.FileCryptoTestHelper.decrypt;
+import static com.github.hussainderry.test.FileCryptoTestHelper.encrypt;
+
+public class CryptoMetricsTest {
+
+    private static final String PASSWORD = "metrics-pa$$word";
+
+    private CountingCryptoMetrics mMetrics;
+
+    @Before
+    public void setUp(){
+        mMetrics = new CountingCryptoMetrics();
+        CryptoInstrumentation.setMetrics(mMetrics);
+    }
+
+    @After
+    public void tearDown(){
+        CryptoInstrumentation.disable();
+    }
+
+    @Test
+    public void testCipherMetrics(){
+        byte[] data = "instrumented message".getBytes(StandardCharsets.UTF_8);
+        CipherAES mCipher = new CipherAES();
+        byte[] encrypted = mCipher.encrypt(PASSWORD.toCharArray(), data);
+        mCipher.decrypt(PASSWORD.toCharArray(), encrypted);
+
+        Assert.assertEquals(2, mMetrics.getKeyDerivations());
+        Assert.assertTrue(mMetrics.getKeyDerivationNanos() > 0);
+        Assert.assertEquals(1, mMetrics.getCount(CryptoOperation.ENCRYPT));
+        Assert.assertEquals(1, mMetrics.getCount(CryptoOperation.DECRYPT));
+        Assert.assertEquals(data.length, mMetrics.getBytes(CryptoOperation.DECRYPT));
+        Assert.assertEquals(0, mMetrics.getIoNanos(CryptoOperation.ENCRYPT));
+
+        try{
+            mCipher.decrypt("wrong".toCharArray(), encrypted);
+            Assert.fail();
+        }catch(IllegalStateException e){
+            Assert.assertEquals(1, mMetrics.getFailures(CryptoOperation.DECRYPT, CryptoFailure.TAG_MISMATCH));
+            Assert.assertEquals(1, mMetrics.getCount(CryptoOperation.DECRYPT));
+        }
+    }
+
+    @Test
+    public void testFileMetrics() throws IOException{
+        byte[] data = new byte[200_000];
+        Arrays.fill(data, (byte) 7);
+        byte[] encrypted = encrypt(createEncryptor(), data);
+
+        Assert.assertEquals(1, mMetrics.getCount(CryptoOperation.FILE_ENCRYPT));
+        Assert.assertEquals(data.length, mMetrics.getBytes(CryptoOperation.FILE_ENCRYPT));
+        Assert.assertTrue(mMetrics.getIoNanos(CryptoOperation.FILE_ENCRYPT) > 0);
+
+        Assert.assertArrayEquals(data, decrypt(encrypted, PASSWORD));
+        Assert.assertEquals(1, mMetrics.getCount(CryptoOperation.FILE_DECRYPT));
+        Assert.assertEquals(data.length, mMetrics.getBytes(CryptoOperation.FILE_DECRYPT));
+        Assert.assertTrue(mMetrics.getCipherNanos(CryptoOperation.FILE_DECRYPT) > 0);
+    }
+
+    @Test
+    public void testFileFailures() throws IOException{
+        byte[] encrypted = encrypt(createEncryptor(), new byte[1024]);
+
+        try{
+            decrypt(encrypted, "wrong");
+            Assert.fail();
+        }catch(IllegalStateException e){
+            Assert.assertEquals(1, mMetrics.getFailures(CryptoOperation.FILE_DECRYPT, CryptoFailure.BAD_PASSWORD));
+        }
+
+        encrypted[encrypted.length - 1] ^= 1;
+        try{
+            decrypt(encrypted, PASSWORD);
+            Assert.fail();
+        }catch(IllegalStateException e){
+            Assert.assertEquals(1, mMetrics.getFailures(CryptoOperation.FILE_DECRYPT, CryptoFailure.TAG_MISMATCH));
+            Assert.assertEquals(0, mMetrics.getCount(CryptoOperation.FILE_DECRYPT));
+        }
+    }
+
+    @Test
+    public void testLazyInitialization() throws IOException{
+        FileEncryptorAES mEncryptor = createEncryptor();
+        Assert.assertEquals(0, mMetrics.getKeyDerivations());
+
+        mEncryptor.warmUp();
+        mEncryptor.warmUp();
+        Assert.assertEquals(1, mMetrics.getKeyDerivations());
+
+        byte[] data = new byte[1024];
+        byte[] encrypted = encrypt(mEncryptor, data);
+        Assert.assertEquals(1, mMetrics.getKeyDerivations());
+        Assert.assertArrayEquals(data, decrypt(encrypted, PASSWORD));
+
+        CipherAES mCipher = new CipherAES();
+        mCipher.warmUp();
+        Assert.assertEquals(2, mMetrics.getKeyDerivations());
+    }
+
+    @Test
+    public void testDisabled(){
+        CryptoInstrumentation.disable();
+        Assert.assertFalse(CryptoInstrumentation.isEnabled());
+
+        CipherAES mCipher = new CipherAES();
+        mCipher.encrypt(PASSWORD.toCharArray(), new byte[16]);
+        Assert.assertEquals(0, mMetrics.getKeyDerivations());
+        Assert.assertEquals(0, mMetrics.getCount(CryptoOperation.ENCRYPT));
+    }
+
+    @Test
+    public void testReset(){
+        mMetrics.operationCompleted(CryptoOperation.ENCRYPT, 10, 5, 0);
+        mMetrics.operationFailed(CryptoOperation.DECRYPT, CryptoFailure.IO_ERROR);
+        mMetrics.reset();
+        Assert.assertEquals(0, mMetrics.getCount(CryptoOperation.ENCRYPT));
+        Assert.assertEquals(0, mMetrics.getFailures(CryptoOperation.DECRYPT, CryptoFailure.IO_ERROR));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullMetrics(){
+        CryptoInstrumentation.setMetrics(null);
+    }
+
+    private FileEncryptorAES createEncryptor(){
+        return FileEncryptorAES.createEncryptorWithCustomSecurityParams(PASSWORD, KeySize.KEY_128, Iterations.LOW, SaltSize.SALT_32);
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.CipherAES;
+import com.github.hussainderry.crypto.CryptoProviders;
+import com.github.hussainderry.crypto.PBKDF2Helper;
+import com.github.hussainderry.crypto.enums.CryptoProvider;
+import com.github.hussainderry.crypto.enums.KeySize;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class CryptoProvidersTest {
+
+    private static final char[] PASSWORD = "providers!@#".toCharArray();
+
+    @After
+    public void tearDown(){
+        CryptoProviders.setCipherProvider(CryptoProvider.AUTO);
+        CryptoProviders.setKeyDerivationProvider(CryptoProvider.AUTO);
+    }
+
+    @Test
+    public void testCiphersAreCompatible(){
+        byte[] data = "provider compatibility".getBytes(StandardCharsets.UTF_8);
+
+        CryptoProviders.setCipherProvider(CryptoProvider.BOUNCY_CASTLE);
+        CryptoProviders.setKeyDerivationProvider(CryptoProvider.BOUNCY_CASTLE);
+        byte[] encrypted = new CipherAES().encrypt(PASSWORD, data);
+
+        CryptoProviders.setCipherProvider(CryptoProvider.JCE);
+        CryptoProviders.setKeyDerivationProvider(CryptoProvider.PBKDF2_ENGINE);
+        Assert.assertArrayEquals(data, new CipherAES().decrypt(PASSWORD, encrypted));
+    }
+
+    @Test
+    public void testKeyDerivationProvidersMatch(){
+        PBKDF2Helper mHelper = new PBKDF2Helper.Builder(KeySize.KEY_256).build();
+        byte[] expected = mHelper.createKeyFromPassword("password");
+        for(CryptoProvider mProvider : CryptoProvider.values()){
+            CryptoProviders.setKeyDerivationProvider(mProvider);
+            Assert.assertArrayEquals(mProvider.name(), expected, mHelper.createKeyFromPassword("password"));
+        }
+    }
+
+    @Test
+    public void testAutoSelect(){
+        CryptoProviders.autoSelect();
+        Assert.assertNotEquals(CryptoProvider.AUTO, CryptoProviders.getCipherProvider());
+        Assert.assertNotEquals(CryptoProvider.AUTO, CryptoProviders.getKeyDerivationProvider());
+
+        byte[] data = "selected".getBytes(StandardCharsets.UTF_8);
+        CipherAES mCipher = new CipherAES();
+        Assert.assertArrayEquals(data, mCipher.decrypt(PASSWORD, mCipher.encrypt(PASSWORD, data)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCipherProvider(){
+        CryptoProviders.setCipherProvider(CryptoProvider.PBKDF2_ENGINE);
+    }
+}
@@ -0,0 +1,176 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.EncryptedContainerAES;
+import com.github.hussainderry.crypto.enums.Iterations;
+import com.github.hussainderry.crypto.enums.SaltSize;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EncryptedContainerAESTest {
+
+    private static final String PASSWORD = "container-pa$$word";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testPutAndGet() throws IOException{
+        Path path = mFolder.getRoot().toPath().resolve("entries.pack");
+        try(EncryptedContainerAES mContainer = open(path, PASSWORD)){
+            mContainer.put("first", bytes("first-value"));
+            mContainer.put("second", bytes("second-value"));
+            mContainer.put("first", bytes("first-value-updated"));
+
+            assertEquals(2, mContainer.size());
+            assertArrayEquals(bytes("first-value-updated"), mContainer.get("first").get());
+            assertArrayEquals(bytes("second-value"), mContainer.get("second").get());
+            assertFalse(mContainer.get("third").isPresent());
+            assertFalse(mContainer.contains("third"));
+        }
+    }
+
+    @Test
+    public void testReopenAndGrow() throws IOException{
+        Path path = mFolder.getRoot().toPath().resolve("grow.pack");
+        try(EncryptedContainerAES mContainer = open(path, PASSWORD)){
+            for(int i = 0; i < 3000; i++){
+                mContainer.put("entry-" + i, bytes("value-" + i));
+            }
+        }
+
+        try(EncryptedContainerAES mContainer = open(path, PASSWORD)){
+            assertEquals(3000, mContainer.size());
+            for(int i = 0; i < 3000; i++){
+                assertArrayEquals(bytes("value-" + i), mContainer.get("entry-" + i).get());
+            }
+        }
+    }
+
+    @Test
+    public void testIndexRecovery() throws IOException{
+        Path path = mFolder.getRoot().toPath().resolve("recovery.pack");
+        try(EncryptedContainerAES mContainer = open(path, PASSWORD)){
+            mContainer.put("kept", bytes("kept-value"));
+        }
+
+        // Losing the index and tearing the last append
+        Files.delete(Paths.get(path.toString() + ".idx"));
+        Files.write(path, new byte[]{0, 0, 1, 0, 42}, StandardOpenOption.APPEND);
+        long tornSize = Files.size(path);
+
+        try(EncryptedContainerAES mContainer = open(path, PASSWORD)){
+            assertEquals(1, mContainer.size());
+            assertArrayEquals(bytes("kept-value"), mContainer.get("kept").get());
+            mContainer.put("added", bytes("added-value"));
+            assertArrayEquals(bytes("added-value"), mContainer.get("added").get());
+        }
+        assertTrue(Files.size(path) < tornSize + 64);
+    }
+
+    @Test
+    public void testCorruptedRecordKeepsLaterRecords() throws IOException{
+        Path path = mFolder.getRoot().toPath().resolve("corrupted.pack");
+        long corruptedStart;
+        long corruptedEnd;
+        try(EncryptedContainerAES mContainer = open(path, PASSWORD)){
+            mContainer.put("first", bytes("first-value"));
+            corruptedStart = Files.size(path);
+            mContainer.put("second", bytes("second-value"));
+            corruptedEnd = Files.size(path);
+            mContainer.put("third", bytes("third-value"));
+        }
+
+        // Flipping a ciphertext byte of the middle record and losing the index
+        try(RandomAccessFile mFile = new RandomAccessFile(path.toFile(), "rw")){
+            long offset = (corruptedStart + corruptedEnd) / 2;
+            mFile.seek(offset);
+            int value = mFile.read();
+            mFile.seek(offset);
+            mFile.write(value ^ 0xFF);
+        }
+        Files.delete(Paths.get(path.toString() + ".idx"));
+        long size = Files.size(path);
+
+        try(EncryptedContainerAES mContainer = open(path, PASSWORD)){
+            assertArrayEquals(bytes("first-value"), mContainer.get("first").get());
+            assertFalse(mContainer.get("second").isPresent());
+            assertArrayEquals(bytes("third-value"), mContainer.get("third").get());
+        }
+        assertEquals(size, Files.size(path));
+    }
+
+    @Test
+    public void testCorruptedLengthKeepsFile() throws IOException{
+        Path path = mFolder.getRoot().toPath().resolve("length.pack");
+        long corruptedStart;
+        try(EncryptedContainerAES mContainer = open(path, PASSWORD)){
+            mContainer.put("first", bytes("first-value"));
+            corruptedStart = Files.size(path);
+            mContainer.put("second", bytes("second-value"));
+            mContainer.put("third", bytes("third-value"));
+        }
+
+        // A length in the middle running past the end of the file
+        try(RandomAccessFile mFile = new RandomAccessFile(path.toFile(), "rw")){
+            mFile.seek(corruptedStart);
+            mFile.writeInt(Integer.MAX_VALUE);
+        }
+        Files.delete(Paths.get(path.toString() + ".idx"));
+        long size = Files.size(path);
+
+        try{
+            open(path, PASSWORD).close();
+            fail("Expected the corrupted length to fail the scan");
+        }catch(IllegalStateException e){
+            assertEquals("Corrupted record at offset " + corruptedStart, e.getMessage());
+        }
+        assertEquals(size, Files.size(path));
+    }
+
+    @Test
+    public void testZeroFilledTail() throws IOException{
+        Path path = mFolder.getRoot().toPath().resolve("zeros.pack");
+        try(EncryptedContainerAES mContainer = open(path, PASSWORD)){
+            mContainer.put("kept", bytes("kept-value"));
+        }
+        long size = Files.size(path);
+        Files.delete(Paths.get(path.toString() + ".idx"));
+        Files.write(path, new byte[64], StandardOpenOption.APPEND);
+
+        try(EncryptedContainerAES mContainer = open(path, PASSWORD)){
+            assertArrayEquals(bytes("kept-value"), mContainer.get("kept").get());
+        }
+        assertEquals(size, Files.size(path));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidPassword() throws IOException{
+        Path path = mFolder.getRoot().toPath().resolve("password.pack");
+        open(path, PASSWORD).close();
+        open(path, "wrong-password");
+    }
+
+    private EncryptedContainerAES open(Path path, String password){
+        return EncryptedContainerAES.open(path, password, Iterations.LOW, SaltSize.SALT_32);
+    }
+
+    private byte[] bytes(String value){
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.FileDecryptorAES;
+import com.github.hussainderry.crypto.FileEncryptorAES;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Encrypts and decrypts in memory or from files for the tests of the file crypto classes
+ */
+final class FileCryptoTestHelper {
+
+    private FileCryptoTestHelper(){
+    }
+
+    static byte[] encrypt(FileEncryptorAES mEncryptor, byte[] data) throws IOException{
+        ByteArrayOutputStream mResult = new ByteArrayOutputStream();
+        try(BufferedInputStream mInputStream = new BufferedInputStream(new ByteArrayInputStream(data));
+            BufferedOutputStream mOutputStream = new BufferedOutputStream(mResult)){
+            mEncryptor.encrypt(mInputStream, mOutputStream);
+        }
+        return mResult.toByteArray();
+    }
+
+    static byte[] decrypt(byte[] encrypted, String password) throws IOException{
+        return decrypt(new ByteArrayInputStream(encrypted), password);
+    }
+
+    static byte[] decrypt(Path file, String password) throws IOException{
+        return decrypt(Files.newInputStream(file), password);
+    }
+
+    private static byte[] decrypt(InputStream mSource, String password) throws IOException{
+        ByteArrayOutputStream mResult = new ByteArrayOutputStream();
+        try(BufferedInputStream mInputStream = new BufferedInputStream(mSource);
+            BufferedOutputStream mOutputStream = new BufferedOutputStream(mResult)){
+            new FileDecryptorAES(password).decrypt(mInputStream, mOutputStream);
+        }
+        return mResult.toByteArray();
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.FileEncryptorAES;
+import com.github.hussainderry.crypto.ProgressInfo;
+import com.github.hussainderry.crypto.enums.Compression;
+import com.github.hussainderry.crypto.enums.Iterations;
+import com.github.hussainderry.crypto.enums.KeySize;
+import com.github.hussainderry.crypto.enums.SaltSize;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.github.hussainderry.test.FileCryptoTestHelper.decrypt;
+import static com.github.hussainderry.test.FileCryptoTestHelper.encrypt;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FileEncryptorAESTest {
+
+    private static final String PASSWORD = "file-pa$$word";
+
+    @Test
+    public void testSmallInput() throws IOException{
+        byte[] data = createRandomData(5);
+        List<Integer> percentages = new ArrayList<>();
+
+        FileEncryptorAES mEncryptor = createEncryptor();
+        mEncryptor.setProgressMonitor(percentages::add);
+        byte[] encrypted = encrypt(mEncryptor, data);
+
+        assertArrayEquals(data, decrypt(encrypted, PASSWORD));
+        assertEquals(100, (int) percentages.get(percentages.size() - 1));
+    }
+
+    @Test
+    public void testByteProgress() throws IOException{
+        byte[] data = createRandomData(1024 * 1024 + 3);
+        List<ProgressInfo> updates = new ArrayList<>();
+
+        FileEncryptorAES mEncryptor = createEncryptor();
+        mEncryptor.setByteProgressMonitor(updates::add, 0, 256 * 1024);
+
+        ByteArrayOutputStream mResult = new ByteArrayOutputStream();
+        try(BufferedInputStream mInputStream = new BufferedInputStream(new ByteArrayInputStream(data));
+            BufferedOutputStream mOutputStream = new BufferedOutputStream(mResult)){
+            assertEquals(data.length, mEncryptor.encrypt(mInputStream, mOutputStream, data.length));
+        }
+
+        // One update per 256 KiB plus the final one
+        assertTrue(updates.size() <= 5);
+        ProgressInfo mLast = updates.get(updates.size() - 1);
+        assertEquals(data.length, mLast.getBytesProcessed());
+        assertEquals(100, mLast.getPercentage());
+        assertEquals(0, mLast.getEtaMillis());
+        assertArrayEquals(data, decrypt(mResult.toByteArray(), PASSWORD));
+    }
+
+    @Test
+    public void testUncompressedHeaderUnchanged() throws IOException{
+        byte[] encrypted = encrypt(createEncryptor(), createRandomData(64));
+        // Version 1 files start with the length of the SHA-256 password checksum
+        assertEquals(32, ByteBuffer.wrap(encrypted).getInt());
+    }
+
+    @Test
+    public void testCompression() throws IOException{
+        StringBuilder mBuilder = new StringBuilder();
+        for(int i = 0; i < 20_000; i++){
+            mBuilder.append("{\"id\":").append(i).append(",\"level\":\"INFO\",\"message\":\"request served\"}\n");
+        }
+        byte[] data = mBuilder.toString().getBytes(StandardCharsets.UTF_8);
+
+        FileEncryptorAES mEncryptor = createEncryptor();
+        mEncryptor.setCompression(Compression.DEFLATE);
+        byte[] encrypted = encrypt(mEncryptor, data);
+
+        assertTrue(encrypted.length * 5 < data.length);
+        assertArrayEquals(data, decrypt(encrypted, PASSWORD));
+    }
+
+    @Test
+    public void testAdaptiveCompression() throws IOException{
+        byte[] data = createRandomData(1024 * 1024 + 11);
+
+        FileEncryptorAES mEncryptor = createEncryptor();
+        mEncryptor.setCompression(Compression.ADAPTIVE);
+        byte[] encrypted = encrypt(mEncryptor, data);
+
+        // Incompressible chunks are stored as is, only adding the frame overhead
+        byte[] uncompressed = encrypt(createEncryptor(), data);
+        assertTrue(encrypted.length < uncompressed.length + 1024);
+        assertArrayEquals(data, decrypt(encrypted, PASSWORD));
+    }
+
+    @Test
+    public void testCompressionHeaderTampering() throws IOException{
+        FileEncryptorAES mEncryptor = createEncryptor();
+        mEncryptor.setCompression(Compression.DEFLATE);
+        byte[] encrypted = encrypt(mEncryptor, createRandomData(4096));
+
+        // Claiming the body isn't compressed
+        byte[] uncompressed = encrypted.clone();
+        ByteBuffer.wrap(uncompressed).putInt(8, Compression.NONE.getValue());
+        assertTampered(uncompressed);
+
+        // Stripping the magic number, version and compression down to a version 1 header
+        assertTampered(Arrays.copyOfRange(encrypted, 12, encrypted.length));
+    }
+
+    private void assertTampered(byte[] encrypted) throws IOException{
+        try{
+            decrypt(encrypted, PASSWORD);
+            fail("Expected the tampered header to fail authentication");
+        }catch(IllegalStateException e){
+            // The header is authenticated with the body
+        }
+    }
+
+    private FileEncryptorAES createEncryptor(){
+        return FileEncryptorAES.createEncryptorWithCustomSecurityParams(PASSWORD, KeySize.KEY_128, Iterations.LOW, SaltSize.SALT_32);
+    }
+
+    private byte[] createRandomData(int size){
+        byte[] data = new byte[size];
+        new Random().nextBytes(data);
+        return data;
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.BatchFileEncryptorAES;
+import com.github.hussainderry.crypto.FileEncryptorAES;
+import com.github.hussainderry.crypto.FileKeyRotation;
+import com.github.hussainderry.crypto.enums.Compression;
+import com.github.hussainderry.crypto.enums.Iterations;
+import com.github.hussainderry.crypto.enums.KeySize;
+import com.github.hussainderry.crypto.enums.SaltSize;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.github.hussainderry.test.FileCryptoTestHelper.decrypt;
+import static com.github.hussainderry.test.FileCryptoTestHelper.encrypt;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FileKeyRotationTest {
+
+    private static final String OLD_PASSWORD = "old-pa$$word";
+    private static final String NEW_PASSWORD = "new-pa$$word";
+    private static final int SLOTS_END = 16 + 2 * 512; // the header prefix and the two key slots
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testRotate() throws IOException{
+        byte[] data = createRandomData(64 * 1024 + 5);
+        FileEncryptorAES mEncryptor = FileEncryptorAES.createEncryptorWithCustomSecurityParams(OLD_PASSWORD, KeySize.KEY_128, Iterations.LOW, SaltSize.SALT_32);
+        mEncryptor.setKeyWrapping(true);
+        mEncryptor.setCompression(Compression.DEFLATE);
+        Path file = mFolder.newFile("data.aes").toPath();
+        Files.write(file, encrypt(mEncryptor, data));
+        byte[] before = Files.readAllBytes(file);
+        assertArrayEquals(data, decrypt(file, OLD_PASSWORD));
+
+        new FileKeyRotation.Builder(OLD_PASSWORD, NEW_PASSWORD).build().rotate(file);
+
+        // Only the key slots are rewritten
+        byte[] after = Files.readAllBytes(file);
+        assertEquals(before.length, after.length);
+        assertArrayEquals(Arrays.copyOfRange(before, SLOTS_END, before.length), Arrays.copyOfRange(after, SLOTS_END, after.length));
+        assertArrayEquals(data, decrypt(file, NEW_PASSWORD));
+        assertInvalidPassword(file, OLD_PASSWORD);
+
+        // Running the rotation again completes it instead of failing
+        new FileKeyRotation.Builder(OLD_PASSWORD, NEW_PASSWORD).build().rotate(file);
+        assertArrayEquals(data, decrypt(file, NEW_PASSWORD));
+
+        new FileKeyRotation.Builder(NEW_PASSWORD, OLD_PASSWORD).build().rotate(file);
+        assertArrayEquals(data, decrypt(file, OLD_PASSWORD));
+        assertInvalidPassword(file, NEW_PASSWORD);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRotateInvalidPassword() throws IOException{
+        FileEncryptorAES mEncryptor = FileEncryptorAES.createEncryptorWithCustomSecurityParams(OLD_PASSWORD, KeySize.KEY_128, Iterations.LOW, SaltSize.SALT_32);
+        mEncryptor.setKeyWrapping(true);
+        Path file = mFolder.newFile("data.aes").toPath();
+        Files.write(file, encrypt(mEncryptor, createRandomData(100)));
+        new FileKeyRotation.Builder("wrong-password", NEW_PASSWORD).build().rotate(file);
+    }
+
+    @Test
+    public void testRotateDirectory() throws IOException{
+        Path source = mFolder.newFolder("source").toPath();
+        Path target = mFolder.newFolder("target").toPath();
+        Files.createDirectories(source.resolve("nested"));
+        byte[] first = createRandomData(16 * 1024 + 7);
+        byte[] second = createRandomData(5);
+        Files.write(source.resolve("first.log"), first);
+        Files.write(source.resolve("nested/second.json"), second);
+
+        new BatchFileEncryptorAES.Builder(OLD_PASSWORD)
+                .iterations(Iterations.LOW)
+                .keyWrapping(true)
+                .parallelism(2)
+                .build()
+                .encryptDirectory(source, target);
+        // Files without a wrapped key are reported, not rotated
+        Files.write(target.resolve("plain.txt"), createRandomData(2048));
+
+        FileKeyRotation.RotationResult mResult = new FileKeyRotation.Builder(OLD_PASSWORD, NEW_PASSWORD)
+                .parallelism(2)
+                .build()
+                .rotateDirectory(target);
+
+        assertEquals(3, mResult.getTotalFiles());
+        assertEquals(2, mResult.getRotatedFiles());
+        assertTrue(mResult.getFailures().containsKey(target.resolve("plain.txt")));
+        assertArrayEquals(first, decrypt(target.resolve("first.log.aes"), NEW_PASSWORD));
+        assertArrayEquals(second, decrypt(target.resolve("nested/second.json.aes"), NEW_PASSWORD));
+        assertInvalidPassword(target.resolve("first.log.aes"), OLD_PASSWORD);
+    }
+
+    private void assertInvalidPassword(Path file, String password) throws IOException{
+        try{
+            decrypt(file, password);
+            fail("Expected an invalid password");
+        }catch(IllegalStateException e){
+            assertEquals("Invalid password", e.getMessage());
+        }
+    }
+
+    private byte[] createRandomData(int size){
+        byte[] data = new byte[size];
+        new Random().nextBytes(data);
+        return data;
+    }
+
+}
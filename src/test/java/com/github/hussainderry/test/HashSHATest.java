@@ -0,0 +1,92 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.HashSHA;
+import com.github.hussainderry.crypto.Hasher;
+import com.github.hussainderry.crypto.enums.DigestType;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+
+public class HashSHATest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testAllSourcesMatch() throws Exception{
+        byte[] data = new byte[100_003];
+        new Random(7).nextBytes(data);
+        File mFile = mFolder.newFile();
+        Files.write(mFile.toPath(), data);
+
+        for(DigestType mType : DigestType.values()){
+            byte[] expected = MessageDigest.getInstance(mType.getAlgorithm()).digest(data);
+            Assert.assertEquals(mType.getLength(), expected.length);
+
+            Assert.assertArrayEquals(expected, HashSHA.hash(mType, data));
+            Assert.assertArrayEquals(expected, HashSHA.hash(mType, ByteBuffer.wrap(data)));
+
+            ByteBuffer mDirect = ByteBuffer.allocateDirect(data.length);
+            mDirect.put(data).flip();
+            Assert.assertArrayEquals(expected, HashSHA.hash(mType, mDirect));
+
+            Assert.assertArrayEquals(expected, HashSHA.hash(mType, new ByteArrayInputStream(data)));
+            Assert.assertArrayEquals(expected, HashSHA.hash(mType, mFile.toPath()));
+        }
+        Assert.assertArrayEquals(HashSHA.hash(DigestType.SHA256, data), HashSHA.hashUsingSHA256(data));
+        Assert.assertArrayEquals(HashSHA.hash(DigestType.SHA512, data), HashSHA.hashUsingSHA512(data));
+    }
+
+    @Test
+    public void testHasher() throws Exception{
+        byte[] data = "The quick brown fox jumps over the lazy dog".getBytes("UTF-8");
+        Hasher mHasher = HashSHA.newHasher(DigestType.SHA256);
+        mHasher.update(data, 0, 10).update(ByteBuffer.wrap(data, 10, data.length - 10));
+        byte[] expected = HashSHA.hash(DigestType.SHA256, data);
+        Assert.assertArrayEquals(expected, mHasher.digest());
+
+        // Reusable after digest
+        Assert.assertArrayEquals(expected, mHasher.update(data).digest());
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception{
+        File mFile = mFolder.newFile();
+        Assert.assertArrayEquals(HashSHA.hash(DigestType.SHA1, new byte[0]), HashSHA.hash(DigestType.SHA1, mFile.toPath()));
+    }
+
+    @Test
+    public void testFailedStreamLeavesNoState() throws Exception{
+        byte[] data = "The quick brown fox jumps over the lazy dog".getBytes("UTF-8");
+        InputStream mFailing = new FilterInputStream(new ByteArrayInputStream(data)){
+            private boolean failed;
+
+            @Override
+            public int read(byte[] b) throws IOException{
+                if(failed){
+                    throw new UnsupportedOperationException("Stream failed");
+                }
+                failed = true;
+                return super.read(b);
+            }
+        };
+        try{
+            HashSHA.hash(DigestType.SHA256, mFailing);
+            Assert.fail("Expected the stream failure");
+        }catch(UnsupportedOperationException e){
+            // The bytes read before the failure must not leak into the next hash
+        }
+        Assert.assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), HashSHA.hash(DigestType.SHA256, data));
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.utils.ImageCompressionPipeline;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ImageCompressionPipelineTest {
+
+    private static final Path SOURCE_IMAGE_JPG = Paths.get("./test-images/copperwall-darkdots.jpg");
+    private static final Path SOURCE_IMAGE_PNG = Paths.get("./test-images/programmer-needs-coffee-to-code-hd-desktop-wallpaper.png");
+
+    @Test
+    public void testCompressFiles() throws IOException{
+        Map<Path, byte[]> mResults = new ConcurrentHashMap<>();
+        Map<Path, Exception> mFailures = new ConcurrentHashMap<>();
+
+        ImageCompressionPipeline.PipelineResult mResult = new ImageCompressionPipeline.Builder()
+                .quality(0.75f)
+                .parallelism(2)
+                .build()
+                .compressFiles(Stream.of(SOURCE_IMAGE_JPG, SOURCE_IMAGE_PNG, Paths.get("./test-images/missing.jpg")),
+                        collect(mResults, mFailures));
+
+        assertEquals(3, mResult.getTotalImages());
+        assertEquals(2, mResult.getCompressedImages());
+        assertTrue(mResults.get(SOURCE_IMAGE_JPG).length < Files.size(SOURCE_IMAGE_JPG));
+        assertTrue(mResults.get(SOURCE_IMAGE_PNG).length < Files.size(SOURCE_IMAGE_PNG));
+        assertTrue(mResult.getBytesOut() < mResult.getBytesIn());
+        assertTrue(mFailures.containsKey(Paths.get("./test-images/missing.jpg")));
+    }
+
+    @Test
+    public void testMemoryBudget() throws IOException{
+        byte[] image = Files.readAllBytes(SOURCE_IMAGE_JPG);
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(4, 4, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>()){
+            @Override
+            protected void beforeExecute(Thread thread, Runnable runnable){
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            }
+        };
+
+        Map<Integer, byte[]> mResults = new ConcurrentHashMap<>();
+        Map<Integer, Exception> mFailures = new ConcurrentHashMap<>();
+        try{
+            // Every image is larger than the budget, so they're compressed one at a time
+            ImageCompressionPipeline.PipelineResult mResult = new ImageCompressionPipeline.Builder()
+                    .parallelism(4)
+                    .memoryBudget(1024 * 1024)
+                    .executor(mExecutor)
+                    .build()
+                    .compress(IntStream.range(0, 4).boxed(), index -> image, new ImageCompressionPipeline.Listener<Integer>() {
+                        @Override
+                        public void onCompressed(Integer source, byte[] compressed) {
+                            // The memory of an image is held until the listener returns
+                            active.decrementAndGet();
+                            mResults.put(source, compressed);
+                        }
+
+                        @Override
+                        public void onFailed(Integer source, Exception e) {
+                            active.decrementAndGet();
+                            mFailures.put(source, e);
+                        }
+                    });
+
+            assertEquals(4, mResult.getCompressedImages());
+            assertEquals(1, maxActive.get());
+            assertTrue(mFailures.isEmpty());
+        }finally{
+            mExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnsupportedImage(){
+        Map<String, byte[]> mResults = new ConcurrentHashMap<>();
+        Map<String, Exception> mFailures = new ConcurrentHashMap<>();
+
+        ImageCompressionPipeline.PipelineResult mResult = new ImageCompressionPipeline.Builder().build()
+                .compress(Stream.of("text"), source -> source.getBytes(), collect(mResults, mFailures));
+
+        assertEquals(1, mResult.getTotalImages());
+        assertEquals(0, mResult.getCompressedImages());
+        assertTrue(mFailures.get("text") instanceof IllegalArgumentException);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidQuality(){
+        new ImageCompressionPipeline.Builder().quality(1.15f);
+    }
+
+    private <K> ImageCompressionPipeline.Listener<K> collect(Map<K, byte[]> mResults, Map<K, Exception> mFailures){
+        return new ImageCompressionPipeline.Listener<K>() {
+            @Override
+            public void onCompressed(K source, byte[] compressed) {
+                mResults.put(source, Arrays.copyOf(compressed, compressed.length));
+            }
+
+            @Override
+            public void onFailed(K source, Exception e) {
+                mFailures.put(source, e);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.KeyedCipherAES;
+import com.github.hussainderry.crypto.NonceSources;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class KeyedCipherAESTest {
+
+    private static final byte[] AAD = "context".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testRoundTrip(){
+        KeyedCipherAES mCipher = new KeyedCipherAES(newKey());
+        byte[] data = "keyed data".getBytes(StandardCharsets.UTF_8);
+
+        byte[] encrypted = mCipher.encrypt(data, AAD);
+        Assert.assertEquals(data.length + KeyedCipherAES.OVERHEAD, encrypted.length);
+        Assert.assertArrayEquals(data, mCipher.decrypt(encrypted, AAD));
+        Assert.assertArrayEquals(new byte[0], mCipher.decrypt(mCipher.encrypt(new byte[0], null), null));
+    }
+
+    @Test
+    public void testRegion(){
+        KeyedCipherAES mCipher = new KeyedCipherAES(newKey());
+        byte[] encrypted = mCipher.encrypt(new byte[]{1, 2, 3}, AAD);
+        byte[] padded = new byte[encrypted.length + 3];
+        System.arraycopy(encrypted, 0, padded, 2, encrypted.length);
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, mCipher.decrypt(padded, 2, encrypted.length, AAD));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWrongAad(){
+        KeyedCipherAES mCipher = new KeyedCipherAES(newKey());
+        mCipher.decrypt(mCipher.encrypt(new byte[8], AAD), "other".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWrongKey(){
+        byte[] encrypted = new KeyedCipherAES(newKey()).encrypt(new byte[8], AAD);
+        new KeyedCipherAES(newKey()).decrypt(encrypted, AAD);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidKeySize(){
+        new KeyedCipherAES(new byte[20]);
+    }
+
+    private static byte[] newKey(){
+        byte[] key = new byte[32];
+        NonceSources.perThreadRandom().nextBytes(key);
+        return key;
+    }
+}
@@ -0,0 +1,303 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.CipherAES;
+import com.github.hussainderry.crypto.HashSHA;
+import com.github.hussainderry.storage.LogStructuredBackend;
+import com.github.hussainderry.storage.SecurePreferences;
+import com.github.hussainderry.storage.SecurePreferencesImpl;
+import com.github.hussainderry.storage.StorageBackend;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class LogStructuredBackendTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testPersistence() throws IOException{
+        Path mPath = mFolder.getRoot().toPath().resolve("prefs.log");
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            mStorage.put("a", bytes("1"));
+            mStorage.put("b", bytes("2"));
+            mStorage.put("a", bytes("3"));
+            mStorage.remove("b");
+            mStorage.remove("missing");
+            Assert.assertArrayEquals(bytes("3"), mStorage.get("a"));
+            Assert.assertNull(mStorage.get("b"));
+        }
+
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            Assert.assertArrayEquals(bytes("3"), mStorage.get("a"));
+            Assert.assertNull(mStorage.get("b"));
+            Assert.assertEquals(1, mStorage.keys().size());
+        }
+    }
+
+    @Test
+    public void testGrowth(){
+        Path mPath = mFolder.getRoot().toPath().resolve("grow.log");
+        byte[] value = new byte[3000];
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).initialCapacity(4096).build()){
+            for(int i = 0; i < 20; i++){
+                value[0] = (byte) i;
+                mStorage.put("key-" + i, value);
+            }
+            Assert.assertEquals(19, mStorage.get("key-19")[0]);
+            Assert.assertEquals(5, mStorage.get("key-5")[0]);
+        }
+    }
+
+    @Test
+    public void testTornRecordRecovery() throws IOException{
+        Path mPath = mFolder.getRoot().toPath().resolve("torn.log");
+        long tornOffset;
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            mStorage.put("kept", bytes("value"));
+            tornOffset = mStorage.getLogSize();
+            mStorage.put("torn", bytes("lost"));
+        }
+
+        // Simulates a crash in the middle of writing the last record
+        try(RandomAccessFile mFile = new RandomAccessFile(mPath.toFile(), "rw")){
+            mFile.seek(tornOffset + 20);
+            mFile.write(0x55);
+        }
+
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            Assert.assertArrayEquals(bytes("value"), mStorage.get("kept"));
+            Assert.assertNull(mStorage.get("torn"));
+            Assert.assertEquals(tornOffset, mStorage.getLogSize());
+            mStorage.put("new", bytes("x"));
+        }
+
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            Assert.assertArrayEquals(bytes("x"), mStorage.get("new"));
+            Assert.assertNull(mStorage.get("torn"));
+        }
+    }
+
+    @Test
+    public void testCorruptedMiddleRecord() throws IOException{
+        Path mPath = mFolder.getRoot().toPath().resolve("corrupted.log");
+        long corruptedOffset = 0;
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            for(int i = 0; i < 5; i++){
+                if(i == 2){
+                    corruptedOffset = mStorage.getLogSize();
+                }
+                mStorage.put("k" + i, bytes("value-" + i));
+            }
+        }
+
+        // Flips a byte in the value of the third record
+        try(RandomAccessFile mFile = new RandomAccessFile(mPath.toFile(), "rw")){
+            mFile.seek(corruptedOffset + 13 + 2);
+            int value = mFile.read();
+            mFile.seek(corruptedOffset + 13 + 2);
+            mFile.write(value ^ 0x01);
+        }
+        byte[] corrupted = Files.readAllBytes(mPath);
+
+        try{
+            new LogStructuredBackend.Builder(mPath).build().close();
+            Assert.fail("Expected the corrupted record to fail the open");
+        }catch(IllegalStateException e){
+            Assert.assertTrue(e.getMessage().startsWith("Corrupted record at offset " + corruptedOffset));
+        }
+        // The records after the corrupted one are left untouched
+        Assert.assertArrayEquals(corrupted, Files.readAllBytes(mPath));
+    }
+
+    @Test
+    public void testCompaction(){
+        Path mPath = mFolder.getRoot().toPath().resolve("compact.log");
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath)
+                .compactionThreshold(0.5, 1024)
+                .executor(Runnable::run)
+                .build()){
+            for(int i = 0; i < 1000; i++){
+                mStorage.put("counter", bytes(Integer.toString(i)));
+                mStorage.put("static-" + (i % 10), bytes("value"));
+            }
+            Assert.assertTrue(mStorage.getGarbageSize() < 1024 + 64);
+            Assert.assertArrayEquals(bytes("999"), mStorage.get("counter"));
+
+            mStorage.compact();
+            Assert.assertEquals(0, mStorage.getGarbageSize());
+        }
+
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            Assert.assertArrayEquals(bytes("999"), mStorage.get("counter"));
+            Assert.assertEquals(11, mStorage.keys().size());
+        }
+    }
+
+    @Test
+    public void testBatch(){
+        Path mPath = mFolder.getRoot().toPath().resolve("batch.log");
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            mStorage.put("removed", bytes("old"));
+            Map<String, byte[]> mBatch = new LinkedHashMap<>();
+            mBatch.put("a", bytes("1"));
+            mBatch.put("b", bytes("2"));
+            mBatch.put("removed", null);
+            mStorage.write(mBatch);
+            Assert.assertArrayEquals(bytes("2"), mStorage.get("b"));
+            Assert.assertNull(mStorage.get("removed"));
+        }
+
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            Assert.assertArrayEquals(bytes("1"), mStorage.get("a"));
+            Assert.assertArrayEquals(bytes("2"), mStorage.get("b"));
+            Assert.assertNull(mStorage.get("removed"));
+
+            mStorage.put("a", bytes("3"));
+            mStorage.compact();
+            Assert.assertArrayEquals(bytes("2"), mStorage.get("b"));
+        }
+
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            Assert.assertArrayEquals(bytes("3"), mStorage.get("a"));
+            Assert.assertArrayEquals(bytes("2"), mStorage.get("b"));
+            Assert.assertEquals(2, mStorage.keys().size());
+        }
+    }
+
+    @Test
+    public void testTornBatch() throws IOException{
+        Path mPath = mFolder.getRoot().toPath().resolve("torn-batch.log");
+        long batchOffset;
+        long batchEnd;
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            mStorage.put("a", bytes("old"));
+            batchOffset = mStorage.getLogSize();
+            Map<String, byte[]> mBatch = new LinkedHashMap<>();
+            mBatch.put("a", bytes("new"));
+            mBatch.put("b", bytes("new"));
+            mStorage.write(mBatch);
+            batchEnd = mStorage.getLogSize();
+        }
+
+        // Only the last byte of the batch is lost
+        try(RandomAccessFile mFile = new RandomAccessFile(mPath.toFile(), "rw")){
+            mFile.seek(batchEnd - 1);
+            mFile.write(0);
+        }
+
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            Assert.assertArrayEquals(bytes("old"), mStorage.get("a"));
+            Assert.assertNull(mStorage.get("b"));
+            Assert.assertEquals(batchOffset, mStorage.getLogSize());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAlreadyOpen(){
+        Path mPath = mFolder.getRoot().toPath().resolve("locked.log");
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            mStorage.flush();
+            new LogStructuredBackend.Builder(mPath).build();
+        }
+    }
+
+    @Test
+    public void testSecurePreferences(){
+        Path mPath = mFolder.getRoot().toPath().resolve("secure.log");
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            SecurePreferences mPreferences = new SecurePreferencesImpl.Builder(mStorage, "log-password").build();
+            mPreferences.putString("name", "value").putInt("count", 3);
+        }
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            SecurePreferences mPreferences = new SecurePreferencesImpl.Builder(mStorage, "log-password").build();
+            Assert.assertEquals("value", mPreferences.getString("name").get());
+            Assert.assertEquals(3, (int) mPreferences.getInt("count").get());
+        }
+    }
+
+    @Test
+    public void testReplace(){
+        Path mPath = mFolder.getRoot().toPath().resolve("replace.log");
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            mStorage.put("a", bytes("1"));
+            Assert.assertFalse(mStorage.replace("a", bytes("0"), bytes("2")));
+            Assert.assertArrayEquals(bytes("1"), mStorage.get("a"));
+            Assert.assertTrue(mStorage.replace("a", bytes("1"), bytes("2")));
+            Assert.assertArrayEquals(bytes("2"), mStorage.get("a"));
+        }
+    }
+
+    @Test
+    public void testMigrationKeepsConcurrentWrite(){
+        Path mPath = mFolder.getRoot().toPath().resolve("migration.log");
+        String storageKey = Base64.getEncoder().encodeToString(HashSHA.hashUsingSHA256(bytes("legacy")));
+        byte[] concurrent = bytes("written meanwhile");
+        AtomicBoolean armed = new AtomicBoolean();
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            mStorage.put(storageKey, new CipherAES().encrypt("log-password".toCharArray(), bytes("old-value")));
+
+            // Writing another value right after the legacy entry is read, before it's migrated
+            StorageBackend mRacing = new StorageBackend() {
+                @Override
+                public byte[] get(String key) {
+                    byte[] value = mStorage.get(key);
+                    if(key.equals(storageKey) && armed.compareAndSet(true, false)){
+                        mStorage.put(key, concurrent);
+                    }
+                    return value;
+                }
+
+                @Override
+                public void put(String key, byte[] value) {
+                    mStorage.put(key, value);
+                }
+
+                @Override
+                public boolean replace(String key, byte[] expected, byte[] value) {
+                    return mStorage.replace(key, expected, value);
+                }
+
+                @Override
+                public void remove(String key) {
+                    mStorage.remove(key);
+                }
+
+                @Override
+                public Set<String> keys() {
+                    return mStorage.keys();
+                }
+
+                @Override
+                public void flush() {
+                    mStorage.flush();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+
+            SecurePreferences mPreferences = new SecurePreferencesImpl.Builder(mRacing, "log-password").build();
+            armed.set(true);
+            Assert.assertEquals("old-value", mPreferences.getString("legacy").get());
+            Assert.assertArrayEquals(concurrent, mStorage.get(storageKey));
+        }
+    }
+
+    private static byte[] bytes(String value){
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.MerkleTree;
+import com.github.hussainderry.crypto.MerkleTreeHasher;
+import com.github.hussainderry.crypto.enums.DigestType;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class MerkleTreeHasherTest {
+
+    private static final int LEAF_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testParallelMatchesSequential() throws Exception{
+        Path path = createFile(LEAF_SIZE * 13 + 77);
+        MerkleTree mParallel = newHasher(8).hash(path);
+        MerkleTree mSequential = newHasher(1).hash(path);
+
+        Assert.assertEquals(14, mParallel.getLeafCount());
+        Assert.assertArrayEquals(mSequential.getRoot(), mParallel.getRoot());
+        Assert.assertEquals(DigestType.SHA256.getLength(), mParallel.getRoot().length);
+    }
+
+    @Test
+    public void testVerifyLeafAndProof() throws Exception{
+        Path path = createFile(LEAF_SIZE * 7 + 1);
+        MerkleTreeHasher mHasher = newHasher(4);
+        MerkleTree mTree = MerkleTree.fromByteArray(mHasher.hash(path).toByteArray());
+
+        byte[] data = Files.readAllBytes(path);
+        for(int i = 0; i < mTree.getLeafCount(); i++){
+            Assert.assertTrue(mHasher.verifyLeaf(path, mTree, i));
+            byte[] leaf = leafData(data, mTree, i);
+            List<byte[]> mProof = mTree.getProof(i);
+            Assert.assertTrue(MerkleTree.verifyProof(DigestType.SHA256, mTree.getRoot(), mTree.getLeafCount(), i, leaf, mProof));
+            leaf[0] ^= 1;
+            Assert.assertFalse(MerkleTree.verifyProof(DigestType.SHA256, mTree.getRoot(), mTree.getLeafCount(), i, leaf, mProof));
+        }
+
+        modify(path, LEAF_SIZE * 3 + 10);
+        Assert.assertFalse(mHasher.verifyLeaf(path, mTree, 3));
+        Assert.assertTrue(mHasher.verifyLeaf(path, mTree, 4));
+    }
+
+    @Test
+    public void testRehashChangedLeaves() throws Exception{
+        Path path = createFile(LEAF_SIZE * 10);
+        MerkleTreeHasher mHasher = newHasher(4);
+        MerkleTree mTree = mHasher.hash(path);
+
+        modify(path, LEAF_SIZE * 2);
+        modify(path, LEAF_SIZE * 9 + 5);
+        MerkleTree mUpdated = mHasher.rehash(path, mTree, 2, 9);
+        Assert.assertEquals(mHasher.hash(path), mUpdated);
+        Assert.assertFalse(Arrays.equals(mTree.getRoot(), mUpdated.getRoot()));
+
+        try(RandomAccessFile mFile = new RandomAccessFile(path.toFile(), "rw")){
+            mFile.setLength(LEAF_SIZE * 11 + 3);
+        }
+        Assert.assertEquals(mHasher.hash(path), mHasher.rehash(path, mUpdated));
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception{
+        Path path = mFolder.newFile().toPath();
+        MerkleTree mTree = newHasher(2).hash(path);
+        Assert.assertEquals(1, mTree.getLeafCount());
+        Assert.assertTrue(newHasher(2).verifyLeaf(path, mTree, 0));
+    }
+
+    private MerkleTreeHasher newHasher(int parallelism){
+        return new MerkleTreeHasher.Builder(DigestType.SHA256)
+                .leafSize(LEAF_SIZE)
+                .maxParallelism(parallelism)
+                .build();
+    }
+
+    private Path createFile(int size) throws Exception{
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        Path path = mFolder.newFile().toPath();
+        Files.write(path, data);
+        return path;
+    }
+
+    private static byte[] leafData(byte[] data, MerkleTree mTree, int index){
+        int offset = (int) mTree.getLeafOffset(index);
+        return Arrays.copyOfRange(data, offset, offset + mTree.getLeafLength(index));
+    }
+
+    private static void modify(Path path, long position) throws Exception{
+        try(RandomAccessFile mFile = new RandomAccessFile(path.toFile(), "rw")){
+            mFile.seek(position);
+            int value = mFile.read();
+            mFile.seek(position);
+            mFile.write(value ^ 0xFF);
+        }
+    }
+}
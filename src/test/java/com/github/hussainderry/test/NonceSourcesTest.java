@@ -0,0 +1,79 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.CipherAES;
+import com.github.hussainderry.crypto.NonceSource;
+import com.github.hussainderry.crypto.NonceSources;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+public class NonceSourcesTest {
+
+    @Test
+    public void testCounterFormat(){
+        NonceSource mSource = NonceSources.counter(12);
+        byte[] first = new byte[12];
+        byte[] second = new byte[12];
+        mSource.nextBytes(first);
+        mSource.nextBytes(second);
+
+        Assert.assertArrayEquals(Arrays.copyOf(first, 4), Arrays.copyOf(second, 4));
+        Assert.assertEquals(0, ByteBuffer.wrap(first, 4, 8).getLong());
+        Assert.assertEquals(1, ByteBuffer.wrap(second, 4, 8).getLong());
+    }
+
+    @Test
+    public void testCounterUniqueAcrossThreads(){
+        NonceSource mSource = NonceSources.counter(12);
+        Set<String> mNonces = ConcurrentHashMap.newKeySet();
+        IntStream.range(0, 10_000).parallel().forEach(i -> {
+            byte[] nonce = new byte[12];
+            mSource.nextBytes(nonce);
+            mNonces.add(Arrays.toString(nonce));
+        });
+        Assert.assertEquals(10_000, mNonces.size());
+    }
+
+    @Test
+    public void testCounterLimit(){
+        NonceSource mSource = NonceSources.counter(16, 2);
+        mSource.nextBytes(new byte[16]);
+        mSource.nextBytes(new byte[16]);
+        for(int i = 0; i < 2; i++){
+            try{
+                mSource.nextBytes(new byte[16]);
+                Assert.fail("Counter should be exhausted");
+            }catch(IllegalStateException e){
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCounterWrongLength(){
+        NonceSources.counter(12).nextBytes(new byte[16]);
+    }
+
+    @Test
+    public void testPerThreadRandom(){
+        byte[] first = new byte[32];
+        byte[] second = new byte[32];
+        NonceSources.perThreadRandom().nextBytes(first);
+        NonceSources.perThreadRandom().nextBytes(second);
+        Assert.assertFalse(Arrays.equals(first, second));
+    }
+
+    @Test
+    public void testCipherWithCounterSource(){
+        CipherAES mCipher = new CipherAES(NonceSources.counter(12));
+        byte[] data = "counter nonces".getBytes(StandardCharsets.UTF_8);
+        byte[] encrypted = mCipher.encrypt("password".toCharArray(), data);
+        Assert.assertArrayEquals(data, mCipher.decrypt("password".toCharArray(), encrypted));
+    }
+}
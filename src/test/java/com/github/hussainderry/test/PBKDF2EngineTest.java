@@ -0,0 +1,72 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.PBKDF2Engine;
+import com.github.hussainderry.crypto.enums.DigestType;
+import org.junit.Test;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class PBKDF2EngineTest {
+
+    @Test
+    public void testRfc7914Vectors(){
+        // RFC 7914, section 11
+        PBKDF2Engine mEngine = PBKDF2Engine.getInstance(DigestType.SHA256);
+        assertArrayEquals(hex("55ac046e56e3089fec1691c22544b605f94185216dde0465e68b9d57c20dacbc"
+                        + "49ca9cccf179b645991664b39d77ef317c71b845b1e30bd509112041d3a19783"),
+                mEngine.deriveKey("passwd".toCharArray(), bytes("salt"), 1, 512));
+        assertArrayEquals(hex("4ddcd8f60b98be21830cee5ef22701f9641a4418d04c0414aeff08876b34ab56"
+                        + "a1d425a1225833549adb841b51c9b3176a272bdebba1d078478f62b397f33c8d"),
+                mEngine.deriveKey("Password".toCharArray(), bytes("NaCl"), 80000, 512));
+    }
+
+    @Test
+    public void testMatchesJce() throws Exception{
+        Random mRandom = new Random(42);
+        for(DigestType mType : new DigestType[]{DigestType.SHA256, DigestType.SHA512}){
+            SecretKeyFactory mFactory = SecretKeyFactory.getInstance("PBKDF2WithHmac" + mType.name());
+            for(int i = 0; i < 20; i++){
+                char[] password = randomPassword(mRandom, 1 + mRandom.nextInt(200));
+                byte[] salt = new byte[mRandom.nextInt(300)];
+                mRandom.nextBytes(salt);
+                int iterations = 1 + mRandom.nextInt(50);
+                int keySize = 8 * (1 + mRandom.nextInt(150));
+
+                byte[] expected = mFactory.generateSecret(new PBEKeySpec(password, salt, iterations, keySize)).getEncoded();
+                assertArrayEquals(expected, PBKDF2Engine.getInstance(mType).deriveKey(password, salt, iterations, keySize));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedDigest(){
+        PBKDF2Engine.getInstance(DigestType.SHA1);
+    }
+
+    private char[] randomPassword(Random mRandom, int length){
+        char[] password = new char[length];
+        for(int i = 0; i < length; i++){
+            // Mixing ASCII with characters that take several UTF-8 bytes
+            password[i] = mRandom.nextBoolean() ? (char) (32 + mRandom.nextInt(95)) : (char) (0xA0 + mRandom.nextInt(0x2000));
+        }
+        return password;
+    }
+
+    private byte[] bytes(String value){
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] hex(String value){
+        byte[] bytes = new BigInteger(value, 16).toByteArray();
+        byte[] result = new byte[value.length() / 2];
+        System.arraycopy(bytes, Math.max(0, bytes.length - result.length), result, Math.max(0, result.length - bytes.length), Math.min(bytes.length, result.length));
+        return result;
+    }
+
+}
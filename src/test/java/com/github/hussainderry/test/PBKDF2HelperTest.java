@@ -7,6 +7,7 @@ import com.github.hussainderry.crypto.enums.SaltSize;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.time.Duration;
 import java.util.Arrays;
 
 public class PBKDF2HelperTest {
@@ -34,4 +35,44 @@ public class PBKDF2HelperTest {
         Assert.assertTrue(Arrays.equals(firstKey, secondKey));
     }
 
+    @Test
+    public void testBuilderParams(){
+        PBKDF2Helper mHelper = new PBKDF2Helper.Builder(KeySize.KEY_128)
+                .iterations(Iterations.MEDIUM)
+                .saltSize(SaltSize.SALT_64)
+                .build();
+
+        Assert.assertEquals(128, mHelper.getKeySize());
+        Assert.assertEquals(Iterations.MEDIUM.getValue(), mHelper.getIterations());
+        Assert.assertEquals(SaltSize.SALT_64.getValue(), mHelper.getSaltSize());
+    }
+
+    @Test
+    public void testSaltWithLeadingSignBytes(){
+        byte[] salt = new byte[32];
+        salt[1] = 0x10;
+        PBKDF2Helper mHelper = new PBKDF2Helper(256, 1000, salt);
+        PBKDF2Helper mLoaded = new PBKDF2Helper.Builder(mHelper.getPbkdf2Configurations()).build();
+        Assert.assertArrayEquals(salt, mLoaded.getSalt());
+
+        salt[0] = (byte) 0xFF;
+        salt[1] = (byte) 0xF0;
+        mHelper = new PBKDF2Helper(256, 1000, salt);
+        mLoaded = new PBKDF2Helper.Builder(mHelper.getPbkdf2Configurations()).build();
+        Assert.assertArrayEquals(salt, mLoaded.getSalt());
+    }
+
+    @Test
+    public void testCalibration(){
+        PBKDF2Helper mHelper = new PBKDF2Helper.Builder(KeySize.KEY_256)
+                .calibrate(Duration.ofMillis(50))
+                .build();
+        Assert.assertTrue(mHelper.getIterations() >= Iterations.LOW.getValue());
+
+        byte[] key = mHelper.createKeyFromPassword("test!@#");
+        PBKDF2Helper mLoaded = new PBKDF2Helper.Builder(mHelper.getPbkdf2Configurations()).build();
+        Assert.assertEquals(mHelper.getIterations(), mLoaded.getIterations());
+        Assert.assertTrue(Arrays.equals(key, mLoaded.createKeyFromPassword("test!@#")));
+    }
+
 }
@@ -0,0 +1,103 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.DerivationRequest;
+import com.github.hussainderry.crypto.PBKDF2Helper;
+import com.github.hussainderry.crypto.ParallelKeyDerivation;
+import com.github.hussainderry.crypto.enums.KeySize;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ParallelKeyDerivationTest {
+
+    @Test
+    public void testResultsInOrder(){
+        List<DerivationRequest> requests = new ArrayList<>();
+        for(int i = 0; i < 25; i++){
+            PBKDF2Helper mHelper = new PBKDF2Helper.Builder(KeySize.KEY_256).build();
+            requests.add(new DerivationRequest(mHelper, "password" + i));
+        }
+
+        ExecutorService mExecutor = Executors.newFixedThreadPool(3);
+        try{
+            ParallelKeyDerivation mDerivation = new ParallelKeyDerivation.Builder()
+                    .executor(mExecutor)
+                    .maxParallelism(4)
+                    .build();
+            List<byte[]> keys = mDerivation.deriveAll(requests);
+
+            Assert.assertEquals(requests.size(), keys.size());
+            for(int i = 0; i < requests.size(); i++){
+                DerivationRequest mRequest = requests.get(i);
+                Assert.assertArrayEquals(mRequest.getHelper().createKeyFromPassword(mRequest.getPassword()), keys.get(i));
+            }
+        }finally{
+            mExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSharedHelper(){
+        PBKDF2Helper mHelper = new PBKDF2Helper.Builder(KeySize.KEY_128).build();
+        List<DerivationRequest> requests = Collections.nCopies(16, new DerivationRequest(mHelper, "shared"));
+
+        List<byte[]> keys = new ParallelKeyDerivation.Builder().build().deriveAll(requests);
+        byte[] expected = mHelper.createKeyFromPassword("shared");
+        for(byte[] key : keys){
+            Assert.assertArrayEquals(expected, key);
+        }
+    }
+
+    @Test
+    public void testNullHostileList(){
+        PBKDF2Helper mHelper = new PBKDF2Helper.Builder(KeySize.KEY_128).build();
+        DerivationRequest mRequest = new DerivationRequest(mHelper, "immutable");
+        // Behaves like the immutable lists of List.of(), which throw on contains(null)
+        List<DerivationRequest> requests = new AbstractList<DerivationRequest>(){
+            @Override
+            public DerivationRequest get(int index){
+                return mRequest;
+            }
+
+            @Override
+            public int size(){
+                return 2;
+            }
+
+            @Override
+            public boolean contains(Object o){
+                if(o == null){
+                    throw new NullPointerException();
+                }
+                return super.contains(o);
+            }
+        };
+
+        List<byte[]> keys = new ParallelKeyDerivation.Builder().build().deriveAll(requests);
+        Assert.assertEquals(2, keys.size());
+        Assert.assertArrayEquals(mHelper.createKeyFromPassword("immutable"), keys.get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullRequest(){
+        new ParallelKeyDerivation.Builder().build().deriveAll(Arrays.asList(
+                new DerivationRequest(new PBKDF2Helper.Builder(KeySize.KEY_128).build(), "password"), null));
+    }
+
+    @Test
+    public void testEmpty(){
+        Assert.assertTrue(new ParallelKeyDerivation.Builder().build().deriveAll(new ArrayList<>()).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParallelism(){
+        new ParallelKeyDerivation.Builder().maxParallelism(0);
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.CipherAES;
+import com.github.hussainderry.crypto.HashSHA;
+import com.github.hussainderry.storage.LogStructuredBackend;
+import com.github.hussainderry.storage.SecurePreferences;
+import com.github.hussainderry.storage.SecurePreferencesImpl;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class SecurePreferencesExportTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testKeysAndForEach(){
+        try(LogStructuredBackend mStorage = open("store.log")){
+            SecurePreferencesImpl mPreferences = new SecurePreferencesImpl.Builder(mStorage, "store-password").build();
+            mPreferences.putString("string", "value").putInt("int", 7).putBytes("bytes", new byte[]{1, 2, 3});
+            mPreferences.edit().putBoolean("boolean", true).putDouble("double", 1.5).remove("int").commit();
+
+            Assert.assertEquals(new HashSet<>(Arrays.asList("string", "bytes", "boolean", "double")), mPreferences.keys());
+
+            Map<String, Object> mValues = new HashMap<>();
+            mPreferences.forEach(mValues::put);
+            Assert.assertEquals(4, mValues.size());
+            Assert.assertEquals("value", mValues.get("string"));
+            Assert.assertEquals(Boolean.TRUE, mValues.get("boolean"));
+            Assert.assertEquals(1.5, (Double) mValues.get("double"), 0.0);
+            Assert.assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) mValues.get("bytes"));
+        }
+    }
+
+    @Test
+    public void testExportImport(){
+        Path mExport = mFolder.getRoot().toPath().resolve("export.bin");
+        try(LogStructuredBackend mStorage = open("old.log")){
+            SecurePreferencesImpl mPreferences = new SecurePreferencesImpl.Builder(mStorage, "old-password").build();
+            SecurePreferences.Editor mEditor = mPreferences.edit();
+            for(int i = 0; i < 5_000; i++){
+                mEditor.putLong("key-" + i, i);
+            }
+            mEditor.putString("name", "value").commit();
+            Assert.assertEquals(5_001, mPreferences.exportTo(mExport, "export-password"));
+        }
+
+        // Importing into a storage with another password rotates the password of the entries
+        try(LogStructuredBackend mStorage = open("new.log")){
+            SecurePreferencesImpl mPreferences = new SecurePreferencesImpl.Builder(mStorage, "new-password").build();
+            Assert.assertEquals(5_001, mPreferences.importFrom(mExport, "export-password"));
+            Set<String> mKeys = mPreferences.keys();
+            Assert.assertEquals(5_001, mKeys.size());
+            for(int i = 0; i < 5_000; i++){
+                Assert.assertEquals(i, (long) mPreferences.getLong("key-" + i).get());
+            }
+            Assert.assertEquals("value", mPreferences.getString("name").get());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidExportPassword(){
+        Path mExport = mFolder.getRoot().toPath().resolve("export.bin");
+        try(LogStructuredBackend mStorage = open("store.log")){
+            SecurePreferencesImpl mPreferences = new SecurePreferencesImpl.Builder(mStorage, "store-password").build();
+            mPreferences.putString("name", "value");
+            mPreferences.exportTo(mExport, "export-password");
+            mPreferences.importFrom(mExport, "wrong-password");
+        }
+    }
+
+    @Test
+    public void testTruncatedExport() throws IOException{
+        Path mExport = mFolder.getRoot().toPath().resolve("export.bin");
+        try(LogStructuredBackend mStorage = open("store.log")){
+            SecurePreferencesImpl mPreferences = new SecurePreferencesImpl.Builder(mStorage, "store-password").build();
+            mPreferences.putString("first", "1").putString("second", "2");
+            mPreferences.exportTo(mExport, "export-password");
+        }
+        try(RandomAccessFile mFile = new RandomAccessFile(mExport.toFile(), "rw")){
+            mFile.setLength(mFile.length() - 10);
+        }
+        try(LogStructuredBackend mStorage = open("other.log")){
+            SecurePreferencesImpl mPreferences = new SecurePreferencesImpl.Builder(mStorage, "store-password").build();
+            mPreferences.importFrom(mExport, "export-password");
+            Assert.fail("Truncated export was imported");
+        }catch(IllegalStateException e){
+            Assert.assertEquals("Export is truncated", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testDuplicatedRecord() throws IOException{
+        Path mExport = mFolder.getRoot().toPath().resolve("export.bin");
+        try(LogStructuredBackend mStorage = open("store.log")){
+            SecurePreferencesImpl mPreferences = new SecurePreferencesImpl.Builder(mStorage, "store-password").build();
+            mPreferences.putString("first", "1").putString("other", "2");
+            Assert.assertEquals(2, mPreferences.exportTo(mExport, "export-password"));
+        }
+
+        // Replacing the second record with a copy of the first, both have the same length
+        byte[] export = Files.readAllBytes(mExport);
+        ByteBuffer mBuffer = ByteBuffer.wrap(export);
+        mBuffer.position(5);
+        for(int field = 0; field < 2; field++){
+            int fieldLength = mBuffer.getInt();
+            mBuffer.position(mBuffer.position() + fieldLength);
+        }
+        int first = mBuffer.position();
+        int length = mBuffer.getInt();
+        Assert.assertEquals(length, mBuffer.getInt(first + 4 + length));
+        System.arraycopy(export, first, export, first + 4 + length, 4 + length);
+        Files.write(mExport, export);
+
+        try(LogStructuredBackend mStorage = open("other.log")){
+            SecurePreferencesImpl mPreferences = new SecurePreferencesImpl.Builder(mStorage, "store-password").build();
+            mPreferences.importFrom(mExport, "export-password");
+            Assert.fail("Duplicated record was imported");
+        }catch(IllegalStateException e){
+            // The record is bound to its index
+        }
+    }
+
+    @Test
+    public void testExportUnnamedEntries(){
+        Path mExport = mFolder.getRoot().toPath().resolve("export.bin");
+        try(LogStructuredBackend mStorage = open("legacy.log")){
+            String storageKey = Base64.getEncoder().encodeToString(HashSHA.hashUsingSHA256("legacy".getBytes(StandardCharsets.UTF_8)));
+            mStorage.put(storageKey, new CipherAES().encrypt("store-password".toCharArray(), "old-value".getBytes(StandardCharsets.UTF_8)));
+            SecurePreferencesImpl mPreferences = new SecurePreferencesImpl.Builder(mStorage, "store-password").build();
+            mPreferences.putString("name", "value");
+
+            // The legacy entry doesn't hold its key, exporting would drop it
+            try{
+                mPreferences.exportTo(mExport, "export-password");
+                Assert.fail("Export dropped an entry");
+            }catch(IllegalStateException e){
+                Assert.assertEquals("1 entries don't hold their preference key and can't be exported", e.getMessage());
+            }
+            Assert.assertFalse(Files.exists(mExport));
+
+            // Reading the entry by key stores the key with it
+            Assert.assertEquals("old-value", mPreferences.getString("legacy").get());
+            Assert.assertEquals(2, mPreferences.exportTo(mExport, "export-password"));
+        }
+    }
+
+    private LogStructuredBackend open(String name){
+        return new LogStructuredBackend.Builder(mFolder.getRoot().toPath().resolve(name)).build();
+    }
+}
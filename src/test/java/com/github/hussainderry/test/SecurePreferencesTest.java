@@ -1,11 +1,33 @@
 package com.github.hussainderry.test;
 
+import com.github.hussainderry.crypto.CipherAES;
+import com.github.hussainderry.crypto.CountingCryptoMetrics;
+import com.github.hussainderry.crypto.CryptoInstrumentation;
+import com.github.hussainderry.crypto.HashSHA;
+import com.github.hussainderry.crypto.enums.CryptoOperation;
+import com.github.hussainderry.storage.PreferencesBackend;
 import com.github.hussainderry.storage.SecurePreferences;
 import com.github.hussainderry.storage.SecurePreferencesImpl;
 
+import org.junit.AfterClass;
+import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
 /**
  * @author Hussain Al-Derry <hussain.derry@gmail.com>
  */
@@ -14,7 +36,8 @@ public class SecurePreferencesTest {
 	private static SecurePreferences mPreferences;
 
 	@BeforeClass
-	public static void init(){
+	public static void init() throws BackingStoreException{
+		Preferences.userRoot().node("test-node").removeNode();
 		mPreferences = new SecurePreferencesImpl("test-node", "test-password");
 	}
 
@@ -38,4 +61,306 @@ public class SecurePreferencesTest {
 		assert mPreferences.getBoolean("bool").get();
 	}
 
+	@Test
+	public void testReopen(){
+		mPreferences.putLong("long", 42L);
+		SecurePreferences mReopened = new SecurePreferencesImpl("test-node", "test-password");
+		assert 42L == mReopened.getLong("long").get();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testInvalidPassword(){
+		new SecurePreferencesImpl("test-node", "wrong-password");
+	}
+
+	@Test
+	public void testLegacyMigration(){
+		Preferences mNode = Preferences.userRoot().node("test-legacy-node");
+		String storageKey = hash("legacy");
+		byte[] legacy = new CipherAES().encrypt("test-password".toCharArray(), "old-value".getBytes(StandardCharsets.UTF_8));
+		mNode.put(storageKey, Base64.getEncoder().encodeToString(legacy));
+
+		SecurePreferencesImpl mMigrated = new SecurePreferencesImpl("test-legacy-node", "test-password");
+		Assert.assertEquals(1, mMigrated.migrateLegacyEntries());
+		Assert.assertEquals(0, mMigrated.migrateLegacyEntries());
+		Assert.assertEquals(3, Base64.getDecoder().decode(mNode.get(storageKey, null))[0]);
+		Assert.assertFalse(mMigrated.keys().contains("legacy"));
+
+		// The key is stored with the entry once it is known
+		Assert.assertEquals("old-value", mMigrated.getString("legacy").get());
+		Assert.assertEquals(0x13, Base64.getDecoder().decode(mNode.get(storageKey, null))[0]);
+		Assert.assertTrue(mMigrated.keys().contains("legacy"));
+
+		// Values written as text are parsed when read as another type
+		byte[] legacyNumber = new CipherAES().encrypt("test-password".toCharArray(), "42".getBytes(StandardCharsets.UTF_8));
+		mNode.put(hash("legacy-number"), Base64.getEncoder().encodeToString(legacyNumber));
+		assert 42 == mMigrated.getInt("legacy-number").get();
+		assert 42L == mMigrated.getLong("legacy-number").get();
+	}
+
+	@Test
+	public void testBytes() throws IOException, BackingStoreException{
+		byte[] small = {0, 1, 2, (byte) 0xFF};
+		mPreferences.putBytes("bytes", small);
+		Assert.assertArrayEquals(small, mPreferences.getBytes("bytes").get());
+
+		// Larger than the Preferences value limit, stored in chunks
+		byte[] large = new byte[100_000];
+		new Random().nextBytes(large);
+		mPreferences.putStream("blob", new ByteArrayInputStream(large));
+		Assert.assertArrayEquals(large, mPreferences.getBytes("blob").get());
+		try(InputStream mStream = mPreferences.getStream("blob").get()){
+			ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while((read = mStream.read(buffer)) != -1){
+				mOutput.write(buffer, 0, read);
+			}
+			Assert.assertArrayEquals(large, mOutput.toByteArray());
+		}
+
+		mPreferences.putBytes("blob", small);
+		Assert.assertArrayEquals(small, mPreferences.getBytes("blob").get());
+		for(String key : Preferences.userRoot().node("test-node").keys()){
+			Assert.assertFalse(key.contains("#"));
+		}
+	}
+
+	@Test
+	public void testChunkGenerations() throws BackingStoreException{
+		Preferences.userRoot().node("test-chunks-node").removeNode();
+		Preferences mNode = Preferences.userRoot().node("test-chunks-node");
+		PreferencesBackend mBackend = new PreferencesBackend(mNode);
+		byte[] first = new byte[20_000];
+		byte[] second = new byte[30_000];
+		new Random().nextBytes(first);
+		new Random().nextBytes(second);
+
+		// Every value is written under the next generation, the previous chunks are removed once it's switched to
+		mBackend.put("blob", first);
+		Assert.assertArrayEquals(first, mBackend.get("blob"));
+		Assert.assertTrue(mNode.get("blob", null).endsWith(".1"));
+		mBackend.put("blob", second);
+		Assert.assertArrayEquals(second, mBackend.get("blob"));
+		Assert.assertTrue(mNode.get("blob", null).endsWith(".2"));
+		for(String key : mNode.keys()){
+			Assert.assertTrue(key.equals("blob") || key.startsWith("blob#2."));
+		}
+
+		mBackend.remove("blob");
+		Assert.assertEquals(0, mNode.keys().length);
+	}
+
+	@Test
+	public void testTypedValues(){
+		mPreferences.putDouble("double", 0.1).putLong("long-max", Long.MAX_VALUE).putString("empty", "");
+		Assert.assertEquals(0.1, mPreferences.getDouble("double").get(), 0.0);
+		assert Long.MAX_VALUE == mPreferences.getLong("long-max").get();
+		Assert.assertEquals("", mPreferences.getString("empty").get());
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testTypeMismatch(){
+		mPreferences.putInt("typed", 5);
+		mPreferences.getString("typed");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testEntriesBoundToKey() throws BackingStoreException{
+		Preferences mNode = Preferences.userRoot().node("test-node");
+		String first = storageKeyOf(mNode, () -> mPreferences.putString("bound-first", "1"));
+		String second = storageKeyOf(mNode, () -> mPreferences.putString("bound-second", "2"));
+		mNode.put(second, mNode.get(first, null));
+		mPreferences.getString("bound-second");
+	}
+
+	@Test
+	public void testLazyUnlock(){
+		CountingCryptoMetrics mMetrics = new CountingCryptoMetrics();
+		CryptoInstrumentation.setMetrics(mMetrics);
+		try{
+			SecurePreferencesImpl mWrong = new SecurePreferencesImpl.Builder("test-node", "wrong-password").lazy(true).build();
+			try{
+				mWrong.warmUp();
+				Assert.fail("Wrong password was accepted");
+			}catch(IllegalStateException e){
+				Assert.assertEquals("Invalid password", e.getMessage());
+			}
+
+			mPreferences.putString("lazy", "value");
+			mMetrics.reset();
+			SecurePreferencesImpl mLazy = new SecurePreferencesImpl.Builder("test-node", "test-password").lazy(true).build();
+			Assert.assertEquals(0, mMetrics.getKeyDerivations());
+			Assert.assertEquals("value", mLazy.getString("lazy").get());
+			mLazy.warmUp();
+			Assert.assertEquals(1, mMetrics.getKeyDerivations());
+		}finally{
+			CryptoInstrumentation.disable();
+		}
+	}
+
+	@Test
+	public void testKeyedHashing() throws BackingStoreException{
+		Preferences mNode = Preferences.userRoot().node("test-node");
+		String storageKey = storageKeyOf(mNode, () -> mPreferences.putString("keyed", "value"));
+		Assert.assertNotEquals(hash("keyed"), storageKey);
+
+		// Storages created without keyed hashing keep using SHA-256
+		SecurePreferences mUnkeyed = new SecurePreferencesImpl.Builder("test-unkeyed-node", "test-password")
+				.keyedHashing(false).build();
+		mUnkeyed.putString("unkeyed", "value");
+		Assert.assertNotNull(Preferences.userRoot().node("test-unkeyed-node").get(hash("unkeyed"), null));
+		SecurePreferences mReopened = new SecurePreferencesImpl("test-unkeyed-node", "test-password");
+		Assert.assertEquals("value", mReopened.getString("unkeyed").get());
+	}
+
+	@Test
+	public void testCache(){
+		SecurePreferencesImpl mCached = new SecurePreferencesImpl.Builder("test-node", "test-password")
+				.cache(1, 1, TimeUnit.MINUTES).build();
+		CountingCryptoMetrics mMetrics = new CountingCryptoMetrics();
+		CryptoInstrumentation.setMetrics(mMetrics);
+		try{
+			mCached.putString("cached", "first").putString("other", "value");
+			Assert.assertEquals("first", mCached.getString("cached").get());
+			Assert.assertEquals("first", mCached.getString("cached").get());
+			Assert.assertEquals(1, mMetrics.getCount(CryptoOperation.DECRYPT));
+
+			// Writes invalidate the cached value
+			mCached.putString("cached", "second");
+			Assert.assertEquals("second", mCached.getString("cached").get());
+			Assert.assertEquals(2, mMetrics.getCount(CryptoOperation.DECRYPT));
+
+			// Only one value fits, reading another key evicts it
+			mCached.getString("other");
+			mCached.getString("cached");
+			Assert.assertEquals(4, mMetrics.getCount(CryptoOperation.DECRYPT));
+
+			mCached.clearCache();
+			mCached.getString("cached");
+			Assert.assertEquals(5, mMetrics.getCount(CryptoOperation.DECRYPT));
+		}finally{
+			CryptoInstrumentation.disable();
+		}
+	}
+
+	@Test
+	public void testCacheExpiry() throws InterruptedException{
+		SecurePreferencesImpl mCached = new SecurePreferencesImpl.Builder("test-node", "test-password")
+				.cache(16, 10, TimeUnit.MILLISECONDS).build();
+		CountingCryptoMetrics mMetrics = new CountingCryptoMetrics();
+		mCached.putInt("expiring", 7);
+		CryptoInstrumentation.setMetrics(mMetrics);
+		try{
+			assert 7 == mCached.getInt("expiring").get();
+			Thread.sleep(20);
+			assert 7 == mCached.getInt("expiring").get();
+			Assert.assertEquals(2, mMetrics.getCount(CryptoOperation.DECRYPT));
+		}finally{
+			CryptoInstrumentation.disable();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidCacheSize(){
+		new SecurePreferencesImpl.Builder("test-node", "test-password").cache(0, 1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testEditor(){
+		SecurePreferences.Editor mEditor = mPreferences.edit();
+		for(int i = 0; i < 150; i++){
+			mEditor.putInt("batch-" + i, i);
+		}
+		mEditor.putString("batch-removed", "value").remove("batch-removed");
+		mEditor.commit();
+
+		assert 149 == mPreferences.getInt("batch-149").get();
+		assert 0 == mPreferences.getInt("batch-0").get();
+		assert !mPreferences.getString("batch-removed").isPresent();
+
+		mPreferences.edit().remove("batch-0").putBoolean("batch-bool", true).apply().join();
+		assert !mPreferences.getInt("batch-0").isPresent();
+		assert mPreferences.getBoolean("batch-bool").get();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testEditorSingleUse(){
+		SecurePreferences.Editor mEditor = mPreferences.edit().putString("single", "use");
+		mEditor.commit();
+		mEditor.putString("single", "again");
+	}
+
+	@Test
+	public void testLegacyWrongPassword() throws BackingStoreException{
+		Preferences.userRoot().node("test-legacy-lock-node").removeNode();
+		Preferences mNode = Preferences.userRoot().node("test-legacy-lock-node");
+		byte[] legacy = new CipherAES().encrypt("test-password".toCharArray(), "old-value".getBytes(StandardCharsets.UTF_8));
+		mNode.put(hash("legacy"), Base64.getEncoder().encodeToString(legacy));
+		mNode.flush();
+
+		try{
+			new SecurePreferencesImpl("test-legacy-lock-node", "typo-password");
+			Assert.fail("Wrong password was accepted");
+		}catch(IllegalStateException e){
+			Assert.assertEquals("Invalid password", e.getMessage());
+		}
+		// The wrong password didn't create a master key
+		Assert.assertEquals(1, mNode.keys().length);
+
+		SecurePreferencesImpl mMigrated = new SecurePreferencesImpl("test-legacy-lock-node", "test-password");
+		Assert.assertEquals("old-value", mMigrated.getString("legacy").get());
+	}
+
+	@Test
+	public void testChangePassword() throws BackingStoreException{
+		Preferences mNode = Preferences.userRoot().node("test-rotation-node");
+		mNode.removeNode();
+		SecurePreferencesImpl mStorage = new SecurePreferencesImpl("test-rotation-node", "old-password");
+		mStorage.putString("string", "value");
+		mNode = Preferences.userRoot().node("test-rotation-node");
+		byte[] legacy = new CipherAES().encrypt("old-password".toCharArray(), "old-value".getBytes(StandardCharsets.UTF_8));
+		mNode.put(storageKeyOf(mNode, () -> mStorage.putString("legacy", "")), Base64.getEncoder().encodeToString(legacy));
+		Set<String> entries = new HashSet<>(Arrays.asList(mNode.keys()));
+
+		mStorage.changePassword("new-password");
+
+		// Only the master key is rewrapped, the entries keep their encryption apart from migrated legacy ones
+		Assert.assertEquals("value", mStorage.getString("string").get());
+		Assert.assertEquals(entries, new HashSet<>(Arrays.asList(mNode.keys())));
+		SecurePreferencesImpl mReopened = new SecurePreferencesImpl("test-rotation-node", "new-password");
+		Assert.assertEquals("value", mReopened.getString("string").get());
+		Assert.assertEquals("old-value", mReopened.getString("legacy").get());
+		try{
+			new SecurePreferencesImpl("test-rotation-node", "old-password");
+			Assert.fail("Old password was accepted");
+		}catch(IllegalStateException e){
+			Assert.assertEquals("Invalid password", e.getMessage());
+		}
+	}
+
+	@AfterClass
+	public static void cleanUp() throws BackingStoreException{
+		Preferences.userRoot().node("test-legacy-node").removeNode();
+		Preferences.userRoot().node("test-unkeyed-node").removeNode();
+		Preferences.userRoot().node("test-rotation-node").removeNode();
+		Preferences.userRoot().node("test-legacy-lock-node").removeNode();
+		Preferences.userRoot().node("test-chunks-node").removeNode();
+	}
+
+	private static String storageKeyOf(Preferences mNode, Runnable mWrite) throws BackingStoreException{
+		Set<String> mKeys = new HashSet<>(Arrays.asList(mNode.keys()));
+		mWrite.run();
+		for(String key : mNode.keys()){
+			if(!mKeys.contains(key)){
+				return key;
+			}
+		}
+		throw new IllegalStateException("No entry was added");
+	}
+
+	private static String hash(String key){
+		return Base64.getEncoder().encodeToString(HashSHA.hashUsingSHA256(key.getBytes(StandardCharsets.UTF_8)));
+	}
+
 }
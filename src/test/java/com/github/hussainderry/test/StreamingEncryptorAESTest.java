@@ -0,0 +1,217 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.StreamingDecryptorAES;
+import com.github.hussainderry.crypto.StreamingEncryptorAES;
+import com.github.hussainderry.crypto.enums.Iterations;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.reactivestreams.Processor;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class StreamingEncryptorAESTest {
+
+    private static final String PASSWORD = "streaming!@#";
+
+    private static StreamingEncryptorAES mEncryptor;
+
+    @BeforeClass
+    public static void setUp(){
+        mEncryptor = new StreamingEncryptorAES.Builder(PASSWORD)
+                .iterations(Iterations.LOW)
+                .segmentSize(1024)
+                .build();
+    }
+
+    @Test
+    public void testRoundTrip(){
+        byte[] data = randomBytes(10_000);
+        List<ByteBuffer> encrypted = encrypt(chunk(data, 333));
+        Assert.assertTrue(encrypted.size() > 10);
+
+        CollectingSubscriber mResult = run(new StreamingDecryptorAES(PASSWORD).newDecryptProcessor(), chunk(concat(encrypted), 100));
+        Assert.assertNull(mResult.mError);
+        Assert.assertArrayEquals(data, concat(mResult.mChunks));
+    }
+
+    @Test
+    public void testEmptyStream(){
+        List<ByteBuffer> encrypted = encrypt(new ArrayList<>());
+        CollectingSubscriber mResult = run(new StreamingDecryptorAES(PASSWORD).newDecryptProcessor(), encrypted);
+        Assert.assertNull(mResult.mError);
+        Assert.assertEquals(0, concat(mResult.mChunks).length);
+    }
+
+    @Test
+    public void testSegmentBoundary(){
+        byte[] data = randomBytes(2048);
+        List<ByteBuffer> encrypted = encrypt(chunk(data, 1024));
+        CollectingSubscriber mResult = run(new StreamingDecryptorAES(PASSWORD).newDecryptProcessor(), encrypted);
+        Assert.assertArrayEquals(data, concat(mResult.mChunks));
+    }
+
+    @Test
+    public void testTamperedAndTruncated(){
+        byte[] encrypted = concat(encrypt(chunk(randomBytes(5000), 700)));
+
+        byte[] tampered = encrypted.clone();
+        tampered[tampered.length - 100] ^= 1;
+        Assert.assertNotNull(run(new StreamingDecryptorAES(PASSWORD).newDecryptProcessor(), chunk(tampered, 512)).mError);
+
+        byte[] truncated = new byte[encrypted.length - 500];
+        System.arraycopy(encrypted, 0, truncated, 0, truncated.length);
+        Assert.assertNotNull(run(new StreamingDecryptorAES(PASSWORD).newDecryptProcessor(), chunk(truncated, 512)).mError);
+
+        CollectingSubscriber mWrongPassword = run(new StreamingDecryptorAES("wrong").newDecryptProcessor(), chunk(encrypted, 512));
+        Assert.assertTrue(mWrongPassword.mError instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testBackpressure(){
+        ListPublisher mSource = new ListPublisher(chunk(randomBytes(50_000), 1000));
+        Processor<ByteBuffer, ByteBuffer> mProcessor = mEncryptor.newEncryptProcessor();
+        CollectingSubscriber mSubscriber = new CollectingSubscriber(0);
+        mSource.subscribe(mProcessor);
+        mProcessor.subscribe(mSubscriber);
+
+        mSubscriber.mSubscription.request(2);
+        Assert.assertEquals(2, mSubscriber.mChunks.size());
+        Assert.assertTrue(mSource.index < 5);
+
+        mSubscriber.mSubscription.cancel();
+        Assert.assertTrue(mSource.cancelled);
+    }
+
+    private static List<ByteBuffer> encrypt(List<ByteBuffer> chunks){
+        CollectingSubscriber mResult = run(mEncryptor.newEncryptProcessor(), chunks);
+        Assert.assertNull(mResult.mError);
+        return mResult.mChunks;
+    }
+
+    private static CollectingSubscriber run(Processor<ByteBuffer, ByteBuffer> mProcessor, List<ByteBuffer> chunks){
+        CollectingSubscriber mSubscriber = new CollectingSubscriber(1);
+        mProcessor.subscribe(mSubscriber);
+        new ListPublisher(chunks).subscribe(mProcessor);
+        Assert.assertTrue(mSubscriber.done);
+        return mSubscriber;
+    }
+
+    private static byte[] randomBytes(int size){
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static List<ByteBuffer> chunk(byte[] data, int size){
+        List<ByteBuffer> chunks = new ArrayList<>();
+        for(int i = 0; i < data.length; i += size){
+            chunks.add(ByteBuffer.wrap(data, i, Math.min(size, data.length - i)));
+        }
+        return chunks;
+    }
+
+    private static byte[] concat(List<ByteBuffer> chunks){
+        ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+        for(ByteBuffer mChunk : chunks){
+            ByteBuffer mCopy = mChunk.duplicate();
+            byte[] bytes = new byte[mCopy.remaining()];
+            mCopy.get(bytes);
+            mOutput.write(bytes, 0, bytes.length);
+        }
+        return mOutput.toByteArray();
+    }
+
+    /**
+     * Synchronous publisher emitting the given chunks on request
+     */
+    private static final class ListPublisher implements Publisher<ByteBuffer>, Subscription {
+
+        private final List<ByteBuffer> chunks;
+        private Subscriber<? super ByteBuffer> mSubscriber;
+        private long demand;
+        private boolean emitting;
+        private int index;
+        private boolean cancelled;
+
+        private ListPublisher(List<ByteBuffer> chunks){
+            this.chunks = chunks;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super ByteBuffer> mSubscriber){
+            this.mSubscriber = mSubscriber;
+            mSubscriber.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n){
+            demand += n;
+            if(emitting){
+                return;
+            }
+            emitting = true;
+            while(demand > 0 && index < chunks.size() && !cancelled){
+                demand--;
+                mSubscriber.onNext(chunks.get(index++));
+            }
+            if(index == chunks.size() && !cancelled){
+                index++;
+                mSubscriber.onComplete();
+            }
+            emitting = false;
+        }
+
+        @Override
+        public void cancel(){
+            cancelled = true;
+        }
+    }
+
+    private static final class CollectingSubscriber implements Subscriber<ByteBuffer> {
+
+        private final int batch;
+        private final List<ByteBuffer> mChunks = new ArrayList<>();
+        private Subscription mSubscription;
+        private Throwable mError;
+        private boolean done;
+
+        private CollectingSubscriber(int batch){
+            this.batch = batch;
+        }
+
+        @Override
+        public void onSubscribe(Subscription mSubscription){
+            this.mSubscription = mSubscription;
+            if(batch > 0){
+                mSubscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onNext(ByteBuffer mChunk){
+            mChunks.add(mChunk);
+            if(batch > 0){
+                mSubscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onError(Throwable mThrowable){
+            mError = mThrowable;
+            done = true;
+        }
+
+        @Override
+        public void onComplete(){
+            done = true;
+        }
+    }
+}
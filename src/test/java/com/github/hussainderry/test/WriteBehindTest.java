@@ -0,0 +1,93 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.storage.LogStructuredBackend;
+import com.github.hussainderry.storage.SecurePreferencesImpl;
+import com.github.hussainderry.storage.StorageBackend;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+public class WriteBehindTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testCoalescing(){
+        Path mPath = mFolder.getRoot().toPath().resolve("counters.log");
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            SecurePreferencesImpl mPreferences = new SecurePreferencesImpl.Builder(mStorage, "password")
+                    .writeBehind(1, TimeUnit.HOURS, 10_000).build();
+            for(int i = 0; i < 1_000; i++){
+                mPreferences.putInt("counter", i);
+            }
+            mPreferences.edit().putString("name", "value").remove("missing").commit();
+            mPreferences.putString("pending", "value");
+            mPreferences.edit().remove("pending").apply();
+
+            // Reads see the pending values, the storage only holds what was flushed by commit()
+            Assert.assertEquals(999, (int) mPreferences.getInt("counter").get());
+            Assert.assertFalse(mPreferences.getString("pending").isPresent());
+            Assert.assertEquals(2, entries(mStorage));
+
+            mPreferences.close();
+            Assert.assertEquals(2, entries(mStorage));
+        }
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mPath).build()){
+            SecurePreferencesImpl mPreferences = new SecurePreferencesImpl.Builder(mStorage, "password").build();
+            Assert.assertEquals(999, (int) mPreferences.getInt("counter").get());
+            Assert.assertEquals("value", mPreferences.getString("name").get());
+        }
+    }
+
+    @Test
+    public void testFlushTriggers() throws InterruptedException{
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mFolder.getRoot().toPath().resolve("s.log")).build()){
+            SecurePreferencesImpl mBySize = new SecurePreferencesImpl.Builder(mStorage, "password")
+                    .writeBehind(1, TimeUnit.HOURS, 10).build();
+            for(int i = 0; i < 10; i++){
+                mBySize.putLong("size-" + i, i);
+            }
+            awaitEntries(mStorage, 10);
+
+            SecurePreferencesImpl mByInterval = new SecurePreferencesImpl.Builder(mStorage, "password")
+                    .writeBehind(20, TimeUnit.MILLISECONDS, 1_000).build();
+            mByInterval.putBoolean("interval", true);
+            awaitEntries(mStorage, 11);
+            mByInterval.close();
+            mBySize.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWriteAfterClose(){
+        try(LogStructuredBackend mStorage = new LogStructuredBackend.Builder(mFolder.getRoot().toPath().resolve("c.log")).build()){
+            SecurePreferencesImpl mPreferences = new SecurePreferencesImpl.Builder(mStorage, "password")
+                    .writeBehind(1, TimeUnit.SECONDS, 100).build();
+            mPreferences.close();
+            mPreferences.putInt("closed", 1);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidInterval(){
+        new SecurePreferencesImpl.Builder("test-node", "password").writeBehind(0, TimeUnit.SECONDS, 100);
+    }
+
+    private static long entries(StorageBackend mStorage){
+        return mStorage.keys().stream().filter(key -> !key.startsWith("$meta.")).count();
+    }
+
+    private static void awaitEntries(StorageBackend mStorage, long expected) throws InterruptedException{
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while(entries(mStorage) < expected){
+            Assert.assertTrue("Pending values were not written", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(expected, entries(mStorage));
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.hussainderry.test;
+
+import com.github.hussainderry.crypto.CipherAES;
+import com.github.hussainderry.crypto.CountingCryptoMetrics;
+import com.github.hussainderry.crypto.CryptoInstrumentation;
+import com.github.hussainderry.crypto.JfrCryptoMetrics;
+import com.github.hussainderry.crypto.enums.CryptoOperation;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class JfrCryptoMetricsTest {
+
+    private static final char[] PASSWORD = "jfr-pa$$word".toCharArray();
+
+    @After
+    public void tearDown(){
+        CryptoInstrumentation.disable();
+    }
+
+    @Test
+    public void testEventsRecorded() throws IOException{
+        CountingCryptoMetrics mCounting = new CountingCryptoMetrics();
+        CryptoInstrumentation.setMetrics(new JfrCryptoMetrics(mCounting));
+
+        Path mFile = Files.createTempFile("crypto", ".jfr");
+        try(Recording mRecording = new Recording()){
+            mRecording.enable("com.github.hussainderry.crypto.KeyDerivation");
+            mRecording.enable("com.github.hussainderry.crypto.Operation");
+            mRecording.enable("com.github.hussainderry.crypto.Failure");
+            mRecording.start();
+
+            CipherAES mCipher = new CipherAES();
+            byte[] data = "recorded".getBytes(StandardCharsets.UTF_8);
+            byte[] encrypted = mCipher.encrypt(PASSWORD, data);
+            try{
+                mCipher.decrypt("wrong".toCharArray(), encrypted);
+                Assert.fail();
+            }catch(IllegalStateException ignored){
+            }
+
+            mRecording.stop();
+            mRecording.dump(mFile);
+
+            Map<String, Integer> mCounts = new HashMap<>();
+            List<RecordedEvent> mEvents = RecordingFile.readAllEvents(mFile);
+            for(RecordedEvent mEvent : mEvents){
+                mCounts.merge(mEvent.getEventType().getName(), 1, Integer::sum);
+                if(mEvent.getEventType().getName().endsWith("Operation")){
+                    Assert.assertEquals("ENCRYPT", mEvent.getString("operation"));
+                    Assert.assertEquals(data.length, mEvent.getLong("bytes"));
+                }
+            }
+            Assert.assertEquals(Integer.valueOf(2), mCounts.get("com.github.hussainderry.crypto.KeyDerivation"));
+            Assert.assertEquals(Integer.valueOf(1), mCounts.get("com.github.hussainderry.crypto.Operation"));
+            Assert.assertEquals(Integer.valueOf(1), mCounts.get("com.github.hussainderry.crypto.Failure"));
+            Assert.assertEquals(1, mCounting.getCount(CryptoOperation.ENCRYPT));
+        }finally{
+            Files.deleteIfExists(mFile);
+        }
+    }
+}